@@ -10,8 +10,6 @@ import androidx.annotation.Nullable;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.MutableLiveData;
 
-import java.util.ArrayList;
-
 /** Holds the shared app state, which is persisted. */
 public class AppState extends AndroidViewModel {
     private static final String SHARED_PREFERENCES_NAME = "main-prefs";
@@ -30,9 +28,9 @@ public class AppState extends AndroidViewModel {
             LogUtil.d("AppState: %s = %s", ACTIVE_FRAGMENT_ID_KEY, value.name());
         }
     };
-    private MutableLiveData<ImmutableList<Pos>> rectPuzzlePiecePositions = new MutableLiveData<ImmutableList<Pos>>() {
+    private MutableLiveData<PosList> rectPuzzlePiecePositions = new MutableLiveData<PosList>() {
         @Override
-        public void setValue(ImmutableList<Pos> value) {
+        public void setValue(PosList value) {
             if (!RectPuzzle.validate(value)) {
                 throw new IllegalArgumentException();
             }
@@ -40,9 +38,9 @@ public class AppState extends AndroidViewModel {
             LogUtil.d("AppState: %s = %s", RECT_PIECES_KEY, RectPuzzle.encode(value));
         }
     };
-    private MutableLiveData<ImmutableList<Pos>> hexPuzzlePiecePositions = new MutableLiveData<ImmutableList<Pos>>() {
+    private MutableLiveData<PosList> hexPuzzlePiecePositions = new MutableLiveData<PosList>() {
         @Override
-        public void setValue(ImmutableList<Pos> value) {
+        public void setValue(PosList value) {
             if (!HexPuzzle.validate(value)) {
                 throw new IllegalArgumentException();
             }
@@ -52,6 +50,24 @@ public class AppState extends AndroidViewModel {
     };
     private MutableLiveData<ErrorVisibility> errorVisibility = new MutableLiveData<ErrorVisibility>();
 
+    // The most recent hint (see HintController), or null once it has been shown. Not persisted.
+    private MutableLiveData<HintController.Hint> hint = new MutableLiveData<HintController.Hint>();
+
+    // The most recent hint with a solution, which is shown on the board of its puzzle until that
+    // board changes, or null. Not persisted.
+    private MutableLiveData<HintController.Hint> shownHint = new MutableLiveData<HintController.Hint>();
+
+    // The most recent dead-end check of each puzzle (see DeadEndController). Not persisted.
+    private MutableLiveData<DeadEndController.Report> rectPuzzleDeadEnds =
+            new MutableLiveData<DeadEndController.Report>();
+    private MutableLiveData<DeadEndController.Report> hexPuzzleDeadEnds =
+            new MutableLiveData<DeadEndController.Report>();
+
+    // The most recent check that found a new dead end, or null once it has been shown. Not
+    // persisted.
+    private MutableLiveData<DeadEndController.Report> deadEndWarning =
+            new MutableLiveData<DeadEndController.Report>();
+
     private static SharedPreferences getSharedPreferences(Context context) {
         return context.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
     }
@@ -71,11 +87,11 @@ public class AppState extends AndroidViewModel {
         return activeFragmentId;
     }
 
-    public MutableLiveData<ImmutableList<Pos>> getRectPuzzlePiecePositions() {
+    public MutableLiveData<PosList> getRectPuzzlePiecePositions() {
         return rectPuzzlePiecePositions;
     }
 
-    public MutableLiveData<ImmutableList<Pos>> getHexPuzzlePiecePositions() {
+    public MutableLiveData<PosList> getHexPuzzlePiecePositions() {
         return hexPuzzlePiecePositions;
     }
 
@@ -83,6 +99,26 @@ public class AppState extends AndroidViewModel {
         return errorVisibility;
     }
 
+    public MutableLiveData<HintController.Hint> getHint() {
+        return hint;
+    }
+
+    public MutableLiveData<HintController.Hint> getShownHint() {
+        return shownHint;
+    }
+
+    public MutableLiveData<DeadEndController.Report> getRectPuzzleDeadEnds() {
+        return rectPuzzleDeadEnds;
+    }
+
+    public MutableLiveData<DeadEndController.Report> getHexPuzzleDeadEnds() {
+        return hexPuzzleDeadEnds;
+    }
+
+    public MutableLiveData<DeadEndController.Report> getDeadEndWarning() {
+        return deadEndWarning;
+    }
+
     @MainThread
     public void saveToSharedPreferences() {
         LogUtil.i("AppState: saving to shared preferences");
@@ -125,11 +161,11 @@ public class AppState extends AndroidViewModel {
     private void fillInMissingFields() {
         if (rectPuzzlePiecePositions.getValue() == null) {
             LogUtil.i("AppState: randomly initializing %s", RECT_PIECES_KEY);
-            rectPuzzlePiecePositions.setValue(ImmutableList.copyOf(RectPuzzle.getRandomPiecePositions()));
+            rectPuzzlePiecePositions.setValue(PosList.copyOf(RectPuzzle.getRandomPiecePositions()));
         }
         if (hexPuzzlePiecePositions.getValue() == null) {
             LogUtil.i("AppState: randomly initializing %s", HEX_PIECES_KEY);
-            hexPuzzlePiecePositions.setValue(ImmutableList.copyOf(HexPuzzle.getRandomPiecePositions()));
+            hexPuzzlePiecePositions.setValue(PosList.copyOf(HexPuzzle.getRandomPiecePositions()));
         }
         if (activeFragmentId.getValue() == null) {
             LogUtil.i("AppState: initializing %s", ACTIVE_FRAGMENT_ID_KEY);
@@ -153,11 +189,11 @@ public class AppState extends AndroidViewModel {
         if (encoded == null) {
             return false;
         }
-        ArrayList<Pos> newValue = RectPuzzle.decode(encoded);
+        PosList newValue = RectPuzzle.decode(encoded);
         if (newValue == null) {
             return false;
         }
-        rectPuzzlePiecePositions.setValue(ImmutableList.copyOf(newValue));
+        rectPuzzlePiecePositions.setValue(newValue);
         return true;
     }
 
@@ -173,11 +209,11 @@ public class AppState extends AndroidViewModel {
         if (encoded == null) {
             return false;
         }
-        ArrayList<Pos> newValue = HexPuzzle.decode(encoded);
+        PosList newValue = HexPuzzle.decode(encoded);
         if (newValue == null) {
             return false;
         }
-        hexPuzzlePiecePositions.setValue(ImmutableList.copyOf(newValue));
+        hexPuzzlePiecePositions.setValue(newValue);
         return true;
     }
 
@@ -31,8 +31,8 @@ class AutoSaver implements LifecycleObserver, Runnable {
     private final Handler handler = new Handler(Looper.getMainLooper());
     private long earliestUnsavedChangeUpTimeMillis = 0;
     private @Nullable FragmentId activeFragmentId;
-    private @Nullable ImmutableList<Pos> rectPuzzlePiecePositions;
-    private @Nullable ImmutableList<Pos> hexPuzzlePiecePositions;
+    private @Nullable PosList rectPuzzlePiecePositions;
+    private @Nullable PosList hexPuzzlePiecePositions;
     private @Nullable ErrorVisibility errorVisibility;
 
     public static void attach(AppState appState, LifecycleOwner lifecycleOwner) {
@@ -54,10 +54,10 @@ class AutoSaver implements LifecycleObserver, Runnable {
                     }
                 });
         appState.getRectPuzzlePiecePositions().observe(lifecycleOwner,
-                new Observer<ImmutableList<Pos>>() {
+                new Observer<PosList>() {
                     @Override
-                    public void onChanged(ImmutableList<Pos> newValue) {
-                        ImmutableList<Pos> oldValue = rectPuzzlePiecePositions;
+                    public void onChanged(PosList newValue) {
+                        PosList oldValue = rectPuzzlePiecePositions;
                         rectPuzzlePiecePositions = newValue;
                         if (oldValue != null && !oldValue.equals(newValue)) {
                             changed();
@@ -65,10 +65,10 @@ class AutoSaver implements LifecycleObserver, Runnable {
                     }
                 });
         appState.getHexPuzzlePiecePositions().observe(lifecycleOwner,
-                new Observer<ImmutableList<Pos>>() {
+                new Observer<PosList>() {
                     @Override
-                    public void onChanged(ImmutableList<Pos> newValue) {
-                        ImmutableList<Pos> oldValue = hexPuzzlePiecePositions;
+                    public void onChanged(PosList newValue) {
+                        PosList oldValue = hexPuzzlePiecePositions;
                         hexPuzzlePiecePositions = newValue;
                         if (oldValue != null && !oldValue.equals(newValue)) {
                             changed();
@@ -0,0 +1,120 @@
+package ch.verver.conhexion;
+
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Finds solutions with a depth-first search over a {@link SearchBoard}.
+ *
+ * <p>The piece with paths in all directions is placed first, at a fixed cell, which eliminates
+ * translated copies of the same solution. After that, the search repeatedly fills the most
+ * constrained demanded cell (the one with the fewest fitting pieces) with each of its candidates
+ * in turn, and backtracks as soon as some cell has no candidates left, a forbidden cell is
+ * demanded, or more cells are demanded than there are pieces left.
+ *
+ * <p>The search stops when a visitor asks it to, or when the stop flag is set, e.g. by
+ * {@link #cancel} from another thread. Solvers that share a stop flag stop together. A stopped
+ * solver stays stopped, so a new solver is needed for the next search.
+ */
+final class BacktrackingSolver {
+
+    /** Receives the solutions found by {@link #search} and {@link #complete}. */
+    interface Visitor {
+        /**
+         * Called with the packed positions of a solution, indexed by piece. The array is reused
+         * between calls. Returns whether to continue searching.
+         */
+        boolean visit(int[] packedPositions);
+    }
+
+    private final SearchBoard board;
+    private final int[] positions;
+    private final AtomicBoolean stopped;
+
+    BacktrackingSolver(GridTopology<?> topology) {
+        this(topology, new AtomicBoolean());
+    }
+
+    BacktrackingSolver(GridTopology<?> topology, AtomicBoolean stopped) {
+        this.board = new SearchBoard(topology);
+        this.positions = new int[topology.getPieceCount()];
+        this.stopped = stopped;
+    }
+
+    /** Returns the board, which callers may change between searches. */
+    SearchBoard getBoard() {
+        return board;
+    }
+
+    /** Stops the current search (and any later one) as soon as possible. Thread-safe. */
+    void cancel() {
+        stopped.set(true);
+    }
+
+    /** Returns whether the search was stopped by a visitor or cancelled. */
+    boolean isStopped() {
+        return stopped.get();
+    }
+
+    /** Returns the positions of the first solution found, or null if there is none. */
+    @Nullable
+    PosList solve() {
+        PosList[] result = new PosList[1];
+        search(packedPositions -> {
+            result[0] = PosList.fromPacked(packedPositions, packedPositions.length);
+            return false;
+        });
+        return result[0];
+    }
+
+    /**
+     * Passes solutions to {@code visitor} until it returns false or all solutions have been found,
+     * starting from an empty board. Returns the number of solutions visited.
+     */
+    long search(Visitor visitor) {
+        int pieceCount = board.getTopology().getPieceCount();
+        if (pieceCount == 0) {
+            return 0;
+        }
+        board.place(board.getOriginCell(), pieceCount - 1);
+        long count = complete(visitor);
+        board.undo();
+        return count;
+    }
+
+    /**
+     * Like {@link #search}, but visits the solutions that extend the pieces currently placed on
+     * the board. The board is left as it was.
+     */
+    long complete(Visitor visitor) {
+        return complete(visitor, 0);
+    }
+
+    private long complete(Visitor visitor, long count) {
+        if (stopped.get()) {
+            return count;
+        }
+        int cell = board.selectCell();
+        if (cell == SearchBoard.COMPLETE) {
+            board.getPositions(positions);
+            if (!visitor.visit(positions)) {
+                stopped.set(true);
+            }
+            return count + 1;
+        }
+        if (cell == SearchBoard.DEAD_END) {
+            return count;
+        }
+        for (long candidates = board.getSelectedCandidates(); candidates != 0;
+                candidates &= candidates - 1) {
+            board.place(cell, Long.numberOfTrailingZeros(candidates));
+            count = complete(visitor, count);
+            board.undo();
+            if (stopped.get()) {
+                break;
+            }
+        }
+        return count;
+    }
+}
@@ -11,7 +11,6 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import android.os.SystemClock;
 import android.util.AttributeSet;
-import android.util.Pair;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
 import android.view.View;
@@ -19,10 +18,12 @@ import android.view.ViewConfiguration;
 
 import androidx.annotation.Nullable;
 import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.Observer;
 
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Base class for grid-based puzzle views.
@@ -48,17 +49,34 @@ abstract class BaseGridView<D extends Direction> extends View {
     // This allows users to move a single piece out of a group by quickly dragging it away.
     private static final float LONG_PRESS_MAX_MOVEMENT = 0.35f;
 
+    // Empty set of pieces, passed when no pieces are being dragged. Must not be modified!
+    private static final PieceSet NO_PIECES = new PieceSet();
+
+    // Batch used to move groups of pieces, reused between drags.
+    private final MoveBatch moveBatch = new MoveBatch();
+
     private final Handler handler = new Handler(Looper.myLooper());
     private final GridDrawer<D> gridDrawer;
     private final ScaleGestureDetector scaleGestureDetector;
 
-    private MutableLiveData<ImmutableList<Pos>> piecePositionsLiveData = null;
-    private Observer<ImmutableList<Pos>> piecePositionsLiveDataObserver = new Observer<ImmutableList<Pos>>() {
+    private MutableLiveData<PosList> piecePositionsLiveData = null;
+    private Observer<PosList> piecePositionsLiveDataObserver = new Observer<PosList>() {
         @Override
-        public void onChanged(ImmutableList<Pos> positions) {
+        public void onChanged(PosList positions) {
             cancelDrag();
+            PosList oldPositions = piecePositions.toPosList();
             piecePositions.assign(positions);
-            updateOverlapErrors();
+            connectivity.update(oldPositions, positions);
+            overlapErrors.update(oldPositions, positions);
+            groupTints.update();
+            if (hintSolution != null) {
+                // The hint only applies to the positions it was found for.
+                setHint(hintLiveData.getValue());
+            }
+            if (!deadEnds.isEmpty()) {
+                // Likewise for dead ends.
+                setDeadEnds(deadEndsLiveData.getValue());
+            }
             Rect newGridBounds = piecePositions.getBoundingRect();
             if (!gridBounds.equals(newGridBounds)) {
                 // Grid bounding box has changed!
@@ -74,18 +92,55 @@ abstract class BaseGridView<D extends Direction> extends View {
     private Observer<ErrorVisibility> errorVisibilityLiveDataObserver = new Observer<ErrorVisibility>() {
         @Override
         public void onChanged(ErrorVisibility errorVisibility) {
-            updateOverlapErrors();
+            overlapErrors.setEnabled(errorVisibility == ErrorVisibility.VISIBLE);
+            groupTints.setEnabled(errorVisibility == ErrorVisibility.VISIBLE);
+            deadEndsEnabled = errorVisibility == ErrorVisibility.VISIBLE;
+            if (deadEndsLiveData != null) {
+                setDeadEnds(deadEndsLiveData.getValue());
+            }
             invalidate();
         }
     };
 
+    private LiveData<HintController.Hint> hintLiveData = null;
+    private Observer<HintController.Hint> hintLiveDataObserver = new Observer<HintController.Hint>() {
+        @Override
+        public void onChanged(@Nullable HintController.Hint hint) {
+            setHint(hint);
+        }
+    };
+
+    private LiveData<DeadEndController.Report> deadEndsLiveData = null;
+    private Observer<DeadEndController.Report> deadEndsLiveDataObserver = new Observer<DeadEndController.Report>() {
+        @Override
+        public void onChanged(@Nullable DeadEndController.Report report) {
+            setDeadEnds(report);
+        }
+    };
+
     // Current piece positions
     private final PiecePositionIndex piecePositions = new PiecePositionIndex();
     private final ReadonlyPiecePositionIndex readonlyPiecePositions = piecePositions.readonlyWrapper();
 
-    // List of overlap errors. Recalculated whenever error visibility, piece positions, or dragged
-    // pieces change.
-    private ImmutableList<Pair<Pos, D>> overlapErrors = ImmutableList.empty();
+    // Connected groups of the current piece positions. Used to select groups by long-pressing.
+    private ConnectivityTracker connectivity;
+
+    // Tints of the connected groups, updated whenever piece positions change. Like the overlap
+    // errors, groups are only tinted while errors are visible.
+    private GroupTints groupTints;
+
+    // Set of overlap errors. Updated whenever error visibility, piece positions, or dragged pieces
+    // change. Empty while errors are hidden.
+    private OverlapErrorSet<D> overlapErrors;
+
+    // Dead ends of the current piece positions, and the pieces involved. Like the overlap errors,
+    // dead ends are only shown while errors are visible.
+    private boolean deadEndsEnabled = false;
+    private List<DeadEndDetector.Contradiction> deadEnds = Collections.emptyList();
+    private final PieceSet deadEndPieces = new PieceSet();
+
+    // The solution of the shown hint, if it was found for the current piece positions, or null.
+    private @Nullable PosList hintSolution = null;
 
     // Current bounding box of piece positions. Updated whenever piece positions change.
     private Rect gridBounds = piecePositions.getBoundingRect();
@@ -108,7 +163,7 @@ abstract class BaseGridView<D extends Direction> extends View {
     private float zoomFactor = MIN_ZOOM_FACTOR;
 
     // Current drag state. null when nothing is being dragged.
-    private @Nullable DragState<D> dragState = null;
+    private @Nullable DragState dragState = null;
 
     // Determines whether the view allows panning, zooming, and moving pieces.
     private boolean editable = true;
@@ -145,10 +200,14 @@ abstract class BaseGridView<D extends Direction> extends View {
     }
 
     private void init() {
+        connectivity = new ConnectivityTracker(gridDrawer.getTopology(), piecePositions);
+        groupTints = new GroupTints(gridDrawer.getTopology(), piecePositions, connectivity);
+        overlapErrors = new OverlapErrorSet<>(
+                gridDrawer.getTopology(), gridDrawer.getErrorDirections(), piecePositions);
         updateCanvasBounds();
     }
 
-    public void setPiecePositionsLiveData(LifecycleOwner lifecycleOwner, MutableLiveData<ImmutableList<Pos>> newData) {
+    public void setPiecePositionsLiveData(LifecycleOwner lifecycleOwner, MutableLiveData<PosList> newData) {
         if (piecePositionsLiveData != null) {
             piecePositionsLiveData.removeObserver(piecePositionsLiveDataObserver);
         }
@@ -164,6 +223,46 @@ abstract class BaseGridView<D extends Direction> extends View {
         newData.observe(lifecycleOwner, errorVisibilityLiveDataObserver);
     }
 
+    /**
+     * Shows the hints of the given LiveData on the board: the pieces they move are marked, and drawn
+     * at their new positions. Hints found for other positions than the current ones are ignored.
+     */
+    public void setHintLiveData(LifecycleOwner lifecycleOwner, LiveData<HintController.Hint> newData) {
+        if (hintLiveData != null) {
+            hintLiveData.removeObserver(hintLiveDataObserver);
+        }
+        hintLiveData = newData;
+        newData.observe(lifecycleOwner, hintLiveDataObserver);
+    }
+
+    private void setHint(@Nullable HintController.Hint hint) {
+        hintSolution = hint != null && hint.positions.equals(piecePositions.toPosList())
+                ? hint.solution : null;
+        invalidate();
+    }
+
+    /**
+     * Highlights the dead ends of the reports of the given LiveData: the pieces involved, and the
+     * cells where they occur. Reports for other positions than the current ones are ignored.
+     */
+    public void setDeadEndsLiveData(LifecycleOwner lifecycleOwner, LiveData<DeadEndController.Report> newData) {
+        if (deadEndsLiveData != null) {
+            deadEndsLiveData.removeObserver(deadEndsLiveDataObserver);
+        }
+        deadEndsLiveData = newData;
+        newData.observe(lifecycleOwner, deadEndsLiveDataObserver);
+    }
+
+    private void setDeadEnds(@Nullable DeadEndController.Report report) {
+        deadEnds = deadEndsEnabled && report != null && report.positions.equals(piecePositions.toPosList())
+                ? report.contradictions : Collections.<DeadEndDetector.Contradiction>emptyList();
+        deadEndPieces.clear();
+        for (DeadEndDetector.Contradiction deadEnd : deadEnds) {
+            deadEndPieces.addAll(deadEnd.pieces);
+        }
+        invalidate();
+    }
+
     public void setEditable(boolean newEditable) {
         if (editable == newEditable) {
             return;
@@ -212,17 +311,17 @@ abstract class BaseGridView<D extends Direction> extends View {
             return;
         }
 
-        long draggedPieces = 0;
+        PieceSet draggedPieces = NO_PIECES;
         float dragDeltaX = 0.0f;
         float dragDeltaY = 0.0f;
-        if (dragState != null && dragState.pieces != 0) {
+        if (dragState != null && !dragState.pieces.isEmpty()) {
             draggedPieces = dragState.pieces;
             dragDeltaX = dragState.deltaX;
             dragDeltaY = dragState.deltaY;
         }
         if (victoryAnimator == null) {
-            gridDrawer.draw(canvas, drawDimensions, readonlyPiecePositions, overlapErrors,
-                    draggedPieces, dragDeltaX, dragDeltaY);
+            gridDrawer.draw(canvas, drawDimensions, readonlyPiecePositions, groupTints, overlapErrors,
+                    deadEnds, deadEndPieces, hintSolution, draggedPieces, dragDeltaX, dragDeltaY);
         } else {
             // Zoom out during victory animation.
             // Maximum duration: log(10) / log(0.75) =~ 8 seconds to zoom out from 10 to 1.
@@ -248,36 +347,8 @@ abstract class BaseGridView<D extends Direction> extends View {
         savedState.restore(this);
     }
 
-    private void draggedPiecesChanged(long draggedPieces) {
-        updateOverlapErrors();
-    }
-
-    private void updateOverlapErrors() {
-        long draggedPieces = dragState == null ? 0 : dragState.pieces;
-        if (errorVisibilityLiveData.getValue() == ErrorVisibility.VISIBLE) {
-            overlapErrors = ImmutableList.copyOf(calculateOverlapErrors(
-                gridDrawer.getErrorDirections(), piecePositions, draggedPieces));
-        } else {
-            overlapErrors = ImmutableList.empty();
-        }
-    }
-
-    private static <D extends Direction> ArrayList<Pair<Pos, D>> calculateOverlapErrors(
-            ImmutableList<D> errorDirections, PiecePositionIndex piecePositions, long draggedPieces) {
-        ArrayList<Pair<Pos, D>> overlapErrors = new ArrayList<>();
-        for (int i = 0, n = piecePositions.size(); i < n; ++i) {
-            if (!Util.isDragged(draggedPieces, i)) {
-                Pos pos = piecePositions.get(i);
-                for (D direction : errorDirections) {
-                    int j = piecePositions.indexOf(direction.step(pos));
-                    if (j != -1 && !Util.isDragged(draggedPieces, j) &&
-                            (!direction.hasPath(i) || !direction.opposite().hasPath(j))) {
-                        overlapErrors.add(Pair.create(pos, direction));
-                    }
-                }
-            }
-        }
-        return overlapErrors;
+    private void draggedPiecesChanged(PieceSet draggedPieces) {
+        overlapErrors.setDraggedPieces(draggedPieces);
     }
 
     private void updateCanvasBounds() {
@@ -298,40 +369,31 @@ abstract class BaseGridView<D extends Direction> extends View {
         return piecePositions.indexOf(gridDrawer.calculateGridPos(drawDimensions, pixelX, pixelY));
     }
 
-    private void movePiecesBy(long pieces, @Nullable ImmutableList<GroupFinder.Step<D>> steps, float deltaX, float deltaY) {
-        if (pieces == 0) {
+    private void movePiecesBy(PieceSet pieces, int firstPieceIndex, float deltaX, float deltaY) {
+        if (pieces.isEmpty()) {
             return;
         }
-        // Precondition: steps != null iff. `pieces` has more than one bit set.
-        if (Util.isMultiDrag(pieces) != (steps != null)) {
+        // Precondition: `firstPieceIndex` is one of the dragged pieces.
+        if (!pieces.contains(firstPieceIndex)) {
             throw new AssertionError();
         }
-        int firstPieceIndex = steps == null ? Util.getDraggedIndex(pieces) : steps.get(0).pieceIndex;
         Pos source = piecePositions.get(firstPieceIndex);
         PointF origin = gridDrawer.calculateFieldCenter(drawDimensions, source.x, source.y);
         Pos destination = gridDrawer.calculateGridPos(drawDimensions, origin.x + deltaX, origin.y + deltaY);
         if (source.equals(destination)) {
             return;
         }
-        PiecePositionIndex newPiecePositions = new PiecePositionIndex(piecePositions);
-        if (steps == null) {
+        // The new positions are built as a copy-on-write version of the current positions, which
+        // keeps track of the pieces that moved, so the observer below can apply just those.
+        CopyOnWritePiecePositionIndex newPiecePositions = new CopyOnWritePiecePositionIndex(piecePositions);
+        if (!pieces.isMultiple()) {
             // Move a single piece.
             newPiecePositions.moveOrSwap(firstPieceIndex, destination);
         } else {
-            // Move multiple pieces. Note that the set of source and destination positions may
-            // partially overlap, but that's okay since we use the source piece index (not its
-            // position) to identify the piece to be moved, and since all destinations are distinct,
-            // each piece will end up in the right place.
-            //
-            // This code also behaves well if some destination positions are already occupied by
-            // pieces, as long as the sets of source and destination positions are disjoint. In that
-            // case, the existing pieces will be swapped to the source while maintaining their
-            // original configuration. For example:
-            //
-            //      .......     .......
-            //      .aa.b..     .b..aa.   Moving the a's three spaces to the right moves b and c to
-            //      .aa..c.  => ..c.aa.   the left, keeping their relative positions intact.
-            //      .......     .......
+            // Move multiple pieces at once. Each piece is translated by the same offset as the
+            // first piece; the topology takes care of translating in a way that preserves the
+            // group's shape. Pieces in the way are displaced to the vacated fields, as described
+            // in MoveBatch.
             //
             // The only case that isn't handled very nicely is when some of the destination fields
             // are occupied, and there is overlap between source and destination fields. In that
@@ -346,15 +408,19 @@ abstract class BaseGridView<D extends Direction> extends View {
             // I think this is acceptable; I don't think there is a nicer way to handle this without
             // involving other fields than the source and destination fields, and I don't think
             // users expect would expect anything better to happen in this case.
-            int[] pieceIndices = GroupFinder.getPieces(steps);
-            Pos[] pieceDestinations  = GroupFinder.reconstructPositions(steps, destination);
-            for (int i = 0; i < steps.size(); ++i) {
-                newPiecePositions.moveOrSwap(pieceIndices[i], pieceDestinations[i]);
+            GridTopology<D> topology = gridDrawer.getTopology();
+            int packedSource = source.pack();
+            int packedDestination = destination.pack();
+            moveBatch.clear();
+            for (int i = pieces.first(); i >= 0; i = pieces.next(i + 1)) {
+                moveBatch.add(i, topology.translate(
+                        piecePositions.getPacked(i), packedSource, packedDestination));
             }
+            newPiecePositions.moveAll(moveBatch);
         }
         // We haven't applied any changes yet, but setting the new value in the MutableLiveData will
         // cause the new value to be passed to piecePositionsLiveDataObserver#onChanged().
-        piecePositionsLiveData.setValue(newPiecePositions.toImmutableList());
+        piecePositionsLiveData.setValue(newPiecePositions.toPosList());
     }
 
     private void updateDrawDimensions() {
@@ -413,8 +479,8 @@ abstract class BaseGridView<D extends Direction> extends View {
         switch (event.getActionMasked()) {
             case MotionEvent.ACTION_DOWN:
                 LogUtil.v("Drag started");
-                dragState = new DragState<>(event, findPieceIndex(event.getX(), event.getY()));
-                if (dragState.pieces != 0) {
+                dragState = new DragState(event, findPieceIndex(event.getX(), event.getY()));
+                if (!dragState.pieces.isEmpty()) {
                     draggedPiecesChanged(dragState.pieces);
                 }
                 startLongPressDetection(dragState);
@@ -425,7 +491,7 @@ abstract class BaseGridView<D extends Direction> extends View {
                 if (dragState == null || !dragState.update(event)) {
                     return false;
                 }
-                if (dragState.pieces == 0) {
+                if (dragState.pieces.isEmpty()) {
                     dragViewBy(dragState.deltaDeltaX, dragState.deltaDeltaY);
                 }
                 invalidate();
@@ -436,8 +502,8 @@ abstract class BaseGridView<D extends Direction> extends View {
                     return false;
                 }
                 LogUtil.v("Drag finished");
-                DragState<D> oldDragState = endDrag();
-                movePiecesBy(oldDragState.pieces, oldDragState.pieceSteps, oldDragState.deltaX, oldDragState.deltaY);
+                DragState oldDragState = endDrag();
+                movePiecesBy(oldDragState.pieces, oldDragState.firstPieceIndex, oldDragState.deltaX, oldDragState.deltaY);
                 invalidate();
                 return true;
 
@@ -458,30 +524,25 @@ abstract class BaseGridView<D extends Direction> extends View {
     }
 
     // Assumes dragState != null. Don't call this method directly! Use cancelDrag() instead.
-    private DragState<D> endDrag() {
-        DragState<D> oldDragState = dragState;
+    private DragState endDrag() {
+        DragState oldDragState = dragState;
         dragState = null;
-        if (oldDragState.pieces != 0) {
-            draggedPiecesChanged(0);
+        if (!oldDragState.pieces.isEmpty()) {
+            draggedPiecesChanged(NO_PIECES);
         }
         return oldDragState;
     }
 
-    private void startLongPressDetection(final DragState<D> originalDragState) {
-        if (originalDragState.pieces != 0) {
+    private void startLongPressDetection(final DragState originalDragState) {
+        if (!originalDragState.pieces.isEmpty()) {
             handler.postDelayed(new Runnable() {
                 @Override
                 public void run() {
-                    if (dragState == originalDragState && dragState.pieces != 0 &&
+                    if (dragState == originalDragState && !dragState.pieces.isEmpty() &&
                             sqr(dragState.deltaX) + sqr(dragState.deltaY) <
                                 sqr(LONG_PRESS_MAX_MOVEMENT * drawDimensions.scale)) {
-                        ImmutableList<GroupFinder.Step<D>> pieceSteps = GroupFinder.calculateSteps(
-                                gridDrawer.getConnectionDirections(),
-                                readonlyPiecePositions,
-                                Util.getDraggedIndex(dragState.pieces));
-                        if (pieceSteps.size() > 1) {
-                            dragState.pieces = GroupFinder.getPieceMask(pieceSteps);
-                            dragState.pieceSteps = pieceSteps;
+                        connectivity.getGroupPieces(dragState.firstPieceIndex, dragState.pieces);
+                        if (dragState.pieces.isMultiple()) {
                             draggedPiecesChanged(dragState.pieces);
                             invalidate();
                         }
@@ -522,22 +583,26 @@ abstract class BaseGridView<D extends Direction> extends View {
         return x * x;
     }
 
-    private static class DragState<D extends Direction> {
+    private static class DragState {
         final int pointerId;
         final float startX, startY;
         float lastX, lastY;
         float deltaX = 0.0f, deltaY = 0.0f;
         float deltaDeltaX = 0.0f, deltaDeltaY = 0.0f;
-        // Bitmask of pieces being dragged. pieceSteps != null iff. more than 1 bit is set in pieces.
-        long pieces;
-        // Steps used to select multiple pieces. Used to reconstruct their positions when dropped.
-        @Nullable ImmutableList<GroupFinder.Step<D>> pieceSteps;
+        // Index of the piece that was touched first, or -1 if the view is being dragged instead.
+        final int firstPieceIndex;
+        // Set of pieces being dragged. Contains firstPieceIndex, and after a long press, the other
+        // pieces in its group. Their positions relative to the first piece are kept when dropped.
+        final PieceSet pieces = new PieceSet();
 
         private DragState(MotionEvent e, int firstPieceIndex) {
             this.startX = this.lastX = e.getX();
             this.startY = this.lastY = e.getY();
             this.pointerId = e.getPointerId(0);
-            this.pieces = firstPieceIndex >= 0 ? (long) 1 << firstPieceIndex : 0;
+            this.firstPieceIndex = firstPieceIndex;
+            if (firstPieceIndex >= 0) {
+                this.pieces.add(firstPieceIndex);
+            }
         }
 
         private boolean update(MotionEvent e) {
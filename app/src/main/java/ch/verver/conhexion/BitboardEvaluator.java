@@ -0,0 +1,317 @@
+package ch.verver.conhexion;
+
+import java.util.Arrays;
+
+/**
+ * Calculates the progress of a puzzle configuration (see {@link Solution.Progress}) using
+ * bitboards, which is much faster than looking up the neighbours of every piece one by one.
+ *
+ * <p>The board is projected onto an array of rows, where each row is a {@code long} with one bit
+ * per column, plus a one-cell margin on every side. There is one bitboard of occupied cells, and
+ * one bitboard per direction with the cells whose piece has a path in that direction. Stepping all
+ * cells in a direction is then a shift of each row (split by column parity for the hex grid, where
+ * the vertical offset depends on the parity of the column), and the disconnection and overlap
+ * counts follow from masking and {@link Long#bitCount} in a single pass over the rows. Groups are
+ * counted by finding connections the same way, and merging the connected cells with union-find.
+ *
+ * <p>Only configurations that fit in 62 columns can be evaluated this way; {@link #load} returns
+ * false for wider configurations. Instances reuse their buffers, so loading many configurations
+ * with the same instance doesn't allocate; search tools should use {@link #calculate} or
+ * {@link #isSolved} rather than {@link #evaluate}, which allocates its result. Instances are not
+ * thread-safe.
+ */
+final class BitboardEvaluator {
+
+    // Number of usable columns: bit 0 and bit 63 are reserved for the margin.
+    private static final int MAX_WIDTH = Long.SIZE - 2;
+
+    private static final long ALTERNATE_BITS = 0x5555555555555555L;
+
+    private final GridTopology<?> topology;
+    private final int directionCount;
+
+    // Column and row offsets of each direction, for even and odd columns respectively.
+    private final int[] dx;
+    private final int[] dyEven;
+    private final int[] dyOdd;
+
+    // Bitboards. Row r of the board corresponds with y = top - 1 + r, and bit b with
+    // x = left - 1 + b. Only the first `rowCount` rows are used.
+    private long[] occupied = new long[0];
+    private long[][] paths;
+    private int rowCount = 0;
+    private int pieceCount = 0;
+
+    // Packed positions copied by load(), reused between calls.
+    private int[] packedBuffer = new int[0];
+
+    // Results of the last call to calculate().
+    private int groupCount = 0;
+    private int disconnectionCount = 0;
+    private int overlapCount = 0;
+
+    // Union-find parent pointers used by countGroups(), indexed by cell id (r * 64 + b). Only
+    // initialized for occupied cells; a cell that is its own parent is the root of its group.
+    private int[] parents = new int[0];
+
+    // Mask of bits that correspond with even x-coordinates.
+    private long evenColumns = 0;
+
+    BitboardEvaluator(GridTopology<?> topology) {
+        this.topology = topology;
+        this.directionCount = topology.getDirectionCount();
+        this.dx = new int[directionCount];
+        this.dyEven = new int[directionCount];
+        this.dyOdd = new int[directionCount];
+        int evenOrigin = Pos.pack(0, 0);
+        int oddOrigin = Pos.pack(1, 0);
+        for (int d = 0; d < directionCount; ++d) {
+            int evenDst = topology.step(evenOrigin, d);
+            int oddDst = topology.step(oddOrigin, d);
+            dx[d] = Pos.unpackX(evenDst);
+            dyEven[d] = Pos.unpackY(evenDst);
+            dyOdd[d] = Pos.unpackY(oddDst);
+            if (Math.abs(dx[d]) > 1 || Math.abs(dyEven[d]) > 1 || Math.abs(dyOdd[d]) > 1 ||
+                    Pos.unpackX(oddDst) - 1 != dx[d]) {
+                throw new IllegalArgumentException("unsupported direction " + topology.getDirection(d));
+            }
+        }
+        this.paths = new long[directionCount][0];
+    }
+
+    GridTopology<?> getTopology() {
+        return topology;
+    }
+
+    /**
+     * Loads the given configuration. Returns false if it's too wide to be represented, in which
+     * case the evaluator must not be used until another configuration is loaded successfully.
+     *
+     * @throws IllegalArgumentException if the positions are not distinct
+     */
+    boolean load(ReadonlyPiecePositionIndex piecePositions) {
+        int n = piecePositions.size();
+        int[] packed = getPackedBuffer(n);
+        for (int i = 0; i < n; ++i) {
+            packed[i] = piecePositions.getPacked(i);
+        }
+        return loadPacked(packed, n);
+    }
+
+    /** Equivalent to {@link #load(ReadonlyPiecePositionIndex)}. */
+    boolean load(PosList piecePositions) {
+        int n = piecePositions.size();
+        int[] packed = getPackedBuffer(n);
+        for (int i = 0; i < n; ++i) {
+            packed[i] = piecePositions.getPacked(i);
+        }
+        return loadPacked(packed, n);
+    }
+
+    private int[] getPackedBuffer(int n) {
+        if (packedBuffer.length < n) {
+            packedBuffer = new int[n];
+        }
+        return packedBuffer;
+    }
+
+    /**
+     * Equivalent to {@link #load(ReadonlyPiecePositionIndex)}, but takes the first {@code n}
+     * elements of an array of packed positions (see {@link Pos#pack}), indexed by piece index.
+     * Doesn't allocate once the buffers are large enough.
+     */
+    boolean loadPacked(int[] packedPositions, int n) {
+        pieceCount = n;
+        if (n == 0) {
+            resize(2);
+            return true;
+        }
+        int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+        for (int i = 0; i < n; ++i) {
+            int x = Pos.unpackX(packedPositions[i]);
+            int y = Pos.unpackY(packedPositions[i]);
+            left = Math.min(left, x);
+            top = Math.min(top, y);
+            right = Math.max(right, x + 1);
+            bottom = Math.max(bottom, y + 1);
+        }
+        if (right - left > MAX_WIDTH) {
+            return false;
+        }
+        resize(bottom - top + 2);
+        // Bit b has x = left - 1 + b, so bit 0 is even iff. left is odd.
+        evenColumns = (left & 1) != 0 ? ALTERNATE_BITS : ~ALTERNATE_BITS;
+        for (int i = 0; i < n; ++i) {
+            int r = Pos.unpackY(packedPositions[i]) - top + 1;
+            long bit = 1L << (Pos.unpackX(packedPositions[i]) - left + 1);
+            if ((occupied[r] & bit) != 0) {
+                throw new IllegalArgumentException("duplicate piece positions");
+            }
+            occupied[r] |= bit;
+            for (int mask = topology.getPathMask(i); mask != 0; mask &= mask - 1) {
+                paths[Integer.numberOfTrailingZeros(mask)][r] |= bit;
+            }
+        }
+        return true;
+    }
+
+    private void resize(int newRowCount) {
+        if (occupied.length < newRowCount) {
+            occupied = new long[newRowCount];
+            for (int d = 0; d < directionCount; ++d) {
+                paths[d] = new long[newRowCount];
+            }
+            parents = new int[newRowCount * Long.SIZE];
+        } else {
+            Arrays.fill(occupied, 0, newRowCount, 0);
+            for (int d = 0; d < directionCount; ++d) {
+                Arrays.fill(paths[d], 0, newRowCount, 0);
+            }
+        }
+        rowCount = newRowCount;
+    }
+
+    /** Evaluates the loaded configuration. Equivalent to {@link #calculate} and the getters. */
+    Solution.Progress evaluate() {
+        calculate();
+        return new Solution.Progress(groupCount, disconnectionCount, overlapCount);
+    }
+
+    /**
+     * Evaluates the loaded configuration, like {@link #evaluate}, but without allocating: the
+     * results are available through {@link #getGroupCount}, {@link #getDisconnectionCount} and
+     * {@link #getOverlapCount} until the next call.
+     */
+    void calculate() {
+        // Fused pass over all directions and rows, counting disconnections and overlaps together.
+        int disconnections = 0;
+        int overlaps = 0;
+        for (int d = 0; d < directionCount; ++d) {
+            long[] path = paths[d];
+            long[] oppositePath = paths[topology.opposite(d)];
+            int rowEven = dyEven[d];
+            int rowOdd = dyOdd[d];
+            int shift = dx[d];
+            // Margin rows are empty, so they can be skipped.
+            for (int r = 1; r < rowCount - 1; ++r) {
+                long withPath = path[r];
+                long withoutPath = occupied[r] & ~withPath;
+                // Sides with a path that aren't matched by a path on the neighbouring piece.
+                disconnections += Long.bitCount(withPath)
+                        - Long.bitCount(shift(withPath & evenColumns, shift) & oppositePath[r + rowEven])
+                        - Long.bitCount(shift(withPath & ~evenColumns, shift) & oppositePath[r + rowOdd]);
+                // Sides without a path that touch a neighbouring piece.
+                overlaps += Long.bitCount(shift(withoutPath & evenColumns, shift) & occupied[r + rowEven])
+                        + Long.bitCount(shift(withoutPath & ~evenColumns, shift) & occupied[r + rowOdd]);
+            }
+        }
+        groupCount = countGroups();
+        disconnectionCount = disconnections;
+        overlapCount = overlaps;
+    }
+
+    /** Returns the group count of the last call to {@link #calculate}. */
+    int getGroupCount() {
+        return groupCount;
+    }
+
+    /** Returns the disconnection count of the last call to {@link #calculate}. */
+    int getDisconnectionCount() {
+        return disconnectionCount;
+    }
+
+    /** Returns the overlap count of the last call to {@link #calculate}. */
+    int getOverlapCount() {
+        return overlapCount;
+    }
+
+    /**
+     * Returns whether the loaded configuration is solved, i.e. {@code evaluate().isSolved()}. Stops
+     * at the first row with a disconnection or overlap, and only counts groups if there are none,
+     * so it's faster than {@link #calculate} on unsolved configurations.
+     */
+    boolean isSolved() {
+        for (int d = 0; d < directionCount; ++d) {
+            long[] path = paths[d];
+            long[] oppositePath = paths[topology.opposite(d)];
+            int rowEven = dyEven[d];
+            int rowOdd = dyOdd[d];
+            int shift = dx[d];
+            for (int r = 1; r < rowCount - 1; ++r) {
+                long withPath = path[r];
+                long withoutPath = occupied[r] & ~withPath;
+                if (Long.bitCount(withPath)
+                        != Long.bitCount(shift(withPath & evenColumns, shift) & oppositePath[r + rowEven])
+                        + Long.bitCount(shift(withPath & ~evenColumns, shift) & oppositePath[r + rowOdd])) {
+                    return false;
+                }
+                if ((shift(withoutPath & evenColumns, shift) & occupied[r + rowEven]) != 0
+                        || (shift(withoutPath & ~evenColumns, shift) & occupied[r + rowOdd]) != 0) {
+                    return false;
+                }
+            }
+        }
+        return countGroups() == 1;
+    }
+
+    /** Counts the connected groups in the loaded configuration. */
+    int countGroups() {
+        // Connections are found bit-parallel, a row at a time, and merged with union-find over
+        // cell ids (r * 64 + b). Every successful union joins two groups. Each pair of opposite
+        // directions is handled once, from the direction with the lower index.
+        for (int r = 1; r < rowCount - 1; ++r) {
+            for (long cells = occupied[r]; cells != 0; cells &= cells - 1) {
+                int cell = r * Long.SIZE + Long.numberOfTrailingZeros(cells);
+                parents[cell] = cell;
+            }
+        }
+        int groups = pieceCount;
+        for (int d = 0; d < directionCount; ++d) {
+            int opposite = topology.opposite(d);
+            if (opposite < d) {
+                continue;
+            }
+            long[] path = paths[d];
+            long[] oppositePath = paths[opposite];
+            int shift = dx[d];
+            for (int r = 1; r < rowCount - 1; ++r) {
+                long sources = path[r];
+                if (sources != 0) {
+                    groups -= unionConnected(r, r + dyEven[d], shift(sources & evenColumns, shift) & oppositePath[r + dyEven[d]], shift);
+                    groups -= unionConnected(r, r + dyOdd[d], shift(sources & ~evenColumns, shift) & oppositePath[r + dyOdd[d]], shift);
+                }
+            }
+        }
+        return groups;
+    }
+
+    // Unions each cell in `targets` (a bitmask of row targetRow) with the cell it was reached from
+    // in row sourceRow, which is `shift` columns to the left. Returns the number of groups merged.
+    private int unionConnected(int sourceRow, int targetRow, long targets, int shift) {
+        int merged = 0;
+        for (; targets != 0; targets &= targets - 1) {
+            int b = Long.numberOfTrailingZeros(targets);
+            int a = find(sourceRow * Long.SIZE + b - shift);
+            int c = find(targetRow * Long.SIZE + b);
+            if (a != c) {
+                parents[a] = c;
+                ++merged;
+            }
+        }
+        return merged;
+    }
+
+    private int find(int cell) {
+        while (parents[cell] != cell) {
+            // Path halving.
+            parents[cell] = parents[parents[cell]];
+            cell = parents[cell];
+        }
+        return cell;
+    }
+
+    private static long shift(long bits, int dx) {
+        return dx >= 0 ? bits << dx : bits >>> -dx;
+    }
+}
@@ -0,0 +1,315 @@
+package ch.verver.conhexion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Maps puzzle configurations to a canonical form, so that configurations that differ only by
+ * translation, rotation or reflection map to the same list of positions.
+ *
+ * <p>The symmetries are derived from the topology: they're the linear maps on axial coordinates
+ * (see {@link GridTopology#toAxialY}) that permute the grid's directions, which gives the 12
+ * symmetries of the hex grid and the 8 symmetries of the square grid. Since piece types are
+ * bitmasks of directions, rotating or reflecting a configuration also changes the piece at each
+ * position: piece i ends up at the image of its position, as the piece whose paths are the images
+ * of i's paths.
+ *
+ * <p>The canonical form is the image that's lexicographically smallest when compared by packed
+ * position (see {@link Pos#pack}) in order of piece index, translated so that its bounding
+ * rectangle in axial coordinates starts at (0, 0). The translation of each image follows from the
+ * extremes of q, r, q + r and q - r over the original positions, so images are compared position
+ * by position without being constructed, and a comparison usually ends after the first piece.
+ *
+ * <p>Instances reuse their buffers, so they don't allocate when canonicalizing arrays of packed
+ * positions. Instances are not thread-safe.
+ */
+final class Canonicalizer {
+
+    private final GridTopology<?> topology;
+    private final int pieceCount;
+    private final int directionCount;
+    private final int symmetryCount;
+
+    // Symmetry s maps axial coordinates (q, r) to (a*q + b*r, c*q + e*r), where (a, b, c, e) are
+    // stored at matrices[4*s] through matrices[4*s + 3]. All coefficients are -1, 0 or 1.
+    private final int[] matrices;
+
+    // directionMaps[s * directionCount + d] is the image of direction d under symmetry s, and
+    // pieceMaps[s * pieceCount + i] is the image of piece i.
+    private final int[] directionMaps;
+    private final int[] pieceMaps;
+
+    // inversePieceMaps[s * pieceCount + j] is the piece that becomes piece j under symmetry s.
+    private final int[] inversePieceMaps;
+
+    // Index of the identity.
+    private final int identity;
+
+    // Scratch buffers: axial coordinates of the pieces, and the translation that moves the image
+    // under symmetry s to the origin, stored at offsets[2*s] (for q) and offsets[2*s + 1] (for r).
+    private int[] qs = new int[0];
+    private int[] rs = new int[0];
+    private final int[] offsets;
+
+    Canonicalizer(GridTopology<?> topology) {
+        this.topology = topology;
+        this.pieceCount = topology.getPieceCount();
+        this.directionCount = topology.getDirectionCount();
+
+        // Axial coordinates of the neighbours of the origin.
+        int[] deltaQ = new int[directionCount];
+        int[] deltaR = new int[directionCount];
+        int origin = Pos.pack(0, 0);
+        for (int d = 0; d < directionCount; ++d) {
+            int dst = topology.step(origin, d);
+            deltaQ[d] = Pos.unpackX(dst);
+            deltaR[d] = topology.toAxialY(deltaQ[d], Pos.unpackY(dst));
+        }
+
+        // Piece indices by path mask.
+        int[] pieceByMask = new int[1 << directionCount];
+        Arrays.fill(pieceByMask, -1);
+        for (int i = 0; i < pieceCount; ++i) {
+            pieceByMask[topology.getPathMask(i)] = i;
+        }
+
+        // Try all matrices with coefficients in {-1, 0, 1}, and keep those that permute the
+        // directions. These are exactly the symmetries of the grid that fix the origin.
+        ArrayList<int[]> symmetries = new ArrayList<>();
+        ArrayList<int[]> directionMapList = new ArrayList<>();
+        ArrayList<int[]> pieceMapList = new ArrayList<>();
+        int[] directionMap = new int[directionCount];
+        for (int m = 0; m < 81; ++m) {
+            int[] matrix = {m % 3 - 1, m / 3 % 3 - 1, m / 9 % 3 - 1, m / 27 - 1};
+            if (!mapDirections(matrix, deltaQ, deltaR, directionMap)) {
+                continue;
+            }
+            int[] pieceMap = new int[pieceCount];
+            for (int i = 0; i < pieceCount; ++i) {
+                int newMask = 0;
+                for (int mask = topology.getPathMask(i); mask != 0; mask &= mask - 1) {
+                    newMask |= 1 << directionMap[Integer.numberOfTrailingZeros(mask)];
+                }
+                if (pieceByMask[newMask] < 0) {
+                    throw new IllegalArgumentException("piece " + i + " has no symmetric image");
+                }
+                pieceMap[i] = pieceByMask[newMask];
+            }
+            symmetries.add(matrix);
+            directionMapList.add(directionMap.clone());
+            pieceMapList.add(pieceMap);
+        }
+
+        this.symmetryCount = symmetries.size();
+        this.matrices = new int[4 * symmetryCount];
+        this.directionMaps = new int[symmetryCount * directionCount];
+        this.pieceMaps = new int[symmetryCount * pieceCount];
+        this.inversePieceMaps = new int[symmetryCount * pieceCount];
+        this.offsets = new int[2 * symmetryCount];
+        int identity = -1;
+        for (int s = 0; s < symmetryCount; ++s) {
+            int[] matrix = symmetries.get(s);
+            System.arraycopy(matrix, 0, matrices, 4 * s, 4);
+            System.arraycopy(directionMapList.get(s), 0, directionMaps, s * directionCount, directionCount);
+            int[] pieceMap = pieceMapList.get(s);
+            System.arraycopy(pieceMap, 0, pieceMaps, s * pieceCount, pieceCount);
+            for (int i = 0; i < pieceCount; ++i) {
+                inversePieceMaps[s * pieceCount + pieceMap[i]] = i;
+            }
+            if (matrix[0] == 1 && matrix[1] == 0 && matrix[2] == 0 && matrix[3] == 1) {
+                identity = s;
+            }
+        }
+        this.identity = identity;
+    }
+
+    // Calculates the direction permutation of the given matrix, and returns whether the matrix
+    // maps the set of directions onto itself.
+    private static boolean mapDirections(int[] matrix, int[] deltaQ, int[] deltaR, int[] directionMap) {
+        int n = deltaQ.length;
+        int seen = 0;
+        for (int d = 0; d < n; ++d) {
+            int q = matrix[0] * deltaQ[d] + matrix[1] * deltaR[d];
+            int r = matrix[2] * deltaQ[d] + matrix[3] * deltaR[d];
+            int image = -1;
+            for (int d2 = 0; d2 < n; ++d2) {
+                if (deltaQ[d2] == q && deltaR[d2] == r) {
+                    image = d2;
+                }
+            }
+            if (image < 0 || (seen & (1 << image)) != 0) {
+                return false;
+            }
+            seen |= 1 << image;
+            directionMap[d] = image;
+        }
+        return true;
+    }
+
+    /** Returns the number of symmetries of the grid, including the identity. */
+    int getSymmetryCount() {
+        return symmetryCount;
+    }
+
+    /** Returns the index of the identity among the symmetries. */
+    int getIdentity() {
+        return identity;
+    }
+
+    /** Returns the image of direction {@code d} under symmetry {@code s}. */
+    int getDirectionImage(int s, int d) {
+        return directionMaps[s * directionCount + d];
+    }
+
+    /** Returns the image of piece {@code i} under symmetry {@code s}. */
+    int getPieceImage(int s, int i) {
+        return pieceMaps[s * pieceCount + i];
+    }
+
+    /**
+     * Returns the canonical form of the given configuration.
+     *
+     * @throws IllegalArgumentException if the configuration doesn't have exactly one position per piece
+     */
+    PosList canonicalize(PosList positions) {
+        int n = positions.size();
+        int[] packed = new int[n];
+        for (int i = 0; i < n; ++i) {
+            packed[i] = positions.getPacked(i);
+        }
+        canonicalizePacked(packed, packed);
+        return PosList.fromPacked(packed, n);
+    }
+
+    /**
+     * Writes the canonical form of a configuration, given as an array of packed positions indexed
+     * by piece index, to {@code dst}. {@code src} and {@code dst} may be the same array. Doesn't
+     * allocate once the buffers are large enough.
+     *
+     * @throws IllegalArgumentException if {@code src} doesn't have exactly one position per piece
+     */
+    void canonicalizePacked(int[] src, int[] dst) {
+        if (dst.length != pieceCount) {
+            throw new IllegalArgumentException("expected " + pieceCount + " pieces");
+        }
+        prepare(src);
+
+        int best = 0;
+        for (int s = 1; s < symmetryCount; ++s) {
+            if (compareImages(s, best) < 0) {
+                best = s;
+            }
+        }
+        int a = matrices[4 * best], b = matrices[4 * best + 1];
+        int c = matrices[4 * best + 2], e = matrices[4 * best + 3];
+        int offsetQ = offsets[2 * best], offsetR = offsets[2 * best + 1];
+        for (int j = 0, k = best * pieceCount; j < pieceCount; ++j, ++k) {
+            int i = inversePieceMaps[k];
+            int q = a * qs[i] + b * rs[i] - offsetQ;
+            int r = c * qs[i] + e * rs[i] - offsetR;
+            dst[j] = Pos.pack(q, topology.fromAxialY(q, r));
+        }
+    }
+
+    /**
+     * Writes the image of a configuration under symmetry {@code s}, translated like the canonical
+     * form, to {@code dst}. {@code src} and {@code dst} may not be the same array.
+     *
+     * @throws IllegalArgumentException if {@code src} doesn't have exactly one position per piece
+     */
+    void transformPacked(int[] src, int s, int[] dst) {
+        prepare(src);
+        for (int j = 0; j < pieceCount; ++j) {
+            dst[j] = getImage(s, j);
+        }
+    }
+
+    /**
+     * Returns whether the image of a configuration under the identity is no greater than its
+     * images under the symmetries in {@code symmetries} (a bitmask of symmetry indices), in the
+     * order used for the canonical form. Doesn't allocate once the buffers are large enough.
+     *
+     * @throws IllegalArgumentException if {@code src} doesn't have exactly one position per piece
+     */
+    boolean isMinimalImage(int[] src, long symmetries) {
+        prepare(src);
+        for (long mask = symmetries; mask != 0; mask &= mask - 1) {
+            if (compareImages(Long.numberOfTrailingZeros(mask), identity) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Calculates the axial coordinates of the configuration, and the offsets of all its images.
+    private void prepare(int[] src) {
+        if (src.length != pieceCount) {
+            throw new IllegalArgumentException("expected " + pieceCount + " pieces");
+        }
+        if (qs.length != pieceCount) {
+            qs = new int[pieceCount];
+            rs = new int[pieceCount];
+        }
+        int minQ = Integer.MAX_VALUE, maxQ = Integer.MIN_VALUE;
+        int minR = Integer.MAX_VALUE, maxR = Integer.MIN_VALUE;
+        int minSum = Integer.MAX_VALUE, maxSum = Integer.MIN_VALUE;
+        int minDifference = Integer.MAX_VALUE, maxDifference = Integer.MIN_VALUE;
+        for (int i = 0; i < pieceCount; ++i) {
+            int q = Pos.unpackX(src[i]);
+            int r = topology.toAxialY(q, Pos.unpackY(src[i]));
+            qs[i] = q;
+            rs[i] = r;
+            minQ = Math.min(minQ, q);
+            maxQ = Math.max(maxQ, q);
+            minR = Math.min(minR, r);
+            maxR = Math.max(maxR, r);
+            minSum = Math.min(minSum, q + r);
+            maxSum = Math.max(maxSum, q + r);
+            minDifference = Math.min(minDifference, q - r);
+            maxDifference = Math.max(maxDifference, q - r);
+        }
+        // Each row of a matrix is +/- (1, 0), (0, 1), (1, 1) or (1, -1), so the minimum of the
+        // corresponding coordinate is the minimum or the negated maximum of q, r, q + r or q - r.
+        for (int k = 0; k < 2 * symmetryCount; ++k) {
+            int a = matrices[2 * k];
+            int b = matrices[2 * k + 1];
+            int min, max;
+            if (b == 0) {
+                min = minQ;
+                max = maxQ;
+            } else if (a == 0) {
+                min = minR;
+                max = maxR;
+            } else if (a == b) {
+                min = minSum;
+                max = maxSum;
+            } else {
+                min = minDifference;
+                max = maxDifference;
+            }
+            offsets[k] = (a != 0 ? a : b) > 0 ? min : -max;
+        }
+    }
+
+    // Compares the images under symmetries s and t of the configuration passed to prepare().
+    private int compareImages(int s, int t) {
+        for (int j = 0; j < pieceCount; ++j) {
+            int image1 = getImage(s, j);
+            int image2 = getImage(t, j);
+            if (image1 != image2) {
+                return image1 < image2 ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    // Returns the packed position of piece j in the translated image of the configuration under
+    // symmetry s. Packed positions compare like (x, y) pairs, since x is in the high bits.
+    private int getImage(int s, int j) {
+        int i = inversePieceMaps[s * pieceCount + j];
+        int k = 4 * s;
+        int q = matrices[k] * qs[i] + matrices[k + 1] * rs[i] - offsets[2 * s];
+        int r = matrices[k + 2] * qs[i] + matrices[k + 3] * rs[i] - offsets[2 * s + 1];
+        return Pos.pack(q, topology.fromAxialY(q, r));
+    }
+}
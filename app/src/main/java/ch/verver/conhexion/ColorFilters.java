@@ -21,6 +21,59 @@ abstract class ColorFilters {
                     0, 0, 0, 1,  0  // alpha
             }));
 
+    // Marks the pieces involved in a dead end (see DeadEndDetector).
+    static ColorFilter DEAD_END = tint(0xff0000, 0.5f);
+
+    // Marks the pieces that a hint moves.
+    static ColorFilter HINT = tint(0xffff80, 0.5f);
+
+    // Draws pieces translucently, at the positions a hint moves them to.
+    static ColorFilter GHOST =
+            new ColorMatrixColorFilter(new ColorMatrix(new float[] {
+                    1, 0, 0, 0,    0, // red
+                    0, 1, 0, 0,    0, // green
+                    0, 0, 1, 0,    0, // blue
+                    0, 0, 0, 0.4f, 0  // alpha
+            }));
+
+    // Colors (as 0xRRGGBB) that groups of connected pieces are tinted with, one per tint assigned by
+    // GroupTints.
+    private static final int[] GROUP_TINT_COLORS = {
+            0x4080ff, 0xff6040, 0x40c060, 0xe0c020, 0xc040e0, 0x20c0d0, 0xff80b0, 0x909090,
+    };
+
+    private static ColorFilter[] groupTints;
+
+    /**
+     * Returns the color filter for the given tint, between 0 and
+     * {@link GroupTints#GROUP_TINT_COUNT} (exclusive), as assigned to groups of pieces by
+     * {@link GroupTints}. The filters are created once and cached.
+     */
+    static ColorFilter groupTint(int tint) {
+        if (groupTints == null) {
+            if (GROUP_TINT_COLORS.length != GroupTints.GROUP_TINT_COUNT) {
+                throw new IllegalStateException("expected " + GroupTints.GROUP_TINT_COUNT + " group tint colors");
+            }
+            ColorFilter[] tints = new ColorFilter[GROUP_TINT_COLORS.length];
+            for (int k = 0; k < tints.length; ++k) {
+                tints[k] = tint(GROUP_TINT_COLORS[k], 0.3f);
+            }
+            groupTints = tints;
+        }
+        return groupTints[tint];
+    }
+
+    // Blends the input with the given color (as 0xRRGGBB), which gets the given weight.
+    private static ColorFilter tint(int color, float weight) {
+        float keep = 1.0f - weight;
+        return new ColorMatrixColorFilter(new ColorMatrix(new float[] {
+                keep, 0,    0,    0, weight * ((color >> 16) & 0xff), // red
+                0,    keep, 0,    0, weight * ((color >> 8) & 0xff),  // green
+                0,    0,    keep, 0, weight * (color & 0xff),         // blue
+                0,    0,    0,    1, 0                                // alpha
+        }));
+    }
+
     static ColorFilter hueShift(float fraction) {
         float x =  3.0f * (float) (fraction - Math.floor(fraction));
         float[] matrix;
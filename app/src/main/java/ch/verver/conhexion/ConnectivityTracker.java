@@ -0,0 +1,190 @@
+package ch.verver.conhexion;
+
+import java.util.Arrays;
+
+/**
+ * Maintains the connected groups of a {@link PiecePositionIndex} while pieces are moved.
+ *
+ * <p>Every piece has a group label, which is the index of some piece in the same group, and the
+ * tracker keeps a count of the groups. Both can be queried in constant time.
+ *
+ * <p>When pieces move, only edges between the moved pieces and their old and new neighbours are
+ * removed or added. Groups that don't contain any of those pieces are unaffected, so the tracker
+ * only relabels the groups that contain at least one of them, by searching outward from the
+ * affected pieces. Every group that was split or merged contains an affected piece, so this
+ * yields the same result as relabelling the entire board, in time proportional to the size of
+ * the affected groups.
+ *
+ * <p>The tracker does not observe the index itself. Instead, the owner must call one of the
+ * {@code update} methods after changing the index.
+ */
+class ConnectivityTracker {
+
+    private final GridTopology<?> topology;
+    private final ReadonlyPiecePositionIndex piecePositions;
+
+    private int groupCount = 0;
+
+    // labels[i] is the index of the representative piece of the group that contains piece i.
+    private int[] labels = new int[0];
+
+    // Scratch space, reused between updates to avoid allocations. A piece (or label) is marked by
+    // setting its element of `visitMarks` (or `labelMarks`) to the current value of `mark`, so the
+    // marks don't need to be cleared between updates.
+    private final PieceSet affectedPieces = new PieceSet();
+    private int[] queue = new int[0];
+    private int[] visitMarks = new int[0];
+    private int[] labelMarks = new int[0];
+    private int mark = 0;
+
+    ConnectivityTracker(GridTopology<?> topology, ReadonlyPiecePositionIndex piecePositions) {
+        this.topology = topology;
+        this.piecePositions = piecePositions;
+        reset();
+    }
+
+    /** Returns the number of connected groups. */
+    int getGroupCount() {
+        return groupCount;
+    }
+
+    /**
+     * Returns the label of the group that contains piece {@code i}. Two pieces are in the same
+     * group if and only if they have the same label.
+     */
+    int getGroup(int i) {
+        return labels[i];
+    }
+
+    /** Adds all pieces in the same group as piece {@code i} (including i itself) to {@code out}. */
+    void getGroupPieces(int i, PieceSet out) {
+        int label = labels[i];
+        for (int j = 0; j < labels.length; ++j) {
+            if (labels[j] == label) {
+                out.add(j);
+            }
+        }
+    }
+
+    /** Recalculates all groups from scratch. */
+    void reset() {
+        int n = piecePositions.size();
+        if (labels.length != n) {
+            labels = new int[n];
+            queue = new int[n];
+            visitMarks = new int[n];
+            labelMarks = new int[n];
+            mark = 0;
+        }
+        nextMark();
+        groupCount = 0;
+        for (int i = 0; i < n; ++i) {
+            if (visitMarks[i] != mark) {
+                relabelGroup(i);
+                ++groupCount;
+            }
+        }
+    }
+
+    /**
+     * Updates the groups after the index changed from {@code oldPositions} to
+     * {@code newPositions}. If the new list was derived from the old list (see
+     * {@link PosList#isDerivedFrom}), only the affected groups are relabelled.
+     */
+    void update(PosList oldPositions, PosList newPositions) {
+        if (newPositions == oldPositions) {
+            return;
+        }
+        if (!newPositions.isDerivedFrom(oldPositions) || labels.length != piecePositions.size()) {
+            reset();
+            return;
+        }
+        affectedPieces.clear();
+        for (int k = 0, n = newPositions.getChangedIndexCount(); k < n; ++k) {
+            int i = newPositions.getChangedIndex(k);
+            addAffectedPieces(oldPositions.getPacked(i));
+            addAffectedPieces(newPositions.getPacked(i));
+        }
+        relabelAffectedGroups();
+    }
+
+    /**
+     * Updates the groups after a single piece was moved (or two pieces were swapped) between
+     * packed positions {@code src} and {@code dst}.
+     */
+    void update(int src, int dst) {
+        affectedPieces.clear();
+        addAffectedPieces(src);
+        addAffectedPieces(dst);
+        relabelAffectedGroups();
+    }
+
+    // Adds the piece at `packedPos` and its neighbours to affectedPieces. Moves only permute the
+    // pieces at the old and new positions, so it doesn't matter whether this is called before or
+    // after the move: the set of pieces occupying these positions and their neighbours is the same.
+    private void addAffectedPieces(int packedPos) {
+        addAffectedPiece(packedPos);
+        for (int d = 0, n = topology.getDirectionCount(); d < n; ++d) {
+            addAffectedPiece(topology.step(packedPos, d));
+        }
+    }
+
+    private void addAffectedPiece(int packedPos) {
+        int i = piecePositions.indexOfPacked(packedPos);
+        if (i >= 0) {
+            affectedPieces.add(i);
+        }
+    }
+
+    private void relabelAffectedGroups() {
+        nextMark();
+        // Count the old groups that contain affected pieces; these are removed.
+        int removedGroups = 0;
+        for (int i = affectedPieces.first(); i >= 0; i = affectedPieces.next(i + 1)) {
+            int label = labels[i];
+            if (labelMarks[label] != mark) {
+                labelMarks[label] = mark;
+                ++removedGroups;
+            }
+        }
+        // Find the new groups that contain affected pieces; these are added. Together they cover
+        // all pieces of the removed groups.
+        int addedGroups = 0;
+        for (int i = affectedPieces.first(); i >= 0; i = affectedPieces.next(i + 1)) {
+            if (visitMarks[i] != mark) {
+                relabelGroup(i);
+                ++addedGroups;
+            }
+        }
+        groupCount += addedGroups - removedGroups;
+    }
+
+    // Labels all pieces in the group of piece `first` with `first`, using breadth-first search.
+    private void relabelGroup(int first) {
+        int queueSize = 0;
+        visitMarks[first] = mark;
+        queue[queueSize++] = first;
+        for (int queuePos = 0; queuePos < queueSize; ++queuePos) {
+            int i = queue[queuePos];
+            labels[i] = first;
+            int pos = piecePositions.getPacked(i);
+            for (int mask = topology.getPathMask(i); mask != 0; mask &= mask - 1) {
+                int d = Integer.numberOfTrailingZeros(mask);
+                int j = piecePositions.indexOfPacked(topology.step(pos, d));
+                if (j >= 0 && visitMarks[j] != mark && topology.connects(i, d, j)) {
+                    visitMarks[j] = mark;
+                    queue[queueSize++] = j;
+                }
+            }
+        }
+    }
+
+    private void nextMark() {
+        if (++mark == 0) {
+            // Wrapped around; clear old marks so they can't be mistaken for the current one.
+            Arrays.fill(visitMarks, 0);
+            Arrays.fill(labelMarks, 0);
+            mark = 1;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package ch.verver.conhexion;
+
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A new version of a {@link PiecePositionIndex} that shares its data with the original, and stores
+ * only the positions of the pieces that were moved since.
+ *
+ * <p>Creating an instance takes constant time, and lookups and moves take time proportional to the
+ * number of moved pieces (which is typically small). {@link #toPosList} returns a list that is
+ * derived from the base index's current list (see {@link PosList#isDerivedFrom}), so that applying
+ * it to the base index with {@link PiecePositionIndex#assign(PosList)} only updates the moved
+ * pieces.
+ *
+ * <p>The base index must not be modified while this instance is in use.
+ */
+class CopyOnWritePiecePositionIndex implements ReadonlyPiecePositionIndex {
+
+    private final PiecePositionIndex base;
+
+    // Indices and new packed positions of pieces that have been moved. Only the first
+    // `changedCount` elements are used.
+    private int[] changedIndices = new int[4];
+    private int[] changedPositions = new int[4];
+    private int changedCount = 0;
+
+    // Zobrist hash of the current positions: the base index's hash, updated for each move.
+    private long hash;
+
+    public CopyOnWritePiecePositionIndex(PiecePositionIndex base) {
+        this.base = base;
+        this.hash = base.getZobristHash();
+    }
+
+    /** Equivalent to {@link PiecePositionIndex#moveOrSwap}. */
+    public void moveOrSwap(int i, Pos dst) {
+        moveOrSwapPacked(i, dst.pack());
+    }
+
+    /** Equivalent to {@link PiecePositionIndex#moveOrSwapPacked}. */
+    public void moveOrSwapPacked(int i, int dst) {
+        int src = getPacked(i);
+        if (src == dst) {
+            return;
+        }
+        int j = indexOfPacked(dst);
+        if (j >= 0) {
+            setPacked(j, src);
+        }
+        setPacked(i, dst);
+    }
+
+    /** Equivalent to {@link PiecePositionIndex#moveAll}. */
+    public void moveAll(MoveBatch batch) {
+        batch.resolve(this);
+        for (int k = 0, n = batch.getChangeCount(); k < n; ++k) {
+            setPacked(batch.getChangedPiece(k), batch.getChangedPosition(k));
+        }
+    }
+
+    private void setPacked(int i, int packedPos) {
+        int k = findChange(i);
+        if (k < 0) {
+            if (changedCount == changedIndices.length) {
+                changedIndices = grow(changedIndices);
+                changedPositions = grow(changedPositions);
+            }
+            k = changedCount++;
+            changedIndices[k] = i;
+            hash ^= Zobrist.key(i, base.getPacked(i));
+        } else {
+            hash ^= Zobrist.key(i, changedPositions[k]);
+        }
+        changedPositions[k] = packedPos;
+        hash ^= Zobrist.key(i, packedPos);
+    }
+
+    private static int[] grow(int[] array) {
+        int[] result = new int[array.length * 2];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+
+    /** Returns the slot in the changed arrays for piece i, or -1 if the piece hasn't moved. */
+    private int findChange(int i) {
+        for (int k = 0; k < changedCount; ++k) {
+            if (changedIndices[k] == i) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public ArrayList<Pos> toArrayList() {
+        ArrayList<Pos> result = new ArrayList<>(size());
+        for (int i = 0, n = size(); i < n; ++i) {
+            result.add(get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the current positions as a list derived from the base index's list, which can be
+     * applied to the base index efficiently.
+     */
+    @Override
+    public PosList toPosList() {
+        return base.toPosList().withChanges(changedIndices, changedPositions, changedCount);
+    }
+
+    @Override
+    public Rect getBoundingRect() {
+        int n = size();
+        if (n == 0) {
+            return new Rect(0, 0, 0, 0);
+        }
+        Rect result = new Rect(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE);
+        for (int i = 0; i < n; ++i) {
+            int pos = getPacked(i);
+            int x = Pos.unpackX(pos);
+            int y = Pos.unpackY(pos);
+            result.left = Math.min(result.left, x);
+            result.top = Math.min(result.top, y);
+            result.right = Math.max(result.right, x + 1);
+            result.bottom = Math.max(result.bottom, y + 1);
+        }
+        return result;
+    }
+
+    @Override
+    public int size() {
+        return base.size();
+    }
+
+    @Override
+    public Pos get(int i) {
+        return Pos.unpack(getPacked(i));
+    }
+
+    @Override
+    public int getPacked(int i) {
+        int k = findChange(i);
+        return k < 0 ? base.getPacked(i) : changedPositions[k];
+    }
+
+    @Override
+    public boolean contains(Pos pos) {
+        return indexOfPacked(pos.pack()) >= 0;
+    }
+
+    @Override
+    public boolean contains(int x, int y) {
+        return indexOfPacked(Pos.pack(x, y)) >= 0;
+    }
+
+    @Override
+    public int indexOf(Pos pos) {
+        return indexOfPacked(pos.pack());
+    }
+
+    @Override
+    public int indexOf(int x, int y) {
+        return indexOfPacked(Pos.pack(x, y));
+    }
+
+    @Override
+    public int indexOfPacked(int packedPos) {
+        for (int k = 0; k < changedCount; ++k) {
+            if (changedPositions[k] == packedPos) {
+                return changedIndices[k];
+            }
+        }
+        int i = base.indexOfPacked(packedPos);
+        // If the piece at this position in the base index has moved, the position is now empty.
+        return i >= 0 && findChange(i) < 0 ? i : -1;
+    }
+
+    @Override
+    public long getZobristHash() {
+        return hash;
+    }
+
+    @Override
+    @NonNull
+    public Iterator<Pos> iterator() {
+        return new Iterator<Pos>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < size();
+            }
+
+            @Override
+            public Pos next() {
+                if (index < size()) {
+                    return get(index++);
+                }
+                throw new NoSuchElementException();
+            }
+        };
+    }
+}
@@ -0,0 +1,205 @@
+package ch.verver.conhexion;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Knuth's Algorithm X with dancing links, for exact cover problems with primary and secondary
+ * items.
+ *
+ * <p>A solution is a set of rows that covers every primary item exactly once, and every secondary
+ * item at most once. Items are numbered from 0: first the primary items, then the secondary ones.
+ * The search always branches on the primary item with the fewest remaining rows.
+ *
+ * <p>All nodes are stored in parallel int arrays, which only grow while rows are added, so a
+ * search doesn't allocate. Node 0 is the root, nodes 1 through itemCount are the item headers, and
+ * the remaining nodes belong to rows, with each row's nodes stored consecutively.
+ */
+final class DancingLinks {
+
+    /** Receives the solutions found by {@link #search}. */
+    interface Visitor {
+        /**
+         * Called with the rows of a solution, in the first {@code count} elements of {@code rows}.
+         * The array is reused between calls. Returns whether to continue searching.
+         */
+        boolean visit(int[] rows, int count);
+    }
+
+    private final int primaryCount;
+    private final int itemCount;
+
+    // Links between nodes.
+    private int[] left, right, up, down;
+
+    // For each node: its item header. For each header: the number of rows that contain the item.
+    private int[] top;
+    private int[] length;
+
+    // For each row node: the index of its row.
+    private int[] rowOf;
+
+    private int nodeCount;
+    private int rowCount = 0;
+
+    // Scratch space for search(): the rows of the partial solution, by depth.
+    private int[] solution = new int[0];
+
+    // Set when a visitor asks to stop (per search), or when the search is cancelled (for good).
+    private boolean done;
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+
+    DancingLinks(int primaryCount, int secondaryCount) {
+        if (primaryCount < 0 || secondaryCount < 0) {
+            throw new IllegalArgumentException("invalid item count");
+        }
+        this.primaryCount = primaryCount;
+        this.itemCount = primaryCount + secondaryCount;
+        int capacity = Math.max(16, 2 * (itemCount + 1));
+        left = new int[capacity];
+        right = new int[capacity];
+        up = new int[capacity];
+        down = new int[capacity];
+        top = new int[capacity];
+        length = new int[itemCount + 1];
+        rowOf = new int[capacity];
+
+        // The primary item headers form a circular list with the root. Secondary item headers
+        // link only to themselves, so they are never chosen to branch on.
+        for (int h = 0; h <= itemCount; ++h) {
+            up[h] = down[h] = h;
+            if (h <= primaryCount) {
+                left[h] = h == 0 ? primaryCount : h - 1;
+                right[h] = h == primaryCount ? 0 : h + 1;
+            } else {
+                left[h] = right[h] = h;
+            }
+        }
+        nodeCount = itemCount + 1;
+    }
+
+    int getPrimaryCount() {
+        return primaryCount;
+    }
+
+    int getItemCount() {
+        return itemCount;
+    }
+
+    int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Adds a row that covers the items in the first {@code count} elements of {@code items}, which
+     * must be distinct. Returns the index of the row.
+     */
+    int addRow(int[] items, int count) {
+        if (nodeCount + count > left.length) {
+            grow(Math.max(2 * left.length, nodeCount + count));
+        }
+        int first = nodeCount;
+        for (int k = 0; k < count; ++k) {
+            int item = items[k];
+            if (item < 0 || item >= itemCount) {
+                throw new IllegalArgumentException("invalid item " + item);
+            }
+            int h = item + 1;
+            int node = nodeCount++;
+            top[node] = h;
+            rowOf[node] = rowCount;
+            up[node] = up[h];
+            down[node] = h;
+            down[up[h]] = node;
+            up[h] = node;
+            ++length[h];
+            left[node] = k == 0 ? first + count - 1 : node - 1;
+            right[node] = k == count - 1 ? first : node + 1;
+        }
+        return rowCount++;
+    }
+
+    /** Stops the current search (and any later one) as soon as possible. Thread-safe. */
+    void cancel() {
+        cancelled.set(true);
+    }
+
+    /**
+     * Passes solutions to {@code visitor} until it returns false, the search is cancelled, or all
+     * solutions have been found. Returns the number of solutions visited. The links are restored
+     * afterwards, so a structure can be searched more than once.
+     */
+    long search(Visitor visitor) {
+        done = false;
+        if (solution.length < primaryCount) {
+            solution = new int[primaryCount];
+        }
+        return search(visitor, 0, 0);
+    }
+
+    private long search(Visitor visitor, int depth, long count) {
+        if (right[0] == 0) {
+            if (!visitor.visit(solution, depth)) {
+                done = true;
+            }
+            return count + 1;
+        }
+        int best = right[0];
+        for (int h = right[best]; h != 0 && length[best] > 0; h = right[h]) {
+            if (length[h] < length[best]) {
+                best = h;
+            }
+        }
+        if (length[best] == 0) {
+            return count;
+        }
+        cover(best);
+        for (int r = down[best]; r != best && !done && !cancelled.get(); r = down[r]) {
+            solution[depth] = rowOf[r];
+            for (int j = right[r]; j != r; j = right[j]) {
+                cover(top[j]);
+            }
+            count = search(visitor, depth + 1, count);
+            for (int j = left[r]; j != r; j = left[j]) {
+                uncover(top[j]);
+            }
+        }
+        uncover(best);
+        return count;
+    }
+
+    // Removes item header h from the header list, and all rows that contain h from other items.
+    private void cover(int h) {
+        right[left[h]] = right[h];
+        left[right[h]] = left[h];
+        for (int i = down[h]; i != h; i = down[i]) {
+            for (int j = right[i]; j != i; j = right[j]) {
+                up[down[j]] = up[j];
+                down[up[j]] = down[j];
+                --length[top[j]];
+            }
+        }
+    }
+
+    // Exactly undoes cover(h).
+    private void uncover(int h) {
+        for (int i = up[h]; i != h; i = up[i]) {
+            for (int j = left[i]; j != i; j = left[j]) {
+                ++length[top[j]];
+                up[down[j]] = j;
+                down[up[j]] = j;
+            }
+        }
+        right[left[h]] = h;
+        left[right[h]] = h;
+    }
+
+    private void grow(int capacity) {
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        up = Arrays.copyOf(up, capacity);
+        down = Arrays.copyOf(down, capacity);
+        top = Arrays.copyOf(top, capacity);
+        rowOf = Arrays.copyOf(rowOf, capacity);
+    }
+}
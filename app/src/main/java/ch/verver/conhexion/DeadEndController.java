@@ -0,0 +1,163 @@
+package ch.verver.conhexion;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.MainThread;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleObserver;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Observer;
+import androidx.lifecycle.OnLifecycleEvent;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks the boards for dead ends (see {@link DeadEndDetector}) in the background after every
+ * move, and publishes the results to {@link AppState#getRectPuzzleDeadEnds} and
+ * {@link AppState#getHexPuzzleDeadEnds}. When a check finds a dead end while the previous check of
+ * the same puzzle didn't, it's also published to {@link AppState#getDeadEndWarning}. Since the
+ * previous results are kept in the app state, checking the same board again (e.g. after a
+ * configuration change recreates the controller) doesn't repeat the warning.
+ *
+ * <p>Each board change increments the version of its puzzle's board. Checks run one at a time on
+ * a background thread; a check is skipped or abandoned when its version is outdated, so a burst of
+ * moves only results in a check of the final board. Results are delivered on the main thread, and
+ * only if their version is still current, so published dead ends never refer to an outdated board.
+ */
+class DeadEndController implements LifecycleObserver {
+
+    /** The result of checking a board. */
+    static final class Report {
+        final FragmentId puzzle;
+        final PosList positions;
+        final List<DeadEndDetector.Contradiction> contradictions;
+
+        Report(FragmentId puzzle, PosList positions, List<DeadEndDetector.Contradiction> contradictions) {
+            this.puzzle = puzzle;
+            this.positions = positions;
+            this.contradictions = contradictions;
+        }
+    }
+
+    private final class Check implements Runnable {
+        final Board board;
+        final PosList positions;
+        final long version;
+
+        Check(Board board, PosList positions, long version) {
+            this.board = board;
+            this.positions = positions;
+            this.version = version;
+        }
+
+        // Runs on the background thread.
+        @Override
+        public void run() {
+            if (board.version.get() != version) {
+                return;  // Superseded before it started.
+            }
+            List<DeadEndDetector.Contradiction> contradictions =
+                    board.detector.check(positions, board.version, version);
+            if (contradictions == null) {
+                return;  // Superseded while running.
+            }
+            Report report = new Report(board.puzzle, positions, contradictions);
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    finish(Check.this, report);
+                }
+            });
+        }
+    }
+
+    // The state of one puzzle. The detector is only used on the background thread.
+    private static final class Board {
+        final FragmentId puzzle;
+        final DeadEndDetector detector;
+        final MutableLiveData<Report> reports;
+        final AtomicLong version = new AtomicLong();
+
+        Board(FragmentId puzzle, GridTopology<?> topology, MutableLiveData<Report> reports) {
+            this.puzzle = puzzle;
+            this.detector = new DeadEndDetector(topology);
+            this.reports = reports;
+        }
+    }
+
+    private final AppState appState;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Board rectBoard;
+    private final Board hexBoard;
+
+    public static DeadEndController attach(AppState appState, LifecycleOwner lifecycleOwner) {
+        return new DeadEndController(appState, lifecycleOwner);
+    }
+
+    private DeadEndController(AppState appState, LifecycleOwner lifecycleOwner) {
+        this.appState = appState;
+        this.rectBoard = new Board(
+                FragmentId.RECT_PUZZLE, RectPuzzle.TOPOLOGY, appState.getRectPuzzleDeadEnds());
+        this.hexBoard = new Board(
+                FragmentId.HEX_PUZZLE, HexPuzzle.TOPOLOGY, appState.getHexPuzzleDeadEnds());
+
+        appState.getRectPuzzlePiecePositions().observe(lifecycleOwner,
+                new Observer<PosList>() {
+                    @Override
+                    public void onChanged(PosList newValue) {
+                        boardChanged(rectBoard, newValue);
+                    }
+                });
+        appState.getHexPuzzlePiecePositions().observe(lifecycleOwner,
+                new Observer<PosList>() {
+                    @Override
+                    public void onChanged(PosList newValue) {
+                        boardChanged(hexBoard, newValue);
+                    }
+                });
+
+        lifecycleOwner.getLifecycle().addObserver(this);
+    }
+
+    @OnLifecycleEvent(Lifecycle.Event.ON_DESTROY)
+    void destroy() {
+        LogUtil.i("DeadEndController: destroy");
+        // Outdates running and pending checks.
+        rectBoard.version.incrementAndGet();
+        hexBoard.version.incrementAndGet();
+        executor.shutdown();
+    }
+
+    @MainThread
+    private void boardChanged(Board board, PosList positions) {
+        if (positions == null || executor.isShutdown()) {
+            return;
+        }
+        long version = board.version.incrementAndGet();
+        executor.execute(new Check(board, positions, version));
+    }
+
+    @MainThread
+    private void finish(Check check, Report report) {
+        if (check.board.version.get() != check.version) {
+            return;  // The board changed since the check started.
+        }
+        if (!report.contradictions.isEmpty()) {
+            LogUtil.i("DeadEndController: %d contradictions in %s",
+                    report.contradictions.size(), report.puzzle);
+        }
+        Report previous = check.board.reports.getValue();
+        check.board.reports.setValue(report);
+        // Only warn when a dead end first appears, not after every move that keeps it.
+        if (!report.contradictions.isEmpty()
+                && (previous == null || previous.contradictions.isEmpty())) {
+            appState.getDeadEndWarning().setValue(report);
+        }
+    }
+}
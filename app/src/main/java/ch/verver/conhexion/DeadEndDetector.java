@@ -0,0 +1,458 @@
+package ch.verver.conhexion;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Detects arrangements that can't be part of any solution, as long as the placed pieces stay where
+ * they are.
+ *
+ * <p>Pieces that touch another piece are considered placed; the other (free) pieces are the ones
+ * available to fill empty cells. An empty cell next to a placed piece with a path towards it is
+ * demanded: it must be filled by a free piece with paths towards exactly the placed neighbours that
+ * have paths towards the cell, and no paths towards cells that must stay empty. The detector
+ * reports:
+ *
+ * <ul>
+ *   <li>{@link Contradiction.Kind#BLOCKED_CELL}: a demanded cell next to a placed piece without a
+ *       path towards it.
+ *   <li>{@link Contradiction.Kind#UNFILLABLE_CELL}: a demanded cell that no free piece fits.
+ *   <li>{@link Contradiction.Kind#TOO_FEW_PIECES}: more demanded cells than free pieces.
+ *   <li>{@link Contradiction.Kind#INCONSISTENT_CELLS}: demanded cells that can't all be filled,
+ *       found by constraint propagation: each cell keeps a domain of fitting free pieces, pieces
+ *       forced into one cell are removed from the others, and pieces are removed from a cell if no
+ *       remaining piece of an adjacent demanded cell matches them along the shared side. Each
+ *       domain also keeps the placed pieces that caused its reductions, which are the pieces
+ *       reported when a domain becomes empty.
+ *   <li>{@link Contradiction.Kind#ILLEGAL_HOLE}: a small hole (see {@link HoleTracker}) enclosed
+ *       by placed pieces that has demanded cells, but can't be filled consistently, as determined
+ *       by an exhaustive search over its cells.
+ * </ul>
+ *
+ * <p>All checks are conservative: a reported contradiction is certain, but not every dead end is
+ * detected. The detector is meant to run on a background thread after every move. It's
+ * incremental like {@link ProgressTracker}: if the positions were derived from the previously
+ * checked positions, only the holes around the moved pieces are recalculated. It also caches the
+ * results of hole searches, which are the expensive part, by the hole and its surroundings.
+ * Checks are abandoned as soon as the board version they were started for is outdated. Instances
+ * are not thread-safe.
+ */
+final class DeadEndDetector {
+
+    /** Largest hole that is searched exhaustively. */
+    static final int MAX_HOLE_SIZE = 12;
+
+    /** Maximum number of search nodes per hole, after which the hole is assumed to be fine. */
+    static final int MAX_HOLE_SEARCH_NODES = 100_000;
+
+    private static final int MAX_CACHED_HOLES = 1024;
+
+    /** A reason why the placed pieces can't be part of a solution. */
+    static final class Contradiction {
+        enum Kind { BLOCKED_CELL, UNFILLABLE_CELL, TOO_FEW_PIECES, INCONSISTENT_CELLS, ILLEGAL_HOLE }
+
+        final Kind kind;
+
+        /** Packed position of an empty cell where the contradiction occurs. */
+        final int packedPos;
+
+        /** The placed pieces involved. */
+        final PieceSet pieces;
+
+        Contradiction(Kind kind, int packedPos, PieceSet pieces) {
+            this.kind = kind;
+            this.packedPos = packedPos;
+            this.pieces = pieces;
+        }
+    }
+
+    private final GridTopology<?> topology;
+    private final int pieceCount;
+    private final int directionCount;
+
+    // The positions and result of the last completed check.
+    @Nullable private PosList lastPositions;
+    private List<Contradiction> lastResult = Collections.emptyList();
+
+    // Results of hole searches, by hash of the hole, its surroundings and the free pieces.
+    private final HashMap<Long, Boolean> holeCache = new HashMap<>();
+
+    // The positions of the current (or most recent) check, and their holes.
+    private final PiecePositionIndex positions = new PiecePositionIndex();
+    private final HoleTracker holes;
+
+    // State of the current check.
+    private long placedPieces;
+    private long freePieces;
+    private final HashMap<Integer, Integer> cellIndex = new HashMap<>();
+    private final ArrayList<Cell> demandedCells = new ArrayList<>();
+    private int holeSearchNodes;
+
+    /** An empty demanded cell, and its domain during propagation. */
+    private static final class Cell {
+        final int packedPos;
+        final long pointingPieces;
+        long domain;
+        long reasons;
+        boolean contradicted = false;
+
+        Cell(int packedPos, long pointingPieces) {
+            this.packedPos = packedPos;
+            this.pointingPieces = pointingPieces;
+            this.reasons = pointingPieces;
+        }
+    }
+
+    DeadEndDetector(GridTopology<?> topology) {
+        this.topology = topology;
+        this.pieceCount = topology.getPieceCount();
+        this.directionCount = topology.getDirectionCount();
+        this.holes = new HoleTracker(topology, positions);
+        if (pieceCount >= Long.SIZE) {
+            throw new IllegalArgumentException("too many pieces");
+        }
+    }
+
+    /**
+     * Returns the contradictions in the given arrangement, or null if {@code boardVersion} stopped
+     * being equal to {@code version} before the check completed, in which case the result would be
+     * outdated anyway.
+     */
+    @Nullable
+    List<Contradiction> check(PosList piecePositions, AtomicLong boardVersion, long version) {
+        if (piecePositions.equals(lastPositions)) {
+            return lastResult;
+        }
+        PosList oldPositions = positions.toPosList();
+        positions.assign(piecePositions);
+        holes.update(oldPositions, piecePositions);
+        ArrayList<Contradiction> result = new ArrayList<>();
+        cellIndex.clear();
+        demandedCells.clear();
+
+        placedPieces = 0;
+        for (int i = 0; i < pieceCount; ++i) {
+            for (int d = 0; d < directionCount; ++d) {
+                if (positions.indexOfPacked(topology.step(positions.getPacked(i), d)) >= 0) {
+                    placedPieces |= 1L << i;
+                    break;
+                }
+            }
+        }
+        freePieces = (pieceCount == 0 ? 0 : -1L >>> (Long.SIZE - pieceCount)) & ~placedPieces;
+
+        findDemandedCells(result);
+        propagate(result);
+        if (boardVersion.get() != version) {
+            return null;
+        }
+        if (!checkHoles(result, boardVersion, version)) {
+            return null;
+        }
+
+        lastPositions = piecePositions;
+        lastResult = Collections.unmodifiableList(result);
+        return lastResult;
+    }
+
+    // Returns the placed piece at the given position, or -1 if there is none.
+    private int getPlacedPiece(int packedPos) {
+        int i = positions.indexOfPacked(packedPos);
+        return i >= 0 && (placedPieces & (1L << i)) != 0 ? i : -1;
+    }
+
+    // Returns whether an empty cell must stay empty, because a placed neighbour has no path
+    // towards it.
+    private boolean mustStayEmpty(int packedPos) {
+        for (int d = 0; d < directionCount; ++d) {
+            int p = getPlacedPiece(topology.step(packedPos, d));
+            if (p >= 0 && !topology.hasPath(p, topology.opposite(d))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns the free pieces that can be placed in the empty cell, given its placed neighbours
+    // and its empty neighbours that must stay empty. Ignores other empty cells.
+    private long getFittingPieces(int packedPos) {
+        int required = 0;
+        int forbidden = 0;
+        for (int d = 0; d < directionCount; ++d) {
+            int neighbour = topology.step(packedPos, d);
+            int p = getPlacedPiece(neighbour);
+            if (p >= 0) {
+                if (topology.hasPath(p, topology.opposite(d))) {
+                    required |= 1 << d;
+                } else {
+                    forbidden |= 1 << d;
+                }
+            } else if (mustStayEmpty(neighbour)) {
+                forbidden |= 1 << d;
+            }
+        }
+        long result = 0;
+        for (long pieces = freePieces; pieces != 0; pieces &= pieces - 1) {
+            int i = Long.numberOfTrailingZeros(pieces);
+            int mask = topology.getPathMask(i);
+            if ((mask & required) == required && (mask & forbidden) == 0) {
+                result |= 1L << i;
+            }
+        }
+        return result;
+    }
+
+    private void findDemandedCells(List<Contradiction> result) {
+        for (long pieces = placedPieces; pieces != 0; pieces &= pieces - 1) {
+            int p = Long.numberOfTrailingZeros(pieces);
+            for (int d = 0; d < directionCount; ++d) {
+                int cell = topology.step(positions.getPacked(p), d);
+                if (!topology.hasPath(p, d) || positions.indexOfPacked(cell) >= 0
+                        || cellIndex.containsKey(cell)) {
+                    continue;
+                }
+                long pointing = 0, blocking = 0;
+                for (int e = 0; e < directionCount; ++e) {
+                    int q = getPlacedPiece(topology.step(cell, e));
+                    if (q >= 0) {
+                        if (topology.hasPath(q, topology.opposite(e))) {
+                            pointing |= 1L << q;
+                        } else {
+                            blocking |= 1L << q;
+                        }
+                    }
+                }
+                Cell demanded = new Cell(cell, pointing);
+                cellIndex.put(cell, demandedCells.size());
+                demandedCells.add(demanded);
+                if (blocking != 0) {
+                    demanded.contradicted = true;
+                    result.add(new Contradiction(Contradiction.Kind.BLOCKED_CELL, cell,
+                            toPieceSet(pointing | blocking)));
+                    continue;
+                }
+                demanded.domain = getFittingPieces(cell);
+                if (demanded.domain == 0) {
+                    demanded.contradicted = true;
+                    result.add(new Contradiction(Contradiction.Kind.UNFILLABLE_CELL, cell,
+                            toPieceSet(pointing)));
+                }
+            }
+        }
+        if (demandedCells.size() > Long.bitCount(freePieces)) {
+            long pointing = 0;
+            for (Cell cell : demandedCells) {
+                pointing |= cell.pointingPieces;
+            }
+            result.add(new Contradiction(Contradiction.Kind.TOO_FEW_PIECES,
+                    demandedCells.get(0).packedPos, toPieceSet(pointing)));
+        }
+    }
+
+    // Propagates constraints between the demanded cells until nothing changes, or some domain
+    // becomes empty, which is reported as a contradiction.
+    private void propagate(List<Contradiction> result) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Cell cell : demandedCells) {
+                if (cell.contradicted || Long.bitCount(cell.domain) != 1) {
+                    continue;
+                }
+                for (Cell other : demandedCells) {
+                    if (other != cell && !other.contradicted && (other.domain & cell.domain) != 0) {
+                        other.domain &= ~cell.domain;
+                        other.reasons |= cell.reasons;
+                        changed = true;
+                        if (other.domain == 0) {
+                            reportInconsistency(other, result);
+                            return;
+                        }
+                    }
+                }
+            }
+            for (Cell cell : demandedCells) {
+                if (cell.contradicted) {
+                    continue;
+                }
+                for (int d = 0; d < directionCount; ++d) {
+                    Integer k = cellIndex.get(topology.step(cell.packedPos, d));
+                    if (k == null || demandedCells.get(k).contradicted) {
+                        continue;
+                    }
+                    Cell other = demandedCells.get(k);
+                    long supported = getSupported(cell.domain, d, other.domain);
+                    if (supported != cell.domain) {
+                        cell.domain = supported;
+                        cell.reasons |= other.reasons;
+                        changed = true;
+                        if (supported == 0) {
+                            reportInconsistency(cell, result);
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Returns the pieces in `domain` that match some other piece in `otherDomain` (of the
+    // neighbouring cell in direction d) along the shared side.
+    private long getSupported(long domain, int d, long otherDomain) {
+        int back = topology.opposite(d);
+        long withPath = 0, withoutPath = 0;
+        for (long pieces = otherDomain; pieces != 0; pieces &= pieces - 1) {
+            int j = Long.numberOfTrailingZeros(pieces);
+            if (topology.hasPath(j, back)) {
+                withPath |= 1L << j;
+            } else {
+                withoutPath |= 1L << j;
+            }
+        }
+        long result = 0;
+        for (long pieces = domain; pieces != 0; pieces &= pieces - 1) {
+            int i = Long.numberOfTrailingZeros(pieces);
+            long matching = topology.hasPath(i, d) ? withPath : withoutPath;
+            if ((matching & ~(1L << i)) != 0) {
+                result |= 1L << i;
+            }
+        }
+        return result;
+    }
+
+    private void reportInconsistency(Cell cell, List<Contradiction> result) {
+        cell.contradicted = true;
+        result.add(new Contradiction(Contradiction.Kind.INCONSISTENT_CELLS, cell.packedPos,
+                toPieceSet(cell.reasons)));
+    }
+
+    // Searches the small holes with demanded cells. Returns false if the check became outdated.
+    private boolean checkHoles(List<Contradiction> result, AtomicLong boardVersion, long version) {
+        for (int h = 0; h < holes.getHoleCount(); ++h) {
+            int size = holes.getHoleSize(h);
+            if (size > MAX_HOLE_SIZE) {
+                continue;
+            }
+            int[] cells = new int[size];
+            boolean demanded = false, contradicted = false, enclosed = true;
+            long boundary = 0;
+            long hash = freePieces * 0x9E3779B97F4A7C15L;
+            for (int k = 0; k < size; ++k) {
+                int cell = holes.getHoleCell(h, k);
+                cells[k] = cell;
+                hash ^= Zobrist.key(pieceCount, cell);
+                Integer index = cellIndex.get(cell);
+                if (index != null) {
+                    demanded = true;
+                    contradicted |= demandedCells.get(index).contradicted;
+                }
+                for (int d = 0; d < directionCount; ++d) {
+                    int neighbour = topology.step(cell, d);
+                    int i = positions.indexOfPacked(neighbour);
+                    if (i >= 0) {
+                        if ((placedPieces & (1L << i)) == 0) {
+                            enclosed = false;  // Free pieces will move.
+                        } else if ((boundary & (1L << i)) == 0) {
+                            boundary |= 1L << i;
+                            hash ^= Zobrist.key(i, neighbour);
+                        }
+                    }
+                }
+            }
+            if (!demanded || contradicted || !enclosed) {
+                continue;
+            }
+            Boolean fillable = holeCache.get(hash);
+            if (fillable == null) {
+                holeSearchNodes = 0;
+                int[] pieces = new int[size];
+                fillable = fillHole(cells, pieces, 0, freePieces) || holeSearchNodes >= MAX_HOLE_SEARCH_NODES;
+                if (boardVersion.get() != version) {
+                    return false;
+                }
+                if (holeCache.size() >= MAX_CACHED_HOLES) {
+                    holeCache.clear();
+                }
+                holeCache.put(hash, fillable);
+            }
+            if (!fillable) {
+                result.add(new Contradiction(Contradiction.Kind.ILLEGAL_HOLE, cells[0],
+                        toPieceSet(boundary)));
+            }
+        }
+        return true;
+    }
+
+    // Tries to assign a free piece or nothing (-1) to each cell of the hole from cell k onwards,
+    // consistently with the placed pieces and the cells before k. Returns whether that's possible.
+    private boolean fillHole(int[] cells, int[] pieces, int k, long available) {
+        if (k == cells.length) {
+            return true;
+        }
+        if (++holeSearchNodes >= MAX_HOLE_SEARCH_NODES) {
+            return false;
+        }
+        if (fits(cells, pieces, k, -1) && fillHole(cells, pieces, k + 1, available)) {
+            return true;
+        }
+        for (long candidates = available; candidates != 0; candidates &= candidates - 1) {
+            int i = Long.numberOfTrailingZeros(candidates);
+            if (fits(cells, pieces, k, i)) {
+                pieces[k] = i;
+                if (fillHole(cells, pieces, k + 1, available & ~(1L << i))) {
+                    return true;
+                }
+                if (holeSearchNodes >= MAX_HOLE_SEARCH_NODES) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Returns whether piece i (or nothing, if i < 0) in cells[k] is consistent with its placed
+    // neighbours and the cells before k. Paths must connect both ways, and occupied neighbours
+    // must be connected. Cells of the hole after k don't constrain the piece yet.
+    private boolean fits(int[] cells, int[] pieces, int k, int i) {
+        pieces[k] = i;
+        for (int d = 0; d < directionCount; ++d) {
+            int neighbour = topology.step(cells[k], d);
+            int j = getPlacedPiece(neighbour);
+            if (j < 0) {
+                int m = indexOf(cells, neighbour, k);
+                if (m < 0) {
+                    continue;  // Later cell of the hole.
+                }
+                j = pieces[m];
+            }
+            boolean path = i >= 0 && topology.hasPath(i, d);
+            boolean backPath = j >= 0 && topology.hasPath(j, topology.opposite(d));
+            if (path != backPath || (i >= 0 && j >= 0 && !path)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(int[] cells, int cell, int end) {
+        for (int m = 0; m < end; ++m) {
+            if (cells[m] == cell) {
+                return m;
+            }
+        }
+        return -1;
+    }
+
+    private static PieceSet toPieceSet(long pieces) {
+        PieceSet result = new PieceSet();
+        for (; pieces != 0; pieces &= pieces - 1) {
+            result.add(Long.numberOfTrailingZeros(pieces));
+        }
+        return result;
+    }
+}
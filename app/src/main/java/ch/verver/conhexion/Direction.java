@@ -3,5 +3,12 @@ package ch.verver.conhexion;
 interface Direction {
     Direction opposite();
     Pos step(Pos pos);
+
+    /**
+     * Equivalent to {@link #step(Pos)}, but operates on packed positions (see {@link Pos#pack}) so
+     * no objects are allocated.
+     */
+    int stepPacked(int packedPos);
+
     boolean hasPath(int pieceIndex);
 }
@@ -0,0 +1,161 @@
+package ch.verver.conhexion;
+
+/**
+ * Encodes the puzzle, restricted to a rectangular window of cells, as an exact cover problem for
+ * {@link DancingLinks}.
+ *
+ * <p>There is a row for each piece in each cell (a placement), and one for each cell that stays
+ * empty. The primary items are the pieces and the cells, so every piece is placed exactly once,
+ * and every cell is either occupied by one piece or empty.
+ *
+ * <p>The side constraints between neighbours are encoded with secondary items, five per pair of
+ * neighbouring cells. Each cell has one of three states towards a neighbour: a path (P), an
+ * occupied side without a path (W), or empty (E). Of the nine combinations for the two sides,
+ * only P-P, W-E, E-W and E-E are allowed. Each of the five forbidden combinations has its own
+ * item, which the two rows that form it both cover, so they can't both be chosen. Placements with
+ * a path that leaves the window are omitted.
+ *
+ * <p>Solutions therefore have no disconnections or overlaps, but can consist of several groups,
+ * and include all translations that fit in the window.
+ */
+final class ExactCoverEncoder {
+
+    // Secondary items of a pair of neighbours (low, high), where low is the cell from which the
+    // direction is the lower of a pair of opposite directions. Named by the forbidden combination
+    // of the low side's state and the high side's state.
+    private static final int PW = 0, PE = 1, WP = 2, WW = 3, EP = 4;
+    private static final int ITEMS_PER_EDGE = 5;
+
+    // The items covered by the low and high side of an edge, indexed by state: P, W, E.
+    private static final int[][] LOW_ITEMS = {{PW, PE}, {WP, WW}, {EP}};
+    private static final int[][] HIGH_ITEMS = {{WP, EP}, {PW, WW}, {PE}};
+    private static final int P = 0, W = 1, E = 2;
+
+    private final GridTopology<?> topology;
+    private final int width;
+    private final int height;
+    private final int pieceCount;
+    private final int directionCount;
+
+    // For each direction: its index among the lower directions, or -1 if it's a higher direction.
+    private final int[] edgeIndex;
+    private final int edgesPerCell;
+
+    // For each row: the piece placed, or -1 for empty rows; and the cell index.
+    private final int[] rowPieces;
+    private final int[] rowCells;
+
+    private final DancingLinks links;
+
+    /**
+     * Builds the exact cover problem for all pieces of {@code topology} in the cells (x, y) with
+     * 0 &le; x &lt; width and 0 &le; y &lt; height.
+     */
+    ExactCoverEncoder(GridTopology<?> topology, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("invalid window size");
+        }
+        this.topology = topology;
+        this.width = width;
+        this.height = height;
+        this.pieceCount = topology.getPieceCount();
+        this.directionCount = topology.getDirectionCount();
+        this.edgeIndex = new int[directionCount];
+        int edges = 0;
+        for (int d = 0; d < directionCount; ++d) {
+            edgeIndex[d] = d < topology.opposite(d) ? edges++ : -1;
+        }
+        this.edgesPerCell = edges;
+
+        int cellCount = width * height;
+        int primaryCount = pieceCount + cellCount;
+        this.links = new DancingLinks(primaryCount, cellCount * edgesPerCell * ITEMS_PER_EDGE);
+        int maxRows = cellCount * (pieceCount + 1);
+        this.rowPieces = new int[maxRows];
+        this.rowCells = new int[maxRows];
+
+        int[] items = new int[2 + 2 * directionCount];
+        for (int cell = 0; cell < cellCount; ++cell) {
+            for (int i = -1; i < pieceCount; ++i) {
+                int count = encodeRow(cell, i, items);
+                if (count > 0) {
+                    int row = links.addRow(items, count);
+                    rowPieces[row] = i;
+                    rowCells[row] = cell;
+                }
+            }
+        }
+    }
+
+    // Writes the items of the row that places piece i (or nothing, if i == -1) in `cell`, and
+    // returns their count, or 0 if the piece has a path that leaves the window.
+    private int encodeRow(int cell, int i, int[] items) {
+        int count = 0;
+        if (i >= 0) {
+            items[count++] = i;
+        }
+        items[count++] = pieceCount + cell;
+        int pos = cellPos(cell);
+        for (int d = 0; d < directionCount; ++d) {
+            int state = i < 0 ? E : topology.hasPath(i, d) ? P : W;
+            int neighbour = posCell(topology.step(pos, d));
+            if (neighbour < 0) {
+                if (state == P) {
+                    return 0;
+                }
+                continue;
+            }
+            int[] sideItems;
+            int edge;
+            if (edgeIndex[d] >= 0) {
+                sideItems = LOW_ITEMS[state];
+                edge = cell * edgesPerCell + edgeIndex[d];
+            } else {
+                sideItems = HIGH_ITEMS[state];
+                edge = neighbour * edgesPerCell + edgeIndex[topology.opposite(d)];
+            }
+            for (int item : sideItems) {
+                items[count++] = pieceCount + width * height + edge * ITEMS_PER_EDGE + item;
+            }
+        }
+        return count;
+    }
+
+    private int cellPos(int cell) {
+        return Pos.pack(cell % width, cell / width);
+    }
+
+    // Returns the cell index of a packed position, or -1 if it's outside the window.
+    private int posCell(int packedPos) {
+        int x = Pos.unpackX(packedPos);
+        int y = Pos.unpackY(packedPos);
+        return x < 0 || x >= width || y < 0 || y >= height ? -1 : y * width + x;
+    }
+
+    DancingLinks getLinks() {
+        return links;
+    }
+
+    /**
+     * Writes the packed positions (see {@link Pos#pack}) of the pieces in a solution, given as the
+     * first {@code count} elements of {@code rows}, to {@code packedPositions}, indexed by piece.
+     */
+    void decode(int[] rows, int count, int[] packedPositions) {
+        for (int k = 0; k < count; ++k) {
+            int i = rowPieces[rows[k]];
+            if (i >= 0) {
+                packedPositions[i] = cellPos(rowCells[rows[k]]);
+            }
+        }
+    }
+
+    /** Returns an encoder for the rectangular puzzle (15 pieces) in the given window. */
+    static ExactCoverEncoder forRectPuzzle(int width, int height) {
+        return new ExactCoverEncoder(RectPuzzle.TOPOLOGY, width, height);
+    }
+
+    /** Returns an encoder for the hexagonal puzzle (63 pieces) in the given window. */
+    static ExactCoverEncoder forHexPuzzle(int width, int height) {
+        return new ExactCoverEncoder(HexPuzzle.TOPOLOGY, width, height);
+    }
+}
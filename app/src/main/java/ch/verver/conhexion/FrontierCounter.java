@@ -0,0 +1,421 @@
+package ch.verver.conhexion;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Counts the configurations of all pieces in a rectangular window of cells, with no disconnections
+ * or overlaps, using a frontier-based dynamic program (a transfer matrix).
+ *
+ * <p>Cells are processed column by column, and top to bottom within each column. After each cell,
+ * only the processed cells that still have unprocessed neighbours (the frontier: the last few cells
+ * processed) can affect the rest of the configuration. The state of a partial configuration is
+ * therefore the set of pieces used, plus for each frontier cell: whether it's occupied, which of
+ * its forward directions (towards unprocessed cells) have dangling paths, and, when counting single
+ * groups, a label of its group, so that the labels partition the frontier into groups. States are
+ * counted in a {@link FrontierStateTable}, which spills to memory-mapped files when it outgrows
+ * the heap.
+ *
+ * <p>When a cell is processed, its processed neighbours determine whether it must be empty (an
+ * occupied neighbour without a path towards it), must be occupied (a neighbour with a path towards
+ * it), and which of its backward directions must have paths. A group is complete when its last
+ * cell leaves the frontier; for a single group, that's only valid if no other group is on the
+ * frontier and all pieces are used.
+ *
+ * <p>When anchored, only configurations that touch the first column and the first row are counted.
+ * Every configuration has exactly one such translation (in axial coordinates), so with a window
+ * large enough to contain all solutions, the anchored single-group count is the number of solutions
+ * up to translation. Without the single-group requirement, counts are only finite within a window,
+ * since groups can be arbitrarily far apart.
+ *
+ * <p>The grid is described by a {@link GridTopology}, so the same code counts configurations on
+ * the rectangular and the hexagonal grid, in the grid coordinates of {@link RectDirection} and
+ * {@link HexDirection} respectively.
+ *
+ * <p>Limitation: the frontier is encoded in a fixed 128 bits (two longs of the state), so the
+ * window height is limited by the number of bits per frontier cell: 16 rows for single-group
+ * counts on the hexagonal grid (8 bits per cell), and 18 rows on the rectangular grid (6 bits per
+ * cell). Taller windows are rejected by {@link #count}. This is enough to count the rectangular
+ * puzzle's solutions, which all fit in a 7x7 window. It does not count the hexagonal puzzle's
+ * solutions, which can be up to 22 rows tall: a wider frontier wouldn't help, since a frontier
+ * that tall, combined with the sets of 63 pieces used, gives far more states than can be stored.
+ * On the hexagonal grid, this class only counts configurations in windows of at most 16 rows.
+ */
+final class FrontierCounter {
+
+    private static final int LABEL_BITS = 4;
+    private static final int MAX_LABEL = (1 << LABEL_BITS) - 1;
+
+    // The high bit of the first state long records whether the first row was touched.
+    private static final long FIRST_ROW_FLAG = 1L << 63;
+
+    private final GridTopology<?> topology;
+    private final int width;
+    private final int height;
+    private final int cellCount;
+    private final int pieceCount;
+    private final int directionCount;
+    private final long allPieces;
+
+    // Forward directions point to cells that are processed later. forwardIndex[d] is the index of
+    // direction d among the forward directions, or -1 if it's a backward direction.
+    private final int[] forwardIndex;
+    private final int forwardCount;
+
+    // Number of frontier cells: the largest distance (in processing order) between neighbours.
+    private final int frontierSize;
+
+    // For cell c and backward direction d: the frontier slot of the neighbour at the time c is
+    // processed (0 is the oldest), or -1 if there is no neighbour in the window.
+    private final int[] neighbourSlots;
+
+    // fitting[(c << directionCount) | required] is the set of pieces that can be placed in cell c
+    // with paths in exactly the `required` backward directions, and no paths leaving the window.
+    private final long[] fitting;
+
+    private long heapLimitBytes = Long.MAX_VALUE;
+    @Nullable private File spillDirectory = null;
+    private long maxStates = 0;
+
+    FrontierCounter(GridTopology<?> topology, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("invalid window size");
+        }
+        this.topology = topology;
+        this.width = width;
+        this.height = height;
+        this.cellCount = width * height;
+        this.pieceCount = topology.getPieceCount();
+        this.directionCount = topology.getDirectionCount();
+        if (pieceCount >= Long.SIZE) {
+            throw new IllegalArgumentException("too many pieces");
+        }
+        this.allPieces = (1L << pieceCount) - 1;
+
+        this.forwardIndex = new int[directionCount];
+        int forward = 0;
+        for (int d = 0; d < directionCount; ++d) {
+            int step = topology.step(Pos.pack(0, 0), d);
+            int dx = Pos.unpackX(step), dy = Pos.unpackY(step);
+            forwardIndex[d] = dx > 0 || (dx == 0 && dy > 0) ? forward++ : -1;
+        }
+        this.forwardCount = forward;
+
+        int maxDistance = 1;
+        for (int c = 0; c < cellCount; ++c) {
+            for (int d = 0; d < directionCount; ++d) {
+                int n = neighbour(c, d);
+                if (n >= 0 && forwardIndex[d] < 0) {
+                    maxDistance = Math.max(maxDistance, c - n);
+                }
+            }
+        }
+        this.frontierSize = maxDistance;
+
+        this.neighbourSlots = new int[cellCount * directionCount];
+        this.fitting = new long[cellCount << directionCount];
+        for (int c = 0; c < cellCount; ++c) {
+            int leavingMask = 0;
+            for (int d = 0; d < directionCount; ++d) {
+                int n = neighbour(c, d);
+                neighbourSlots[c * directionCount + d] =
+                        n >= 0 && forwardIndex[d] < 0 ? frontierSize - (c - n) : -1;
+                if (n < 0) {
+                    leavingMask |= 1 << d;
+                }
+            }
+            for (int i = 0; i < pieceCount; ++i) {
+                int mask = topology.getPathMask(i);
+                if ((mask & leavingMask) == 0) {
+                    int required = 0;
+                    for (int d = 0; d < directionCount; ++d) {
+                        if ((mask & (1 << d)) != 0 && forwardIndex[d] < 0) {
+                            required |= 1 << d;
+                        }
+                    }
+                    fitting[(c << directionCount) | required] |= 1L << i;
+                }
+            }
+        }
+    }
+
+    // Returns the index of the neighbour of cell c in direction d, or -1 if it's outside the window.
+    private int neighbour(int c, int d) {
+        int pos = topology.step(Pos.pack(c / height, c % height), d);
+        int x = Pos.unpackX(pos), y = Pos.unpackY(pos);
+        return x < 0 || x >= width || y < 0 || y >= height ? -1 : x * height + y;
+    }
+
+    /**
+     * Sets the heap limit for each of the two state tables, beyond which they spill to
+     * memory-mapped files in {@code spillDirectory}. By default, tables never spill.
+     */
+    void setSpill(long heapLimitBytes, @Nullable File spillDirectory) {
+        this.heapLimitBytes = heapLimitBytes;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /** Returns the largest number of states after any cell in the last call to {@link #count}. */
+    long getMaxStates() {
+        return maxStates;
+    }
+
+    /**
+     * Returns the number of configurations of all pieces in the window, with no disconnections or
+     * overlaps.
+     *
+     * @param singleGroup whether to only count configurations that form a single group
+     * @param anchored whether to only count configurations that touch the first row and column
+     * @throws IllegalArgumentException if the window is too tall to encode the frontier (see the
+     *     class comment)
+     * @throws ArithmeticException if the count overflows
+     * @throws IOException if the state tables spill, and the files can't be created
+     */
+    long count(boolean singleGroup, boolean anchored) throws IOException {
+        int cellBits = 1 + forwardCount + (singleGroup ? LABEL_BITS : 0);
+        if (frontierSize * cellBits > 2 * Long.SIZE) {
+            throw new IllegalArgumentException("window too tall");
+        }
+        maxStates = 0;
+        try (FrontierStateTable initial = new FrontierStateTable(heapLimitBytes, spillDirectory);
+                FrontierStateTable other = new FrontierStateTable(heapLimitBytes, spillDirectory)) {
+            FrontierStateTable current = initial, next = other;
+            current.add(0, 0, 0, 1);
+            Step step = new Step(cellBits, singleGroup, anchored);
+            for (int c = 0; c < cellCount; ++c) {
+                step.cell = c;
+                for (long slot = 0; slot < current.getCapacity(); ++slot) {
+                    long count = current.getCount(slot);
+                    if (count != 0) {
+                        step.expand(current.getState(slot, 0), current.getState(slot, 1),
+                                current.getState(slot, 2), count, next);
+                    }
+                }
+                current.clear();
+                FrontierStateTable swap = current;
+                current = next;
+                next = swap;
+                maxStates = Math.max(maxStates, current.size());
+            }
+
+            long total = 0;
+            for (long slot = 0; slot < current.getCapacity(); ++slot) {
+                long count = current.getCount(slot);
+                if (count != 0 && step.isFinal(current.getState(slot, 0),
+                        current.getState(slot, 1), current.getState(slot, 2))) {
+                    total = FrontierStateTable.addCounts(total, count);
+                }
+            }
+            return total;
+        }
+    }
+
+    /** Computes the successors of states at a single cell. Holds scratch buffers. */
+    private final class Step {
+        final int cellBits;
+        final boolean singleGroup;
+        final boolean anchored;
+        final int codeMask;
+        final int labelShift;
+
+        // Codes of the frontier cells: bit 0 is set if the cell is occupied, the next forwardCount
+        // bits are its dangling forward paths, and the remaining bits are its group label.
+        final int[] codes = new int[frontierSize];
+
+        // Codes of the frontier after processing the cell, before dropping the oldest one.
+        final int[] nextCodes = new int[frontierSize + 1];
+        final int[] labelMap = new int[MAX_LABEL + 1];
+
+        int cell;
+
+        Step(int cellBits, boolean singleGroup, boolean anchored) {
+            this.cellBits = cellBits;
+            this.singleGroup = singleGroup;
+            this.anchored = anchored;
+            this.codeMask = (1 << cellBits) - 1;
+            this.labelShift = 1 + forwardCount;
+        }
+
+        void expand(long used, long frontierLow, long frontierHigh, long count, FrontierStateTable next)
+                throws IOException {
+            long pieces = used & allPieces;
+            if (anchored && cell == height && pieces == 0) {
+                return;  // The first column is empty.
+            }
+            if (Long.bitCount(allPieces & ~pieces) > cellCount - cell) {
+                return;  // Not enough cells left.
+            }
+            decode(frontierLow, frontierHigh);
+
+            int required = 0;
+            boolean blocked = false;
+            for (int d = 0; d < directionCount; ++d) {
+                int slot = neighbourSlots[cell * directionCount + d];
+                if (slot >= 0 && (codes[slot] & 1) != 0) {
+                    if ((codes[slot] & (2 << forwardIndex[topology.opposite(d)])) != 0) {
+                        required |= 1 << d;
+                    } else {
+                        blocked = true;
+                    }
+                }
+            }
+            if (required == 0) {
+                emit(used, -1, count, next);
+            }
+            if (!blocked) {
+                for (long candidates = fitting[(cell << directionCount) | required] & ~pieces;
+                        candidates != 0; candidates &= candidates - 1) {
+                    emit(used, Long.numberOfTrailingZeros(candidates), count, next);
+                }
+            }
+        }
+
+        // Adds the successor state in which cell `cell` gets piece i (or stays empty if i < 0).
+        private void emit(long used, int i, long count, FrontierStateTable next) throws IOException {
+            System.arraycopy(codes, 0, nextCodes, 0, frontierSize);
+            int code = 0;
+            if (i >= 0) {
+                used |= 1L << i;
+                if (anchored && cell % height == 0) {
+                    used |= FIRST_ROW_FLAG;
+                }
+                int mask = topology.getPathMask(i);
+                code = 1;
+                for (int d = 0; d < directionCount; ++d) {
+                    if ((mask & (1 << d)) != 0 && forwardIndex[d] >= 0) {
+                        code |= 2 << forwardIndex[d];
+                    }
+                }
+                if (singleGroup) {
+                    code |= mergeLabels(mask) << labelShift;
+                }
+            }
+            nextCodes[frontierSize] = code;
+
+            if (singleGroup && (nextCodes[0] & 1) != 0 && isClosed(used)) {
+                return;
+            }
+            if (singleGroup && !normalizeLabels()) {
+                throw new IllegalArgumentException("window too tall");
+            }
+            long low = 0, high = 0;
+            for (int j = 0; j < frontierSize; ++j) {
+                long value = nextCodes[j + 1];
+                int bit = j * cellBits;
+                if (bit < Long.SIZE) {
+                    low |= value << bit;
+                    if (bit + cellBits > Long.SIZE) {
+                        high |= value >>> (Long.SIZE - bit);
+                    }
+                } else {
+                    high |= value << (bit - Long.SIZE);
+                }
+            }
+            next.add(used, low, high, count);
+        }
+
+        // Merges the groups of the neighbours that the new piece (with the given path mask)
+        // connects to, and returns the label of the merged group: the smallest neighbour label,
+        // or MAX_LABEL (which normalized labels never use) if there are no such neighbours.
+        private int mergeLabels(int mask) {
+            int target = MAX_LABEL;
+            for (int d = 0; d < directionCount; ++d) {
+                int slot = neighbourSlots[cell * directionCount + d];
+                if (slot >= 0 && (mask & (1 << d)) != 0) {
+                    target = Math.min(target, nextCodes[slot] >>> labelShift);
+                }
+            }
+            for (int d = 0; d < directionCount; ++d) {
+                int slot = neighbourSlots[cell * directionCount + d];
+                if (slot >= 0 && (mask & (1 << d)) != 0) {
+                    int label = nextCodes[slot] >>> labelShift;
+                    if (label != target) {
+                        for (int j = 0; j < frontierSize; ++j) {
+                            if ((nextCodes[j] & 1) != 0 && nextCodes[j] >>> labelShift == label) {
+                                nextCodes[j] = (nextCodes[j] & ((1 << labelShift) - 1)) | (target << labelShift);
+                            }
+                        }
+                    }
+                }
+            }
+            return target;
+        }
+
+        // Called when the oldest frontier cell (which is occupied) is about to be dropped. Returns
+        // whether that makes the configuration invalid: if its group has no other frontier cells,
+        // the group is complete, which is only valid if it's the only group and all pieces are used.
+        private boolean isClosed(long used) {
+            int label = nextCodes[0] >>> labelShift;
+            boolean others = false;
+            for (int j = 1; j <= frontierSize; ++j) {
+                if ((nextCodes[j] & 1) != 0) {
+                    if (nextCodes[j] >>> labelShift == label) {
+                        return false;
+                    }
+                    others = true;
+                }
+            }
+            return others || (used & allPieces) != allPieces;
+        }
+
+        // Renumbers the labels of the remaining frontier cells from 1 in order of appearance.
+        // Returns false if there are too many groups to encode.
+        private boolean normalizeLabels() {
+            Arrays.fill(labelMap, 0);
+            int labels = 0;
+            for (int j = 1; j <= frontierSize; ++j) {
+                if ((nextCodes[j] & 1) != 0) {
+                    int label = nextCodes[j] >>> labelShift;
+                    if (labelMap[label] == 0) {
+                        if (++labels == MAX_LABEL) {
+                            return false;
+                        }
+                        labelMap[label] = labels;
+                    }
+                    nextCodes[j] = (nextCodes[j] & ((1 << labelShift) - 1)) | (labelMap[label] << labelShift);
+                }
+            }
+            return true;
+        }
+
+        private void decode(long low, long high) {
+            for (int j = 0; j < frontierSize; ++j) {
+                int bit = j * cellBits;
+                long value;
+                if (bit < Long.SIZE) {
+                    value = low >>> bit;
+                    if (bit + cellBits > Long.SIZE) {
+                        value |= high << (Long.SIZE - bit);
+                    }
+                } else {
+                    value = high >>> (bit - Long.SIZE);
+                }
+                codes[j] = (int) value & codeMask;
+            }
+        }
+
+        // Returns whether a state after the last cell is a counted configuration.
+        boolean isFinal(long used, long frontierLow, long frontierHigh) {
+            if ((used & allPieces) != allPieces || (anchored && (used & FIRST_ROW_FLAG) == 0)) {
+                return false;
+            }
+            if (singleGroup) {
+                decode(frontierLow, frontierHigh);
+                int label = -1;
+                for (int j = 0; j < frontierSize; ++j) {
+                    if ((codes[j] & 1) != 0) {
+                        int l = codes[j] >>> labelShift;
+                        if (label >= 0 && l != label) {
+                            return false;
+                        }
+                        label = l;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+}
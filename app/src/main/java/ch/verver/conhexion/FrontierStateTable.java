@@ -0,0 +1,238 @@
+package ch.verver.conhexion;
+
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A hash map from states to counts, for {@link FrontierCounter}. A state consists of three longs;
+ * adding a state that's already present adds to its count.
+ *
+ * <p>Entries are stored in a single open-addressing table of 4 longs per slot (the state, then the
+ * count), with empty slots marked by a zero count. The table lives on the heap until it would
+ * exceed the heap limit, and after that in a memory-mapped temporary file in the spill directory,
+ * so that tables can grow far beyond the heap. Memory-mapped storage is split into segments,
+ * since a single mapping is limited to 2 GiB.
+ */
+final class FrontierStateTable implements Closeable {
+
+    private static final int SLOT_LONGS = 4;
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    private final long heapLimitBytes;
+    @Nullable private final File spillDirectory;
+
+    private Storage storage;
+    private long capacity;
+    private long size = 0;
+
+    /**
+     * Creates an empty table, which may use up to {@code heapLimitBytes} of heap, and spills to
+     * {@code spillDirectory} after that. If the directory is null, the table never spills.
+     */
+    FrontierStateTable(long heapLimitBytes, @Nullable File spillDirectory) {
+        this.heapLimitBytes = heapLimitBytes;
+        this.spillDirectory = spillDirectory;
+        this.capacity = INITIAL_CAPACITY;
+        this.storage = new HeapStorage(capacity * SLOT_LONGS);
+    }
+
+    /** Returns the number of distinct states. */
+    long size() {
+        return size;
+    }
+
+    /** Returns whether the table is currently stored in a memory-mapped file. */
+    boolean isSpilled() {
+        return storage instanceof MappedStorage;
+    }
+
+    /** Returns the number of slots, which can be iterated with {@link #getCount} and friends. */
+    long getCapacity() {
+        return capacity;
+    }
+
+    /** Returns the count of the state in {@code slot}, or 0 if the slot is empty. */
+    long getCount(long slot) {
+        return storage.get(slot * SLOT_LONGS + 3);
+    }
+
+    /** Returns the k-th long (0 through 2) of the state in {@code slot}. */
+    long getState(long slot, int k) {
+        return storage.get(slot * SLOT_LONGS + k);
+    }
+
+    /**
+     * Adds {@code count} to the count of the given state.
+     *
+     * @throws ArithmeticException if the count overflows
+     * @throws IOException if the table needs to spill, and the file can't be created
+     */
+    void add(long a, long b, long c, long count) throws IOException {
+        if (2 * (size + 1) > capacity) {
+            grow();
+        }
+        long slot = find(storage, capacity, a, b, c);
+        long base = slot * SLOT_LONGS;
+        long current = storage.get(base + 3);
+        if (current == 0) {
+            storage.set(base, a);
+            storage.set(base + 1, b);
+            storage.set(base + 2, c);
+            ++size;
+        }
+        storage.set(base + 3, addCounts(current, count));
+    }
+
+    /**
+     * Returns the sum of two counts.
+     *
+     * @throws ArithmeticException if the sum overflows
+     */
+    static long addCounts(long a, long b) {
+        // Math.addExact() would do, but requires API level 24.
+        long sum = a + b;
+        if (((a ^ sum) & (b ^ sum)) < 0) {
+            throw new ArithmeticException("count overflow");
+        }
+        return sum;
+    }
+
+    /** Removes all states, and releases the storage, so the table can be reused. */
+    void clear() throws IOException {
+        storage.close();
+        capacity = INITIAL_CAPACITY;
+        storage = new HeapStorage(capacity * SLOT_LONGS);
+        size = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        storage.close();
+    }
+
+    // Returns the slot that contains the state, or the empty slot where it should be inserted.
+    private static long find(Storage storage, long capacity, long a, long b, long c) {
+        long mask = capacity - 1;
+        for (long slot = hash(a, b, c) & mask; ; slot = (slot + 1) & mask) {
+            long base = slot * SLOT_LONGS;
+            if (storage.get(base + 3) == 0 ||
+                    (storage.get(base) == a && storage.get(base + 1) == b && storage.get(base + 2) == c)) {
+                return slot;
+            }
+        }
+    }
+
+    private static long hash(long a, long b, long c) {
+        long h = a * 0x9E3779B97F4A7C15L;
+        h = (h ^ (h >>> 29) ^ b) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 31) ^ c) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 32);
+    }
+
+    private void grow() throws IOException {
+        long newCapacity = 2 * capacity;
+        long newLongs = newCapacity * SLOT_LONGS;
+        Storage newStorage = spillDirectory != null && newLongs * Long.BYTES > heapLimitBytes
+                ? new MappedStorage(spillDirectory, newLongs)
+                : new HeapStorage(newLongs);
+        for (long slot = 0; slot < capacity; ++slot) {
+            long base = slot * SLOT_LONGS;
+            long count = storage.get(base + 3);
+            if (count != 0) {
+                long a = storage.get(base), b = storage.get(base + 1), c = storage.get(base + 2);
+                long newBase = find(newStorage, newCapacity, a, b, c) * SLOT_LONGS;
+                newStorage.set(newBase, a);
+                newStorage.set(newBase + 1, b);
+                newStorage.set(newBase + 2, c);
+                newStorage.set(newBase + 3, count);
+            }
+        }
+        storage.close();
+        storage = newStorage;
+        capacity = newCapacity;
+    }
+
+    /** An array of longs, initially zero. */
+    private interface Storage extends Closeable {
+        long get(long index);
+        void set(long index, long value);
+    }
+
+    private static final class HeapStorage implements Storage {
+        private final long[] values;
+
+        HeapStorage(long length) {
+            if (length > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("table too large for the heap");
+            }
+            values = new long[(int) length];
+        }
+
+        @Override
+        public long get(long index) {
+            return values[(int) index];
+        }
+
+        @Override
+        public void set(long index, long value) {
+            values[(int) index] = value;
+        }
+
+        @Override
+        public void close() {
+            // Nothing to release; the array is garbage collected.
+        }
+    }
+
+    private static final class MappedStorage implements Storage {
+        // Segments of 2^27 longs (1 GiB).
+        private static final int SEGMENT_SHIFT = 27;
+        private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+        private final File file;
+        private final RandomAccessFile randomAccessFile;
+        private final LongBuffer[] segments;
+
+        MappedStorage(File directory, long length) throws IOException {
+            file = File.createTempFile("frontier", ".states", directory);
+            file.deleteOnExit();
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            randomAccessFile.setLength(length * Long.BYTES);
+            FileChannel channel = randomAccessFile.getChannel();
+            int segmentCount = (int) ((length + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+            segments = new LongBuffer[segmentCount];
+            for (int s = 0; s < segmentCount; ++s) {
+                long start = (long) s << SEGMENT_SHIFT;
+                long longs = Math.min(length - start, SEGMENT_MASK + 1);
+                segments[s] = channel.map(FileChannel.MapMode.READ_WRITE, start * Long.BYTES, longs * Long.BYTES)
+                        .order(ByteOrder.nativeOrder()).asLongBuffer();
+            }
+        }
+
+        @Override
+        public long get(long index) {
+            return segments[(int) (index >>> SEGMENT_SHIFT)].get((int) (index & SEGMENT_MASK));
+        }
+
+        @Override
+        public void set(long index, long value) {
+            segments[(int) (index >>> SEGMENT_SHIFT)].put((int) (index & SEGMENT_MASK), value);
+        }
+
+        // The mappings stay valid until they're garbage collected, but the file is removed now.
+        @Override
+        public void close() throws IOException {
+            randomAccessFile.close();
+            if (!file.delete()) {
+                throw new IOException("failed to delete " + file);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package ch.verver.conhexion;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A direction of a grid defined in a topology file (see {@link TopologyDefinitions}), for grids
+ * that don't have a dedicated enum like {@link HexDirection} or {@link RectDirection}.
+ *
+ * <p>As with the enums, the vertical offset of a step may depend on the parity of the column, and
+ * piece types are bitmasks of direction indices: piece index i has type i + 1, which has a path in
+ * this direction iff. bit {@link #index} is set.
+ */
+final class GridDirection implements Direction {
+
+    final String name;
+    final int index;
+    final int dx, dyEven, dyOdd;
+    private final int packedDeltaEven, packedDeltaOdd;
+    private GridDirection opposite;
+
+    GridDirection(String name, int index, int dx, int dyEven, int dyOdd) {
+        this.name = name;
+        this.index = index;
+        this.dx = dx;
+        this.dyEven = dyEven;
+        this.dyOdd = dyOdd;
+        this.packedDeltaEven = Pos.packDelta(dx, dyEven);
+        this.packedDeltaOdd = Pos.packDelta(dx, dyOdd);
+    }
+
+    /** Sets the opposite direction. Called once, after all directions of a grid are created. */
+    void setOpposite(GridDirection opposite) {
+        this.opposite = opposite;
+    }
+
+    @Override
+    public Direction opposite() {
+        return opposite;
+    }
+
+    @Override
+    public Pos step(Pos pos) {
+        return new Pos(pos.x + dx, pos.y + ((pos.x & 1) == 0 ? dyEven : dyOdd));
+    }
+
+    @Override
+    public int stepPacked(int packedPos) {
+        // Pos.PACK_BIAS is even, so the parity of the packed x-coordinate equals the parity of x.
+        return packedPos + ((packedPos & 0x10000) == 0 ? packedDeltaEven : packedDeltaOdd);
+    }
+
+    @Override
+    public boolean hasPath(int pieceIndex) {
+        int type = pieceIndex + 1;
+        int mask = 1 << index;
+        return (type & mask) == mask;
+    }
+
+    @Override
+    @NonNull
+    public String toString() {
+        return name;
+    }
+}
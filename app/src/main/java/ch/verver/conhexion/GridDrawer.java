@@ -4,7 +4,10 @@ import android.graphics.Canvas;
 import android.graphics.PointF;
 import android.graphics.Rect;
 import android.graphics.RectF;
-import android.util.Pair;
+
+import androidx.annotation.Nullable;
+
+import java.util.List;
 
 /**
  * Interface of classes that know how to draw a grid with puzzle pieces, and can translate
@@ -19,10 +22,11 @@ import android.util.Pair;
 interface GridDrawer<D extends Direction> {
 
     /**
-     * Returns an array of grid directions along which pieces may be connected.
-     * Used to detect connected components when selecting multiple pieces by long-pressing.
+     * Returns the topology of the grid, which describes the directions along which pieces may be
+     * connected. Used to detect connected components when selecting multiple pieces by
+     * long-pressing, and to calculate overlap errors.
      */
-    ImmutableList<D> getConnectionDirections();
+    GridTopology<D> getTopology();
 
     /** Returns an array of directions in which to check for overlap errors. */
     ImmutableList<D> getErrorDirections();
@@ -42,15 +46,30 @@ interface GridDrawer<D extends Direction> {
     /**
      * Draws the current grid and pieces.
      *
-     * <p>{@code draggedPieces} is a bitmask of pieces currently being dragged. When nonzero,
+     * <p>{@code groupTints} contains the tints of the pieces in {@code piecePositions}. Pieces with
+     * a tint other than {@link GroupTints#NONE} are drawn with {@link ColorFilters#groupTint}.
+     *
+     * <p>{@code deadEnds} contains the dead ends found for {@code piecePositions}, and
+     * {@code deadEndPieces} the pieces involved in them, which are drawn with
+     * {@link ColorFilters#DEAD_END}. The cells where the dead ends occur are marked as well. Both
+     * are empty while errors are hidden.
+     *
+     * <p>{@code hintSolution}, if not null, contains the positions a hint moves the pieces to.
+     * Pieces whose position differs are drawn with {@link ColorFilters#HINT}, and a copy of each is
+     * drawn at its new position with {@link ColorFilters#GHOST}.
+     *
+     * <p>{@code draggedPieces} is the set of pieces currently being dragged. When nonempty,
      * {@code dragDeltaX} and {@code dragDeltaY} give the current drag offset. If no piece is
-     * being dragged, {@code draggedPieces == 0} and {@code dragDeltaX} and {@code dragDeltaY}
-     * should be ignored.
+     * being dragged, {@code draggedPieces} is empty and {@code dragDeltaX} and {@code dragDeltaY}
+     * should be ignored. Implementations must not modify {@code draggedPieces}.
      */
     void draw(Canvas canvas, DrawDimensions drawDimensions,
               ReadonlyPiecePositionIndex piecePositions,
-              ImmutableList<Pair<Pos, D>> overlapErrors,
-              long draggedPieces, float dragDeltaX, float dragDeltaY);
+              GroupTints groupTints,
+              OverlapErrorSet<D> overlapErrors,
+              List<DeadEndDetector.Contradiction> deadEnds, PieceSet deadEndPieces,
+              @Nullable PosList hintSolution,
+              PieceSet draggedPieces, float dragDeltaX, float dragDeltaY);
 
     /**
      * Similar to {@link #draw}, but used to animate the view when the puzzle is solved.
@@ -0,0 +1,237 @@
+package ch.verver.conhexion;
+
+/**
+ * Precomputed lookup tables describing how pieces connect on a grid with a given set of
+ * directions. Instances are immutable and built once per puzzle type (see
+ * {@link HexPuzzle#TOPOLOGY} and {@link RectPuzzle#TOPOLOGY}), usually from a definition in the
+ * topology file (see {@link TopologyDefinitions}).
+ *
+ * <p>Directions are identified by their index in {@link #getDirections()}, and pieces by their
+ * piece index. All lookups are plain array accesses, so that the inner loops of the progress
+ * calculation and the group finder don't need to go through {@link Direction}'s virtual methods.
+ */
+final class GridTopology<D extends Direction> {
+
+    private final ImmutableList<D> directions;
+    private final int directionCount;
+    private final int pieceCount;
+
+    // pathMasks[i] has bit d set iff. piece i has a path in direction d.
+    private final int[] pathMasks;
+
+    // opposites[d] is the index of the direction opposite to direction d.
+    private final int[] opposites;
+
+    // Packed position deltas (see Pos#packDelta) of each direction. The first `directionCount`
+    // elements apply to positions in even columns, the next `directionCount` to odd columns.
+    private final int[] packedDeltas;
+
+    // Whether odd columns are shifted relative to even columns (as in the hex grid), in which case
+    // the packed deltas differ by column parity.
+    private final boolean offsetColumns;
+
+    // connects[(i * directionCount + d) * pieceCount + j] is true iff. piece i placed next to piece
+    // j in direction d forms a connection (i.e., both pieces have a path on the shared side).
+    private final boolean[] connects;
+
+    /**
+     * Builds the tables for the given list of directions. The piece types are bitmasks of
+     * directions (see {@link Direction#hasPath}), so there are {@code 2^n - 1} pieces for
+     * {@code n} directions.
+     */
+    GridTopology(ImmutableList<D> directions) {
+        this(directions, calculatePackedDeltas(directions), calculateOpposites(directions),
+                calculatePathMasks(directions));
+    }
+
+    /**
+     * Builds the tables from a description of the grid (see {@link TopologyDefinitions}).
+     *
+     * @param directions the directions, in index order
+     * @param packedDeltas the packed position deltas (see {@link Pos#packDelta}) of each direction
+     *      for positions in even columns, followed by those for positions in odd columns
+     * @param opposites the index of the opposite of each direction
+     * @param pathMasks the bitmask of direction indices of each piece's paths, indexed by piece
+     *      index
+     */
+    GridTopology(ImmutableList<D> directions, int[] packedDeltas, int[] opposites, int[] pathMasks) {
+        int n = directions.size();
+        if (packedDeltas.length != 2 * n || opposites.length != n) {
+            throw new IllegalArgumentException("invalid direction tables");
+        }
+        this.directions = directions;
+        this.directionCount = n;
+        this.pieceCount = pathMasks.length;
+        this.pathMasks = pathMasks.clone();
+        this.opposites = opposites.clone();
+        this.packedDeltas = packedDeltas.clone();
+        for (int d = 0; d < n; ++d) {
+            if (opposites[d] < 0 || opposites[d] >= n || opposites[opposites[d]] != d) {
+                throw new IllegalArgumentException("invalid opposite of " + directions.get(d));
+            }
+        }
+        for (int i = 0; i < pieceCount; ++i) {
+            if (pathMasks[i] <= 0 || pathMasks[i] >= (1 << n)) {
+                throw new IllegalArgumentException("invalid path mask of piece " + i);
+            }
+        }
+
+        boolean offsetColumns = false;
+        for (int d = 0; d < n; ++d) {
+            offsetColumns |= packedDeltas[d] != packedDeltas[n + d];
+        }
+        this.offsetColumns = offsetColumns;
+        for (int d = 0; d < n; ++d) {
+            for (int origin : new int[]{Pos.pack(0, 0), Pos.pack(1, 0)}) {
+                if (step(step(origin, d), opposites[d]) != origin) {
+                    throw new IllegalArgumentException(
+                            "opposite of " + directions.get(d) + " doesn't lead back");
+                }
+            }
+        }
+
+        this.connects = new boolean[pieceCount * n * pieceCount];
+        for (int i = 0; i < pieceCount; ++i) {
+            for (int d = 0; d < n; ++d) {
+                if ((pathMasks[i] & (1 << d)) != 0) {
+                    int oppositeBit = 1 << opposites[d];
+                    int base = (i * n + d) * pieceCount;
+                    for (int j = 0; j < pieceCount; ++j) {
+                        connects[base + j] = (pathMasks[j] & oppositeBit) != 0;
+                    }
+                }
+            }
+        }
+    }
+
+    private static int[] calculatePackedDeltas(ImmutableList<? extends Direction> directions) {
+        int n = directions.size();
+        int[] packedDeltas = new int[2 * n];
+        int evenOrigin = Pos.pack(0, 0);
+        int oddOrigin = Pos.pack(1, 0);
+        for (int d = 0; d < n; ++d) {
+            packedDeltas[d] = directions.get(d).stepPacked(evenOrigin) - evenOrigin;
+            packedDeltas[n + d] = directions.get(d).stepPacked(oddOrigin) - oddOrigin;
+        }
+        return packedDeltas;
+    }
+
+    private static int[] calculateOpposites(ImmutableList<? extends Direction> directions) {
+        int n = directions.size();
+        int[] opposites = new int[n];
+        for (int d = 0; d < n; ++d) {
+            Direction dir = directions.get(d);
+            opposites[d] = directions.indexOf(dir.opposite());
+            if (opposites[d] < 0) {
+                throw new IllegalArgumentException("opposite of " + dir + " is missing");
+            }
+        }
+        return opposites;
+    }
+
+    private static int[] calculatePathMasks(ImmutableList<? extends Direction> directions) {
+        int n = directions.size();
+        int[] pathMasks = new int[(1 << n) - 1];
+        for (int i = 0; i < pathMasks.length; ++i) {
+            for (int d = 0; d < n; ++d) {
+                if (directions.get(d).hasPath(i)) {
+                    pathMasks[i] |= 1 << d;
+                }
+            }
+        }
+        return pathMasks;
+    }
+
+    /** Returns the directions of this topology, in index order. */
+    ImmutableList<D> getDirections() {
+        return directions;
+    }
+
+    /** Returns the direction with index {@code d}. */
+    D getDirection(int d) {
+        return directions.get(d);
+    }
+
+    /** Returns the index of the given direction, or -1 if it's not part of this topology. */
+    int indexOf(D direction) {
+        return directions.indexOf(direction);
+    }
+
+    int getDirectionCount() {
+        return directionCount;
+    }
+
+    int getPieceCount() {
+        return pieceCount;
+    }
+
+    /** Returns a bitmask with a bit set for every direction. */
+    int getAllDirectionsMask() {
+        return (1 << directionCount) - 1;
+    }
+
+    /** Returns the bitmask of directions in which piece {@code i} has a path. */
+    int getPathMask(int i) {
+        return pathMasks[i];
+    }
+
+    /** Returns whether piece {@code i} has a path in direction {@code d}. */
+    boolean hasPath(int i, int d) {
+        return (pathMasks[i] & (1 << d)) != 0;
+    }
+
+    /** Returns the index of the direction opposite to direction {@code d}. */
+    int opposite(int d) {
+        return opposites[d];
+    }
+
+    /** Returns the packed position reached by stepping from {@code packedPos} in direction d. */
+    int step(int packedPos, int d) {
+        // Pos.PACK_BIAS is even, so bit 16 of a packed position is the parity of its x-coordinate.
+        return packedPos + packedDeltas[((packedPos >>> 16) & 1) * directionCount + d];
+    }
+
+    /**
+     * Translates {@code packedPos} by the offset that moves {@code packedSrc} to
+     * {@code packedDst}, such that the shape of a group of pieces is preserved when all its
+     * pieces are translated by the same offset.
+     *
+     * <p>On a grid with offset columns, this is done in axial coordinates (q, r) = (x, y -
+     * floor(x / 2)), since a plain (dx, dy) translation would distort the shape when dx is odd.
+     */
+    int translate(int packedPos, int packedSrc, int packedDst) {
+        if (!offsetColumns) {
+            // Packed positions are linear in x and y (see Pos#pack).
+            return packedPos + (packedDst - packedSrc);
+        }
+        int srcX = Pos.unpackX(packedSrc);
+        int dstX = Pos.unpackX(packedDst);
+        int dq = dstX - srcX;
+        int dr = toAxialY(dstX, Pos.unpackY(packedDst)) - toAxialY(srcX, Pos.unpackY(packedSrc));
+        int x = Pos.unpackX(packedPos);
+        int newX = x + dq;
+        int newY = toAxialY(x, Pos.unpackY(packedPos)) + dr + (newX >> 1);
+        return Pos.pack(newX, newY);
+    }
+
+    /**
+     * Returns the axial row r = y - floor(x / 2) of position (x, y) on a grid with offset columns,
+     * or just y on other grids. Translations preserve differences between axial coordinates.
+     */
+    int toAxialY(int x, int y) {
+        return offsetColumns ? y - (x >> 1) : y;
+    }
+
+    /** Inverse of {@link #toAxialY}: returns y given x and the axial row r. */
+    int fromAxialY(int x, int r) {
+        return offsetColumns ? r + (x >> 1) : r;
+    }
+
+    /**
+     * Returns whether piece {@code i} and piece {@code j} are connected when j is placed next to i
+     * in direction {@code d}.
+     */
+    boolean connects(int i, int d, int j) {
+        return connects[(i * directionCount + d) * pieceCount + j];
+    }
+}
@@ -0,0 +1,139 @@
+package ch.verver.conhexion;
+
+import java.util.Arrays;
+
+/**
+ * Assigns tints (see {@link ColorFilters#groupTint}) to the groups of a
+ * {@link ConnectivityTracker}, so that the drawers can show which pieces are connected.
+ *
+ * <p>Only groups of two or more pieces are tinted, and only while the board has more than one
+ * group. Groups that touch each other get different tints, unless a group touches more groups than
+ * there are tints. Where possible, a group keeps the tint that most of its pieces had before the
+ * last update, so tints don't jump around when an unrelated part of the board changes.
+ *
+ * <p>Like the tracker, this class doesn't observe anything. The owner must call {@link #update}
+ * after updating the tracker.
+ */
+class GroupTints {
+
+    /** Returned by {@link #getTint} for pieces that aren't tinted. */
+    static final int NONE = -1;
+
+    /** The number of distinct tints, which {@link ColorFilters} has a color for each of. */
+    static final int GROUP_TINT_COUNT = 8;
+
+    private final GridTopology<?> topology;
+    private final ReadonlyPiecePositionIndex piecePositions;
+    private final ConnectivityTracker connectivity;
+
+    private boolean enabled = false;
+
+    // tints[i] is the tint of piece i, or NONE.
+    private int[] tints = new int[0];
+
+    // Scratch space, indexed by group label (which is a piece index), reused between updates.
+    private int[] groupSizes = new int[0];
+    private int[] groupTints = new int[0];
+    // Pieces sorted by group label, and the offset of each group's pieces within that array.
+    private int[] groupPieces = new int[0];
+    private int[] groupStarts = new int[0];
+    // Sort keys of the groups to tint: see update().
+    private int[] groupOrder = new int[0];
+    private final int[] votes = new int[GROUP_TINT_COUNT];
+
+    GroupTints(GridTopology<?> topology, ReadonlyPiecePositionIndex piecePositions,
+            ConnectivityTracker connectivity) {
+        this.topology = topology;
+        this.piecePositions = piecePositions;
+        this.connectivity = connectivity;
+    }
+
+    /** Enables or disables tinting. While disabled, no pieces are tinted. */
+    void setEnabled(boolean newEnabled) {
+        if (enabled != newEnabled) {
+            enabled = newEnabled;
+            update();
+        }
+    }
+
+    /** Returns the tint of piece {@code i}, or {@link #NONE} if it isn't tinted. */
+    int getTint(int i) {
+        return tints[i];
+    }
+
+    /** Reassigns the tints after the tracker has been updated. Takes time linear in the board. */
+    void update() {
+        int n = piecePositions.size();
+        if (tints.length != n) {
+            int[] newTints = new int[n];
+            Arrays.fill(newTints, NONE);
+            tints = newTints;
+            groupSizes = new int[n];
+            groupTints = new int[n];
+            groupPieces = new int[n];
+            groupStarts = new int[n + 1];
+            groupOrder = new int[n];
+        }
+        if (!enabled || connectivity.getGroupCount() <= 1) {
+            Arrays.fill(tints, NONE);
+            return;
+        }
+
+        // Bucket the pieces by group label.
+        Arrays.fill(groupSizes, 0);
+        for (int i = 0; i < n; ++i) {
+            ++groupSizes[connectivity.getGroup(i)];
+        }
+        // Each group to tint gets a sort key that orders by decreasing size, then by label.
+        int groupCount = 0;
+        for (int g = 0; g < n; ++g) {
+            groupStarts[g + 1] = groupStarts[g] + groupSizes[g];
+            groupTints[g] = NONE;
+            if (groupSizes[g] > 1) {
+                groupOrder[groupCount++] = (n - groupSizes[g]) * n + g;
+            }
+        }
+        for (int i = 0; i < n; ++i) {
+            int g = connectivity.getGroup(i);
+            groupPieces[groupStarts[g + 1] - groupSizes[g]--] = i;
+        }
+
+        // Color the groups greedily, largest first, since large groups are the most noticeable.
+        Arrays.sort(groupOrder, 0, groupCount);
+        for (int k = 0; k < groupCount; ++k) {
+            int g = groupOrder[k] % n;
+            groupTints[g] = chooseTint(g);
+        }
+        for (int i = 0; i < n; ++i) {
+            tints[i] = groupTints[connectivity.getGroup(i)];
+        }
+    }
+
+    // Returns a tint for group g that isn't used by any touching group that has been tinted
+    // already, preferring the previous tint of most of its pieces.
+    private int chooseTint(int g) {
+        Arrays.fill(votes, 0);
+        int usedMask = 0;
+        for (int k = groupStarts[g]; k < groupStarts[g + 1]; ++k) {
+            int i = groupPieces[k];
+            if (tints[i] != NONE) {
+                ++votes[tints[i]];
+            }
+            int pos = piecePositions.getPacked(i);
+            for (int d = 0, dirCount = topology.getDirectionCount(); d < dirCount; ++d) {
+                int j = piecePositions.indexOfPacked(topology.step(pos, d));
+                if (j >= 0 && groupTints[connectivity.getGroup(j)] != NONE) {
+                    usedMask |= 1 << groupTints[connectivity.getGroup(j)];
+                }
+            }
+        }
+        int best = NONE;
+        for (int t = 0; t < votes.length; ++t) {
+            if ((usedMask & (1 << t)) == 0 && (best == NONE || votes[t] > votes[best])) {
+                best = t;
+            }
+        }
+        // If all tints are taken by touching groups, reuse one rather than leave the group plain.
+        return best != NONE ? best : 0;
+    }
+}
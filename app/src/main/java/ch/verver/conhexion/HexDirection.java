@@ -33,84 +33,79 @@ package ch.verver.conhexion;
 
 enum HexDirection implements Direction {
 
-    NORTH {
+    NORTH(0, -1, -1) {
         @Override
         public Direction opposite() {
             return SOUTH;
         }
-
-        @Override
-        public Pos step(Pos pos) {
-            return new Pos(pos.x, pos.y - 1);
-        }
     },
 
-    NORTH_EAST {
+    NORTH_EAST(+1, -1, 0) {
         @Override
         public Direction opposite() {
             return SOUTH_WEST;
         }
-
-        @Override
-        public Pos step(Pos pos) {
-            return new Pos(pos.x + 1, pos.y + (pos.x & 1) - 1);
-        }
     },
 
-    SOUTH_EAST {
+    SOUTH_EAST(+1, 0, +1) {
         @Override
         public Direction opposite() {
             return NORTH_WEST;
         }
-
-        @Override
-        public Pos step(Pos pos) {
-            return new Pos(pos.x + 1, pos.y + (pos.x & 1));
-        }
     },
 
-    SOUTH {
+    SOUTH(0, +1, +1) {
         @Override
         public Direction opposite() {
             return NORTH;
         }
-
-        @Override
-        public Pos step(Pos pos) {
-            return new Pos(pos.x, pos.y + 1);
-        }
     },
 
-    SOUTH_WEST {
+    SOUTH_WEST(-1, 0, +1) {
         @Override
         public Direction opposite() {
             return NORTH_EAST;
         }
-
-        @Override
-        public Pos step(Pos pos) {
-            return new Pos(pos.x - 1, pos.y + (pos.x & 1));
-        }
     },
 
-    NORTH_WEST {
+    NORTH_WEST(-1, -1, 0) {
         @Override
         public Direction opposite() {
             return SOUTH_EAST;
         }
-
-        @Override
-        public Pos step(Pos pos) {
-            return new Pos(pos.x - 1, pos.y + (pos.x & 1) - 1);
-        }
     };
 
     public static final ImmutableList<HexDirection> VALUES = ImmutableList.copyOf(values());
 
+    // Odd columns are shifted down by half a row, so the vertical offset of a step depends on the
+    // parity of the x-coordinate of the source position. For example, stepping north-east from
+    // (0, 1) leads to (1, 0), while stepping north-east from (1, 0) leads to (2, 0).
+    HexDirection(int dx, int dyEven, int dyOdd) {
+        this.dx = dx;
+        this.dyEven = dyEven;
+        this.dyOdd = dyOdd;
+        this.packedDeltaEven = Pos.packDelta(dx, dyEven);
+        this.packedDeltaOdd = Pos.packDelta(dx, dyOdd);
+    }
+
+    @Override
+    public Pos step(Pos pos) {
+        return new Pos(pos.x + dx, pos.y + ((pos.x & 1) == 0 ? dyEven : dyOdd));
+    }
+
+    @Override
+    public int stepPacked(int packedPos) {
+        // Pos.PACK_BIAS is even, so the parity of the packed x-coordinate equals the parity of x.
+        return packedPos + ((packedPos & 0x10000) == 0 ? packedDeltaEven : packedDeltaOdd);
+    }
+
     @Override
     public boolean hasPath(int pieceIndex) {
         int type = pieceIndex + 1;
         int mask = 1 << ordinal();
         return (type & mask) == mask;
     }
+
+    final int dx, dyEven, dyOdd;
+    private final int packedDeltaEven, packedDeltaOdd;
 }
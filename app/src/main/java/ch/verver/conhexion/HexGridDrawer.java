@@ -4,17 +4,18 @@ import android.content.res.Resources;
 import android.graphics.Canvas;
 import android.graphics.ColorFilter;
 import android.graphics.Paint;
+import android.graphics.Path;
 import android.graphics.PointF;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
-import android.util.Pair;
 
 import androidx.annotation.DrawableRes;
 import androidx.annotation.Nullable;
 import androidx.core.content.res.ResourcesCompat;
 
 import java.util.EnumMap;
+import java.util.List;
 
 // See HexDirection.java for a summary of the coordinate system used for the hex grid.
 class HexGridDrawer implements GridDrawer<HexDirection> {
@@ -31,6 +32,8 @@ class HexGridDrawer implements GridDrawer<HexDirection> {
     private final Paint hexGridLinesPaint;
     private final DrawablePiece[] drawablePieces;
     private final EnumMap<HexDirection, Drawable> tileOverlapErrors;
+    private final Paint deadEndCellPaint;
+    private final Path deadEndCellPath = new Path();
 
     private class DrawablePiece {
         private final Drawable background;
@@ -74,6 +77,10 @@ class HexGridDrawer implements GridDrawer<HexDirection> {
 
         drawablePieces = createDrawablePieces(res, theme);
 
+        deadEndCellPaint = new Paint();
+        deadEndCellPaint.setColor(ResourcesCompat.getColor(res, R.color.hexDeadEndCell, theme));
+        deadEndCellPaint.setStyle(Paint.Style.FILL);
+
         tileOverlapErrors = new EnumMap<>(HexDirection.class);
         tileOverlapErrors.put(HexDirection.NORTH_EAST, ResourcesCompat.getDrawable(res, R.drawable.hex_error_north_east, theme).mutate());
         tileOverlapErrors.put(HexDirection.SOUTH_EAST, ResourcesCompat.getDrawable(res, R.drawable.hex_error_south_east, theme).mutate());
@@ -125,8 +132,8 @@ class HexGridDrawer implements GridDrawer<HexDirection> {
     }
 
     @Override
-    public ImmutableList<HexDirection> getConnectionDirections() {
-        return HexDirection.VALUES;
+    public GridTopology<HexDirection> getTopology() {
+        return HexPuzzle.TOPOLOGY;
     }
 
     @Override
@@ -206,17 +213,43 @@ class HexGridDrawer implements GridDrawer<HexDirection> {
     @Override
     public void draw(
             Canvas canvas, DrawDimensions drawDimensions, ReadonlyPiecePositionIndex piecePositions,
-            ImmutableList<Pair<Pos, HexDirection>> overlapErrors,
-            long draggedPieces, float dragDeltaX, float dragDeltaY) {
+            GroupTints groupTints, OverlapErrorSet<HexDirection> overlapErrors,
+            List<DeadEndDetector.Contradiction> deadEnds, PieceSet deadEndPieces,
+            @Nullable PosList hintSolution, PieceSet draggedPieces, float dragDeltaX, float dragDeltaY) {
         final int n = piecePositions.size();
 
         // Draw grid in the background
         drawGridLines(canvas, drawDimensions);
 
-        // Draw pieces (except dragged one)
+        // Mark the cells where dead ends occur.
+        for (DeadEndDetector.Contradiction deadEnd : deadEnds) {
+            drawDeadEndCell(canvas, drawDimensions,
+                    Pos.unpackX(deadEnd.packedPos), Pos.unpackY(deadEnd.packedPos));
+        }
+
+        // Draw pieces (except dragged one), tinted by group or dead end, or marked if the hint
+        // moves them.
         for (int i = 0; i < n; ++i) {
-            if (!Util.isDragged(draggedPieces, i)) {
-                drawPiece(canvas, drawDimensions, i, piecePositions.get(i), 0.0f, 0.0f, null, null);
+            if (!draggedPieces.contains(i)) {
+                int groupTint = groupTints.getTint(i);
+                ColorFilter tint = groupTint != GroupTints.NONE ? ColorFilters.groupTint(groupTint) : null;
+                if (deadEndPieces.contains(i)) {
+                    tint = ColorFilters.DEAD_END;
+                }
+                if (hintSolution != null && hintSolution.getPacked(i) != piecePositions.getPacked(i)) {
+                    tint = ColorFilters.HINT;
+                }
+                drawPiece(canvas, drawDimensions, i, piecePositions.get(i), 0.0f, 0.0f, tint, null);
+            }
+        }
+
+        // Draw the hint's moved pieces at their new positions.
+        if (hintSolution != null) {
+            for (int i = 0; i < n; ++i) {
+                if (hintSolution.getPacked(i) != piecePositions.getPacked(i)) {
+                    drawPiece(canvas, drawDimensions, i, hintSolution.get(i), 0.0f, 0.0f,
+                            ColorFilters.GHOST, ColorFilters.GHOST);
+                }
             }
         }
 
@@ -224,13 +257,9 @@ class HexGridDrawer implements GridDrawer<HexDirection> {
         drawOverlapErrors(canvas, drawDimensions, overlapErrors);
 
         // Draw dragged pieces last, so they're on top of everything else.
-        if (draggedPieces != 0) {
-            for (int i = 0; i < n; ++i) {
-                if (Util.isDragged(draggedPieces, i)) {
-                    drawPiece(canvas, drawDimensions, i, piecePositions.get(i),
-                            dragDeltaX, dragDeltaY, ColorFilters.LIGHTER, null);
-                }
-            }
+        for (int i = draggedPieces.first(); i >= 0; i = draggedPieces.next(i + 1)) {
+            drawPiece(canvas, drawDimensions, i, piecePositions.get(i),
+                    dragDeltaX, dragDeltaY, ColorFilters.LIGHTER, null);
         }
     }
 
@@ -287,8 +316,10 @@ class HexGridDrawer implements GridDrawer<HexDirection> {
     }
 
     private static Rect getTileBounds(DrawDimensions drawDimensions, Pos pos, float offsetX, float offsetY) {
-        int q = pos.x;
-        int r = pos.y;
+        return getTileBounds(drawDimensions, pos.x, pos.y, offsetX, offsetY);
+    }
+
+    private static Rect getTileBounds(DrawDimensions drawDimensions, int q, int r, float offsetX, float offsetY) {
 
         boolean even = (q % 2) == 0;
         float scale = drawDimensions.scale;
@@ -312,11 +343,28 @@ class HexGridDrawer implements GridDrawer<HexDirection> {
         drawablePieces[pieceIndex].draw(canvas, drawDimensions, pos, dragOffsetX, dragOffsetY, backColorFilter, frontColorFilter);
     }
 
+    // Fills a slightly smaller hexagon inside the given cell.
+    private void drawDeadEndCell(Canvas canvas, DrawDimensions drawDimensions, int q, int r) {
+        PointF center = calculateFieldCenter(drawDimensions, q, r);
+        float radius = 0.8f * drawDimensions.scale;
+        Path path = deadEndCellPath;
+        path.reset();
+        path.moveTo(center.x - radius, center.y);
+        path.lineTo(center.x - 0.5f * radius, center.y - 0.5f * SQRT3F * radius);
+        path.lineTo(center.x + 0.5f * radius, center.y - 0.5f * SQRT3F * radius);
+        path.lineTo(center.x + radius, center.y);
+        path.lineTo(center.x + 0.5f * radius, center.y + 0.5f * SQRT3F * radius);
+        path.lineTo(center.x - 0.5f * radius, center.y + 0.5f * SQRT3F * radius);
+        path.close();
+        canvas.drawPath(path, deadEndCellPaint);
+    }
+
     private void drawOverlapErrors(Canvas canvas, DrawDimensions drawDimensions,
-                                   ImmutableList<Pair<Pos, HexDirection>> overlapErrors) {
-        for (Pair<Pos, HexDirection> error : overlapErrors) {
-            Rect errorBounds = getTileBounds(drawDimensions, error.first);
-            Drawable errorDrawable = tileOverlapErrors.get(error.second);
+                                   OverlapErrorSet<HexDirection> overlapErrors) {
+        for (int e = overlapErrors.first(); e >= 0; e = overlapErrors.next(e + 1)) {
+            Rect errorBounds = getTileBounds(drawDimensions,
+                    overlapErrors.getX(e), overlapErrors.getY(e), 0.0f, 0.0f);
+            Drawable errorDrawable = tileOverlapErrors.get(overlapErrors.getDirection(e));
             draw(canvas, errorBounds, errorDrawable, null);
         }
     }
@@ -4,13 +4,15 @@ import androidx.annotation.Nullable;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.List;
 
 /** Definitions for the real China Labyrinth puzzle played on a hexagonal grid. */
 abstract class HexPuzzle {
 
     public static final int PIECE_COUNT = 63;
 
+    public static final GridTopology<HexDirection> TOPOLOGY =
+            TopologyDefinitions.get("hex", HexDirection.VALUES);
+
     public static ArrayList<Pos> getRandomPiecePositions() {
         ArrayList<Pos> points = new ArrayList<>();
         for (int y = 0; y < 9; ++y) {
@@ -28,17 +30,17 @@ abstract class HexPuzzle {
         return points;
     }
 
-    public static boolean validate(@Nullable List<Pos> positions) {
+    public static boolean validate(@Nullable PosList positions) {
         return positions != null && Util.validatePositions(positions, PIECE_COUNT);
     }
 
-    public static String encode(List<Pos> positions) {
+    public static String encode(PosList positions) {
         return StateCodec.encodePositions(positions);
     }
 
     @Nullable
-    public static ArrayList<Pos> decode(String s) {
-        ArrayList<Pos> positions;
+    public static PosList decode(String s) {
+        PosList positions;
         try {
             positions = StateCodec.decodePositions(s);
         } catch (IllegalArgumentException e) {
@@ -21,6 +21,8 @@ public class HexPuzzleFragment extends Fragment {
         AppState appState = ((App) getActivity().getApplication()).getAppState();
         hexGridView.setPiecePositionsLiveData(this, appState.getHexPuzzlePiecePositions());
         hexGridView.setErrorVisibilityLiveData(this, appState.getErrorVisibility());
+        hexGridView.setHintLiveData(this, appState.getShownHint());
+        hexGridView.setDeadEndsLiveData(this, appState.getHexPuzzleDeadEnds());
         return rootView;
     }
 
@@ -0,0 +1,227 @@
+package ch.verver.conhexion;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleObserver;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.Observer;
+import androidx.lifecycle.OnLifecycleEvent;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Computes hints in the background: completions of the current board that keep some pieces in
+ * place (see {@link HintSolver}). Results are published to {@link AppState#getHint}, and hints
+ * with a solution also to {@link AppState#getShownHint}, which is cleared when the board of their
+ * puzzle changes.
+ *
+ * <p>At most one request runs at a time, on a background thread. A request is cancelled when a
+ * new one is made, when the board of its puzzle changes, when the lifecycle owner is destroyed, or
+ * after {@link #TIME_BUDGET_MILLIS}. Results are delivered on the main thread, and only if the
+ * request is still current, so a hint never refers to an outdated board.
+ */
+class HintController implements LifecycleObserver {
+
+    /** Maximum time to search for a hint. */
+    static final long TIME_BUDGET_MILLIS = 5_000;   // 5 seconds
+
+    /** The result of a hint request. */
+    static final class Hint {
+        enum Status { FOUND, NO_SOLUTION, TIMED_OUT }
+
+        final FragmentId puzzle;
+        final PosList positions;
+        final Status status;
+        @Nullable final PosList solution;
+
+        Hint(FragmentId puzzle, PosList positions, Status status, @Nullable PosList solution) {
+            this.puzzle = puzzle;
+            this.positions = positions;
+            this.status = status;
+            this.solution = solution;
+        }
+
+        /** Returns the number of pieces that must be moved to reach the solution. */
+        int getMoveCount() {
+            if (solution == null) {
+                return 0;
+            }
+            int count = 0;
+            for (int i = 0; i < positions.size(); ++i) {
+                if (positions.getPacked(i) != solution.getPacked(i)) {
+                    ++count;
+                }
+            }
+            return count;
+        }
+    }
+
+    private final class Request implements Runnable {
+        final FragmentId puzzle;
+        final PosList positions;
+        final PieceSet pinned;
+        final HintSolver solver;
+        volatile boolean timedOut = false;
+
+        final Runnable timeout = new Runnable() {
+            @Override
+            public void run() {
+                LogUtil.i("HintController: time budget exceeded");
+                timedOut = true;
+                solver.cancel();
+            }
+        };
+
+        Request(FragmentId puzzle, GridTopology<?> topology, PosList positions, PieceSet pinned) {
+            this.puzzle = puzzle;
+            this.positions = positions;
+            this.pinned = new PieceSet(pinned);
+            this.solver = new HintSolver(topology);
+        }
+
+        // Runs on the background thread.
+        @Override
+        public void run() {
+            PosList solution = solver.solve(new PiecePositionIndex(positions), pinned);
+            Hint.Status status = solution != null ? Hint.Status.FOUND
+                    : timedOut ? Hint.Status.TIMED_OUT : Hint.Status.NO_SOLUTION;
+            Hint hint = new Hint(puzzle, positions, status, solution);
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    finish(Request.this, hint);
+                }
+            });
+        }
+    }
+
+    private final AppState appState;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private @Nullable Request currentRequest;
+
+    public static HintController attach(AppState appState, LifecycleOwner lifecycleOwner) {
+        return new HintController(appState, lifecycleOwner);
+    }
+
+    private HintController(AppState appState, LifecycleOwner lifecycleOwner) {
+        this.appState = appState;
+
+        appState.getRectPuzzlePiecePositions().observe(lifecycleOwner,
+                new Observer<PosList>() {
+                    @Override
+                    public void onChanged(PosList newValue) {
+                        boardChanged(FragmentId.RECT_PUZZLE, newValue);
+                    }
+                });
+        appState.getHexPuzzlePiecePositions().observe(lifecycleOwner,
+                new Observer<PosList>() {
+                    @Override
+                    public void onChanged(PosList newValue) {
+                        boardChanged(FragmentId.HEX_PUZZLE, newValue);
+                    }
+                });
+
+        lifecycleOwner.getLifecycle().addObserver(this);
+    }
+
+    /**
+     * Starts searching for a hint for the given puzzle (either {@link FragmentId#RECT_PUZZLE} or
+     * {@link FragmentId#HEX_PUZZLE}) that keeps the pinned pieces in place. Cancels the previous
+     * request, if any.
+     */
+    @MainThread
+    void requestHint(FragmentId puzzle, PieceSet pinned) {
+        GridTopology<?> topology;
+        PosList positions;
+        switch (puzzle) {
+            case RECT_PUZZLE:
+                topology = RectPuzzle.TOPOLOGY;
+                positions = appState.getRectPuzzlePiecePositions().getValue();
+                break;
+            case HEX_PUZZLE:
+                topology = HexPuzzle.TOPOLOGY;
+                positions = appState.getHexPuzzlePiecePositions().getValue();
+                break;
+            default:
+                throw new IllegalArgumentException();
+        }
+        cancel();
+        LogUtil.i("HintController: searching for a hint for %s with %d pinned pieces",
+                puzzle, pinned.size());
+        Request request = new Request(puzzle, topology, positions, pinned);
+        currentRequest = request;
+        handler.postDelayed(request.timeout, TIME_BUDGET_MILLIS);
+        executor.execute(request);
+    }
+
+    /** Cancels the current request, if any. Its result won't be published. */
+    @MainThread
+    void cancel() {
+        if (currentRequest != null) {
+            handler.removeCallbacks(currentRequest.timeout);
+            currentRequest.solver.cancel();
+            currentRequest = null;
+        }
+    }
+
+    /**
+     * Chooses the pieces to keep in place for a hint: those in the largest group of connected
+     * pieces (see {@link ConnectivityTracker}) that don't overlap other pieces.
+     */
+    static void choosePinnedPieces(ProgressTracker tracker, PieceSet out) {
+        out.clear();
+        ConnectivityTracker connectivity = tracker.getConnectivity();
+        int pieceCount = tracker.getPiecePositions().size();
+        int[] groupSizes = new int[pieceCount];  // Indexed by group label, which is a piece index.
+        int largestGroup = -1;
+        for (int i = 0; i < pieceCount; ++i) {
+            int group = connectivity.getGroup(i);
+            if (++groupSizes[group] > 1 && (largestGroup < 0 || groupSizes[group] > groupSizes[largestGroup])) {
+                largestGroup = group;
+            }
+        }
+        for (int i = 0; i < pieceCount; ++i) {
+            if (connectivity.getGroup(i) == largestGroup && tracker.getOverlapCount(i) == 0) {
+                out.add(i);
+            }
+        }
+    }
+
+    @OnLifecycleEvent(Lifecycle.Event.ON_DESTROY)
+    void destroy() {
+        LogUtil.i("HintController: destroy");
+        cancel();
+        executor.shutdown();
+    }
+
+    private void boardChanged(FragmentId puzzle, PosList positions) {
+        Hint shownHint = appState.getShownHint().getValue();
+        if (shownHint != null && shownHint.puzzle == puzzle && !shownHint.positions.equals(positions)) {
+            appState.getShownHint().setValue(null);
+        }
+        if (currentRequest != null && currentRequest.puzzle == puzzle
+                && !currentRequest.positions.equals(positions)) {
+            LogUtil.i("HintController: board changed; cancelling hint");
+            cancel();
+        }
+    }
+
+    private void finish(Request request, Hint hint) {
+        if (request != currentRequest) {
+            return;  // Cancelled or superseded.
+        }
+        handler.removeCallbacks(request.timeout);
+        currentRequest = null;
+        LogUtil.i("HintController: %s", hint.status);
+        appState.getHint().setValue(hint);
+        if (hint.solution != null) {
+            appState.getShownHint().setValue(hint);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package ch.verver.conhexion;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Completes a configuration in which some pieces are pinned: it finds a solution in which the
+ * pinned pieces are at their current positions, by placing them on a {@link SearchBoard} and
+ * completing it with a {@link BacktrackingSolver}.
+ *
+ * <p>The pinned pieces don't need to be connected, so the board may hold several groups during
+ * the search, and completions are only accepted if they form a single group. Since any two pieces
+ * of a solution are at most {@code pieceCount - 1} steps apart, and each step changes each grid
+ * coordinate by at most 1, the search is restricted to the cells within that distance of all
+ * pinned pieces, which also keeps it inside the board's window.
+ *
+ * <p>Instances are single-use: {@link #cancel} stops the search from another thread, and a
+ * cancelled solver stays cancelled.
+ */
+final class HintSolver {
+
+    private final GridTopology<?> topology;
+    private final BacktrackingSolver solver;
+    private final int pieceCount;
+
+    HintSolver(GridTopology<?> topology) {
+        this.topology = topology;
+        this.solver = new BacktrackingSolver(topology);
+        this.pieceCount = topology.getPieceCount();
+    }
+
+    /** Stops the search as soon as possible. Thread-safe. */
+    void cancel() {
+        solver.cancel();
+    }
+
+    /** Returns whether the search was cancelled (or has already run). */
+    boolean isStopped() {
+        return solver.isStopped();
+    }
+
+    /**
+     * Returns a solution in which the pieces in {@code pinned} are at their positions in
+     * {@code positions}, or null if there is none, or the search was cancelled first. If no pieces
+     * are pinned, the piece with paths in all directions stays in place.
+     *
+     * @throws IllegalArgumentException if the number of positions doesn't match the puzzle
+     */
+    @Nullable
+    PosList solve(ReadonlyPiecePositionIndex positions, PieceSet pinned) {
+        if (positions.size() != pieceCount) {
+            throw new IllegalArgumentException("expected " + pieceCount + " pieces");
+        }
+        if (pieceCount == 0 || solver.isStopped()) {
+            return null;
+        }
+        int[] pinnedPieces;
+        if (pinned.isEmpty()) {
+            pinnedPieces = new int[]{pieceCount - 1};
+        } else {
+            pinnedPieces = new int[pinned.size()];
+            int n = 0;
+            for (int i = pinned.first(); i >= 0; i = pinned.next(i + 1)) {
+                if (i >= pieceCount) {
+                    throw new IllegalArgumentException("invalid piece " + i);
+                }
+                pinnedPieces[n++] = i;
+            }
+        }
+
+        // The origin cell must be in an even column. Rounding the first pinned piece's column up
+        // keeps the restricted area at least one cell away from the edges of the window.
+        int anchor = positions.getPacked(pinnedPieces[0]);
+        int originPos = Pos.pack((Pos.unpackX(anchor) + 1) & ~1, Pos.unpackY(anchor));
+        int originX = Pos.unpackX(originPos), originY = Pos.unpackY(originPos);
+        int maxDistance = pieceCount - 1;
+        int left = Integer.MIN_VALUE, top = Integer.MIN_VALUE;
+        int right = Integer.MAX_VALUE, bottom = Integer.MAX_VALUE;
+        for (int i : pinnedPieces) {
+            int pos = positions.getPacked(i);
+            int dx = Pos.unpackX(pos) - originX, dy = Pos.unpackY(pos) - originY;
+            left = Math.max(left, dx - maxDistance);
+            top = Math.max(top, dy - maxDistance);
+            right = Math.min(right, dx + maxDistance);
+            bottom = Math.min(bottom, dy + maxDistance);
+        }
+        if (left > right || top > bottom) {
+            return null;  // Pinned pieces too far apart.
+        }
+
+        SearchBoard board = solver.getBoard();
+        board.restrict(left, top, right, bottom);
+        int placed = 0;
+        int[] result = null;
+        try {
+            for (int i : pinnedPieces) {
+                int pos = positions.getPacked(i);
+                int cell = board.getCell(Pos.unpackX(pos) - originX, Pos.unpackY(pos) - originY);
+                if (!board.canPlace(cell, i)) {
+                    return null;  // Pinned pieces don't fit together.
+                }
+                board.place(cell, i);
+                ++placed;
+            }
+            int[] packed = new int[pieceCount];
+            PiecePositionIndex index = new PiecePositionIndex();
+            boolean[] found = {false};
+            solver.complete(unused -> {
+                board.getPositions(packed, originPos);
+                index.assign(PosList.fromPacked(packed, pieceCount));
+                found[0] = GroupFinder.countGroups(topology, index) == 1;
+                return !found[0];
+            });
+            if (found[0]) {
+                result = packed;
+            }
+        } finally {
+            while (placed-- > 0) {
+                board.undo();
+            }
+            solver.cancel();
+        }
+        return result == null ? null : PosList.fromPacked(result, pieceCount);
+    }
+}
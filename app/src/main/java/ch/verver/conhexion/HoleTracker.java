@@ -0,0 +1,317 @@
+package ch.verver.conhexion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Maintains the holes of a {@link PiecePositionIndex} while pieces are moved. A hole is a maximal
+ * connected region of empty cells that is enclosed by pieces, i.e. one that is finite. (A valid
+ * solution of the hex puzzle has exactly two holes.)
+ *
+ * <p>A region is finite if and only if it doesn't extend beyond the bounding rectangle of the
+ * pieces, since all cells outside the rectangle are empty and connected to each other. Regions
+ * are found with a flood fill over empty cells, which stops as soon as it leaves the rectangle.
+ *
+ * <p>When cells change between empty and occupied, only the holes that contain or touch the
+ * changed cells can change. Those holes are removed, and the regions around the changed cells are
+ * filled again; every other hole is unaffected. An update therefore takes time proportional to the
+ * size of the affected regions, which is bounded by the area of the bounding rectangle.
+ *
+ * <p>As with {@link ConnectivityTracker}, the tracker does not observe the index itself. Instead,
+ * the owner must call one of the {@code update} methods after changing the index.
+ */
+class HoleTracker {
+
+    private final GridTopology<?> topology;
+    private final ReadonlyPiecePositionIndex piecePositions;
+
+    // Packed positions of the cells of each hole.
+    private final ArrayList<int[]> holes = new ArrayList<>();
+    private int totalHoleSize = 0;
+
+    // Bounding rectangle of the pieces, calculated at the start of each update.
+    private int left, top, right, bottom;
+
+    // Scratch space, reused between updates to avoid allocations.
+    private int[] changedCells = new int[4];
+    private int[] seeds = new int[16];
+    private int[] queue = new int[16];
+    private final CellMarks marks = new CellMarks();
+
+    HoleTracker(GridTopology<?> topology, ReadonlyPiecePositionIndex piecePositions) {
+        this.topology = topology;
+        this.piecePositions = piecePositions;
+        reset();
+    }
+
+    /** Returns the number of holes. */
+    int getHoleCount() {
+        return holes.size();
+    }
+
+    /** Returns the number of cells in hole {@code h}. */
+    int getHoleSize(int h) {
+        return holes.get(h).length;
+    }
+
+    /** Returns the packed position (see {@link Pos#pack}) of the k-th cell of hole {@code h}. */
+    int getHoleCell(int h, int k) {
+        return holes.get(h)[k];
+    }
+
+    /** Returns the total number of cells in all holes. */
+    int getTotalHoleSize() {
+        return totalHoleSize;
+    }
+
+    /** Returns the index of the hole that contains the given packed position, or -1. */
+    int indexOfHole(int packedPos) {
+        for (int h = 0; h < holes.size(); ++h) {
+            for (int cell : holes.get(h)) {
+                if (cell == packedPos) {
+                    return h;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /** Recalculates all holes from scratch. */
+    void reset() {
+        holes.clear();
+        totalHoleSize = 0;
+        if (!calculateBounds()) {
+            return;
+        }
+        marks.clear();
+        int seedCount = 0;
+        for (int x = left; x < right; ++x) {
+            for (int y = top; y < bottom; ++y) {
+                seeds = addCell(seeds, seedCount++, Pos.pack(x, y));
+            }
+        }
+        fillRegions(seedCount);
+    }
+
+    /**
+     * Updates the holes after the index changed from {@code oldPositions} to {@code newPositions}.
+     * If the new list was derived from the old list (see {@link PosList#isDerivedFrom}), only the
+     * regions around the changed positions are filled again.
+     */
+    void update(PosList oldPositions, PosList newPositions) {
+        if (newPositions == oldPositions) {
+            return;
+        }
+        if (!newPositions.isDerivedFrom(oldPositions)) {
+            reset();
+            return;
+        }
+        int changedCount = 0;
+        for (int k = 0, n = newPositions.getChangedIndexCount(); k < n; ++k) {
+            int i = newPositions.getChangedIndex(k);
+            changedCells = addCell(changedCells, changedCount++, oldPositions.getPacked(i));
+            changedCells = addCell(changedCells, changedCount++, newPositions.getPacked(i));
+        }
+        updateChangedCells(changedCount);
+    }
+
+    /**
+     * Updates the holes after a single piece was moved (or two pieces were swapped) between
+     * packed positions {@code src} and {@code dst}.
+     */
+    void update(int src, int dst) {
+        changedCells[0] = src;
+        changedCells[1] = dst;
+        updateChangedCells(2);
+    }
+
+    private void updateChangedCells(int changedCount) {
+        if (!calculateBounds()) {
+            holes.clear();
+            totalHoleSize = 0;
+            return;
+        }
+        // Mark the changed cells and their neighbours. Holes that contain any of these are removed.
+        marks.clear();
+        int seedCount = 0;
+        for (int k = 0; k < changedCount; ++k) {
+            int cell = changedCells[k];
+            marks.put(cell, 0);
+            seeds = addCell(seeds, seedCount++, cell);
+            for (int d = 0, n = topology.getDirectionCount(); d < n; ++d) {
+                int neighbour = topology.step(cell, d);
+                marks.put(neighbour, 0);
+                seeds = addCell(seeds, seedCount++, neighbour);
+            }
+        }
+        for (int h = holes.size() - 1; h >= 0; --h) {
+            int[] hole = holes.get(h);
+            if (touchesMarkedCell(hole)) {
+                // Remove the hole by moving the last hole into its place, and refill its cells.
+                holes.set(h, holes.get(holes.size() - 1));
+                holes.remove(holes.size() - 1);
+                totalHoleSize -= hole.length;
+                for (int cell : hole) {
+                    seeds = addCell(seeds, seedCount++, cell);
+                }
+            }
+        }
+        marks.clear();
+        fillRegions(seedCount);
+    }
+
+    private boolean touchesMarkedCell(int[] hole) {
+        for (int cell : hole) {
+            if (marks.get(cell) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Fills the regions that contain the first `seedCount` seeds, and adds the finite ones as
+    // holes. Occupied seeds and seeds in regions that were already filled are skipped.
+    private void fillRegions(int seedCount) {
+        int regionCount = 0;
+        for (int k = 0; k < seedCount; ++k) {
+            int seed = seeds[k];
+            if (marks.get(seed) < 0 && piecePositions.indexOfPacked(seed) < 0) {
+                fillRegion(seed, regionCount++);
+            }
+        }
+    }
+
+    // Fills the region that contains the empty cell `seed`, marking its cells with `region`.
+    // Adds the region as a hole if it's finite. Otherwise, stops as soon as the fill leaves the
+    // bounding rectangle, or reaches a region that did so earlier.
+    private void fillRegion(int seed, int region) {
+        int queueSize = 0;
+        marks.put(seed, region);
+        queue = addCell(queue, queueSize++, seed);
+        for (int queuePos = 0; queuePos < queueSize; ++queuePos) {
+            int cell = queue[queuePos];
+            int x = Pos.unpackX(cell);
+            int y = Pos.unpackY(cell);
+            if (x < left || x >= right || y < top || y >= bottom) {
+                return;
+            }
+            for (int d = 0, n = topology.getDirectionCount(); d < n; ++d) {
+                int neighbour = topology.step(cell, d);
+                int mark = marks.get(neighbour);
+                if (mark >= 0) {
+                    // Regions that didn't escape are complete, so a different mark means the
+                    // neighbour belongs to a region that escaped.
+                    if (mark != region) {
+                        return;
+                    }
+                } else if (piecePositions.indexOfPacked(neighbour) < 0) {
+                    marks.put(neighbour, region);
+                    queue = addCell(queue, queueSize++, neighbour);
+                }
+            }
+        }
+        holes.add(Arrays.copyOf(queue, queueSize));
+        totalHoleSize += queueSize;
+    }
+
+    // Calculates the bounding rectangle of the pieces. Returns false if there are no pieces.
+    private boolean calculateBounds() {
+        int n = piecePositions.size();
+        if (n == 0) {
+            return false;
+        }
+        left = top = Integer.MAX_VALUE;
+        right = bottom = Integer.MIN_VALUE;
+        for (int i = 0; i < n; ++i) {
+            int pos = piecePositions.getPacked(i);
+            int x = Pos.unpackX(pos);
+            int y = Pos.unpackY(pos);
+            left = Math.min(left, x);
+            top = Math.min(top, y);
+            right = Math.max(right, x + 1);
+            bottom = Math.max(bottom, y + 1);
+        }
+        return true;
+    }
+
+    // Stores `cell` at index k of `array`, growing it if necessary. Returns the (new) array.
+    private static int[] addCell(int[] array, int k, int cell) {
+        if (k == array.length) {
+            array = Arrays.copyOf(array, 2 * k);
+        }
+        array[k] = cell;
+        return array;
+    }
+
+    /**
+     * A map from packed positions to nonnegative values, implemented as an open-addressing hash
+     * table. Entries are only valid if their stamp equals the current stamp, so the map can be
+     * cleared in constant time.
+     */
+    private static final class CellMarks {
+        private int[] keys = new int[64];
+        private int[] values = new int[64];
+        private int[] stamps = new int[64];
+        private int stamp = 1;
+        private int size = 0;
+
+        void clear() {
+            size = 0;
+            if (++stamp == 0) {
+                // Wrapped around; clear old stamps so they can't be mistaken for the current one.
+                Arrays.fill(stamps, 0);
+                stamp = 1;
+            }
+        }
+
+        /** Returns the value of the given cell, or -1 if it's not in the map. */
+        int get(int cell) {
+            int mask = keys.length - 1;
+            for (int slot = hash(cell) & mask; stamps[slot] == stamp; slot = (slot + 1) & mask) {
+                if (keys[slot] == cell) {
+                    return values[slot];
+                }
+            }
+            return -1;
+        }
+
+        void put(int cell, int value) {
+            if (2 * (size + 1) > keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int slot = hash(cell) & mask;
+            while (stamps[slot] == stamp) {
+                if (keys[slot] == cell) {
+                    values[slot] = value;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            stamps[slot] = stamp;
+            keys[slot] = cell;
+            values[slot] = value;
+            ++size;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys, oldValues = values, oldStamps = stamps;
+            int oldStamp = stamp;
+            keys = new int[2 * oldKeys.length];
+            values = new int[keys.length];
+            stamps = new int[keys.length];
+            stamp = 1;
+            size = 0;
+            for (int slot = 0; slot < oldKeys.length; ++slot) {
+                if (oldStamps[slot] == oldStamp) {
+                    put(oldKeys[slot], oldValues[slot]);
+                }
+            }
+        }
+
+        private static int hash(int cell) {
+            int h = cell * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -17,16 +17,20 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.animation.TranslateAnimation;
+import android.widget.Toast;
 
 public class MainActivity extends AppCompatActivity implements View.OnClickListener {
 
     private AppState appState;
+    private HintController hintController;
 
     private MutableLiveData<FragmentId> activeFragmentIdLiveData;
-    private MutableLiveData<ImmutableList<Pos>> rectPuzzlePiecePositionsLiveData;
-    private MutableLiveData<ImmutableList<Pos>> hexPuzzlePiecePositionsLiveData;
+    private MutableLiveData<PosList> rectPuzzlePiecePositionsLiveData;
+    private MutableLiveData<PosList> hexPuzzlePiecePositionsLiveData;
 
     private FragmentId currentFragmentId = FragmentId.NONE;
+    private final ProgressTracker rectProgressTracker = new ProgressTracker(RectPuzzle.TOPOLOGY);
+    private final ProgressTracker hexProgressTracker = new ProgressTracker(HexPuzzle.TOPOLOGY);
     private @Nullable Solution.Progress rectPuzzleProgress = null;
     private @Nullable Solution.Progress hexPuzzleProgress = null;
 
@@ -49,6 +53,8 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         }
 
         AutoSaver.attach(appState, this);
+        hintController = HintController.attach(appState, this);
+        DeadEndController.attach(appState, this);
 
         activeFragmentIdLiveData = appState.getActiveFragmentId();
         FragmentId fragmentId = activeFragmentIdLiveData.getValue();
@@ -64,21 +70,34 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
             }
         });
         rectPuzzlePiecePositionsLiveData = appState.getRectPuzzlePiecePositions();
-        rectPuzzlePiecePositionsLiveData.observe(this, new Observer<ImmutableList<Pos>>() {
+        rectPuzzlePiecePositionsLiveData.observe(this, new Observer<PosList>() {
             @Override
-            public void onChanged(ImmutableList<Pos> rectPuzzlePiecePositions) {
+            public void onChanged(PosList rectPuzzlePiecePositions) {
                 onRectPiecePositionsChanged(rectPuzzlePiecePositions);
 
             }
         });
         hexPuzzlePiecePositionsLiveData = appState.getHexPuzzlePiecePositions();
-        hexPuzzlePiecePositionsLiveData.observe(this, new Observer<ImmutableList<Pos>>() {
+        hexPuzzlePiecePositionsLiveData.observe(this, new Observer<PosList>() {
             @Override
-            public void onChanged(ImmutableList<Pos> hexPuzzlePiecePositions) {
+            public void onChanged(PosList hexPuzzlePiecePositions) {
                 onHexPiecePositionsChanged(hexPuzzlePiecePositions);
             }
         });
 
+        appState.getHint().observe(this, new Observer<HintController.Hint>() {
+            @Override
+            public void onChanged(@Nullable HintController.Hint hint) {
+                onHintChanged(hint);
+            }
+        });
+        appState.getDeadEndWarning().observe(this, new Observer<DeadEndController.Report>() {
+            @Override
+            public void onChanged(@Nullable DeadEndController.Report report) {
+                onDeadEndWarningChanged(report);
+            }
+        });
+
         solvedView = findViewById(R.id.solved_view);
         solvedView.setVisibility(View.INVISIBLE);
         solvedViewShown = false;
@@ -129,6 +148,10 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                 promptResetPiecePositions();
                 return true;
 
+            case R.id.show_hint:
+                requestHint();
+                return true;
+
             default:
                 return super.onOptionsItemSelected(item);
         }
@@ -146,11 +169,11 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                     switch (currentFragmentId) {
                         case RECT_PUZZLE:
                             rectPuzzlePiecePositionsLiveData.setValue(
-                                    ImmutableList.copyOf(RectPuzzle.getRandomPiecePositions()));
+                                    PosList.copyOf(RectPuzzle.getRandomPiecePositions()));
                             break;
                         case HEX_PUZZLE:
                             hexPuzzlePiecePositionsLiveData.setValue(
-                                    ImmutableList.copyOf(HexPuzzle.getRandomPiecePositions()));
+                                    PosList.copyOf(HexPuzzle.getRandomPiecePositions()));
                             break;
                     }
                 }
@@ -167,6 +190,59 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                 .show();
     }
 
+    private void requestHint() {
+        PieceSet pinned = new PieceSet();
+        switch (currentFragmentId) {
+            case RECT_PUZZLE:
+                HintController.choosePinnedPieces(rectProgressTracker, pinned);
+                break;
+            case HEX_PUZZLE:
+                HintController.choosePinnedPieces(hexProgressTracker, pinned);
+                break;
+            default:
+                LogUtil.w("Cannot show a hint while active fragment is %s\n", currentFragmentId);
+                return;
+        }
+        hintController.requestHint(currentFragmentId, pinned);
+    }
+
+    private void onHintChanged(@Nullable HintController.Hint hint) {
+        if (hint == null) {
+            return;
+        }
+        // The hint is shown once, so clear it (which calls this method again with null).
+        appState.getHint().setValue(null);
+        if (hint.puzzle != currentFragmentId) {
+            return;
+        }
+        String message;
+        switch (hint.status) {
+            case FOUND:
+                int moveCount = hint.getMoveCount();
+                message = getResources().getQuantityString(R.plurals.hint_found, moveCount, moveCount);
+                break;
+            case NO_SOLUTION:
+                message = getString(R.string.hint_no_solution);
+                break;
+            default:
+                message = getString(R.string.hint_timed_out);
+                break;
+        }
+        Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+    }
+
+    private void onDeadEndWarningChanged(@Nullable DeadEndController.Report report) {
+        if (report == null) {
+            return;
+        }
+        // The warning is shown once, so clear it (which calls this method again with null).
+        appState.getDeadEndWarning().setValue(null);
+        if (report.puzzle == currentFragmentId
+                && appState.getErrorVisibility().getValue() == ErrorVisibility.VISIBLE) {
+            Toast.makeText(this, R.string.dead_end_warning, Toast.LENGTH_SHORT).show();
+        }
+    }
+
     @Override
     public void onClick(View v) {
         switch (v.getId()) {
@@ -227,9 +303,10 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         solvedViewShown = false;
     }
 
-    private void onRectPiecePositionsChanged(ImmutableList<Pos> piecePositions) {
+    private void onRectPiecePositionsChanged(PosList piecePositions) {
         Solution.Progress oldRectPuzzleProgress = rectPuzzleProgress;
-        rectPuzzleProgress = Solution.calculateProgress(piecePositions, RectDirection.VALUES);
+        rectProgressTracker.assign(piecePositions);
+        rectPuzzleProgress = rectProgressTracker.getProgress();
         if (oldRectPuzzleProgress == null) {
             // This is the first time progress is calculated, probably because we first loaded
             // this view. Don't update the solved view in this case.
@@ -253,9 +330,10 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         }
     }
 
-    private void onHexPiecePositionsChanged(ImmutableList<Pos> piecePositions) {
+    private void onHexPiecePositionsChanged(PosList piecePositions) {
         Solution.Progress oldHexPuzzleProgress = hexPuzzleProgress;
-        hexPuzzleProgress = Solution.calculateProgress(piecePositions, HexDirection.VALUES);
+        hexProgressTracker.assign(piecePositions);
+        hexPuzzleProgress = hexProgressTracker.getProgress();
         if (oldHexPuzzleProgress == null) {
             // This is the first time progress is calculated, probably because we first loaded
             // this view. Don't update the solved view in this case.
@@ -0,0 +1,174 @@
+package ch.verver.conhexion;
+
+import java.util.Arrays;
+
+/**
+ * A set of moves that is applied atomically, with {@link PiecePositionIndex#moveAll},
+ * {@link CopyOnWritePiecePositionIndex#moveAll} or {@link ProgressTracker#moveAll}.
+ *
+ * <p>Each move takes a piece to a destination. The moved pieces and the destinations must be
+ * distinct, but destinations may be occupied, including by other moved pieces. Pieces that occupy
+ * a destination but aren't moved themselves are displaced, according to the following policy.
+ *
+ * <p>Taken together, the moves form chains of cells: a chain starts at a cell that is vacated (a
+ * source that isn't a destination), follows the moves from source to destination, and ends at a
+ * cell that wasn't a source. A displaced piece is at the end of a chain, and moves to its start.
+ * For example, when a group is translated and the source and destination cells don't overlap, the
+ * displaced pieces are translated by the opposite offset, preserving their configuration:
+ *
+ * <pre>
+ *      .......     .......
+ *      .aa.b..     .b..aa.   Moving the a's three spaces to the right moves b and c to
+ *      .aa..c.  => ..c.aa.   the left, keeping their relative positions intact.
+ *      .......     .......
+ * </pre>
+ *
+ * <p>Batches can be reused: {@link #clear} removes all moves but keeps the buffers.
+ */
+final class MoveBatch {
+
+    // Moves added with add(). Only the first `size` elements are used.
+    private int[] pieces = new int[16];
+    private int[] destinations = new int[16];
+    private int size = 0;
+
+    // Changes calculated by resolve(): piece changedPieces[k] ends up at changedPositions[k].
+    private int[] changedPieces = new int[16];
+    private int[] changedPositions = new int[16];
+    private int changeCount = 0;
+
+    // Scratch space for resolve(). sortedDestinations contains (destination << 32 | move index)
+    // for each move, sorted, so moves can be found by destination with a binary search.
+    private long[] sortedDestinations = new long[16];
+    private final PieceSet movedPieces = new PieceSet();
+
+    /** Removes all moves. */
+    void clear() {
+        size = 0;
+        changeCount = 0;
+    }
+
+    /** Returns the number of moves. */
+    int size() {
+        return size;
+    }
+
+    /** Adds a move of piece {@code pieceIndex} to {@code destination}. */
+    void add(int pieceIndex, Pos destination) {
+        add(pieceIndex, destination.pack());
+    }
+
+    /** Adds a move of piece {@code pieceIndex} to the packed position {@code destination}. */
+    void add(int pieceIndex, int destination) {
+        if (size == pieces.length) {
+            pieces = Arrays.copyOf(pieces, 2 * size);
+            destinations = Arrays.copyOf(destinations, 2 * size);
+        }
+        pieces[size] = pieceIndex;
+        destinations[size] = destination;
+        ++size;
+    }
+
+    /**
+     * Validates the moves against the given positions, and calculates the resulting changes,
+     * including those of displaced pieces. Afterwards, {@link #getChangeCount},
+     * {@link #getChangedPiece} and {@link #getChangedPosition} describe the changes.
+     *
+     * @throws IllegalArgumentException if a piece index is out of range, or the moved pieces or
+     *      the destinations are not distinct
+     */
+    void resolve(ReadonlyPiecePositionIndex positions) {
+        int n = positions.size();
+        movedPieces.clear();
+        if (sortedDestinations.length < size) {
+            sortedDestinations = new long[pieces.length];
+        }
+        for (int k = 0; k < size; ++k) {
+            int i = pieces[k];
+            if (i < 0 || i >= n) {
+                throw new IllegalArgumentException("invalid piece index " + i);
+            }
+            if (movedPieces.contains(i)) {
+                throw new IllegalArgumentException("piece " + i + " is moved twice");
+            }
+            movedPieces.add(i);
+            sortedDestinations[k] = ((long) destinations[k] << 32) | k;
+        }
+        Arrays.sort(sortedDestinations, 0, size);
+        for (int k = 1; k < size; ++k) {
+            if ((sortedDestinations[k] >> 32) == (sortedDestinations[k - 1] >> 32)) {
+                throw new IllegalArgumentException("duplicate destination " +
+                        Pos.unpack((int) (sortedDestinations[k] >> 32)));
+            }
+        }
+
+        changeCount = 0;
+        for (int k = 0; k < size; ++k) {
+            int i = pieces[k];
+            int dst = destinations[k];
+            if (positions.getPacked(i) == dst) {
+                continue;
+            }
+            addChange(i, dst);
+            int j = positions.indexOfPacked(dst);
+            if (j >= 0 && !movedPieces.contains(j)) {
+                addChange(j, findChainStart(positions, dst));
+            }
+        }
+    }
+
+    // Returns the vacated cell at the start of the chain that ends at `cell`, by following the
+    // moves backward from destination to source.
+    private int findChainStart(ReadonlyPiecePositionIndex positions, int cell) {
+        for (;;) {
+            int source = positions.getPacked(pieces[findMoveTo(cell)]);
+            if (findMoveTo(source) < 0) {
+                return source;
+            }
+            cell = source;
+        }
+    }
+
+    // Returns the index of the move to `destination`, or -1 if there is none.
+    private int findMoveTo(int destination) {
+        int low = 0, high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int value = (int) (sortedDestinations[mid] >> 32);
+            if (value == destination) {
+                return (int) sortedDestinations[mid];
+            }
+            if (value < destination) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return -1;
+    }
+
+    private void addChange(int pieceIndex, int position) {
+        if (changeCount == changedPieces.length) {
+            changedPieces = Arrays.copyOf(changedPieces, 2 * changeCount);
+            changedPositions = Arrays.copyOf(changedPositions, 2 * changeCount);
+        }
+        changedPieces[changeCount] = pieceIndex;
+        changedPositions[changeCount] = position;
+        ++changeCount;
+    }
+
+    /** Returns the number of pieces that change position, as calculated by {@link #resolve}. */
+    int getChangeCount() {
+        return changeCount;
+    }
+
+    /** Returns the index of the k-th piece that changes position. */
+    int getChangedPiece(int k) {
+        return changedPieces[k];
+    }
+
+    /** Returns the new packed position of the k-th piece that changes position. */
+    int getChangedPosition(int k) {
+        return changedPositions[k];
+    }
+}
@@ -0,0 +1,239 @@
+package ch.verver.conhexion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Finds the solutions in a {@link SolutionCatalog} that are nearest to a configuration, where the
+ * distance is the number of pieces that must be moved to turn the configuration into the solution,
+ * minimized over all translations, rotations and reflections of the solution.
+ *
+ * <p>The index uses multi-index hashing: pieces are split into {@code blockCount} blocks of
+ * consecutive piece indices, and each block of each canonical solution is hashed by the positions
+ * of its pieces relative to the block's first piece, which makes the hash translation-invariant.
+ * If a configuration is at distance less than {@code blockCount} from a solution, then under the
+ * best alignment at least one block has no moved pieces, so the block hashes of some image of the
+ * configuration (see {@link Canonicalizer#transformPacked}) include a hash of that solution.
+ * Candidates found this way are ranked by their exact distance. Results are therefore exact for
+ * distances below {@code blockCount}; farther solutions are only reported if they happen to share
+ * a block with the configuration, and closer unreported solutions may exist. Each {@link Match}
+ * records which case applies in {@link Match#exact}.
+ *
+ * <p>Hashes are kept in a single sorted array of longs, with the solution number in the low bits,
+ * so the index takes 8 bytes per block per solution, and a block lookup is a binary search.
+ */
+final class NearestSolutionIndex {
+
+    /** Number of blocks used by default. */
+    static final int DEFAULT_BLOCK_COUNT = 8;
+
+    /** A solution and its distance to the query. */
+    static final class Match {
+        /** Number of the solution in the catalog. */
+        final long solution;
+
+        /** Number of pieces that must be moved to reach the solution. */
+        final int distance;
+
+        /**
+         * The image of the solution that's closest to the query, as positions indexed by piece
+         * index. The pieces that must be moved are those whose positions differ from the query.
+         */
+        final PosList target;
+
+        /**
+         * Whether the distance is below the block count. If so, every solution that's nearer to
+         * the query than this one is also in the results, so its rank is exact. Otherwise, there
+         * may be nearer solutions that the index didn't find.
+         */
+        final boolean exact;
+
+        Match(long solution, int distance, PosList target, boolean exact) {
+            this.solution = solution;
+            this.distance = distance;
+            this.target = target;
+            this.exact = exact;
+        }
+    }
+
+    private final SolutionCatalog catalog;
+    private final GridTopology<?> topology;
+    private final Canonicalizer canonicalizer;
+    private final int pieceCount;
+    private final int blockCount;
+    private final int idBits;
+    private final long idMask;
+    private final long[] entries;
+
+    // Scratch buffers, guarded by `this`.
+    private final int[] query;
+    private final int[] image;
+    private final int[] solution;
+    private final long[] deltas;
+
+    /** Builds an index of the solutions in the catalog, with the default number of blocks. */
+    NearestSolutionIndex(SolutionCatalog catalog, GridTopology<?> topology) {
+        this(catalog, topology, DEFAULT_BLOCK_COUNT);
+    }
+
+    /**
+     * Builds an index of the solutions in the catalog. More blocks give exact results for larger
+     * distances, but take more memory, and find more candidates per query.
+     *
+     * @throws IllegalArgumentException if the block count is not between 1 and the piece count, or
+     *      the index would be too large
+     */
+    NearestSolutionIndex(SolutionCatalog catalog, GridTopology<?> topology, int blockCount) {
+        this.catalog = catalog;
+        this.topology = topology;
+        this.canonicalizer = new Canonicalizer(topology);
+        this.pieceCount = topology.getPieceCount();
+        if (blockCount < 1 || blockCount > pieceCount) {
+            throw new IllegalArgumentException("invalid block count");
+        }
+        this.blockCount = blockCount;
+        long solutionCount = catalog.getSolutionCount();
+        if (solutionCount * blockCount > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("too many solutions");
+        }
+        this.idBits = Math.max(1, Long.SIZE - Long.numberOfLeadingZeros(solutionCount));
+        this.idMask = (1L << idBits) - 1;
+        this.query = new int[pieceCount];
+        this.image = new int[pieceCount];
+        this.solution = new int[pieceCount];
+        this.deltas = new long[pieceCount];
+
+        this.entries = new long[(int) (solutionCount * blockCount)];
+        int n = 0;
+        for (long k = 0; k < solutionCount; ++k) {
+            catalog.getSolution(k, solution);
+            for (int b = 0; b < blockCount; ++b) {
+                entries[n++] = (blockHash(solution, b) & ~idMask) | k;
+            }
+        }
+        Arrays.sort(entries);
+    }
+
+    /** Returns the number of blocks, which bounds the distances for which results are exact. */
+    int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Returns up to {@code k} solutions nearest to the given configuration, ordered by distance,
+     * then by solution number. See the class comment for which solutions are found; matches that
+     * are farther than the index can guarantee have {@link Match#exact} set to false.
+     */
+    synchronized List<Match> findNearest(ReadonlyPiecePositionIndex positions, int k) {
+        if (positions.size() != pieceCount) {
+            throw new IllegalArgumentException("expected " + pieceCount + " pieces");
+        }
+        for (int i = 0; i < pieceCount; ++i) {
+            query[i] = positions.getPacked(i);
+        }
+
+        // Collect candidates from the block hashes of all images of the query.
+        long[] candidates = new long[16];
+        int candidateCount = 0;
+        for (int s = 0; s < canonicalizer.getSymmetryCount(); ++s) {
+            canonicalizer.transformPacked(query, s, image);
+            for (int b = 0; b < blockCount; ++b) {
+                long prefix = blockHash(image, b) & ~idMask;
+                for (int j = lowerBound(prefix); j < entries.length && (entries[j] & ~idMask) == prefix; ++j) {
+                    if (candidateCount == candidates.length) {
+                        candidates = Arrays.copyOf(candidates, 2 * candidateCount);
+                    }
+                    candidates[candidateCount++] = entries[j] & idMask;
+                }
+            }
+        }
+        Arrays.sort(candidates, 0, candidateCount);
+
+        ArrayList<Match> matches = new ArrayList<>();
+        for (int j = 0; j < candidateCount; ++j) {
+            if (j > 0 && candidates[j] == candidates[j - 1]) {
+                continue;
+            }
+            catalog.getSolution(candidates[j], solution);
+            matches.add(match(candidates[j]));
+        }
+        Collections.sort(matches, (a, b) -> a.distance != b.distance
+                ? Integer.compare(a.distance, b.distance)
+                : Long.compare(a.solution, b.solution));
+        return matches.size() <= k ? matches : new ArrayList<>(matches.subList(0, k));
+    }
+
+    // Returns the index of the first entry that's not less than `prefix`.
+    private int lowerBound(long prefix) {
+        int low = 0, high = entries.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (entries[mid] < prefix) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Hashes the positions of the pieces in block b, relative to the first piece in the block, in
+    // axial coordinates so that the hash is invariant under translation.
+    private long blockHash(int[] packedPositions, int b) {
+        int start = b * pieceCount / blockCount, end = (b + 1) * pieceCount / blockCount;
+        int q0 = Pos.unpackX(packedPositions[start]);
+        int r0 = topology.toAxialY(q0, Pos.unpackY(packedPositions[start]));
+        long hash = 0;
+        for (int i = start; i < end; ++i) {
+            int q = Pos.unpackX(packedPositions[i]);
+            int r = topology.toAxialY(q, Pos.unpackY(packedPositions[i]));
+            hash ^= Zobrist.key(i, Pos.pack(q - q0, r - r0));
+        }
+        return hash;
+    }
+
+    // Calculates the exact distance between the query and `solution`: for each image of the
+    // solution, the translation that matches the most pieces is the most common difference between
+    // the positions of a piece in the query and in the image.
+    private Match match(long solutionNumber) {
+        int bestMatches = -1, bestSymmetry = 0;
+        long bestDelta = 0;
+        for (int s = 0; s < canonicalizer.getSymmetryCount(); ++s) {
+            canonicalizer.transformPacked(solution, s, image);
+            for (int i = 0; i < pieceCount; ++i) {
+                deltas[i] = axialDelta(query[i], image[i]);
+            }
+            Arrays.sort(deltas);
+            for (int i = 0, j; i < pieceCount; i = j) {
+                for (j = i + 1; j < pieceCount && deltas[j] == deltas[i]; ++j) {
+                    // Count the run of equal deltas.
+                }
+                if (j - i > bestMatches) {
+                    bestMatches = j - i;
+                    bestSymmetry = s;
+                    bestDelta = deltas[i];
+                }
+            }
+        }
+        canonicalizer.transformPacked(solution, bestSymmetry, image);
+        int dq = (int) (bestDelta >> 32), dr = (int) bestDelta;
+        for (int i = 0; i < pieceCount; ++i) {
+            int q = Pos.unpackX(image[i]) + dq;
+            int r = topology.toAxialY(q - dq, Pos.unpackY(image[i])) + dr;
+            image[i] = Pos.pack(q, topology.fromAxialY(q, r));
+        }
+        int distance = pieceCount - bestMatches;
+        return new Match(solutionNumber, distance, PosList.fromPacked(image, pieceCount),
+                distance < blockCount);
+    }
+
+    // Returns the difference between two packed positions in axial coordinates, as a long.
+    private long axialDelta(int dst, int src) {
+        int dstQ = Pos.unpackX(dst), srcQ = Pos.unpackX(src);
+        int dq = dstQ - srcQ;
+        int dr = topology.toAxialY(dstQ, Pos.unpackY(dst)) - topology.toAxialY(srcQ, Pos.unpackY(src));
+        return ((long) dq << 32) | (dr & 0xffffffffL);
+    }
+}
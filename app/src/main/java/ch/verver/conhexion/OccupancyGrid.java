@@ -0,0 +1,114 @@
+package ch.verver.conhexion;
+
+import java.util.Arrays;
+
+/**
+ * Maps grid positions to integer values (typically piece indices) using a flat array that covers
+ * a rectangular window of the grid. Positions outside the window are implicitly empty.
+ *
+ * <p>The window includes a margin around the positions that have been set, and is regrown
+ * automatically when a value is set outside of it, so that pieces can be moved around without
+ * reallocating on every move. Lookups never allocate.
+ *
+ * <p>The window doesn't only grow: when it's regrown, it's re-centred on the occupied positions,
+ * so it stops covering areas that pieces have left, and {@link #reset} releases the array if it's
+ * much larger than the new window needs.
+ */
+class OccupancyGrid {
+
+    /** Value returned for positions that are not occupied. */
+    static final int EMPTY = -1;
+
+    // Number of extra rows/columns added on each side when the window is (re)allocated.
+    private static final int MARGIN = 4;
+
+    // The array is reallocated on reset if it's more than this many times larger than needed.
+    private static final int SHRINK_FACTOR = 4;
+
+    private int left = 0;
+    private int top = 0;
+    private int width = 0;
+    private int height = 0;
+    private int[] cells = new int[0];
+
+    /**
+     * Clears the grid, and makes sure the window covers at least the rectangle
+     * {@code left <= x < right, top <= y < bottom}. The existing array is reused if it is large
+     * enough, but not much larger.
+     */
+    void reset(int left, int top, int right, int bottom) {
+        this.left = left - MARGIN;
+        this.top = top - MARGIN;
+        this.width = Math.max(right - left, 0) + 2 * MARGIN;
+        this.height = Math.max(bottom - top, 0) + 2 * MARGIN;
+        int size = width * height;
+        if (cells.length < size || cells.length > SHRINK_FACTOR * size) {
+            cells = new int[size];
+        }
+        Arrays.fill(cells, 0, size, EMPTY);
+    }
+
+    /** Returns the value at position (x, y), or {@link #EMPTY} if there is none. */
+    int get(int x, int y) {
+        int col = x - left;
+        int row = y - top;
+        if (col < 0 || col >= width || row < 0 || row >= height) {
+            return EMPTY;
+        }
+        return cells[row * width + col];
+    }
+
+    /** Sets the value at position (x, y), growing the window if necessary. */
+    void set(int x, int y, int value) {
+        int col = x - left;
+        int row = y - top;
+        if (col < 0 || col >= width || row < 0 || row >= height) {
+            if (value == EMPTY) {
+                return;
+            }
+            grow(x, y);
+            col = x - left;
+            row = y - top;
+        }
+        cells[row * width + col] = value;
+    }
+
+    /** Clears the value at position (x, y). */
+    void clear(int x, int y) {
+        set(x, y, EMPTY);
+    }
+
+    // Reallocates the window to cover the occupied positions and (x, y), plus a margin.
+    private void grow(int x, int y) {
+        int newLeft = x, newTop = y, newRight = x + 1, newBottom = y + 1;
+        for (int row = 0; row < height; ++row) {
+            for (int col = 0; col < width; ++col) {
+                if (cells[row * width + col] != EMPTY) {
+                    newLeft = Math.min(newLeft, left + col);
+                    newTop = Math.min(newTop, top + row);
+                    newRight = Math.max(newRight, left + col + 1);
+                    newBottom = Math.max(newBottom, top + row + 1);
+                }
+            }
+        }
+        newLeft -= MARGIN;
+        newTop -= MARGIN;
+        int newWidth = newRight + MARGIN - newLeft;
+        int newHeight = newBottom + MARGIN - newTop;
+        int[] newCells = new int[newWidth * newHeight];
+        Arrays.fill(newCells, EMPTY);
+        for (int row = 0; row < height; ++row) {
+            for (int col = 0; col < width; ++col) {
+                int value = cells[row * width + col];
+                if (value != EMPTY) {
+                    newCells[(top + row - newTop) * newWidth + (left + col - newLeft)] = value;
+                }
+            }
+        }
+        left = newLeft;
+        top = newTop;
+        width = newWidth;
+        height = newHeight;
+        cells = newCells;
+    }
+}
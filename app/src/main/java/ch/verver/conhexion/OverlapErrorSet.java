@@ -0,0 +1,225 @@
+package ch.verver.conhexion;
+
+/**
+ * The set of overlap errors displayed by {@link BaseGridView}: places where two adjacent pieces
+ * touch without being connected by a path.
+ *
+ * <p>Each error is identified by the piece it is drawn on and one of the grid's error directions
+ * (which cover every pair of adjacent positions exactly once). Since every position is occupied by
+ * at most one piece, the piece index serves as a dense key for its position, and the set is
+ * stored as an array of per-piece bitmasks of direction indices (see {@link GridTopology}).
+ *
+ * <p>When pieces are moved, or start or stop being dragged, only the errors of the pieces at and
+ * around the changed positions are recalculated. Dragged pieces are excluded: they have no errors
+ * and cause no errors in their neighbours.
+ *
+ * <p>Errors are iterated without allocating, using entry ids:
+ *
+ * <pre>
+ *     for (int e = errors.first(); e >= 0; e = errors.next(e + 1)) {
+ *         int x = errors.getX(e), y = errors.getY(e);
+ *         D direction = errors.getDirection(e);
+ *         ...
+ *     }
+ * </pre>
+ */
+class OverlapErrorSet<D extends Direction> {
+
+    private final GridTopology<D> topology;
+    private final ReadonlyPiecePositionIndex piecePositions;
+
+    // Bitmask of the topology's direction indices that are error directions.
+    private final int errorDirectionMask;
+
+    // Whether errors are calculated. If not, the set is empty and updates are ignored.
+    private boolean enabled = false;
+
+    // errorMasks[i] contains the error directions (as topology direction indices) of piece i.
+    private int[] errorMasks = new int[0];
+
+    // Pieces i for which errorMasks[i] != 0.
+    private final PieceSet piecesWithErrors = new PieceSet();
+
+    // Pieces that are currently being dragged.
+    private final PieceSet draggedPieces = new PieceSet();
+
+    // Scratch set reused between updates, to avoid allocations.
+    private final PieceSet affectedPieces = new PieceSet();
+
+    OverlapErrorSet(GridTopology<D> topology, ImmutableList<D> errorDirections,
+            ReadonlyPiecePositionIndex piecePositions) {
+        this.topology = topology;
+        this.piecePositions = piecePositions;
+        int mask = 0;
+        for (D direction : errorDirections) {
+            int d = topology.indexOf(direction);
+            if (d < 0) {
+                throw new IllegalArgumentException("unknown error direction " + direction);
+            }
+            mask |= 1 << d;
+        }
+        this.errorDirectionMask = mask;
+    }
+
+    /**
+     * Enables or disables the calculation of errors. While disabled, the set is empty. Enabling
+     * recalculates all errors.
+     */
+    void setEnabled(boolean newEnabled) {
+        if (enabled == newEnabled) {
+            return;
+        }
+        enabled = newEnabled;
+        reset();
+    }
+
+    /** Recalculates all errors from scratch. */
+    void reset() {
+        int n = piecePositions.size();
+        if (errorMasks.length != n) {
+            errorMasks = new int[n];
+        }
+        piecesWithErrors.clear();
+        for (int i = 0; i < n; ++i) {
+            updatePiece(i);
+        }
+    }
+
+    /**
+     * Updates the errors after the positions changed from {@code oldPositions} to
+     * {@code newPositions}. If the new list was derived from the old list (see
+     * {@link PosList#isDerivedFrom}), only the errors around the changed pieces are recalculated.
+     */
+    void update(PosList oldPositions, PosList newPositions) {
+        if (!enabled || newPositions == oldPositions) {
+            return;
+        }
+        if (!newPositions.isDerivedFrom(oldPositions) || errorMasks.length != piecePositions.size()) {
+            reset();
+            return;
+        }
+        affectedPieces.clear();
+        for (int k = 0, n = newPositions.getChangedIndexCount(); k < n; ++k) {
+            int i = newPositions.getChangedIndex(k);
+            addAffectedPieces(oldPositions.getPacked(i));
+            addAffectedPieces(newPositions.getPacked(i));
+        }
+        updateAffectedPieces();
+    }
+
+    /**
+     * Sets the pieces that are currently being dragged. Only the errors around the pieces that
+     * started or stopped being dragged are recalculated.
+     */
+    void setDraggedPieces(PieceSet newDraggedPieces) {
+        if (newDraggedPieces.equals(draggedPieces)) {
+            return;
+        }
+        affectedPieces.clear();
+        if (enabled) {
+            for (int i = draggedPieces.first(); i >= 0; i = draggedPieces.next(i + 1)) {
+                if (!newDraggedPieces.contains(i)) {
+                    addAffectedPieces(piecePositions.getPacked(i));
+                }
+            }
+            for (int i = newDraggedPieces.first(); i >= 0; i = newDraggedPieces.next(i + 1)) {
+                if (!draggedPieces.contains(i)) {
+                    addAffectedPieces(piecePositions.getPacked(i));
+                }
+            }
+        }
+        draggedPieces.set(newDraggedPieces);
+        if (enabled) {
+            updateAffectedPieces();
+        }
+    }
+
+    /** Returns whether the set contains no errors. */
+    boolean isEmpty() {
+        return piecesWithErrors.isEmpty();
+    }
+
+    /** Returns the id of the first error, or -1 if the set is empty. */
+    int first() {
+        return next(0);
+    }
+
+    /** Returns the lowest id of an error that is greater than or equal to {@code e}, or -1. */
+    int next(int e) {
+        int directionCount = topology.getDirectionCount();
+        int i = e / directionCount;
+        // Directions of piece i that come at or after e.
+        int mask = i < errorMasks.length ? errorMasks[i] & (-1 << (e % directionCount)) : 0;
+        if (mask == 0) {
+            i = piecesWithErrors.next(i + 1);
+            if (i < 0) {
+                return -1;
+            }
+            mask = errorMasks[i];
+        }
+        return i * directionCount + Integer.numberOfTrailingZeros(mask);
+    }
+
+    /** Returns the x-coordinate of the piece that error {@code e} is drawn on. */
+    int getX(int e) {
+        return Pos.unpackX(piecePositions.getPacked(e / topology.getDirectionCount()));
+    }
+
+    /** Returns the y-coordinate of the piece that error {@code e} is drawn on. */
+    int getY(int e) {
+        return Pos.unpackY(piecePositions.getPacked(e / topology.getDirectionCount()));
+    }
+
+    /** Returns the direction of error {@code e}, relative to the piece that it is drawn on. */
+    D getDirection(int e) {
+        return topology.getDirection(e % topology.getDirectionCount());
+    }
+
+    // Adds the piece at `packedPos` and its neighbours to affectedPieces. The errors of all other
+    // pieces only involve positions that didn't change.
+    private void addAffectedPieces(int packedPos) {
+        addAffectedPiece(packedPos);
+        for (int d = 0, n = topology.getDirectionCount(); d < n; ++d) {
+            addAffectedPiece(topology.step(packedPos, d));
+        }
+    }
+
+    private void addAffectedPiece(int packedPos) {
+        int i = piecePositions.indexOfPacked(packedPos);
+        if (i >= 0) {
+            affectedPieces.add(i);
+        }
+    }
+
+    private void updateAffectedPieces() {
+        for (int i = affectedPieces.first(); i >= 0; i = affectedPieces.next(i + 1)) {
+            updatePiece(i);
+        }
+    }
+
+    private void updatePiece(int i) {
+        int mask = enabled ? calculateErrorMask(i) : 0;
+        errorMasks[i] = mask;
+        if (mask == 0) {
+            piecesWithErrors.remove(i);
+        } else {
+            piecesWithErrors.add(i);
+        }
+    }
+
+    private int calculateErrorMask(int i) {
+        if (draggedPieces.contains(i)) {
+            return 0;
+        }
+        int result = 0;
+        int pos = piecePositions.getPacked(i);
+        for (int mask = errorDirectionMask; mask != 0; mask &= mask - 1) {
+            int d = Integer.numberOfTrailingZeros(mask);
+            int j = piecePositions.indexOfPacked(topology.step(pos, d));
+            if (j >= 0 && !draggedPieces.contains(j) && !topology.connects(i, d, j)) {
+                result |= 1 << d;
+            }
+        }
+        return result;
+    }
+}
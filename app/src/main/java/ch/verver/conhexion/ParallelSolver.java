@@ -0,0 +1,183 @@
+package ch.verver.conhexion;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the search of {@link BacktrackingSolver} on a {@link ForkJoinPool}.
+ *
+ * <p>The search tree is split near the root: a task fills the selected cell of its board with
+ * each candidate, and forks one subtask per candidate, until the task is {@link #MAX_SPLIT_DEPTH}
+ * pieces deep or the worker already has enough queued tasks for idle workers to steal. Below that,
+ * a task searches its subtree sequentially.
+ *
+ * <p>Boards are never shared between threads. A task only describes its placements (as a chain of
+ * parent tasks). When it runs, it takes an idle {@link BacktrackingSolver} from the search's pool
+ * of solvers (or creates one), replays its placements on the solver's board, and undoes them and
+ * returns the solver before forking or returning. A task doesn't hold a solver while it waits for
+ * subtasks, so a search creates at most one solver per concurrently running task, and the solvers
+ * are released when the search ends rather than kept alive by the pool's threads.
+ *
+ * <p>The pool is passed in by the caller, since {@link ForkJoinPool#commonPool} requires API level
+ * 24.
+ *
+ * <p>All workers share one stop flag, so {@link #cancel} and a visitor that returns false stop
+ * every worker at its next search step.
+ */
+final class ParallelSolver {
+
+    /** Tasks with more placed pieces than this are never split. */
+    static final int MAX_SPLIT_DEPTH = 16;
+
+    // Tasks are only split while the worker has at most this many queued tasks.
+    private static final int MAX_SURPLUS_TASKS = 3;
+
+    // Cell of the root task, which stands for the origin cell of the worker's board.
+    private static final int ORIGIN = -1;
+
+    private final GridTopology<?> topology;
+    private final ForkJoinPool pool;
+    private final AtomicBoolean stopped = new AtomicBoolean();
+
+    ParallelSolver(GridTopology<?> topology, ForkJoinPool pool) {
+        this.topology = topology;
+        this.pool = pool;
+    }
+
+    /** Stops the search on all workers as soon as possible. Thread-safe. */
+    void cancel() {
+        stopped.set(true);
+    }
+
+    /** Returns whether the search was stopped by a visitor or cancelled. */
+    boolean isStopped() {
+        return stopped.get();
+    }
+
+    /** Returns the positions of the first solution found by any worker, or null if there is none. */
+    @Nullable
+    PosList solve() {
+        AtomicReference<PosList> result = new AtomicReference<>();
+        search(packedPositions -> {
+            result.compareAndSet(null, PosList.fromPacked(packedPositions, packedPositions.length));
+            return false;
+        });
+        return result.get();
+    }
+
+    /**
+     * Passes solutions to {@code visitor} until it returns false, the search is cancelled, or all
+     * solutions have been found, and returns the number of solutions visited. Blocks until all
+     * workers are done.
+     *
+     * <p>The visitor is called concurrently from the worker threads, so it must be thread-safe.
+     * The array passed to it belongs to the calling worker, and is reused for its next solution.
+     */
+    long search(BacktrackingSolver.Visitor visitor) {
+        int pieceCount = topology.getPieceCount();
+        if (pieceCount == 0) {
+            return 0;
+        }
+        Search search = new Search(topology, stopped, visitor);
+        return pool.invoke(new SearchTask(search, null, ORIGIN, pieceCount - 1));
+    }
+
+    // The state shared by all tasks of one call to search().
+    private static final class Search {
+        final GridTopology<?> topology;
+        final AtomicBoolean stopped;
+        final BacktrackingSolver.Visitor visitor;
+        // Solvers that aren't used by a running task. Their boards are empty.
+        final ConcurrentLinkedQueue<BacktrackingSolver> idleSolvers = new ConcurrentLinkedQueue<>();
+
+        Search(GridTopology<?> topology, AtomicBoolean stopped, BacktrackingSolver.Visitor visitor) {
+            this.topology = topology;
+            this.stopped = stopped;
+            this.visitor = visitor;
+        }
+
+        BacktrackingSolver takeSolver() {
+            BacktrackingSolver solver = idleSolvers.poll();
+            return solver != null ? solver : new BacktrackingSolver(topology, stopped);
+        }
+
+        void returnSolver(BacktrackingSolver solver) {
+            idleSolvers.add(solver);
+        }
+    }
+
+    private static final class SearchTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final Search search;
+        @Nullable private final SearchTask parent;
+        private final int cell;
+        private final int piece;
+        private final int depth;
+
+        SearchTask(Search search, @Nullable SearchTask parent, int cell, int piece) {
+            this.search = search;
+            this.parent = parent;
+            this.cell = cell;
+            this.piece = piece;
+            this.depth = parent == null ? 1 : parent.depth + 1;
+        }
+
+        @Override
+        protected Long compute() {
+            if (search.stopped.get()) {
+                return 0L;
+            }
+            BacktrackingSolver solver = search.takeSolver();
+            SearchBoard board = solver.getBoard();
+            replay(board);
+            int next = SearchBoard.COMPLETE;
+            if (depth < MAX_SPLIT_DEPTH && getSurplusQueuedTaskCount() <= MAX_SURPLUS_TASKS) {
+                next = board.selectCell();
+            }
+            if (next == SearchBoard.COMPLETE) {
+                long count = solver.complete(search.visitor);
+                undoAll(board);
+                search.returnSolver(solver);
+                return count;
+            }
+            long candidates = next == SearchBoard.DEAD_END ? 0 : board.getSelectedCandidates();
+            undoAll(board);
+            search.returnSolver(solver);
+            return forkAll(next, candidates);
+        }
+
+        // Runs one subtask per candidate piece for the given cell, and sums their counts.
+        private long forkAll(int next, long candidates) {
+            ArrayList<SearchTask> subtasks = new ArrayList<>(Long.bitCount(candidates));
+            for (; candidates != 0; candidates &= candidates - 1) {
+                subtasks.add(new SearchTask(search, this, next, Long.numberOfTrailingZeros(candidates)));
+            }
+            long count = 0;
+            for (SearchTask subtask : invokeAll(subtasks)) {
+                count += subtask.join();
+            }
+            return count;
+        }
+
+        // Places the pieces of this task and its ancestors on the (empty) board, root first.
+        private void replay(SearchBoard board) {
+            if (parent != null) {
+                parent.replay(board);
+            }
+            board.place(cell == ORIGIN ? board.getOriginCell() : cell, piece);
+        }
+    }
+
+    private static void undoAll(SearchBoard board) {
+        while (board.getPlacedCount() > 0) {
+            board.undo();
+        }
+    }
+}
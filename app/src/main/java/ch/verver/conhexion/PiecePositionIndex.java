@@ -3,9 +3,9 @@ package ch.verver.conhexion;
 import android.graphics.Rect;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -13,45 +13,140 @@ import java.util.NoSuchElementException;
 /**
  * Stores an ordered list of piece positions, and a reverse index to find a piece by position.
  *
+ * <p>The reverse index is an {@link OccupancyGrid} covering the bounding rectangle of the pieces,
+ * so lookups by position take constant time and do not allocate.
+ *
  * <p>Note that this class could potentially implement the List interface, but that interface has
  * many more methods than the app would actually use, so it's not really worth the trouble.
  */
 class PiecePositionIndex implements ReadonlyPiecePositionIndex {
 
-    private ArrayList<Pos> positions;
-    private HashMap<Pos, Integer> index;
+    // Packed piece positions (see Pos#pack). Only the first `size` elements are used.
+    private int[] positions = new int[0];
+    private int size = 0;
+    private final OccupancyGrid index = new OccupancyGrid();
+
+    // Immutable snapshot of the current positions, or null if the positions have changed since the
+    // last snapshot was taken. Used to apply derived lists incrementally in assign(PosList).
+    private @Nullable PosList version = null;
+
+    // Zobrist hash of the current positions, updated incrementally when pieces move.
+    private long hash = 0;
 
     /**
      * Creates an index with but an empty list of pieces.
      * The piece list should be set afterwards by calling {@link #assign}.
      */
-    public PiecePositionIndex() {
-        this.positions = new ArrayList<>();
-        this.index = new HashMap<>();
-    }
+    public PiecePositionIndex() {}
 
     /** Creates a piece position index with the given initial piece positions. */
     public PiecePositionIndex(List<Pos> positions) {
         assign(positions);
     }
 
+    /** Creates a piece position index with the given initial piece positions. */
+    public PiecePositionIndex(PosList positions) {
+        assign(positions);
+    }
+
     /** Creates a deep copy of on existing instance. */
     public PiecePositionIndex(PiecePositionIndex oldIndex) {
-        assign(oldIndex.positions);
+        assignPacked(oldIndex.positions.clone(), oldIndex.size);
+        this.version = oldIndex.version;
     }
 
     /** Assigns a new list of positions. All elements must be distinct! */
     public void assign(List<Pos> positions) {
-        ArrayList<Pos> newPositions = new ArrayList<>(positions);
-        HashMap<Pos, Integer> newIndex = new HashMap<>(positions.size());
-        for (int i = 0; i < newPositions.size(); ++i) {
-            Pos pos = newPositions.get(i);
-            if (newIndex.put(pos, i) != null) {
-                throw new IllegalArgumentException("duplicate piece positions");
-            }
+        int n = positions.size();
+        int[] newPositions = new int[n];
+        for (int i = 0; i < n; ++i) {
+            newPositions[i] = positions.get(i).pack();
+        }
+        assignPacked(newPositions, n);
+    }
+
+    /**
+     * Assigns a new list of positions. All elements must be distinct!
+     *
+     * <p>If {@code positions} is the list most recently returned by {@link #toPosList}, or was
+     * derived from it through {@link PosList#withChanges}, only the changed positions are updated.
+     */
+    public void assign(PosList positions) {
+        if (positions == version) {
+            return;
+        }
+        if (version != null && positions.isDerivedFrom(version)) {
+            assignChanges(positions);
+            return;
+        }
+        int n = positions.size();
+        int[] newPositions = new int[n];
+        for (int i = 0; i < n; ++i) {
+            newPositions[i] = positions.getPacked(i);
+        }
+        assignPacked(newPositions, n);
+        version = positions;
+    }
+
+    private void assignChanges(PosList positions) {
+        int changedCount = positions.getChangedIndexCount();
+        // Clear all old positions before setting any new ones, since the changed pieces may have
+        // moved into each other's positions.
+        for (int k = 0; k < changedCount; ++k) {
+            int i = positions.getChangedIndex(k);
+            int src = this.positions[i];
+            index.clear(Pos.unpackX(src), Pos.unpackY(src));
+            hash ^= Zobrist.key(i, src);
+        }
+        for (int k = 0; k < changedCount; ++k) {
+            int i = positions.getChangedIndex(k);
+            int dst = positions.getPacked(i);
+            this.positions[i] = dst;
+            index.set(Pos.unpackX(dst), Pos.unpackY(dst), i);
+            hash ^= Zobrist.key(i, dst);
+        }
+        version = positions;
+    }
+
+    private void assignPacked(int[] newPositions, int newSize) {
+        if (!rebuildIndex(newPositions, newSize)) {
+            // Restore the index for the old positions, so the instance remains unchanged.
+            rebuildIndex(this.positions, this.size);
+            throw new IllegalArgumentException("duplicate piece positions");
         }
         this.positions = newPositions;
-        this.index = newIndex;
+        this.size = newSize;
+        this.version = null;
+        this.hash = Zobrist.hash(newPositions, newSize);
+    }
+
+    /** Rebuilds the reverse index. Returns false if the positions are not all distinct. */
+    private boolean rebuildIndex(int[] positions, int size) {
+        // Calculates the bounds directly rather than with calculateBoundingRect(), so that the
+        // index doesn't depend on android.graphics.Rect, which isn't available in host unit tests.
+        int left = 0, top = 0, right = 0, bottom = 0;
+        if (size > 0) {
+            left = right = Pos.unpackX(positions[0]);
+            top = bottom = Pos.unpackY(positions[0]);
+        }
+        for (int i = 0; i < size; ++i) {
+            int x = Pos.unpackX(positions[i]);
+            int y = Pos.unpackY(positions[i]);
+            left = Math.min(left, x);
+            top = Math.min(top, y);
+            right = Math.max(right, x + 1);
+            bottom = Math.max(bottom, y + 1);
+        }
+        index.reset(left, top, right, bottom);
+        for (int i = 0; i < size; ++i) {
+            int x = Pos.unpackX(positions[i]);
+            int y = Pos.unpackY(positions[i]);
+            if (index.get(x, y) != OccupancyGrid.EMPTY) {
+                return false;
+            }
+            index.set(x, y, i);
+        }
+        return true;
     }
 
     /**
@@ -60,19 +155,59 @@ class PiecePositionIndex implements ReadonlyPiecePositionIndex {
      * moved to the i-th piece's old position). Either way, the i-th piece ends up at {@code dst}.
      */
     public void moveOrSwap(int i, Pos dst) {
-        Pos src = positions.get(i);
-        if (src.equals(dst)) {
+        moveOrSwapPacked(i, dst.pack());
+    }
+
+    /** Equivalent to {@link #moveOrSwap(int, Pos)}, but takes a packed destination position. */
+    public void moveOrSwapPacked(int i, int dst) {
+        checkIndex(i);
+        int src = positions[i];
+        if (src == dst) {
             return;
         }
-        int j = indexOf(dst);
+        version = null;
+        int j = indexOfPacked(dst);
         if (j < 0) {
-            index.remove(src);
+            index.clear(Pos.unpackX(src), Pos.unpackY(src));
         } else {
-            positions.set(j, src);
-            index.put(src, j);
+            positions[j] = src;
+            index.set(Pos.unpackX(src), Pos.unpackY(src), j);
+            hash ^= Zobrist.key(j, dst) ^ Zobrist.key(j, src);
+        }
+        positions[i] = dst;
+        index.set(Pos.unpackX(dst), Pos.unpackY(dst), i);
+        hash ^= Zobrist.key(i, src) ^ Zobrist.key(i, dst);
+    }
+
+    /**
+     * Applies all moves of the batch at once. Pieces that occupy a destination without being moved
+     * themselves are displaced as described in {@link MoveBatch}. If the batch is invalid, the
+     * index is left unchanged.
+     *
+     * @throws IllegalArgumentException if the batch is invalid (see {@link MoveBatch#resolve})
+     */
+    public void moveAll(MoveBatch batch) {
+        batch.resolve(this);
+        int changeCount = batch.getChangeCount();
+        if (changeCount == 0) {
+            return;
+        }
+        version = null;
+        // Clear all old positions before setting any new ones, since the changed pieces may move
+        // into each other's positions.
+        for (int k = 0; k < changeCount; ++k) {
+            int i = batch.getChangedPiece(k);
+            int src = positions[i];
+            index.clear(Pos.unpackX(src), Pos.unpackY(src));
+            hash ^= Zobrist.key(i, src);
+        }
+        for (int k = 0; k < changeCount; ++k) {
+            int i = batch.getChangedPiece(k);
+            int dst = batch.getChangedPosition(k);
+            positions[i] = dst;
+            index.set(Pos.unpackX(dst), Pos.unpackY(dst), i);
+            hash ^= Zobrist.key(i, dst);
         }
-        positions.set(i, dst);
-        index.put(dst, i);
     }
 
     /**
@@ -86,39 +221,58 @@ class PiecePositionIndex implements ReadonlyPiecePositionIndex {
 
     @Override
     public ArrayList<Pos> toArrayList() {
-        return new ArrayList<>(positions);
+        ArrayList<Pos> result = new ArrayList<>(size);
+        for (int i = 0; i < size; ++i) {
+            result.add(Pos.unpack(positions[i]));
+        }
+        return result;
     }
 
     @Override
-    public ImmutableList<Pos> toImmutableList() {
-        return ImmutableList.copyOf(positions);
+    public PosList toPosList() {
+        if (version == null) {
+            version = PosList.fromPacked(positions, size);
+        }
+        return version;
     }
 
     @Override
     public Rect getBoundingRect() {
-        if (positions.isEmpty()) {
+        return calculateBoundingRect(positions, size);
+    }
+
+    private static Rect calculateBoundingRect(int[] positions, int size) {
+        if (size == 0) {
             return new Rect(0, 0, 0, 0);
         }
-        Pos firstPos = positions.get(0);
-        Rect result = new Rect(firstPos.x, firstPos.y, firstPos.x + 1, firstPos.y + 1);
-        for (int i = 1; i < positions.size(); ++i) {
-            Pos pos = positions.get(i);
-            result.left = Math.min(result.left, pos.x);
-            result.top = Math.min(result.top, pos.y);
-            result.right = Math.max(result.right, pos.x + 1);
-            result.bottom = Math.max(result.bottom, pos.y + 1);
+        int firstX = Pos.unpackX(positions[0]);
+        int firstY = Pos.unpackY(positions[0]);
+        Rect result = new Rect(firstX, firstY, firstX + 1, firstY + 1);
+        for (int i = 1; i < size; ++i) {
+            int x = Pos.unpackX(positions[i]);
+            int y = Pos.unpackY(positions[i]);
+            result.left = Math.min(result.left, x);
+            result.top = Math.min(result.top, y);
+            result.right = Math.max(result.right, x + 1);
+            result.bottom = Math.max(result.bottom, y + 1);
         }
         return result;
     }
 
     @Override
     public int size() {
-        return positions.size();
+        return size;
     }
 
     @Override
     public Pos get(int i) {
-        return positions.get(i);
+        return Pos.unpack(getPacked(i));
+    }
+
+    @Override
+    public int getPacked(int i) {
+        checkIndex(i);
+        return positions[i];
     }
 
     @Override
@@ -133,35 +287,51 @@ class PiecePositionIndex implements ReadonlyPiecePositionIndex {
 
     @Override
     public int indexOf(Pos pos) {
-        Integer value = index.get(pos);
-        return value != null ? value : -1;
+        return index.get(pos.x, pos.y);
     }
 
     @Override
     public int indexOf(int x, int y) {
-        return indexOf(new Pos(x, y));
+        return index.get(x, y);
+    }
+
+    @Override
+    public int indexOfPacked(int packedPos) {
+        return index.get(Pos.unpackX(packedPos), Pos.unpackY(packedPos));
+    }
+
+    /** Returns the Zobrist hash of the current positions. Takes constant time. */
+    @Override
+    public long getZobristHash() {
+        return hash;
     }
 
     @Override
     @NonNull
     public Iterator<Pos> iterator() {
-        // Note that we don't just return positions.iterator(), because that returns a mutable
+        // Note that we don't just return toArrayList().iterator(), because that returns a mutable
         // iterator that supports the remove() method, which we don't want.
         return new PositionIterator();
     }
 
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
     private class PositionIterator implements Iterator<Pos> {
         private int index = 0;
 
         @Override
         public boolean hasNext() {
-            return index < positions.size();
+            return index < size;
         }
 
         @Override
         public Pos next() {
-            if (index < positions.size()) {
-                return positions.get(index);
+            if (index < size) {
+                return Pos.unpack(positions[index++]);
             }
             throw new NoSuchElementException();
         }
@@ -180,8 +350,8 @@ class PiecePositionIndex implements ReadonlyPiecePositionIndex {
         }
 
         @Override
-        public ImmutableList<Pos> toImmutableList() {
-            return delegate.toImmutableList();
+        public PosList toPosList() {
+            return delegate.toPosList();
         }
 
         @Override
@@ -199,6 +369,11 @@ class PiecePositionIndex implements ReadonlyPiecePositionIndex {
             return delegate.get(i);
         }
 
+        @Override
+        public int getPacked(int i) {
+            return delegate.getPacked(i);
+        }
+
         @Override
         public boolean contains(Pos pos) {
             return delegate.contains(pos);
@@ -219,6 +394,16 @@ class PiecePositionIndex implements ReadonlyPiecePositionIndex {
             return delegate.indexOf(x, y);
         }
 
+        @Override
+        public int indexOfPacked(int packedPos) {
+            return delegate.indexOfPacked(packedPos);
+        }
+
+        @Override
+        public long getZobristHash() {
+            return delegate.getZobristHash();
+        }
+
         @Override
         @NonNull
         public Iterator<Pos> iterator() {
@@ -0,0 +1,222 @@
+package ch.verver.conhexion;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * A mutable set of piece indices.
+ *
+ * <p>Indices 0 through 63 (inclusive) are stored inline in a single {@code long}, so sets of pieces
+ * for the current puzzles never allocate. Larger indices are stored in an array of additional
+ * words that is allocated on demand. Iterate over the elements like this:
+ *
+ * <pre>
+ *     for (int i = set.first(); i >= 0; i = set.next(i + 1)) { ... }
+ * </pre>
+ */
+final class PieceSet {
+
+    // Bitmask of indices 0 through 63.
+    private long bits = 0;
+
+    // Bitmasks of higher indices: extraWords[k] contains indices 64*(k + 1) through 64*(k + 2) - 1.
+    // null if no index above 63 has ever been added.
+    private @Nullable long[] extraWords = null;
+
+    /** Creates an empty set. */
+    public PieceSet() {}
+
+    /** Creates a copy of another set. */
+    public PieceSet(PieceSet other) {
+        set(other);
+    }
+
+    /** Returns whether the set contains piece index {@code i}. */
+    public boolean contains(int i) {
+        if (i < Long.SIZE) {
+            return i >= 0 && (bits & (1L << i)) != 0;
+        }
+        int k = (i >>> 6) - 1;
+        return extraWords != null && k < extraWords.length && (extraWords[k] & (1L << i)) != 0;
+    }
+
+    /** Adds piece index {@code i} to the set. */
+    public void add(int i) {
+        if (i < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (i < Long.SIZE) {
+            bits |= 1L << i;
+        } else {
+            int k = (i >>> 6) - 1;
+            ensureExtraWords(k + 1);
+            extraWords[k] |= 1L << i;
+        }
+    }
+
+    /** Removes piece index {@code i} from the set. */
+    public void remove(int i) {
+        if (i < 0) {
+            return;
+        }
+        if (i < Long.SIZE) {
+            bits &= ~(1L << i);
+        } else {
+            int k = (i >>> 6) - 1;
+            if (extraWords != null && k < extraWords.length) {
+                extraWords[k] &= ~(1L << i);
+            }
+        }
+    }
+
+    /** Adds all elements of {@code other} to this set. */
+    public void addAll(PieceSet other) {
+        bits |= other.bits;
+        if (other.extraWords != null) {
+            ensureExtraWords(other.extraWords.length);
+            for (int k = 0; k < other.extraWords.length; ++k) {
+                extraWords[k] |= other.extraWords[k];
+            }
+        }
+    }
+
+    /** Replaces the contents of this set with the contents of {@code other}. */
+    public void set(PieceSet other) {
+        clear();
+        addAll(other);
+    }
+
+    /** Removes all elements from the set. */
+    public void clear() {
+        bits = 0;
+        if (extraWords != null) {
+            Arrays.fill(extraWords, 0);
+        }
+    }
+
+    /** Returns whether the set is empty. */
+    public boolean isEmpty() {
+        if (bits != 0) {
+            return false;
+        }
+        if (extraWords != null) {
+            for (long word : extraWords) {
+                if (word != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Returns the number of elements in the set. */
+    public int size() {
+        int result = Long.bitCount(bits);
+        if (extraWords != null) {
+            for (long word : extraWords) {
+                result += Long.bitCount(word);
+            }
+        }
+        return result;
+    }
+
+    /** Returns whether the set contains more than one element. */
+    public boolean isMultiple() {
+        if ((bits & (bits - 1)) != 0) {
+            return true;
+        }
+        return size() > 1;
+    }
+
+    /** Returns the lowest index in the set, or -1 if the set is empty. */
+    public int first() {
+        return next(0);
+    }
+
+    /** Returns the lowest index in the set that is greater than or equal to {@code i}, or -1. */
+    public int next(int i) {
+        if (i < 0) {
+            i = 0;
+        }
+        if (i < Long.SIZE) {
+            long word = bits & (-1L << i);
+            if (word != 0) {
+                return Long.numberOfTrailingZeros(word);
+            }
+            i = Long.SIZE;
+        }
+        if (extraWords != null) {
+            for (int k = (i >>> 6) - 1; k < extraWords.length; ++k) {
+                long word = extraWords[k];
+                if (k == (i >>> 6) - 1) {
+                    word &= -1L << i;
+                }
+                if (word != 0) {
+                    return 64 * (k + 1) + Long.numberOfTrailingZeros(word);
+                }
+            }
+        }
+        return -1;
+    }
+
+    private void ensureExtraWords(int count) {
+        if (extraWords == null) {
+            extraWords = new long[count];
+        } else if (extraWords.length < count) {
+            extraWords = Arrays.copyOf(extraWords, count);
+        }
+    }
+
+    // Implementation of Object
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+        if (!(obj instanceof PieceSet)) {
+            return false;
+        }
+        PieceSet other = (PieceSet) obj;
+        if (bits != other.bits) {
+            return false;
+        }
+        int n = Math.max(
+                extraWords == null ? 0 : extraWords.length,
+                other.extraWords == null ? 0 : other.extraWords.length);
+        for (int k = 0; k < n; ++k) {
+            if (getExtraWord(k) != other.getExtraWord(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long getExtraWord(int k) {
+        return extraWords != null && k < extraWords.length ? extraWords[k] : 0;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = bits;
+        if (extraWords != null) {
+            // Zero words must not affect the hash code, to be consistent with equals().
+            for (int k = 0; k < extraWords.length; ++k) {
+                h ^= extraWords[k] * (0x9E3779B97F4A7C15L * (k + 1));
+            }
+        }
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    @NonNull
+    public String toString() {
+        StringBuilder sb = new StringBuilder("PieceSet{");
+        for (int i = first(); i >= 0; i = next(i + 1)) {
+            if (sb.length() > "PieceSet{".length()) {
+                sb.append(',');
+            }
+            sb.append(i);
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -12,8 +12,18 @@ import java.util.Locale;
  * A 2D position, consisting of a pair of immutable integers.
  *
  * <p>Similar to {@link android.graphics.Point}, except the fields of that class are mutable.
+ *
+ * <p>Positions can also be packed into a single int (see {@link #pack}), which is used in
+ * performance-sensitive code to avoid allocating Pos objects. Packed positions store
+ * {@code x + PACK_BIAS} in the upper 16 bits and {@code y + PACK_BIAS} in the lower 16 bits, so
+ * coordinates must be between -32768 and 32767 (inclusive). A nice property of this encoding is
+ * that adding {@link #packDelta}(dx, dy) to a packed position moves it by (dx, dy), and that
+ * comparing packed positions as unsigned integers orders them the same way as
+ * {@link #compareTo}.
  */
 class Pos implements Comparable<Pos>, Parcelable {
+    static final int PACK_BIAS = 0x8000;
+
     public final int x;
     public final int y;
 
@@ -22,6 +32,39 @@ class Pos implements Comparable<Pos>, Parcelable {
         this.y = y;
     }
 
+    /** Creates a position from a packed representation returned by {@link #pack}. */
+    public static Pos unpack(int packedPos) {
+        return new Pos(unpackX(packedPos), unpackY(packedPos));
+    }
+
+    /** Packs the coordinates (x, y) into a single integer. */
+    public static int pack(int x, int y) {
+        return ((x + PACK_BIAS) << 16) | ((y + PACK_BIAS) & 0xffff);
+    }
+
+    /** Returns the x-coordinate of a packed position. */
+    public static int unpackX(int packedPos) {
+        return (packedPos >>> 16) - PACK_BIAS;
+    }
+
+    /** Returns the y-coordinate of a packed position. */
+    public static int unpackY(int packedPos) {
+        return (packedPos & 0xffff) - PACK_BIAS;
+    }
+
+    /**
+     * Returns a value that can be added to a packed position to move it by (dx, dy), provided
+     * that the resulting coordinates stay within range.
+     */
+    public static int packDelta(int dx, int dy) {
+        return (dx << 16) + dy;
+    }
+
+    /** Returns the packed representation of this position. */
+    public int pack() {
+        return pack(x, y);
+    }
+
     public boolean equals(Pos pos) {
         return equals(pos.x, pos.y);
     }
@@ -0,0 +1,262 @@
+package ch.verver.conhexion;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable list of positions, stored as a single array of interleaved x- and y-coordinates.
+ *
+ * <p>This is used instead of {@code ImmutableList<Pos>} to pass piece positions around (e.g. in
+ * {@link AppState}), since it is much cheaper to create, compare and hash than a list of boxed
+ * {@link Pos} objects.
+ *
+ * <p>A list created by {@link #withChanges} remembers which list it was derived from, and which
+ * indices were changed. This allows consumers that already hold the base version (like
+ * {@link PiecePositionIndex#assign(PosList)}) to apply the new version in time proportional to
+ * the number of changed positions. The base list is only weakly referenced, so a chain of derived
+ * versions does not keep old versions alive.
+ */
+final class PosList implements Parcelable {
+
+    private static final PosList EMPTY = new PosList(new int[0]);
+
+    // Coordinates of the positions: x0, y0, x1, y1, etc.
+    private final int[] coords;
+
+    // Cached hash code. 0 if not calculated yet (like java.lang.String does).
+    private int hash;
+
+    // The list this list was derived from (see withChanges()), or null if unknown.
+    private final @Nullable WeakReference<PosList> base;
+
+    // Sorted indices of the positions that differ from `base`. null iff. base == null.
+    private final @Nullable int[] changedIndices;
+
+    public static PosList empty() {
+        return EMPTY;
+    }
+
+    /** Returns a list that contains the same positions as the given list. */
+    public static PosList copyOf(List<Pos> positions) {
+        int n = positions.size();
+        int[] coords = new int[2 * n];
+        for (int i = 0; i < n; ++i) {
+            Pos pos = positions.get(i);
+            coords[2 * i + 0] = pos.x;
+            coords[2 * i + 1] = pos.y;
+        }
+        return new PosList(coords);
+    }
+
+    /**
+     * Returns a list of positions from an array of interleaved x- and y-coordinates.
+     *
+     * @throws IllegalArgumentException if the length of the array is odd
+     */
+    public static PosList fromCoordinates(int[] coords) {
+        if (coords.length % 2 != 0) {
+            throw new IllegalArgumentException("Odd number of coordinates");
+        }
+        return new PosList(coords.clone());
+    }
+
+    /** Returns a list of positions from the first {@code n} packed positions in the array. */
+    public static PosList fromPacked(int[] packedPositions, int n) {
+        int[] coords = new int[2 * n];
+        for (int i = 0; i < n; ++i) {
+            coords[2 * i + 0] = Pos.unpackX(packedPositions[i]);
+            coords[2 * i + 1] = Pos.unpackY(packedPositions[i]);
+        }
+        return new PosList(coords);
+    }
+
+    private PosList(int[] coords) {
+        this(coords, null, null);
+    }
+
+    private PosList(int[] coords, @Nullable PosList base, @Nullable int[] changedIndices) {
+        this.coords = coords;
+        this.base = base == null ? null : new WeakReference<>(base);
+        this.changedIndices = changedIndices;
+    }
+
+    /**
+     * Returns a new list that is equal to this list, except that for {@code 0 <= k < count}, the
+     * position at index {@code indices[k]} is replaced with the packed position
+     * {@code packedPositions[k]}. Indices must be distinct.
+     *
+     * <p>The result is derived from this list (see {@link #isDerivedFrom}).
+     */
+    public PosList withChanges(int[] indices, int[] packedPositions, int count) {
+        int[] newCoords = coords.clone();
+        int[] changed = new int[count];
+        int changedCount = 0;
+        for (int k = 0; k < count; ++k) {
+            int i = indices[k];
+            int x = Pos.unpackX(packedPositions[k]);
+            int y = Pos.unpackY(packedPositions[k]);
+            if (x != getX(i) || y != getY(i)) {
+                newCoords[2 * i + 0] = x;
+                newCoords[2 * i + 1] = y;
+                changed[changedCount++] = i;
+            }
+        }
+        changed = Arrays.copyOf(changed, changedCount);
+        Arrays.sort(changed);
+        return new PosList(newCoords, this, changed);
+    }
+
+    /**
+     * Returns whether this list was created by calling {@link #withChanges} on {@code other}.
+     * If so, {@link #getChangedIndexCount} and {@link #getChangedIndex} describe which positions
+     * differ from {@code other}.
+     */
+    public boolean isDerivedFrom(PosList other) {
+        return base != null && base.get() == other;
+    }
+
+    /**
+     * Returns the number of positions that differ from the list this list was derived from.
+     * Only valid if this list is derived from another list (see {@link #isDerivedFrom}).
+     */
+    public int getChangedIndexCount() {
+        return changedIndices == null ? 0 : changedIndices.length;
+    }
+
+    /**
+     * Returns the k-th index of a position that differs from the list this list was derived from.
+     * Only valid if this list is derived from another list (see {@link #isDerivedFrom}).
+     */
+    public int getChangedIndex(int k) {
+        if (changedIndices == null) {
+            throw new IllegalStateException("list is not derived from another list");
+        }
+        return changedIndices[k];
+    }
+
+    /** Returns the number of positions. */
+    public int size() {
+        return coords.length / 2;
+    }
+
+    /** Returns the i-th position. Note that this allocates a new {@link Pos} object! */
+    public Pos get(int i) {
+        return new Pos(getX(i), getY(i));
+    }
+
+    /** Returns the x-coordinate of the i-th position. */
+    public int getX(int i) {
+        checkIndex(i);
+        return coords[2 * i + 0];
+    }
+
+    /** Returns the y-coordinate of the i-th position. */
+    public int getY(int i) {
+        checkIndex(i);
+        return coords[2 * i + 1];
+    }
+
+    /** Returns the i-th position in packed form (see {@link Pos#pack}). */
+    public int getPacked(int i) {
+        return Pos.pack(getX(i), getY(i));
+    }
+
+    /** Returns a copy of the interleaved x- and y-coordinates. */
+    public int[] toCoordinates() {
+        return coords.clone();
+    }
+
+    /** Returns a mutable copy of the positions as {@link Pos} objects. */
+    public ArrayList<Pos> toArrayList() {
+        int n = size();
+        ArrayList<Pos> result = new ArrayList<>(n);
+        for (int i = 0; i < n; ++i) {
+            result.add(new Pos(coords[2 * i + 0], coords[2 * i + 1]));
+        }
+        return result;
+    }
+
+    /** Returns whether all positions in the list are distinct. */
+    public boolean allDistinct() {
+        int n = size();
+        int[] packed = new int[n];
+        for (int i = 0; i < n; ++i) {
+            packed[i] = Pos.pack(coords[2 * i + 0], coords[2 * i + 1]);
+        }
+        Arrays.sort(packed);
+        for (int i = 1; i < n; ++i) {
+            if (packed[i - 1] == packed[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || 2 * i >= coords.length) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    // Implementation of Object
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof PosList)) {
+            return false;
+        }
+        PosList other = (PosList) obj;
+        return coords.length == other.coords.length && hashCode() == other.hashCode() &&
+                Arrays.equals(coords, other.coords);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = hash = Arrays.hashCode(coords);
+        }
+        return h;
+    }
+
+    @Override
+    @NonNull
+    public String toString() {
+        return "PosList" + Arrays.toString(coords);
+    }
+
+    // Implementation of Parcelable
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel out, int flags) {
+        out.writeIntArray(coords);
+    }
+
+    public static final Parcelable.Creator<PosList> CREATOR = new Parcelable.Creator<PosList>() {
+        public PosList createFromParcel(Parcel in) {
+            return fromCoordinates(in.createIntArray());
+        }
+
+        public PosList[] newArray(int size) {
+            return new PosList[size];
+        }
+    };
+
+    // End of Parcelable implementation.
+}
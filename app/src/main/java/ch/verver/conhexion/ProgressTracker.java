@@ -0,0 +1,230 @@
+package ch.verver.conhexion;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps track of the progress of a puzzle (see {@link Solution.Progress}) while pieces are moved.
+ *
+ * <p>The tracker stores the number of disconnections and overlaps per piece. When pieces move,
+ * only the moved pieces and the pieces adjacent to their old and new positions are re-examined,
+ * so a move takes time proportional to the degree of the grid rather than the number of pieces.
+ * The group count is maintained by a {@link ConnectivityTracker}.
+ *
+ * <p>Listeners are notified after every update with the set of pieces whose disconnection or
+ * overlap count changed, so that UI feedback can be updated without rescanning the whole board.
+ */
+class ProgressTracker {
+
+    /** Receives notifications when the status of some pieces has changed. */
+    interface Listener {
+        /**
+         * Called after an update, with the set of pieces whose disconnection or overlap count has
+         * changed. The set is only valid for the duration of the call and must not be modified.
+         */
+        void onPieceStatusChanged(ProgressTracker tracker, PieceSet changedPieces);
+    }
+
+    private final GridTopology<?> topology;
+    private final PiecePositionIndex piecePositions = new PiecePositionIndex();
+    private final ConnectivityTracker connectivity;
+    private final ArrayList<Listener> listeners = new ArrayList<>();
+
+    // Per-piece disconnection and overlap counts, as defined in Solution.Progress.
+    private int[] disconnections = new int[0];
+    private int[] overlaps = new int[0];
+    private int totalDisconnections = 0;
+    private int totalOverlaps = 0;
+
+    // Scratch sets reused between updates, to avoid allocations.
+    private final PieceSet affectedPieces = new PieceSet();
+    private final PieceSet changedPieces = new PieceSet();
+
+    ProgressTracker(GridTopology<?> topology) {
+        this.topology = topology;
+        this.connectivity = new ConnectivityTracker(topology, piecePositions);
+    }
+
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Updates the tracker to the given piece positions.
+     *
+     * <p>If {@code positions} was derived from the previously assigned positions (see
+     * {@link PosList#isDerivedFrom}), only the changed pieces and their neighbours are
+     * re-examined. Otherwise, all counts are recalculated.
+     */
+    void assign(PosList positions) {
+        PosList oldPositions = piecePositions.toPosList();
+        if (positions == oldPositions) {
+            return;
+        }
+        if (!positions.isDerivedFrom(oldPositions)) {
+            assignAll(positions);
+            return;
+        }
+        affectedPieces.clear();
+        for (int k = 0, n = positions.getChangedIndexCount(); k < n; ++k) {
+            int i = positions.getChangedIndex(k);
+            addAffectedPieces(oldPositions.getPacked(i));
+            addAffectedPieces(positions.getPacked(i));
+        }
+        piecePositions.assign(positions);
+        connectivity.update(oldPositions, positions);
+        updateAffectedPieces();
+    }
+
+    /**
+     * Moves piece {@code i} to {@code dst}, swapping it with the piece at {@code dst}, if any.
+     * See {@link PiecePositionIndex#moveOrSwap}.
+     */
+    void moveOrSwap(int i, Pos dst) {
+        int src = piecePositions.getPacked(i);
+        int packedDst = dst.pack();
+        if (src == packedDst) {
+            return;
+        }
+        affectedPieces.clear();
+        addAffectedPieces(src);
+        addAffectedPieces(packedDst);
+        piecePositions.moveOrSwapPacked(i, packedDst);
+        connectivity.update(src, packedDst);
+        updateAffectedPieces();
+    }
+
+    /**
+     * Applies all moves of the batch at once (see {@link PiecePositionIndex#moveAll}). Listeners
+     * are notified once, after all moves have been applied.
+     */
+    void moveAll(MoveBatch batch) {
+        CopyOnWritePiecePositionIndex newPositions = new CopyOnWritePiecePositionIndex(piecePositions);
+        newPositions.moveAll(batch);
+        assign(newPositions.toPosList());
+    }
+
+    /** Returns the current piece positions. */
+    ReadonlyPiecePositionIndex getPiecePositions() {
+        return piecePositions.readonlyWrapper();
+    }
+
+    /** Returns the connectivity tracker, which keeps track of groups of connected pieces. */
+    ConnectivityTracker getConnectivity() {
+        return connectivity;
+    }
+
+    /** Returns the progress for the current piece positions. */
+    Solution.Progress getProgress() {
+        return new Solution.Progress(
+                connectivity.getGroupCount(), totalDisconnections, totalOverlaps);
+    }
+
+    /** Returns the number of sides of piece {@code i} with a path that isn't connected. */
+    int getDisconnectionCount(int i) {
+        return disconnections[i];
+    }
+
+    /** Returns the number of sides of piece {@code i} without a path that touch another piece. */
+    int getOverlapCount(int i) {
+        return overlaps[i];
+    }
+
+    private void assignAll(PosList positions) {
+        piecePositions.assign(positions);
+        connectivity.reset();
+        int n = piecePositions.size();
+        int[] oldDisconnections = disconnections;
+        int[] oldOverlaps = overlaps;
+        disconnections = new int[n];
+        overlaps = new int[n];
+        totalDisconnections = 0;
+        totalOverlaps = 0;
+        changedPieces.clear();
+        for (int i = 0; i < n; ++i) {
+            disconnections[i] = countDisconnections(i);
+            overlaps[i] = countOverlaps(i);
+            totalDisconnections += disconnections[i];
+            totalOverlaps += overlaps[i];
+            if (i >= oldDisconnections.length ||
+                    disconnections[i] != oldDisconnections[i] || overlaps[i] != oldOverlaps[i]) {
+                changedPieces.add(i);
+            }
+        }
+        notifyListeners();
+    }
+
+    /**
+     * Adds the piece at {@code packedPos} and the pieces adjacent to it to the set of affected
+     * pieces. Must be called before the pieces are moved, for both the old and new positions.
+     * Since moves only permute the occupants of these positions, the same set of pieces is
+     * affected after the move.
+     */
+    private void addAffectedPieces(int packedPos) {
+        addAffectedPiece(packedPos);
+        for (int d = 0, n = topology.getDirectionCount(); d < n; ++d) {
+            addAffectedPiece(topology.step(packedPos, d));
+        }
+    }
+
+    private void addAffectedPiece(int packedPos) {
+        int i = piecePositions.indexOfPacked(packedPos);
+        if (i >= 0) {
+            affectedPieces.add(i);
+        }
+    }
+
+    /** Recalculates the counts of the affected pieces after they've been moved. */
+    private void updateAffectedPieces() {
+        changedPieces.clear();
+        for (int i = affectedPieces.first(); i >= 0; i = affectedPieces.next(i + 1)) {
+            int newDisconnections = countDisconnections(i);
+            int newOverlaps = countOverlaps(i);
+            if (newDisconnections != disconnections[i] || newOverlaps != overlaps[i]) {
+                totalDisconnections += newDisconnections - disconnections[i];
+                totalOverlaps += newOverlaps - overlaps[i];
+                disconnections[i] = newDisconnections;
+                overlaps[i] = newOverlaps;
+                changedPieces.add(i);
+            }
+        }
+        notifyListeners();
+    }
+
+    private void notifyListeners() {
+        if (changedPieces.isEmpty()) {
+            return;
+        }
+        for (int k = 0; k < listeners.size(); ++k) {
+            listeners.get(k).onPieceStatusChanged(this, changedPieces);
+        }
+    }
+
+    private int countDisconnections(int i) {
+        int result = 0;
+        int pos = piecePositions.getPacked(i);
+        for (int mask = topology.getPathMask(i); mask != 0; mask &= mask - 1) {
+            int d = Integer.numberOfTrailingZeros(mask);
+            int j = piecePositions.indexOfPacked(topology.step(pos, d));
+            if (j < 0 || !topology.connects(i, d, j)) {
+                ++result;
+            }
+        }
+        return result;
+    }
+
+    private int countOverlaps(int i) {
+        int result = 0;
+        int pos = piecePositions.getPacked(i);
+        for (int mask = ~topology.getPathMask(i) & topology.getAllDirectionsMask(); mask != 0; mask &= mask - 1) {
+            int d = Integer.numberOfTrailingZeros(mask);
+            if (piecePositions.indexOfPacked(topology.step(pos, d)) >= 0) {
+                ++result;
+            }
+        }
+        return result;
+    }
+}
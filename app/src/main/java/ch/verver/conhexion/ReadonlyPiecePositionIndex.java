@@ -16,7 +16,7 @@ interface ReadonlyPiecePositionIndex extends Iterable<Pos> {
     ArrayList<Pos> toArrayList();
 
     /** Returns an immutable copy of the current piece positions. */
-    ImmutableList<Pos> toImmutableList();
+    PosList toPosList();
 
     /**
      * Returns a minimum bounding rectangle (left, top, right, bottom) such that for all positions,
@@ -33,6 +33,12 @@ interface ReadonlyPiecePositionIndex extends Iterable<Pos> {
      */
     Pos get(int i);
 
+    /**
+     * Returns the position of the i-th piece in packed form (see {@link Pos#pack}).
+     * @throws IndexOutOfBoundsException if i < 0 or i >= size()
+     */
+    int getPacked(int i);
+
     /** Returns whether there is a piece at position {@code pos}. */
     boolean contains(Pos pos);
 
@@ -44,4 +50,16 @@ interface ReadonlyPiecePositionIndex extends Iterable<Pos> {
 
     /** Returns the index of the piece at position (x, y), or -1 if there is no such piece. */
     int indexOf(int x, int y);
+
+    /**
+     * Returns the index of the piece at the packed position {@code packedPos}, or -1 if there is
+     * no such piece.
+     */
+    int indexOfPacked(int packedPos);
+
+    /**
+     * Returns the Zobrist hash of the current piece positions (see {@link Zobrist}). Equal
+     * configurations have equal hashes, regardless of how they were reached.
+     */
+    long getZobristHash();
 }
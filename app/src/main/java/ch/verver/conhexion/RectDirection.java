@@ -52,6 +52,7 @@ enum RectDirection implements Direction {
     RectDirection(int dx, int dy) {
         this.dx = dx;
         this.dy = dy;
+        this.packedDelta = Pos.packDelta(dx, dy);
     }
 
     @Override
@@ -59,6 +60,11 @@ enum RectDirection implements Direction {
         return new Pos(pos.x + dx, pos.y + dy);
     }
 
+    @Override
+    public int stepPacked(int packedPos) {
+        return packedPos + packedDelta;
+    }
+
     @Override
     public boolean hasPath(int pieceIndex) {
         int type = pieceIndex + 1;
@@ -67,4 +73,5 @@ enum RectDirection implements Direction {
     }
 
     final int dx, dy;
+    private final int packedDelta;
 }
@@ -8,11 +8,12 @@ import android.graphics.PointF;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
-import android.util.Pair;
 
 import androidx.annotation.Nullable;
 import androidx.core.content.res.ResourcesCompat;
 
+import java.util.List;
+
 class RectGridDrawer implements GridDrawer<RectDirection> {
 
     private static final ImmutableList<RectDirection> ERROR_DIRECTIONS =
@@ -24,6 +25,7 @@ class RectGridDrawer implements GridDrawer<RectDirection> {
     private final Drawable overlapVertiDrawable;
     private final Paint gridStrokePaint;
     private final Paint opaquePaint;
+    private final Paint deadEndCellPaint;
 
     public RectGridDrawer(Resources res, @Nullable Resources.Theme theme) {
         pieceBackDrawables = getDrawables(res, theme,
@@ -68,6 +70,10 @@ class RectGridDrawer implements GridDrawer<RectDirection> {
 
         opaquePaint = new Paint();
         opaquePaint.setStyle(Paint.Style.FILL);
+
+        deadEndCellPaint = new Paint();
+        deadEndCellPaint.setColor(ResourcesCompat.getColor(res, R.color.rectDeadEndCell, theme));
+        deadEndCellPaint.setStyle(Paint.Style.FILL);
     }
 
     private static Drawable[] getDrawables(
@@ -80,8 +86,8 @@ class RectGridDrawer implements GridDrawer<RectDirection> {
     }
 
     @Override
-    public ImmutableList<RectDirection> getConnectionDirections() {
-        return RectDirection.VALUES;
+    public GridTopology<RectDirection> getTopology() {
+        return RectPuzzle.TOPOLOGY;
     }
 
     @Override
@@ -111,46 +117,72 @@ class RectGridDrawer implements GridDrawer<RectDirection> {
     @Override
     public void draw(
             Canvas canvas, DrawDimensions drawDimensions, ReadonlyPiecePositionIndex piecePositions,
-            ImmutableList<Pair<Pos, RectDirection>> overlapErrors,
-            long draggedPieces, float dragDeltaX, float dragDeltaY) {
+            GroupTints groupTints, OverlapErrorSet<RectDirection> overlapErrors,
+            List<DeadEndDetector.Contradiction> deadEnds, PieceSet deadEndPieces,
+            @Nullable PosList hintSolution, PieceSet draggedPieces, float dragDeltaX, float dragDeltaY) {
         drawGridLines(canvas, drawDimensions);
 
         final int n = piecePositions.size();
 
-        // Draw pieces
+        // Mark the cells where dead ends occur.
+        for (DeadEndDetector.Contradiction deadEnd : deadEnds) {
+            int x = Pos.unpackX(deadEnd.packedPos);
+            int y = Pos.unpackY(deadEnd.packedPos);
+            canvas.drawRect(
+                    gridToPixelX(drawDimensions, x + 0.1f), gridToPixelY(drawDimensions, y + 0.1f),
+                    gridToPixelX(drawDimensions, x + 0.9f), gridToPixelY(drawDimensions, y + 0.9f),
+                    deadEndCellPaint);
+        }
+
+        // Draw pieces, tinted by group or dead end, or marked if the hint moves them.
         for (int i = 0; i < n; ++i) {
-            if (!Util.isDragged(draggedPieces, i)) {
+            if (!draggedPieces.contains(i)) {
                 Pos pos = piecePositions.get(i);
-                drawPiece(canvas, drawDimensions, i, pos.x, pos.y, 0.0f, 0.0f, null, null);
+                int groupTint = groupTints.getTint(i);
+                ColorFilter tint = groupTint != GroupTints.NONE ? ColorFilters.groupTint(groupTint) : null;
+                if (deadEndPieces.contains(i)) {
+                    tint = ColorFilters.DEAD_END;
+                }
+                if (hintSolution != null && hintSolution.getPacked(i) != piecePositions.getPacked(i)) {
+                    tint = ColorFilters.HINT;
+                }
+                drawPiece(canvas, drawDimensions, i, pos.x, pos.y, 0.0f, 0.0f, tint, null);
+            }
+        }
+
+        // Draw the hint's moved pieces at their new positions.
+        if (hintSolution != null) {
+            for (int i = 0; i < n; ++i) {
+                if (hintSolution.getPacked(i) != piecePositions.getPacked(i)) {
+                    drawPiece(canvas, drawDimensions, i, hintSolution.getX(i), hintSolution.getY(i),
+                            0.0f, 0.0f, ColorFilters.GHOST, ColorFilters.GHOST);
+                }
             }
         }
 
         // Draw overlap errors
-        for (Pair<Pos, RectDirection> error : overlapErrors) {
-            Pos pos = error.first;
-            switch (error.second) {
+        for (int e = overlapErrors.first(); e >= 0; e = overlapErrors.next(e + 1)) {
+            int x = overlapErrors.getX(e);
+            int y = overlapErrors.getY(e);
+            switch (overlapErrors.getDirection(e)) {
                 case LEFT:
                     drawDrawable(canvas, drawDimensions, overlapVertiDrawable,
-                            pos.x - 0.25f, (float) pos.y, pos.x + 0.25f, pos.y + 1.0f,
+                            x - 0.25f, (float) y, x + 0.25f, y + 1.0f,
                             0.0f, 0.0f, null);
                     break;
 
                 case UP:
                     drawDrawable(canvas, drawDimensions, overlapHorizDrawable,
-                            pos.x, pos.y - 0.25f, pos.x + 1.0f, pos.y + 0.25f,
+                            x, y - 0.25f, x + 1.0f, y + 0.25f,
                             0.0f, 0.0f, null);
                     break;
             }
         }
 
         // Draw dragged pieces last, to ensure they are displayed on top!
-        if (draggedPieces != 0) {
-            for (int i = 0; i < n; ++i) {
-                if (Util.isDragged(draggedPieces, i)) {
-                    Pos pos = piecePositions.get(i);
-                    drawPiece(canvas, drawDimensions, i, pos.x, pos.y, dragDeltaX, dragDeltaY, ColorFilters.LIGHTER, null);
-                }
-            }
+        for (int i = draggedPieces.first(); i >= 0; i = draggedPieces.next(i + 1)) {
+            Pos pos = piecePositions.get(i);
+            drawPiece(canvas, drawDimensions, i, pos.x, pos.y, dragDeltaX, dragDeltaY, ColorFilters.LIGHTER, null);
         }
     }
 
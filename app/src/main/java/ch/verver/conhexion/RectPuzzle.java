@@ -4,12 +4,14 @@ import androidx.annotation.Nullable;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.List;
 
 /** Definitions for a variant of the China Labyrinth puzzle played on a square grid. */
 abstract class RectPuzzle {
     public static final int PIECE_COUNT = 15;
 
+    public static final GridTopology<RectDirection> TOPOLOGY =
+            TopologyDefinitions.get("rect", RectDirection.VALUES);
+
     public static ArrayList<Pos> getRandomPiecePositions() {
         ArrayList<Pos> positions = new ArrayList<>();
         for (int y = 0; y < 6; ++y) {
@@ -29,17 +31,17 @@ abstract class RectPuzzle {
         return positions;
     }
 
-    public static String encode(List<Pos> positions) {
+    public static String encode(PosList positions) {
         return StateCodec.encodePositions(positions);
     }
 
-    public static boolean validate(@Nullable List<Pos> positions) {
+    public static boolean validate(@Nullable PosList positions) {
         return positions != null && Util.validatePositions(positions, PIECE_COUNT);
     }
 
     @Nullable
-    public static ArrayList<Pos> decode(String s) {
-        ArrayList<Pos> positions;
+    public static PosList decode(String s) {
+        PosList positions;
         try {
             positions = StateCodec.decodePositions(s);
         } catch (IllegalArgumentException e) {
@@ -25,6 +25,8 @@ public class RectPuzzleFragment extends Fragment {
         AppState appState = ((App) getActivity().getApplication()).getAppState();
         rectGridView.setPiecePositionsLiveData(this, appState.getRectPuzzlePiecePositions());
         rectGridView.setErrorVisibilityLiveData(this, appState.getErrorVisibility());
+        rectGridView.setHintLiveData(this, appState.getShownHint());
+        rectGridView.setDeadEndsLiveData(this, appState.getRectPuzzleDeadEnds());
         return rootView;
     }
 
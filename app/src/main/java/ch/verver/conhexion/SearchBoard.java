@@ -0,0 +1,379 @@
+package ch.verver.conhexion;
+
+import java.util.Arrays;
+
+/**
+ * Board state for a depth-first search for solutions, which places pieces one at a time and can
+ * undo placements in reverse order.
+ *
+ * <p>Pieces are only placed in cells that a placed piece has a path into ("demanded" cells), so
+ * all placed pieces always form a single group. Every cell keeps two bitmasks of directions
+ * towards its placed neighbours: those whose paths point at the cell, and those whose paths don't.
+ * The first must be exactly the paths of a piece placed in the cell in those directions; the
+ * second must be empty. An empty cell with a nonzero second mask must remain empty ("forbidden"),
+ * so a piece next to it must not have a path towards it. A cell that is both demanded and
+ * forbidden makes the board unsolvable.
+ *
+ * <p>The unused pieces are a bitboard ({@code long} with one bit per piece), and the pieces that
+ * fit a cell are looked up in a table indexed by the required and forbidden directions, so the
+ * candidates for a cell are found with a single AND and counted with {@link Long#bitCount}.
+ *
+ * <p>Cells are stored in a square window with a power-of-two width, centered on the first piece,
+ * which is large enough to hold any connected configuration of all pieces.
+ */
+final class SearchBoard {
+
+    /** Returned by {@link #selectCell} when all pieces have been placed. */
+    static final int COMPLETE = -1;
+
+    /** Returned by {@link #selectCell} when the current board can't be completed. */
+    static final int DEAD_END = -2;
+
+    private static final int EMPTY = -1;
+
+    private final GridTopology<?> topology;
+    private final int directionCount;
+    private final int pieceCount;
+
+    // Window geometry: cell index c = y * width + x, with width = 1 << widthShift.
+    private final int widthShift;
+    private final int originCell;
+
+    // Cell index deltas of each direction, for cells in even and odd columns respectively.
+    private final int[] deltasEven;
+    private final int[] deltasOdd;
+
+    // fitting[(required << directionCount) | forbidden] is the set of pieces that have paths in
+    // all required directions and in none of the forbidden directions.
+    private final long[] fitting;
+
+    // Per-cell state. See the class comment for pointing and blocking.
+    private final int[] cellPieces;
+    private final int[] pointing;
+    private final int[] blocking;
+
+    // Unplaced pieces.
+    private long unused;
+
+    // Cells that are empty and demanded. demandIndex[c] is the index of c in `demanded`, or -1.
+    private final int[] demanded;
+    private final int[] demandIndex;
+    private int demandedCount = 0;
+
+    // Number of empty cells that are both demanded and forbidden.
+    private int conflicts = 0;
+
+    // Placed cells, in order of placement, for undo().
+    private final int[] placedCells;
+    private int placedCount = 0;
+
+    // Candidates for the cell most recently returned by selectCell().
+    private long selectedCandidates = 0;
+
+    SearchBoard(GridTopology<?> topology) {
+        this.topology = topology;
+        this.directionCount = topology.getDirectionCount();
+        this.pieceCount = topology.getPieceCount();
+        if (pieceCount >= Long.SIZE) {
+            throw new IllegalArgumentException("too many pieces");
+        }
+
+        // A connected configuration extends at most pieceCount - 1 cells from the first piece.
+        int shift = 2;
+        while ((1 << shift) < 2 * pieceCount + 2) {
+            ++shift;
+        }
+        this.widthShift = shift;
+        int width = 1 << shift;
+        // The origin must be in an even column, so that column parities match grid coordinates.
+        this.originCell = (width / 2) * width + width / 2;
+
+        this.deltasEven = new int[directionCount];
+        this.deltasOdd = new int[directionCount];
+        for (int d = 0; d < directionCount; ++d) {
+            int even = topology.step(Pos.pack(0, 0), d);
+            int odd = topology.step(Pos.pack(1, 0), d);
+            deltasEven[d] = Pos.unpackY(even) * width + Pos.unpackX(even);
+            deltasOdd[d] = Pos.unpackY(odd) * width + Pos.unpackX(odd) - 1;
+        }
+
+        this.fitting = new long[1 << (2 * directionCount)];
+        for (int required = 0; required < (1 << directionCount); ++required) {
+            for (int forbidden = 0; forbidden < (1 << directionCount); ++forbidden) {
+                long pieces = 0;
+                for (int i = 0; i < pieceCount; ++i) {
+                    int mask = topology.getPathMask(i);
+                    if ((mask & required) == required && (mask & forbidden) == 0) {
+                        pieces |= 1L << i;
+                    }
+                }
+                fitting[(required << directionCount) | forbidden] = pieces;
+            }
+        }
+
+        int cellCount = width * width;
+        this.cellPieces = new int[cellCount];
+        Arrays.fill(cellPieces, EMPTY);
+        this.pointing = new int[cellCount];
+        this.blocking = new int[cellCount];
+        this.demandIndex = new int[cellCount];
+        Arrays.fill(demandIndex, -1);
+        this.demanded = new int[cellCount];
+        this.placedCells = new int[pieceCount];
+        this.unused = pieceCount == 0 ? 0 : -1L >>> (Long.SIZE - pieceCount);
+    }
+
+    GridTopology<?> getTopology() {
+        return topology;
+    }
+
+    /** Returns the cell in which the first piece should be placed. */
+    int getOriginCell() {
+        return originCell;
+    }
+
+    /**
+     * Returns the cell at offset (dx, dy) in grid coordinates from the origin cell. The offsets
+     * must be less than half the window width in absolute value.
+     */
+    int getCell(int dx, int dy) {
+        return originCell + (dy << widthShift) + dx;
+    }
+
+    /**
+     * Forbids all cells outside the rectangle {@code left <= dx <= right, top <= dy <= bottom} of
+     * offsets from the origin cell (see {@link #getCell}), and the cells on the edge of the
+     * window, so that no pieces can be placed there. Must be called on an empty board, and can't be
+     * undone.
+     */
+    void restrict(int left, int top, int right, int bottom) {
+        int width = 1 << widthShift;
+        int half = width / 2;
+        for (int y = 0; y < width; ++y) {
+            for (int x = 0; x < width; ++x) {
+                int dx = x - half, dy = y - half;
+                if (x == 0 || y == 0 || x == width - 1 || y == width - 1
+                        || dx < left || dx > right || dy < top || dy > bottom) {
+                    // A bit outside the direction mask, which undo() never clears.
+                    blocking[(y << widthShift) + x] |= 1 << directionCount;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether piece {@code i} can be placed in cell {@code cell}: the cell is empty and
+     * not forbidden, the piece is unused, and its paths match the placed neighbours. Unlike
+     * {@link #place}'s usual callers, the cell doesn't need to be demanded, which allows placing
+     * several separate groups.
+     */
+    boolean canPlace(int cell, int i) {
+        return cellPieces[cell] == EMPTY && (getCandidates(cell) & (1L << i)) != 0;
+    }
+
+    /** Returns the number of placed pieces. */
+    int getPlacedCount() {
+        return placedCount;
+    }
+
+    /** Returns the cell of the k-th placed piece. */
+    int getPlacedCell(int k) {
+        return placedCells[k];
+    }
+
+    /** Returns the piece in cell {@code cell}, or -1 if it's empty. */
+    int getPiece(int cell) {
+        return cellPieces[cell];
+    }
+
+    /** Returns the set of unplaced pieces. */
+    long getUnusedPieces() {
+        return unused;
+    }
+
+    /** Returns the neighbouring cell of {@code cell} in direction {@code d}. */
+    int getNeighbour(int cell, int d) {
+        return cell + deltasOf(cell)[d];
+    }
+
+    /**
+     * Places piece {@code i} in cell {@code cell}, which must be either the origin (for the first
+     * piece) or an empty demanded cell (e.g. one returned by {@link #selectCell}), with i one of its
+     * candidates.
+     */
+    void place(int cell, int i) {
+        cellPieces[cell] = i;
+        unused &= ~(1L << i);
+        placedCells[placedCount++] = cell;
+        removeDemand(cell);
+        if (pointing[cell] != 0 && blocking[cell] != 0) {
+            --conflicts;
+        }
+        int mask = topology.getPathMask(i);
+        int[] deltas = deltasOf(cell);
+        for (int d = 0; d < directionCount; ++d) {
+            int neighbour = cell + deltas[d];
+            int bit = 1 << topology.opposite(d);
+            boolean wasConflict = isConflict(neighbour);
+            if ((mask & (1 << d)) != 0) {
+                pointing[neighbour] |= bit;
+                if (cellPieces[neighbour] == EMPTY) {
+                    addDemand(neighbour);
+                }
+            } else {
+                blocking[neighbour] |= bit;
+            }
+            if (!wasConflict && isConflict(neighbour)) {
+                ++conflicts;
+            }
+        }
+    }
+
+    /** Undoes the most recent placement. */
+    void undo() {
+        int cell = placedCells[--placedCount];
+        int i = cellPieces[cell];
+        int mask = topology.getPathMask(i);
+        int[] deltas = deltasOf(cell);
+        for (int d = 0; d < directionCount; ++d) {
+            int neighbour = cell + deltas[d];
+            int bit = 1 << topology.opposite(d);
+            boolean wasConflict = isConflict(neighbour);
+            if ((mask & (1 << d)) != 0) {
+                pointing[neighbour] &= ~bit;
+                if (pointing[neighbour] == 0) {
+                    removeDemand(neighbour);
+                }
+            } else {
+                blocking[neighbour] &= ~bit;
+            }
+            if (wasConflict && !isConflict(neighbour)) {
+                --conflicts;
+            }
+        }
+        cellPieces[cell] = EMPTY;
+        unused |= 1L << i;
+        if (pointing[cell] != 0) {
+            addDemand(cell);
+            if (blocking[cell] != 0) {
+                ++conflicts;
+            }
+        }
+    }
+
+    /**
+     * Selects the next cell to fill: the demanded cell with the fewest candidates, whose
+     * candidates can then be retrieved with {@link #getSelectedCandidates}. Returns
+     * {@link #COMPLETE} if all pieces have been placed and no paths are left open, or
+     * {@link #DEAD_END} if the board can't be completed.
+     */
+    int selectCell() {
+        if (conflicts > 0 || demandedCount > Long.bitCount(unused)) {
+            return DEAD_END;
+        }
+        if (demandedCount == 0) {
+            return unused == 0 ? COMPLETE : DEAD_END;
+        }
+        int bestCell = DEAD_END;
+        int bestCount = Integer.MAX_VALUE;
+        long bestCandidates = 0;
+        for (int k = 0; k < demandedCount; ++k) {
+            int cell = demanded[k];
+            long candidates = getCandidates(cell);
+            int count = Long.bitCount(candidates);
+            if (count < bestCount) {
+                if (count == 0) {
+                    return DEAD_END;
+                }
+                bestCell = cell;
+                bestCount = count;
+                bestCandidates = candidates;
+            }
+        }
+        selectedCandidates = bestCandidates;
+        return bestCell;
+    }
+
+    /** Returns the candidates of the cell most recently returned by {@link #selectCell}. */
+    long getSelectedCandidates() {
+        return selectedCandidates;
+    }
+
+    /**
+     * Returns the unused pieces that can be placed in the empty cell {@code cell}. Forbidden cells
+     * have no candidates.
+     */
+    long getCandidates(int cell) {
+        if (blocking[cell] != 0) {
+            return 0;
+        }
+        int required = pointing[cell];
+        int forbidden = blocking[cell];
+        int[] deltas = deltasOf(cell);
+        for (int d = 0; d < directionCount; ++d) {
+            int neighbour = cell + deltas[d];
+            if (cellPieces[neighbour] == EMPTY && blocking[neighbour] != 0) {
+                forbidden |= 1 << d;
+            }
+        }
+        return unused & fitting[(required << directionCount) | forbidden];
+    }
+
+    /**
+     * Writes the packed positions (see {@link Pos#pack}) of all placed pieces to {@code out},
+     * indexed by piece index, translated so that the configuration starts near (0, 0).
+     * Column parities are preserved, so the configuration is valid on grids with offset columns.
+     */
+    void getPositions(int[] out) {
+        int widthMask = (1 << widthShift) - 1;
+        int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE;
+        for (int k = 0; k < placedCount; ++k) {
+            left = Math.min(left, placedCells[k] & widthMask);
+            top = Math.min(top, placedCells[k] >> widthShift);
+        }
+        left &= ~1;
+        for (int k = 0; k < placedCount; ++k) {
+            int cell = placedCells[k];
+            out[cellPieces[cell]] = Pos.pack((cell & widthMask) - left, (cell >> widthShift) - top);
+        }
+    }
+
+    /**
+     * Writes the packed positions of all placed pieces to {@code out}, indexed by piece index,
+     * translated so that the origin cell is at {@code originPos}, which must be in an even column.
+     */
+    void getPositions(int[] out, int originPos) {
+        int widthMask = (1 << widthShift) - 1;
+        int originX = Pos.unpackX(originPos) - (originCell & widthMask);
+        int originY = Pos.unpackY(originPos) - (originCell >> widthShift);
+        for (int k = 0; k < placedCount; ++k) {
+            int cell = placedCells[k];
+            out[cellPieces[cell]] = Pos.pack(originX + (cell & widthMask), originY + (cell >> widthShift));
+        }
+    }
+
+    private int[] deltasOf(int cell) {
+        return (cell & 1) == 0 ? deltasEven : deltasOdd;
+    }
+
+    private boolean isConflict(int cell) {
+        return cellPieces[cell] == EMPTY && pointing[cell] != 0 && blocking[cell] != 0;
+    }
+
+    private void addDemand(int cell) {
+        if (demandIndex[cell] < 0) {
+            demandIndex[cell] = demandedCount;
+            demanded[demandedCount++] = cell;
+        }
+    }
+
+    private void removeDemand(int cell) {
+        int k = demandIndex[cell];
+        if (k >= 0) {
+            int last = demanded[--demandedCount];
+            demanded[k] = last;
+            demandIndex[last] = k;
+            demandIndex[cell] = -1;
+        }
+    }
+}
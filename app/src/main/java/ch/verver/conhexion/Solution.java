@@ -1,7 +1,5 @@
 package ch.verver.conhexion;
 
-import java.util.List;
-
 /** Utility class to determine whether a puzzle is solved. */
 class Solution {
 
@@ -48,39 +46,69 @@ class Solution {
         }
     }
 
-    static Progress calculateProgress(List<Pos> piecePositions, ImmutableList<? extends Direction> directions) {
-        return calculateProgress(new PiecePositionIndex(piecePositions), directions);
+    // Evaluators used by calculateProgress(), one per thread, for the topology it was last called
+    // with, so that repeated calls don't allocate the evaluator's buffers each time.
+    private static final ThreadLocal<BitboardEvaluator> evaluators = new ThreadLocal<>();
+
+    private static BitboardEvaluator getEvaluator(GridTopology<?> topology) {
+        BitboardEvaluator evaluator = evaluators.get();
+        if (evaluator == null || evaluator.getTopology() != topology) {
+            evaluator = new BitboardEvaluator(topology);
+            evaluators.set(evaluator);
+        }
+        return evaluator;
+    }
+
+    static Progress calculateProgress(PosList piecePositions, GridTopology<?> topology) {
+        BitboardEvaluator evaluator = getEvaluator(topology);
+        if (evaluator.load(piecePositions)) {
+            return evaluator.evaluate();
+        }
+        return calculateProgressSlowly(new PiecePositionIndex(piecePositions), topology);
     }
 
-    static Progress calculateProgress(ReadonlyPiecePositionIndex piecePositionIndex, ImmutableList<? extends Direction> directions) {
+    static Progress calculateProgress(ReadonlyPiecePositionIndex piecePositionIndex, GridTopology<?> topology) {
+        BitboardEvaluator evaluator = getEvaluator(topology);
+        if (evaluator.load(piecePositionIndex)) {
+            return evaluator.evaluate();
+        }
+        return calculateProgressSlowly(piecePositionIndex, topology);
+    }
+
+    // Fallback for configurations that are too wide for BitboardEvaluator. Also used by tests to
+    // check BitboardEvaluator.
+    static Progress calculateProgressSlowly(ReadonlyPiecePositionIndex piecePositionIndex, GridTopology<?> topology) {
         return new Solution.Progress(
-                GroupFinder.countGroups(directions, piecePositionIndex),
-                countDisconnections(piecePositionIndex, directions),
-                countOverlaps(piecePositionIndex, directions));
+                GroupFinder.countGroups(topology, piecePositionIndex),
+                countDisconnections(piecePositionIndex, topology),
+                countOverlaps(piecePositionIndex, topology));
     }
 
-    private static int countDisconnections(ReadonlyPiecePositionIndex piecePositionIndex, ImmutableList<? extends Direction> directions) {
+    private static int countDisconnections(ReadonlyPiecePositionIndex piecePositionIndex, GridTopology<?> topology) {
         int result = 0;
-        for (int i = 0; i < piecePositionIndex.size(); ++i) {
-            Pos pos = piecePositionIndex.get(i);
-            for (Direction dir : directions) {
-                if (dir.hasPath(i)) {
-                    int j = piecePositionIndex.indexOf(dir.step(pos));
-                    if (j < 0 || !dir.opposite().hasPath(j)) {
-                        ++result;
-                    }
+        for (int i = 0, n = piecePositionIndex.size(); i < n; ++i) {
+            int pos = piecePositionIndex.getPacked(i);
+            // Iterate over the directions in which piece i has a path.
+            for (int mask = topology.getPathMask(i); mask != 0; mask &= mask - 1) {
+                int d = Integer.numberOfTrailingZeros(mask);
+                int j = piecePositionIndex.indexOfPacked(topology.step(pos, d));
+                if (j < 0 || !topology.connects(i, d, j)) {
+                    ++result;
                 }
             }
         }
         return result;
     }
 
-    private static int countOverlaps(ReadonlyPiecePositionIndex piecePositionIndex, ImmutableList<? extends Direction> directions) {
+    private static int countOverlaps(ReadonlyPiecePositionIndex piecePositionIndex, GridTopology<?> topology) {
         int result = 0;
-        for (int i = 0; i < piecePositionIndex.size(); ++i) {
-            Pos pos = piecePositionIndex.get(i);
-            for (Direction dir : directions) {
-                if (!dir.hasPath(i) && piecePositionIndex.contains(dir.step(pos))) {
+        int allDirections = topology.getAllDirectionsMask();
+        for (int i = 0, n = piecePositionIndex.size(); i < n; ++i) {
+            int pos = piecePositionIndex.getPacked(i);
+            // Iterate over the directions in which piece i does not have a path.
+            for (int mask = ~topology.getPathMask(i) & allDirections; mask != 0; mask &= mask - 1) {
+                int d = Integer.numberOfTrailingZeros(mask);
+                if (piecePositionIndex.indexOfPacked(topology.step(pos, d)) >= 0) {
                     ++result;
                 }
             }
@@ -0,0 +1,294 @@
+package ch.verver.conhexion;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only catalog of solutions, stored in a file that's memory-mapped rather than read, so
+ * opening it takes constant time and memory regardless of its size.
+ *
+ * <p>The file consists of (all numbers big-endian):
+ *
+ * <ul>
+ *   <li>A header of {@link #HEADER_BYTES} bytes: magic number, format version, piece count,
+ *       direction count, bits per coordinate, bucket bits (all ints), then the solution count, the
+ *       offset of the index and the offset of the bucket directory (all longs).
+ *   <li>The records: one fixed-size record per solution, in the order they were written. A record
+ *       holds the axial coordinates (see {@link GridTopology#toAxialY}) of the canonical form (see
+ *       {@link Canonicalizer}) of the solution, which are between 0 and the piece count for a
+ *       single group, bit-packed with {@link #getCoordBits} bits per coordinate, starting at the
+ *       least significant bit of the first byte.
+ *   <li>The index: a (fingerprint, record number) pair of longs per solution, sorted by
+ *       fingerprint as an unsigned number. The fingerprint is the {@link Zobrist} hash of the
+ *       canonical form.
+ *   <li>The bucket directory: for each value of the top {@code bucketBits} bits of a fingerprint,
+ *       the position of the first index entry with those (or greater) top bits, followed by the
+ *       solution count. Since there are about as many buckets as solutions, and fingerprints are
+ *       uniformly distributed, a lookup inspects a constant number of index entries on average.
+ * </ul>
+ *
+ * <p>Catalogs are written by {@link SolutionCatalogWriter}. Records are addressed by number, so
+ * solution {@code k} can be read directly. Files larger than 2 GiB are mapped in several segments.
+ *
+ * <p>Reading solutions is thread-safe; lookups are synchronized, since they share a
+ * {@link Canonicalizer} and buffers.
+ */
+final class SolutionCatalog {
+
+    static final int MAGIC = 0x434e5853;  // "CNXS"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 6 * Integer.BYTES + 3 * Long.BYTES;
+    static final int INDEX_ENTRY_BYTES = 2 * Long.BYTES;
+
+    private final GridTopology<?> topology;
+    private final int pieceCount;
+    private final int coordBits;
+    private final int bucketBits;
+    private final long solutionCount;
+    private final Section records;
+    private final Section index;
+    private final Section directory;
+
+    // Lookup state, guarded by `this`.
+    private final Canonicalizer canonicalizer;
+    private final int[] packed;
+    private final int[] canonical;
+    private final byte[] record;
+
+    /**
+     * Opens a catalog file for the given topology.
+     *
+     * @throws IOException if the file can't be read, or isn't a catalog for this topology
+     */
+    SolutionCatalog(File file, GridTopology<?> topology) throws IOException {
+        this.topology = topology;
+        this.pieceCount = topology.getPieceCount();
+        this.canonicalizer = new Canonicalizer(topology);
+        this.packed = new int[pieceCount];
+        this.canonical = new int[pieceCount];
+
+        // The mappings stay valid after the channel is closed.
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            long fileSize = channel.size();
+            if (fileSize < HEADER_BYTES) {
+                throw new IOException("not a solution catalog: " + file);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("not a solution catalog: " + file);
+            }
+            if (header.getInt() != pieceCount || header.getInt() != topology.getDirectionCount()) {
+                throw new IOException("solution catalog is for a different puzzle: " + file);
+            }
+            this.coordBits = header.getInt();
+            this.bucketBits = header.getInt();
+            this.solutionCount = header.getLong();
+            long indexOffset = header.getLong();
+            long directoryOffset = header.getLong();
+            int recordBytes = getRecordBytes(pieceCount, coordBits);
+            if (coordBits != getCoordBits(pieceCount) || bucketBits != getBucketBits(solutionCount)
+                    || indexOffset != HEADER_BYTES + solutionCount * recordBytes
+                    || directoryOffset != indexOffset + solutionCount * INDEX_ENTRY_BYTES
+                    || fileSize != directoryOffset + ((1L << bucketBits) + 1) * Long.BYTES) {
+                throw new IOException("corrupt solution catalog: " + file);
+            }
+            this.record = new byte[recordBytes];
+            this.records = new Section(channel, HEADER_BYTES, solutionCount, recordBytes);
+            this.index = new Section(channel, indexOffset, solutionCount, INDEX_ENTRY_BYTES);
+            this.directory = new Section(channel, directoryOffset, (1L << bucketBits) + 1, Long.BYTES);
+        }
+    }
+
+    /** Returns the number of solutions. */
+    long getSolutionCount() {
+        return solutionCount;
+    }
+
+    /**
+     * Writes the canonical form of solution {@code k} to {@code packedPositions}, as packed
+     * positions indexed by piece index.
+     *
+     * @throws IndexOutOfBoundsException if k < 0 or k >= getSolutionCount()
+     */
+    void getSolution(long k, int[] packedPositions) {
+        if (k < 0 || k >= solutionCount) {
+            throw new IndexOutOfBoundsException("solution " + k + " of " + solutionCount);
+        }
+        ByteBuffer segment = records.getSegment(k);
+        int offset = records.getOffset(k);
+        long bits = 0;
+        int available = 0;
+        long coordMask = (1L << coordBits) - 1;
+        for (int i = 0; i < pieceCount; ++i) {
+            while (available < 2 * coordBits) {
+                bits |= (segment.get(offset++) & 0xffL) << available;
+                available += 8;
+            }
+            int q = (int) (bits & coordMask);
+            int r = (int) ((bits >>> coordBits) & coordMask);
+            bits >>>= 2 * coordBits;
+            available -= 2 * coordBits;
+            packedPositions[i] = Pos.pack(q, topology.fromAxialY(q, r));
+        }
+    }
+
+    /**
+     * Returns the canonical form of solution {@code k}.
+     *
+     * @throws IndexOutOfBoundsException if k < 0 or k >= getSolutionCount()
+     */
+    PosList getSolution(long k) {
+        int[] packedPositions = new int[pieceCount];
+        getSolution(k, packedPositions);
+        return PosList.fromPacked(packedPositions, pieceCount);
+    }
+
+    /** Returns whether the given configuration is a known solution, up to symmetry. */
+    boolean contains(ReadonlyPiecePositionIndex positions) {
+        return indexOf(positions) >= 0;
+    }
+
+    /**
+     * Returns the number of the solution that's equal to the given configuration up to symmetry,
+     * or -1 if there is no such solution.
+     */
+    synchronized long indexOf(ReadonlyPiecePositionIndex positions) {
+        if (positions.size() != pieceCount) {
+            return -1;
+        }
+        for (int i = 0; i < pieceCount; ++i) {
+            packed[i] = positions.getPacked(i);
+        }
+        return indexOfPacked(packed);
+    }
+
+    /**
+     * Returns the number of the solution that's equal to the given configuration (an array of
+     * packed positions, indexed by piece index) up to symmetry, or -1 if there is no such solution.
+     */
+    synchronized long indexOfPacked(int[] packedPositions) {
+        if (packedPositions.length != pieceCount) {
+            return -1;
+        }
+        canonicalizer.canonicalizePacked(packedPositions, canonical);
+        if (!encodeRecord(topology, canonical, coordBits, record)) {
+            return -1;  // Too large to be a single group.
+        }
+        long fingerprint = Zobrist.hash(canonical, pieceCount);
+        long bucket = getBucket(fingerprint, bucketBits);
+        long end = directory.getSegment(bucket + 1).getLong(directory.getOffset(bucket + 1));
+        for (long position = directory.getSegment(bucket).getLong(directory.getOffset(bucket));
+                position < end; ++position) {
+            ByteBuffer segment = index.getSegment(position);
+            int offset = index.getOffset(position);
+            long entryFingerprint = segment.getLong(offset);
+            if (compareFingerprints(entryFingerprint, fingerprint) > 0) {
+                break;
+            }
+            if (entryFingerprint == fingerprint) {
+                long k = segment.getLong(offset + Long.BYTES);
+                if (recordEquals(k)) {
+                    return k;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private boolean recordEquals(long k) {
+        ByteBuffer segment = records.getSegment(k);
+        int offset = records.getOffset(k);
+        for (int j = 0; j < record.length; ++j) {
+            if (segment.get(offset + j) != record[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the number of bits per coordinate: enough for 0 through pieceCount - 1. */
+    static int getCoordBits(int pieceCount) {
+        return Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(pieceCount - 1));
+    }
+
+    static int getRecordBytes(int pieceCount, int coordBits) {
+        return (2 * pieceCount * coordBits + 7) / 8;
+    }
+
+    /** Returns the number of bucket bits for a catalog: floor(log2(solutionCount)), or 0. */
+    static int getBucketBits(long solutionCount) {
+        return solutionCount <= 1 ? 0 : Long.SIZE - 1 - Long.numberOfLeadingZeros(solutionCount);
+    }
+
+    static long getBucket(long fingerprint, int bucketBits) {
+        return bucketBits == 0 ? 0 : fingerprint >>> (Long.SIZE - bucketBits);
+    }
+
+    /** Compares fingerprints as unsigned numbers, which is the order of the index. */
+    static int compareFingerprints(long a, long b) {
+        return Long.compare(a ^ Long.MIN_VALUE, b ^ Long.MIN_VALUE);
+    }
+
+    /**
+     * Encodes a canonical form as a record. Returns false if a coordinate doesn't fit in
+     * {@code coordBits} bits, which means the configuration isn't a single group.
+     */
+    static boolean encodeRecord(GridTopology<?> topology, int[] canonical, int coordBits, byte[] record) {
+        long bits = 0;
+        int used = 0;
+        int offset = 0;
+        int limit = 1 << coordBits;
+        for (int pos : canonical) {
+            int q = Pos.unpackX(pos);
+            int r = topology.toAxialY(q, Pos.unpackY(pos));
+            if (q < 0 || q >= limit || r < 0 || r >= limit) {
+                return false;
+            }
+            bits |= ((long) q | ((long) r << coordBits)) << used;
+            used += 2 * coordBits;
+            while (used >= 8) {
+                record[offset++] = (byte) bits;
+                bits >>>= 8;
+                used -= 8;
+            }
+        }
+        if (used > 0) {
+            record[offset] = (byte) bits;
+        }
+        return true;
+    }
+
+    /**
+     * A memory-mapped array of fixed-size entries. Mappings are limited to 2 GiB, so large
+     * sections are split into segments of a whole number of entries.
+     */
+    private static final class Section {
+        private final ByteBuffer[] segments;
+        private final int entryBytes;
+        private final long entriesPerSegment;
+
+        Section(FileChannel channel, long offset, long entryCount, int entryBytes) throws IOException {
+            this.entryBytes = entryBytes;
+            this.entriesPerSegment = Integer.MAX_VALUE / entryBytes;
+            int segmentCount = (int) ((entryCount + entriesPerSegment - 1) / entriesPerSegment);
+            this.segments = new ByteBuffer[segmentCount];
+            for (int s = 0; s < segmentCount; ++s) {
+                long entries = Math.min(entryCount - s * entriesPerSegment, entriesPerSegment);
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        offset + s * entriesPerSegment * entryBytes, entries * entryBytes);
+            }
+        }
+
+        ByteBuffer getSegment(long k) {
+            return segments[(int) (k / entriesPerSegment)];
+        }
+
+        int getOffset(long k) {
+            return (int) (k % entriesPerSegment) * entryBytes;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package ch.verver.conhexion;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Writes a {@link SolutionCatalog} file, one solution at a time.
+ *
+ * <p>Records are streamed to the output as they're added. Fingerprints are collected in runs of
+ * {@link #RUN_ENTRIES} entries, each of which is sorted in memory and written to a temporary file;
+ * {@link #finish} merges the runs into the sorted index, and writes the bucket directory and the
+ * header. Memory use is therefore bounded by the run size, independent of the number of solutions.
+ * The catalog is written to a temporary file which is renamed when it's complete, so a partially
+ * written catalog never replaces an existing one.
+ *
+ * <p>Solutions are stored in canonical form (see {@link Canonicalizer}), and must be distinct up
+ * to symmetry; {@link #finish} fails if they're not.
+ */
+final class SolutionCatalogWriter implements Closeable {
+
+    /** Number of index entries sorted in memory at a time. */
+    static final int RUN_ENTRIES = 1 << 18;
+
+    private final GridTopology<?> topology;
+    private final Canonicalizer canonicalizer;
+    private final int pieceCount;
+    private final int coordBits;
+    private final int recordBytes;
+    private final File outputFile;
+    private final File tempFile;
+    @Nullable private final File tempDirectory;
+
+    private final DataOutputStream output;
+    private final int[] canonical;
+    private final byte[] record;
+    private final long[] runFingerprints = new long[RUN_ENTRIES];
+    private final long[] runIndices = new long[RUN_ENTRIES];
+    private final ArrayList<File> runFiles = new ArrayList<>();
+    private int runSize = 0;
+    private long solutionCount = 0;
+    private boolean finished = false;
+    private boolean complete = false;
+
+    /**
+     * Starts writing a catalog for the given topology to {@code outputFile}. Temporary files are
+     * created in {@code tempDirectory}, or the default temporary directory if it's null.
+     */
+    SolutionCatalogWriter(GridTopology<?> topology, File outputFile, @Nullable File tempDirectory)
+            throws IOException {
+        this.topology = topology;
+        this.canonicalizer = new Canonicalizer(topology);
+        this.pieceCount = topology.getPieceCount();
+        this.coordBits = SolutionCatalog.getCoordBits(pieceCount);
+        this.recordBytes = SolutionCatalog.getRecordBytes(pieceCount, coordBits);
+        this.outputFile = outputFile;
+        this.tempFile = new File(outputFile.getPath() + ".tmp");
+        this.tempDirectory = tempDirectory;
+        this.canonical = new int[pieceCount];
+        this.record = new byte[recordBytes];
+        this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        output.write(new byte[SolutionCatalog.HEADER_BYTES]);
+    }
+
+    /** Returns the number of solutions added so far. */
+    long getSolutionCount() {
+        return solutionCount;
+    }
+
+    /**
+     * Adds a solution, given as an array of packed positions indexed by piece index.
+     *
+     * @throws IllegalArgumentException if the positions don't form a single group
+     */
+    void add(int[] packedPositions) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("catalog already finished");
+        }
+        canonicalizer.canonicalizePacked(packedPositions, canonical);
+        if (!SolutionCatalog.encodeRecord(topology, canonical, coordBits, record)) {
+            throw new IllegalArgumentException("solution doesn't fit in a record");
+        }
+        output.write(record);
+        runFingerprints[runSize] = Zobrist.hash(canonical, pieceCount);
+        runIndices[runSize] = solutionCount++;
+        if (++runSize == RUN_ENTRIES) {
+            writeRun();
+        }
+    }
+
+    /** Adds a solution. See {@link #add(int[])}. */
+    void add(PosList positions) throws IOException {
+        int[] packed = new int[positions.size()];
+        for (int i = 0; i < packed.length; ++i) {
+            packed[i] = positions.getPacked(i);
+        }
+        add(packed);
+    }
+
+    /**
+     * Writes the index and the header, and moves the catalog into place. No solutions can be added
+     * afterwards.
+     *
+     * @throws IllegalArgumentException if the same solution was added more than once
+     */
+    void finish() throws IOException {
+        if (finished) {
+            throw new IllegalStateException("catalog already finished");
+        }
+        finished = true;
+        if (runSize > 0) {
+            writeRun();
+        }
+        output.flush();
+
+        long indexOffset = SolutionCatalog.HEADER_BYTES + solutionCount * recordBytes;
+        int bucketBits = SolutionCatalog.getBucketBits(solutionCount);
+        File directoryFile = File.createTempFile("catalog", ".buckets", tempDirectory);
+        try {
+            try (RandomAccessFile records = new RandomAccessFile(tempFile, "r");
+                    DataOutputStream directory = new DataOutputStream(
+                            new BufferedOutputStream(new FileOutputStream(directoryFile)))) {
+                mergeRuns(records, bucketBits, directory);
+            }
+            long directoryOffset = indexOffset + solutionCount * SolutionCatalog.INDEX_ENTRY_BYTES;
+            try (DataInputStream directory = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(directoryFile)))) {
+                byte[] buffer = new byte[1 << 16];
+                for (int n; (n = directory.read(buffer)) > 0; ) {
+                    output.write(buffer, 0, n);
+                }
+            }
+            output.close();
+
+            try (RandomAccessFile file = new RandomAccessFile(tempFile, "rw")) {
+                file.writeInt(SolutionCatalog.MAGIC);
+                file.writeInt(SolutionCatalog.VERSION);
+                file.writeInt(pieceCount);
+                file.writeInt(topology.getDirectionCount());
+                file.writeInt(coordBits);
+                file.writeInt(bucketBits);
+                file.writeLong(solutionCount);
+                file.writeLong(indexOffset);
+                file.writeLong(directoryOffset);
+                file.getFD().sync();
+            }
+        } finally {
+            deleteTemporaryFiles();
+            if (!directoryFile.delete()) {
+                throw new IOException("failed to delete " + directoryFile);
+            }
+        }
+        if (!tempFile.renameTo(outputFile)) {
+            throw new IOException("failed to rename " + tempFile + " to " + outputFile);
+        }
+        complete = true;
+    }
+
+    /** Discards the catalog, unless {@link #finish} completed. */
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        output.close();
+        deleteTemporaryFiles();
+        if (!complete && tempFile.exists() && !tempFile.delete()) {
+            throw new IOException("failed to delete " + tempFile);
+        }
+    }
+
+    private void deleteTemporaryFiles() throws IOException {
+        for (File runFile : runFiles) {
+            if (!runFile.delete()) {
+                throw new IOException("failed to delete " + runFile);
+            }
+        }
+        runFiles.clear();
+    }
+
+    // Sorts the current run by fingerprint, and writes it to a temporary file.
+    private void writeRun() throws IOException {
+        sort(runFingerprints, runIndices, runSize);
+        File runFile = File.createTempFile("catalog", ".run", tempDirectory);
+        runFiles.add(runFile);
+        try (DataOutputStream run = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(runFile)))) {
+            for (int j = 0; j < runSize; ++j) {
+                run.writeLong(runFingerprints[j]);
+                run.writeLong(runIndices[j]);
+            }
+        }
+        runSize = 0;
+    }
+
+    // Merges the sorted runs into the index, which is appended to the output, and writes the
+    // start of each bucket to `directory`.
+    private void mergeRuns(RandomAccessFile records, int bucketBits, DataOutputStream directory)
+            throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, runFiles.size()),
+                (a, b) -> SolutionCatalog.compareFingerprints(a.fingerprint, b.fingerprint));
+        try {
+            for (File runFile : runFiles) {
+                RunReader reader = new RunReader(runFile);
+                if (reader.next()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+            // Indices of the previous entries with the same fingerprint.
+            long[] sameFingerprint = new long[1];
+            int sameCount = 0;
+            long previous = 0;
+            long position = 0;
+            long nextBucket = 0;
+            byte[] record1 = new byte[recordBytes], record2 = new byte[recordBytes];
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                long fingerprint = reader.fingerprint, index = reader.index;
+                if (reader.next()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+
+                if (position > 0 && fingerprint == previous) {
+                    readRecord(records, index, record1);
+                    for (int j = 0; j < sameCount; ++j) {
+                        readRecord(records, sameFingerprint[j], record2);
+                        if (Arrays.equals(record1, record2)) {
+                            throw new IllegalArgumentException("duplicate solution");
+                        }
+                    }
+                } else {
+                    sameCount = 0;
+                }
+                if (sameCount == sameFingerprint.length) {
+                    sameFingerprint = Arrays.copyOf(sameFingerprint, 2 * sameCount);
+                }
+                sameFingerprint[sameCount++] = index;
+                previous = fingerprint;
+
+                for (long bucket = SolutionCatalog.getBucket(fingerprint, bucketBits); nextBucket <= bucket; ++nextBucket) {
+                    directory.writeLong(position);
+                }
+                output.writeLong(fingerprint);
+                output.writeLong(index);
+                ++position;
+            }
+            for (; nextBucket <= 1L << bucketBits; ++nextBucket) {
+                directory.writeLong(position);
+            }
+        } finally {
+            for (RunReader reader : queue) {
+                reader.close();
+            }
+        }
+    }
+
+    private void readRecord(RandomAccessFile records, long index, byte[] buffer) throws IOException {
+        records.seek(SolutionCatalog.HEADER_BYTES + index * recordBytes);
+        records.readFully(buffer);
+    }
+
+    // Sorts the first n fingerprints in the order of the index, and permutes the indices the same
+    // way. Uses heapsort, so it doesn't allocate.
+    private static void sort(long[] fingerprints, long[] indices, int n) {
+        for (int i = n / 2 - 1; i >= 0; --i) {
+            siftDown(fingerprints, indices, i, n);
+        }
+        for (int end = n - 1; end > 0; --end) {
+            swap(fingerprints, indices, 0, end);
+            siftDown(fingerprints, indices, 0, end);
+        }
+    }
+
+    private static void siftDown(long[] fingerprints, long[] indices, int i, int n) {
+        for (int child; (child = 2 * i + 1) < n; i = child) {
+            if (child + 1 < n && SolutionCatalog.compareFingerprints(fingerprints[child], fingerprints[child + 1]) < 0) {
+                ++child;
+            }
+            if (SolutionCatalog.compareFingerprints(fingerprints[i], fingerprints[child]) >= 0) {
+                return;
+            }
+            swap(fingerprints, indices, i, child);
+        }
+    }
+
+    private static void swap(long[] fingerprints, long[] indices, int i, int j) {
+        long fingerprint = fingerprints[i];
+        fingerprints[i] = fingerprints[j];
+        fingerprints[j] = fingerprint;
+        long index = indices[i];
+        indices[i] = indices[j];
+        indices[j] = index;
+    }
+
+    /** Reads the entries of a sorted run, one at a time. */
+    private static final class RunReader implements Closeable {
+        private final DataInputStream input;
+        long fingerprint;
+        long index;
+
+        RunReader(File file) throws IOException {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+
+        // Reads the next entry, and returns whether there was one.
+        boolean next() throws IOException {
+            try {
+                fingerprint = input.readLong();
+            } catch (EOFException e) {
+                return false;
+            }
+            index = input.readLong();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+}
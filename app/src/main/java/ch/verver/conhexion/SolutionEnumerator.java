@@ -0,0 +1,401 @@
+package ch.verver.conhexion;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Enumerates all single-group solutions, up to translation, rotation and reflection, writes their
+ * canonical forms (see {@link Canonicalizer}) to a file, and keeps running counts.
+ *
+ * <p>Symmetries are broken during the search rather than by deduplicating afterwards. Translation
+ * is fixed by placing the piece with paths in all directions at the origin, as in
+ * {@link BacktrackingSolver}. Since every symmetry maps that piece to itself, it also maps the
+ * pieces around it (the "ring") onto each other. The ring is filled first, in direction order,
+ * and only rings that are lexicographically no greater (by piece index, in direction order) than
+ * all their images are kept, which prunes all other orientations near the root of the search. For
+ * rings that equal some of their images, a solution is only accepted if its canonical image under
+ * the identity is no greater than its images under those symmetries. Each equivalence class of
+ * solutions is therefore found exactly once.
+ *
+ * <p>The search is split into jobs: the ring and the next {@code splitDepth} pieces, chosen as in
+ * {@link BacktrackingSolver}, are placed by a single generator, which walks the top of the search
+ * tree depth-first on demand, and numbers the jobs in the order it finds them. Jobs run in parallel
+ * on a {@link ForkJoinPool}, with one {@link BacktrackingSolver} per worker that replays the job's
+ * placements and completes them. A job's solutions are buffered until it finishes, and then
+ * appended to the output file, one line per solution, as encoded by
+ * {@link StateCodec#encodePositions}. Memory use is bounded by the set of finished job numbers and
+ * the output of the running jobs, independent of the total number of solutions.
+ *
+ * <p>At least every {@link #CHECKPOINT_INTERVAL_MILLIS} milliseconds, and when the run ends, the
+ * set of finished jobs, the solution count and the length of the output file are written to a
+ * checkpoint file (atomically, by renaming a temporary file). A later run with the same files
+ * truncates the output to the checkpointed length, and redoes the jobs that weren't finished, so
+ * the output never contains duplicates. Since jobs are numbered deterministically, this only
+ * requires the same topology and split depth.
+ */
+final class SolutionEnumerator {
+
+    /**
+     * Number of pieces placed after the ring in each job, by default. For the hex puzzle, the
+     * subtrees at this depth take milliseconds on average; at much smaller depths, single jobs
+     * can take hours.
+     */
+    static final int DEFAULT_SPLIT_DEPTH = 28;
+
+    /** Maximum time between checkpoints, while jobs are finishing. */
+    static final long CHECKPOINT_INTERVAL_MILLIS = 60_000;
+
+    private static final int CHECKPOINT_MAGIC = 0x434e4845;  // "CNHE"
+
+    private final GridTopology<?> topology;
+    private final File outputFile;
+    private final File checkpointFile;
+    private final int splitDepth;
+    private final int pieceCount;
+    private final int directionCount;
+
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+
+    // State of a run, guarded by `this`.
+    @Nullable private JobGenerator generator;
+    private final BitSet finishedJobs = new BitSet();
+    private long solutionCount = 0;
+    private long outputLength = 0;
+    private long lastCheckpointMillis = 0;
+    @Nullable private OutputStream output;
+    @Nullable private IOException failure;
+
+    SolutionEnumerator(GridTopology<?> topology, File outputFile, File checkpointFile) {
+        this(topology, outputFile, checkpointFile, DEFAULT_SPLIT_DEPTH);
+    }
+
+    SolutionEnumerator(GridTopology<?> topology, File outputFile, File checkpointFile, int splitDepth) {
+        this.topology = topology;
+        this.outputFile = outputFile;
+        this.checkpointFile = checkpointFile;
+        this.splitDepth = splitDepth;
+        this.pieceCount = topology.getPieceCount();
+        this.directionCount = topology.getDirectionCount();
+        if (pieceCount == 0 || topology.getPathMask(pieceCount - 1) != topology.getAllDirectionsMask()) {
+            throw new IllegalArgumentException("the last piece must have paths in all directions");
+        }
+        if (splitDepth < 0) {
+            throw new IllegalArgumentException("invalid split depth");
+        }
+    }
+
+    /**
+     * Returns the number of jobs generated so far. Once all jobs have been generated, this is
+     * the total number of jobs.
+     */
+    synchronized int getJobCount() {
+        return generator == null ? 0 : generator.jobCount;
+    }
+
+    /** Returns the number of finished jobs, including those finished by earlier runs. */
+    synchronized int getFinishedJobCount() {
+        return finishedJobs.cardinality();
+    }
+
+    /** Returns the number of solutions written so far, including those of earlier runs. */
+    synchronized long getSolutionCount() {
+        return solutionCount;
+    }
+
+    /** Stops the run as soon as possible. Unfinished jobs are redone by the next run. Thread-safe. */
+    void cancel() {
+        cancelled.set(true);
+    }
+
+    /**
+     * Runs all unfinished jobs on {@code pool}, resuming from the checkpoint file if it exists.
+     * Blocks until all jobs are finished or the run is cancelled. Returns the total number of
+     * solutions.
+     *
+     * @throws IOException if the files can't be read or written
+     * @throws IllegalArgumentException if the checkpoint doesn't match this enumeration
+     */
+    long run(ForkJoinPool pool) throws IOException {
+        synchronized (this) {
+            readCheckpoint();
+            try (RandomAccessFile file = new RandomAccessFile(outputFile, "rw")) {
+                file.setLength(outputLength);
+            }
+            output = new BufferedOutputStream(new FileOutputStream(outputFile, true));
+            generator = new JobGenerator();
+            lastCheckpointMillis = System.currentTimeMillis();
+        }
+        try {
+            ArrayList<ForkJoinTask<?>> workers = new ArrayList<>();
+            for (int w = 0; w < pool.getParallelism(); ++w) {
+                workers.add(pool.submit(this::runJobs));
+            }
+            for (ForkJoinTask<?> worker : workers) {
+                worker.join();
+            }
+            synchronized (this) {
+                if (failure != null) {
+                    throw failure;
+                }
+                writeCheckpoint();
+                return solutionCount;
+            }
+        } finally {
+            synchronized (this) {
+                output.close();
+                output = null;
+            }
+        }
+    }
+
+    // Runs jobs until none are left, on the calling worker thread.
+    private void runJobs() {
+        BacktrackingSolver solver = new BacktrackingSolver(topology, cancelled);
+        SearchBoard board = solver.getBoard();
+        Canonicalizer canonicalizer = new Canonicalizer(topology);
+        Job job = new Job(directionCount + splitDepth);
+        int[] canonical = new int[pieceCount];
+        StringBuilder buffer = new StringBuilder();
+        long[] count = new long[1];
+        while (takeJob(job)) {
+            buffer.setLength(0);
+            count[0] = 0;
+            board.place(board.getOriginCell(), pieceCount - 1);
+            for (int k = 0; k < job.placementCount; ++k) {
+                board.place(job.cells[k], job.pieces[k]);
+            }
+            long ties = job.ties;
+            solver.complete(positions -> {
+                if (ties == 0 || canonicalizer.isMinimalImage(positions, ties)) {
+                    canonicalizer.canonicalizePacked(positions, canonical);
+                    buffer.append(StateCodec.encodePositions(PosList.fromPacked(canonical, pieceCount)));
+                    buffer.append('\n');
+                    ++count[0];
+                }
+                return true;
+            });
+            while (board.getPlacedCount() > 0) {
+                board.undo();
+            }
+            if (solver.isStopped()) {
+                break;
+            }
+            finishJob(job.number, buffer, count[0]);
+        }
+    }
+
+    // Fills `job` with the next unfinished job, and returns whether there was one.
+    private synchronized boolean takeJob(Job job) {
+        while (!cancelled.get() && generator.next(job)) {
+            if (!finishedJobs.get(job.number)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized void finishJob(int number, StringBuilder buffer, long count) {
+        if (failure != null) {
+            return;
+        }
+        try {
+            byte[] bytes = buffer.toString().getBytes(StandardCharsets.US_ASCII);
+            output.write(bytes);
+            outputLength += bytes.length;
+            solutionCount += count;
+            finishedJobs.set(number);
+            long now = System.currentTimeMillis();
+            if (now - lastCheckpointMillis >= CHECKPOINT_INTERVAL_MILLIS) {
+                writeCheckpoint();
+                lastCheckpointMillis = now;
+            }
+        } catch (IOException e) {
+            failure = e;
+            cancel();
+        }
+    }
+
+    // Flushes the output, and then records the current state in the checkpoint file.
+    private void writeCheckpoint() throws IOException {
+        output.flush();
+        File tempFile = new File(checkpointFile.getPath() + ".tmp");
+        try (FileOutputStream fileStream = new FileOutputStream(tempFile);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileStream))) {
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeInt(pieceCount);
+            out.writeInt(splitDepth);
+            out.writeLong(solutionCount);
+            out.writeLong(outputLength);
+            long[] words = finishedJobs.toLongArray();
+            out.writeInt(words.length);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+            out.flush();
+            fileStream.getFD().sync();
+        }
+        if (!tempFile.renameTo(checkpointFile)) {
+            throw new IOException("failed to rename " + tempFile + " to " + checkpointFile);
+        }
+    }
+
+    private void readCheckpoint() throws IOException {
+        finishedJobs.clear();
+        solutionCount = 0;
+        outputLength = 0;
+        if (!checkpointFile.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(checkpointFile))) {
+            if (in.readInt() != CHECKPOINT_MAGIC || in.readInt() != pieceCount || in.readInt() != splitDepth) {
+                throw new IllegalArgumentException("checkpoint " + checkpointFile + " doesn't match");
+            }
+            solutionCount = in.readLong();
+            outputLength = in.readLong();
+            long[] words = new long[in.readInt()];
+            for (int k = 0; k < words.length; ++k) {
+                words[k] = in.readLong();
+            }
+            finishedJobs.or(BitSet.valueOf(words));
+        }
+        if (outputFile.length() < outputLength) {
+            throw new IllegalArgumentException("output " + outputFile + " is shorter than checkpointed");
+        }
+    }
+
+    /** The placements of a job, after the piece at the origin. */
+    private static final class Job {
+        int number;
+        int placementCount;
+        final int[] cells;
+        final int[] pieces;
+        long ties;
+
+        Job(int maxPlacements) {
+            cells = new int[maxPlacements];
+            pieces = new int[maxPlacements];
+        }
+    }
+
+    /**
+     * Walks the top of the search tree depth-first, one job at a time. The first directionCount
+     * levels fill the ring; only rings that are no greater than their images under all symmetries
+     * are kept. The next splitDepth levels fill the cells selected by the search board.
+     */
+    private final class JobGenerator {
+        final SearchBoard board = new SearchBoard(topology);
+        final Canonicalizer canonicalizer = new Canonicalizer(topology);
+        final int origin = board.getOriginCell();
+        final int maxLevel = directionCount + splitDepth;
+
+        // The cell filled at each level, and the candidates that remain to be tried there.
+        final int[] cells = new int[maxLevel];
+        final long[] candidates = new long[maxLevel];
+        final int[] image = new int[directionCount];
+
+        int level = 0;
+        long ties = 0;
+        int jobCount = 0;
+
+        JobGenerator() {
+            board.place(origin, pieceCount - 1);
+            expand();
+        }
+
+        // Fills `job` with the next job, and returns whether there was one.
+        boolean next(Job job) {
+            while (level >= 0) {
+                if (level == maxLevel || candidates[level] == 0) {
+                    // Leaves are expanded with no candidates, so they're only visited once.
+                    if (--level >= 0) {
+                        board.undo();
+                    }
+                    continue;
+                }
+                int piece = Long.numberOfTrailingZeros(candidates[level]);
+                candidates[level] &= candidates[level] - 1;
+                board.place(cells[level], piece);
+                ++level;
+                if (level == directionCount && !isMinimalRing()) {
+                    board.undo();
+                    --level;
+                    continue;
+                }
+                if (expand()) {
+                    job.number = jobCount++;
+                    job.placementCount = level;
+                    for (int k = 0; k < level; ++k) {
+                        job.cells[k] = board.getPlacedCell(k + 1);
+                        job.pieces[k] = board.getPiece(job.cells[k]);
+                    }
+                    job.ties = ties;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Determines the cell and candidates of the current level. Returns whether the current
+        // board is a job, in which case the level gets no candidates.
+        private boolean expand() {
+            if (level < directionCount) {
+                cells[level] = board.getNeighbour(origin, level);
+                candidates[level] = board.getCandidates(cells[level]);
+                return false;
+            }
+            int cell = board.selectCell();
+            if (cell < 0 || level == maxLevel) {
+                if (level < maxLevel) {
+                    candidates[level] = 0;
+                }
+                return cell != SearchBoard.DEAD_END;
+            }
+            cells[level] = cell;
+            candidates[level] = board.getSelectedCandidates();
+            return false;
+        }
+
+        // Returns whether the ring is no greater than its images under all symmetries, and
+        // records the symmetries under which it's equal in `ties`.
+        private boolean isMinimalRing() {
+            ties = 0;
+            for (int s = 0; s < canonicalizer.getSymmetryCount(); ++s) {
+                if (s == canonicalizer.getIdentity()) {
+                    continue;
+                }
+                for (int d = 0; d < directionCount; ++d) {
+                    int piece = board.getPiece(board.getNeighbour(origin, d));
+                    image[canonicalizer.getDirectionImage(s, d)] = canonicalizer.getPieceImage(s, piece);
+                }
+                for (int d = 0; d < directionCount; ++d) {
+                    int piece = board.getPiece(board.getNeighbour(origin, d));
+                    if (image[d] != piece) {
+                        if (image[d] < piece) {
+                            return false;
+                        }
+                        break;
+                    }
+                    if (d == directionCount - 1) {
+                        ties |= 1L << s;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+}
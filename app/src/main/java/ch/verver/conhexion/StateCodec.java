@@ -1,19 +1,10 @@
 package ch.verver.conhexion;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /** Utility class to encode/decode puzzle state to/from String. */
 abstract class StateCodec {
 
-    static String encodePositions(List<Pos> positions) {
-        int[] ints = new int[positions.size() * 2];
-        for (int i = 0; i < positions.size(); ++i) {
-            Pos pos = positions.get(i);
-            ints[2*i + 0] = pos.x;
-            ints[2*i + 1] = pos.y;
-        }
-        return encodeInts(ints);
+    static String encodePositions(PosList positions) {
+        return encodeInts(positions.toCoordinates());
     }
 
     /**
@@ -22,19 +13,8 @@ abstract class StateCodec {
      *
      * @throws IllegalArgumentException if the string is formatted incorrectly
      */
-    static ArrayList<Pos> decodePositions(String string) {
-        int[] ints = decodeInts(string);
-        if (ints.length % 2 != 0) {
-            throw new IllegalArgumentException("Odd number of coordinates");
-        }
-        int n = ints.length / 2;
-        ArrayList<Pos> result = new ArrayList<>(n);
-        for (int i = 0; i < n; ++i) {
-            int x = ints[2 * i + 0];
-            int y = ints[2 * i + 1];
-            result.add(new Pos(x, y));
-        }
-        return result;
+    static PosList decodePositions(String string) {
+        return PosList.fromCoordinates(decodeInts(string));  // may throw IllegalArgumentException
     }
 
     /**
@@ -0,0 +1,215 @@
+package ch.verver.conhexion;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Grid topologies defined in the resource file {@code topologies.txt}, which describes each grid
+ * by its directions (neighbour offsets for even and odd columns, and opposites) and its pieces.
+ * See the file itself for the format.
+ *
+ * <p>Definitions are parsed when first needed, and compiled into the flat lookup tables of
+ * {@link GridTopology}, so a topology loaded from the file is exactly as fast as one built from a
+ * direction enum. New grid variants can be added to the file and loaded with {@link #get(String)},
+ * which describes their directions with {@link GridDirection}. The existing puzzles bind their
+ * definitions to their direction enums with {@link #get(String, ImmutableList)}, which verifies
+ * that the enums agree with the file.
+ */
+final class TopologyDefinitions {
+
+    static final String RESOURCE_NAME = "topologies.txt";
+
+    /** A parsed, but not yet compiled, topology definition. */
+    private static final class Definition {
+        final String name;
+        final ArrayList<String> directionNames = new ArrayList<>();
+        final ArrayList<String> oppositeNames = new ArrayList<>();
+        final ArrayList<int[]> offsets = new ArrayList<>();  // {dx, dyEven, dyOdd}
+        int pieceCount = -1;
+
+        Definition(String name) {
+            this.name = name;
+        }
+    }
+
+    @Nullable
+    private static HashMap<String, Definition> definitions;
+
+    private static final HashMap<String, GridTopology<GridDirection>> topologies = new HashMap<>();
+
+    /**
+     * Returns the topology with the given name, with directions described by {@link GridDirection}.
+     *
+     * @throws IllegalArgumentException if there is no such topology, or its definition is invalid
+     */
+    static synchronized GridTopology<GridDirection> get(String name) {
+        GridTopology<GridDirection> topology = topologies.get(name);
+        if (topology == null) {
+            Definition def = getDefinition(name);
+            int n = def.directionNames.size();
+            ArrayList<GridDirection> directions = new ArrayList<>(n);
+            for (int d = 0; d < n; ++d) {
+                int[] offsets = def.offsets.get(d);
+                directions.add(new GridDirection(def.directionNames.get(d), d, offsets[0], offsets[1], offsets[2]));
+            }
+            int[] opposites = calculateOpposites(def);
+            for (int d = 0; d < n; ++d) {
+                directions.get(d).setOpposite(directions.get(opposites[d]));
+            }
+            topology = compile(def, ImmutableList.copyOf(directions), opposites);
+            topologies.put(name, topology);
+        }
+        return topology;
+    }
+
+    /**
+     * Returns the topology with the given name, using the given direction objects. The directions
+     * must have the same names (as returned by {@link Object#toString}) in the same order as in the
+     * definition, and must agree with the definition on their steps, opposites and paths.
+     *
+     * @throws IllegalArgumentException if there is no such topology, its definition is invalid, or
+     *      the directions don't match the definition
+     */
+    static synchronized <D extends Direction> GridTopology<D> get(String name, ImmutableList<D> directions) {
+        Definition def = getDefinition(name);
+        int n = def.directionNames.size();
+        if (directions.size() != n) {
+            throw new IllegalArgumentException(name + ": expected " + n + " directions");
+        }
+        int[] opposites = calculateOpposites(def);
+        for (int d = 0; d < n; ++d) {
+            D dir = directions.get(d);
+            int[] offsets = def.offsets.get(d);
+            if (!dir.toString().equals(def.directionNames.get(d)) ||
+                    dir.stepPacked(Pos.pack(0, 0)) != Pos.pack(offsets[0], offsets[1]) ||
+                    dir.stepPacked(Pos.pack(1, 0)) != Pos.pack(1 + offsets[0], offsets[2]) ||
+                    dir.opposite() != directions.get(opposites[d])) {
+                throw new IllegalArgumentException(name + ": direction " + dir + " doesn't match");
+            }
+        }
+        GridTopology<D> topology = compile(def, directions, opposites);
+        for (int i = 0; i < topology.getPieceCount(); ++i) {
+            for (int d = 0; d < n; ++d) {
+                if (directions.get(d).hasPath(i) != topology.hasPath(i, d)) {
+                    throw new IllegalArgumentException(name + ": paths of piece " + i + " don't match");
+                }
+            }
+        }
+        return topology;
+    }
+
+    private static <D extends Direction> GridTopology<D> compile(
+            Definition def, ImmutableList<D> directions, int[] opposites) {
+        int n = def.directionNames.size();
+        int[] packedDeltas = new int[2 * n];
+        for (int d = 0; d < n; ++d) {
+            int[] offsets = def.offsets.get(d);
+            packedDeltas[d] = Pos.packDelta(offsets[0], offsets[1]);
+            packedDeltas[n + d] = Pos.packDelta(offsets[0], offsets[2]);
+        }
+        int maxPieceCount = (1 << n) - 1;
+        int pieceCount = def.pieceCount < 0 ? maxPieceCount : def.pieceCount;
+        if (pieceCount > maxPieceCount) {
+            throw new IllegalArgumentException(def.name + ": too many pieces");
+        }
+        int[] pathMasks = new int[pieceCount];
+        for (int i = 0; i < pieceCount; ++i) {
+            pathMasks[i] = i + 1;
+        }
+        return new GridTopology<>(directions, packedDeltas, opposites, pathMasks);
+    }
+
+    private static int[] calculateOpposites(Definition def) {
+        int n = def.directionNames.size();
+        int[] opposites = new int[n];
+        for (int d = 0; d < n; ++d) {
+            opposites[d] = def.directionNames.indexOf(def.oppositeNames.get(d));
+            if (opposites[d] < 0) {
+                throw new IllegalArgumentException(
+                        def.name + ": unknown direction " + def.oppositeNames.get(d));
+            }
+        }
+        return opposites;
+    }
+
+    private static Definition getDefinition(String name) {
+        if (definitions == null) {
+            InputStream in = TopologyDefinitions.class.getResourceAsStream(RESOURCE_NAME);
+            if (in == null) {
+                throw new IllegalStateException("missing resource " + RESOURCE_NAME);
+            }
+            try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+                definitions = parse(reader);
+            } catch (IOException e) {
+                throw new IllegalStateException("failed to read " + RESOURCE_NAME, e);
+            }
+        }
+        Definition def = definitions.get(name);
+        if (def == null) {
+            throw new IllegalArgumentException("unknown topology " + name);
+        }
+        return def;
+    }
+
+    /**
+     * Parses topology definitions in the format of {@code topologies.txt}.
+     *
+     * @throws IllegalArgumentException if the input is malformed
+     */
+    private static HashMap<String, Definition> parse(Reader reader) throws IOException {
+        HashMap<String, Definition> result = new HashMap<>();
+        BufferedReader lines = new BufferedReader(reader);
+        Definition current = null;
+        int lineNumber = 0;
+        for (String line; (line = lines.readLine()) != null; ) {
+            ++lineNumber;
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            String[] tokens = line.trim().split("\\s+");
+            if (tokens[0].isEmpty()) {
+                continue;
+            }
+            try {
+                if (tokens[0].equals("topology") && tokens.length == 2) {
+                    current = new Definition(tokens[1]);
+                    if (result.put(current.name, current) != null) {
+                        throw new IllegalArgumentException("duplicate topology " + current.name);
+                    }
+                } else if (current == null) {
+                    throw new IllegalArgumentException("expected topology");
+                } else if (tokens[0].equals("direction") && tokens.length == 6) {
+                    if (current.directionNames.contains(tokens[1])) {
+                        throw new IllegalArgumentException("duplicate direction " + tokens[1]);
+                    }
+                    current.directionNames.add(tokens[1]);
+                    current.offsets.add(new int[]{
+                            Integer.parseInt(tokens[2]),
+                            Integer.parseInt(tokens[3]),
+                            Integer.parseInt(tokens[4])});
+                    current.oppositeNames.add(tokens[5]);
+                } else if (tokens[0].equals("pieces") && tokens.length == 2) {
+                    current.pieceCount = Integer.parseInt(tokens[1]);
+                } else {
+                    throw new IllegalArgumentException("unexpected " + tokens[0]);
+                }
+            } catch (IllegalArgumentException e) {
+                // Note that NumberFormatException is a subclass of IllegalArgumentException.
+                throw new IllegalArgumentException(
+                        RESOURCE_NAME + ":" + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        return result;
+    }
+
+    private TopologyDefinitions() {}
+}
@@ -0,0 +1,70 @@
+package ch.verver.conhexion;
+
+/**
+ * 64-bit Zobrist hashing of piece configurations.
+ *
+ * <p>The hash of a configuration is the XOR of the keys of its (piece index, position) pairs, so
+ * moving a piece only requires XOR-ing out the key for its old position and XOR-ing in the key for
+ * its new position. Since positions are unbounded, keys are not stored in a table, but derived by
+ * mixing the piece index and packed position (see {@link Pos#pack}) with the SplitMix64
+ * finalizer. Keys are the same on every run, so hashes can be persisted.
+ */
+final class Zobrist {
+
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+
+    /** Returns the key for piece {@code pieceIndex} at packed position {@code packedPos}. */
+    static long key(int pieceIndex, int packedPos) {
+        long z = (((long) pieceIndex << 32) | (packedPos & 0xffffffffL)) + SEED;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /** Calculates the hash of the first {@code n} packed positions, indexed by piece index. */
+    static long hash(int[] packedPositions, int n) {
+        long hash = 0;
+        for (int i = 0; i < n; ++i) {
+            hash ^= key(i, packedPositions[i]);
+        }
+        return hash;
+    }
+
+    /** Calculates the hash of the given piece positions. */
+    static long hash(PosList positions) {
+        long hash = 0;
+        for (int i = 0, n = positions.size(); i < n; ++i) {
+            hash ^= key(i, positions.getPacked(i));
+        }
+        return hash;
+    }
+
+    /**
+     * Calculates a hash that is invariant under translation of the whole configuration: positions
+     * are hashed relative to the top-left corner of the bounding rectangle.
+     *
+     * <p>On a grid with offset columns (like the hex grid) a translation by an odd number of
+     * columns doesn't preserve the y-coordinates of the rows, so the bounding rectangle is
+     * calculated in axial coordinates instead (see {@link GridTopology#toAxialY}).
+     */
+    static long translationInvariantHash(ReadonlyPiecePositionIndex positions, GridTopology<?> topology) {
+        int n = positions.size();
+        int left = Integer.MAX_VALUE;
+        int top = Integer.MAX_VALUE;
+        for (int i = 0; i < n; ++i) {
+            int pos = positions.getPacked(i);
+            int x = Pos.unpackX(pos);
+            left = Math.min(left, x);
+            top = Math.min(top, topology.toAxialY(x, Pos.unpackY(pos)));
+        }
+        long hash = 0;
+        for (int i = 0; i < n; ++i) {
+            int pos = positions.getPacked(i);
+            int x = Pos.unpackX(pos);
+            hash ^= key(i, Pos.pack(x - left, topology.toAxialY(x, Pos.unpackY(pos)) - top));
+        }
+        return hash;
+    }
+
+    private Zobrist() {}
+}
@@ -0,0 +1,118 @@
+package ch.verver.conhexion;
+
+import java.util.Random;
+
+/**
+ * Times {@link BitboardEvaluator} against {@link Solution#calculateProgress} and the table-driven
+ * passes it replaced. Runs on the host JVM:
+ *
+ * <pre>
+ *   java -cp ... ch.verver.conhexion.BitboardBenchmark [seconds per measurement]
+ * </pre>
+ *
+ * <p>Configurations are solutions with a few pieces moved to random cells nearby, so they have the
+ * size and density of boards that are being solved. See {@link BitboardEvaluatorTest} for the
+ * correctness checks.
+ */
+public class BitboardBenchmark {
+
+    private static final int CONFIGURATION_COUNT = 1000;
+
+    public static void main(String[] args) {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2.0;
+        benchmark("rect", RectPuzzle.TOPOLOGY, seconds);
+        benchmark("hex", HexPuzzle.TOPOLOGY, seconds);
+    }
+
+    private static void benchmark(String name, GridTopology<?> topology, double seconds) {
+        int[][] configurations = randomConfigurations(topology, new Random(1), CONFIGURATION_COUNT);
+        int pieceCount = topology.getPieceCount();
+        PosList[] posLists = new PosList[configurations.length];
+        for (int k = 0; k < configurations.length; ++k) {
+            posLists[k] = PosList.fromPacked(configurations[k], pieceCount);
+        }
+        BitboardEvaluator evaluator = new BitboardEvaluator(topology);
+
+        // Every measurement sums a result, so the JIT can't drop the work.
+        long sum = 0;
+        long start = System.nanoTime(), deadline = start + (long) (seconds * 1e9), count = 0;
+        for (; System.nanoTime() < deadline; count += configurations.length) {
+            for (int[] packed : configurations) {
+                evaluator.loadPacked(packed, pieceCount);
+                evaluator.calculate();
+                sum += evaluator.getGroupCount();
+            }
+        }
+        report(name, "loadPacked + calculate", count, start);
+
+        start = System.nanoTime();
+        deadline = start + (long) (seconds * 1e9);
+        count = 0;
+        for (; System.nanoTime() < deadline; count += configurations.length) {
+            for (int[] packed : configurations) {
+                evaluator.loadPacked(packed, pieceCount);
+                sum += evaluator.isSolved() ? 1 : 0;
+            }
+        }
+        report(name, "loadPacked + isSolved", count, start);
+
+        start = System.nanoTime();
+        deadline = start + (long) (seconds * 1e9);
+        count = 0;
+        for (; System.nanoTime() < deadline; count += posLists.length) {
+            for (PosList positions : posLists) {
+                sum += Solution.calculateProgress(positions, topology).getGroupCount();
+            }
+        }
+        report(name, "Solution.calculateProgress", count, start);
+
+        start = System.nanoTime();
+        deadline = start + (long) (seconds * 1e9);
+        count = 0;
+        for (; System.nanoTime() < deadline; count += posLists.length) {
+            for (PosList positions : posLists) {
+                sum += Solution.calculateProgressSlowly(new PiecePositionIndex(positions), topology).getGroupCount();
+            }
+        }
+        report(name, "table-driven passes", count, start);
+        System.out.println("(checksum " + sum + ")");
+    }
+
+    private static void report(String name, String method, long count, long startNanos) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.printf("%s: %s: %.2fM configurations/s%n", name, method, count / seconds / 1e6);
+    }
+
+    /**
+     * Returns {@code count} configurations: the first solution of {@link BacktrackingSolver} with up
+     * to 5 pieces moved to random free cells within 2 cells of its bounding box.
+     */
+    static int[][] randomConfigurations(GridTopology<?> topology, Random random, int count) {
+        PosList solution = new BacktrackingSolver(topology).solve();
+        int pieceCount = solution.size();
+        int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+        for (int i = 0; i < pieceCount; ++i) {
+            left = Math.min(left, solution.getX(i));
+            top = Math.min(top, solution.getY(i));
+            right = Math.max(right, solution.getX(i));
+            bottom = Math.max(bottom, solution.getY(i));
+        }
+        int[][] result = new int[count][];
+        for (int k = 0; k < count; ++k) {
+            PiecePositionIndex positions = new PiecePositionIndex(solution);
+            for (int m = random.nextInt(6); m > 0; --m) {
+                int x = left - 2 + random.nextInt(right - left + 5);
+                int y = top - 2 + random.nextInt(bottom - top + 5);
+                if (positions.indexOfPacked(Pos.pack(x, y)) < 0) {
+                    positions.moveOrSwapPacked(random.nextInt(pieceCount), Pos.pack(x, y));
+                }
+            }
+            result[k] = new int[pieceCount];
+            for (int i = 0; i < pieceCount; ++i) {
+                result[k][i] = positions.getPacked(i);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,111 @@
+package ch.verver.conhexion;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link BitboardEvaluator} against the table-driven passes of
+ * {@link Solution#calculateProgressSlowly}. See {@link BitboardBenchmark} for timings.
+ */
+public class BitboardEvaluatorTest {
+
+    @Test
+    public void matchesTableDrivenPassesOnNearlySolvedBoards() {
+        checkConfigurations(RectPuzzle.TOPOLOGY,
+                BitboardBenchmark.randomConfigurations(RectPuzzle.TOPOLOGY, new Random(1), 5000));
+        checkConfigurations(HexPuzzle.TOPOLOGY,
+                BitboardBenchmark.randomConfigurations(HexPuzzle.TOPOLOGY, new Random(2), 5000));
+    }
+
+    @Test
+    public void matchesTableDrivenPassesOnScatteredBoards() {
+        checkConfigurations(RectPuzzle.TOPOLOGY, scatteredConfigurations(RectPuzzle.TOPOLOGY, new Random(3), 5000));
+        checkConfigurations(HexPuzzle.TOPOLOGY, scatteredConfigurations(HexPuzzle.TOPOLOGY, new Random(4), 5000));
+    }
+
+    @Test
+    public void solvedBoardsAreSolved() {
+        int pieceCount = RectPuzzle.TOPOLOGY.getPieceCount();
+        BitboardEvaluator evaluator = new BitboardEvaluator(RectPuzzle.TOPOLOGY);
+        long solutions = new BacktrackingSolver(RectPuzzle.TOPOLOGY).search(packedPositions -> {
+            assertTrue(evaluator.loadPacked(packedPositions, pieceCount));
+            assertTrue(evaluator.isSolved());
+            checkConfiguration(RectPuzzle.TOPOLOGY, evaluator, packedPositions);
+            return true;
+        });
+        assertEquals(4804, solutions);
+
+        PosList hexSolution = new BacktrackingSolver(HexPuzzle.TOPOLOGY).solve();
+        assertTrue(Solution.calculateProgress(hexSolution, HexPuzzle.TOPOLOGY).isSolved());
+        assertTrue(Solution.calculateProgressSlowly(new PiecePositionIndex(hexSolution), HexPuzzle.TOPOLOGY).isSolved());
+    }
+
+    @Test
+    public void wideBoardsFallBackToTableDrivenPasses() {
+        int[] packed = new int[RectPuzzle.TOPOLOGY.getPieceCount()];
+        for (int i = 0; i < packed.length; ++i) {
+            packed[i] = Pos.pack(5 * i, i % 2);
+        }
+        PosList positions = PosList.fromPacked(packed, packed.length);
+        assertFalse(new BitboardEvaluator(RectPuzzle.TOPOLOGY).load(positions));
+        Solution.Progress progress = Solution.calculateProgress(positions, RectPuzzle.TOPOLOGY);
+        assertEquals(packed.length, progress.getGroupCount());
+    }
+
+    private static void checkConfigurations(GridTopology<?> topology, int[][] configurations) {
+        BitboardEvaluator evaluator = new BitboardEvaluator(topology);
+        for (int[] packed : configurations) {
+            assertTrue(evaluator.loadPacked(packed, packed.length));
+            checkConfiguration(topology, evaluator, packed);
+        }
+    }
+
+    // Checks the loaded configuration, which has the given positions.
+    private static void checkConfiguration(GridTopology<?> topology, BitboardEvaluator evaluator, int[] packed) {
+        PosList positions = PosList.fromPacked(packed, packed.length);
+        Solution.Progress expected = Solution.calculateProgressSlowly(new PiecePositionIndex(positions), topology);
+        evaluator.calculate();
+        String message = positions.toString();
+        assertEquals(message, expected.getGroupCount(), evaluator.getGroupCount());
+        assertEquals(message, expected.getDisconnectionCount(), evaluator.getDisconnectionCount());
+        assertEquals(message, expected.getOverlapCount(), evaluator.getOverlapCount());
+        assertEquals(message, expected.isSolved(), evaluator.isSolved());
+        Solution.Progress actual = evaluator.evaluate();
+        assertEquals(message, expected.getGroupCount(), actual.getGroupCount());
+        assertEquals(message, expected.getDisconnectionCount(), actual.getDisconnectionCount());
+        assertEquals(message, expected.getOverlapCount(), actual.getOverlapCount());
+    }
+
+    // Returns configurations with the pieces on random distinct cells of a small square, so that
+    // most pieces touch several others, at arbitrary (including negative and odd) offsets.
+    private static int[][] scatteredConfigurations(GridTopology<?> topology, Random random, int count) {
+        int pieceCount = topology.getPieceCount();
+        int size = (int) Math.ceil(Math.sqrt(1.5 * pieceCount));
+        int[][] result = new int[count][];
+        for (int k = 0; k < count; ++k) {
+            int offsetX = random.nextInt(41) - 20, offsetY = random.nextInt(41) - 20;
+            int[] packed = new int[pieceCount];
+            for (int i = 0; i < pieceCount; ++i) {
+                do {
+                    packed[i] = Pos.pack(offsetX + random.nextInt(size), offsetY + random.nextInt(size));
+                } while (contains(packed, i, packed[i]));
+            }
+            result[k] = packed;
+        }
+        return result;
+    }
+
+    private static boolean contains(int[] packed, int n, int pos) {
+        for (int i = 0; i < n; ++i) {
+            if (packed[i] == pos) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
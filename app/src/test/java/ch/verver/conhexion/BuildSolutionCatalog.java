@@ -0,0 +1,129 @@
+package ch.verver.conhexion;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Builds a {@link SolutionCatalog} from the output of {@link SolutionEnumerator} (see
+ * {@link EnumerateSolutions}), and checks it. Runs on the host JVM:
+ *
+ * <pre>
+ *   java -cp ... ch.verver.conhexion.BuildSolutionCatalog rect|hex solutions catalog [lookups]
+ * </pre>
+ *
+ * <p>After building the catalog, it opens it and reads {@code lookups} (default 100000) random
+ * solutions with {@link SolutionCatalog#getSolution}. Each one must be valid, and a translated copy
+ * must be found by {@link SolutionCatalog#contains} under the same number. A copy with two pieces
+ * swapped is also looked up, to time lookups that miss. Exits with a nonzero status if any check
+ * fails.
+ */
+public class BuildSolutionCatalog {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3 || args.length > 4) {
+            System.err.println("usage: BuildSolutionCatalog rect|hex solutions catalog [lookups]");
+            System.exit(1);
+        }
+        GridTopology<?> topology = EnumerateSolutions.getTopology(args[0]);
+        File solutionsFile = new File(args[1]);
+        File catalogFile = new File(args[2]);
+        int lookups = args.length > 3 ? Integer.parseInt(args[3]) : 100_000;
+
+        long start = System.nanoTime();
+        long count = build(topology, solutionsFile, catalogFile);
+        System.err.printf("built catalog of %d solutions (%d bytes) in %.1f s%n",
+                count, catalogFile.length(), (System.nanoTime() - start) / 1e9);
+
+        start = System.nanoTime();
+        SolutionCatalog catalog = new SolutionCatalog(catalogFile, topology);
+        System.err.printf("opened catalog in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+
+        LookupTimings timings = new LookupTimings();
+        String error = check(topology, catalog, lookups, new Random(1), timings);
+        if (error != null) {
+            System.err.println("FAILED: " + error);
+            System.exit(1);
+        }
+        System.err.printf("%d lookups: getSolution %.2f us, contains %.2f us, " +
+                        "swapped copies %.2f us (%d not found)%n",
+                lookups, timings.readNanos / 1e3 / lookups, timings.hitNanos / 1e3 / lookups,
+                timings.missNanos / 1e3 / lookups, timings.misses);
+    }
+
+    /** Total times spent in each kind of lookup by {@link #check}. */
+    static final class LookupTimings {
+        long readNanos, hitNanos, missNanos;
+
+        /** Number of swapped copies that weren't found. */
+        int misses;
+    }
+
+    /**
+     * Writes a catalog of the solutions in {@code solutionsFile}, one per line as written by
+     * {@link SolutionEnumerator}, to {@code catalogFile}. Returns the number of solutions.
+     */
+    static long build(GridTopology<?> topology, File solutionsFile, File catalogFile) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(solutionsFile), StandardCharsets.US_ASCII));
+                SolutionCatalogWriter writer = new SolutionCatalogWriter(
+                        topology, catalogFile, catalogFile.getAbsoluteFile().getParentFile())) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                writer.add(StateCodec.decodePositions(line));
+            }
+            writer.finish();
+            return writer.getSolutionCount();
+        }
+    }
+
+    /**
+     * Looks up {@code lookups} random solutions of the catalog, and adds the time taken to
+     * {@code timings}. Returns a description of the first failed check, or null if all checks
+     * passed.
+     */
+    static String check(GridTopology<?> topology, SolutionCatalog catalog, int lookups,
+            Random random, LookupTimings timings) {
+        long count = catalog.getSolutionCount();
+        int pieceCount = topology.getPieceCount();
+        int origin = Pos.pack(0, 0);
+        for (int n = 0; n < lookups && count > 0; ++n) {
+            long k = (long) (random.nextDouble() * count);
+            long start = System.nanoTime();
+            PosList solution = catalog.getSolution(k);
+            timings.readNanos += System.nanoTime() - start;
+            if (!Solution.calculateProgress(solution, topology).isSolved()) {
+                return "solution " + k + " is invalid";
+            }
+
+            // Translate the solution, by an even number of columns so it works on the hex grid.
+            int[] packed = new int[pieceCount];
+            int offset = Pos.pack(2 * random.nextInt(10), random.nextInt(10));
+            for (int i = 0; i < pieceCount; ++i) {
+                packed[i] = topology.translate(solution.getPacked(i), origin, offset);
+            }
+            PiecePositionIndex positions = new PiecePositionIndex(PosList.fromPacked(packed, pieceCount));
+            start = System.nanoTime();
+            boolean found = catalog.contains(positions);
+            timings.hitNanos += System.nanoTime() - start;
+            if (!found || catalog.indexOf(positions) != k) {
+                return "translated solution " + k + " not found";
+            }
+
+            int i = random.nextInt(pieceCount), j = random.nextInt(pieceCount);
+            int swap = packed[i];
+            packed[i] = packed[j];
+            packed[j] = swap;
+            start = System.nanoTime();
+            if (catalog.indexOfPacked(packed) < 0) {
+                ++timings.misses;
+            }
+            timings.missNanos += System.nanoTime() - start;
+        }
+        return null;
+    }
+}
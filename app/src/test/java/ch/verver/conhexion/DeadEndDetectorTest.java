@@ -0,0 +1,234 @@
+package ch.verver.conhexion;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that {@link DeadEndDetector} never reports a contradiction for part of a real solution,
+ * and that it reports each kind of contradiction, with the right pieces, on small rect boards.
+ *
+ * <p>The boards are written as grids of piece types (see {@link RectDirection}): a bitmask of the
+ * sides with paths, where 1 = up, 2 = right, 4 = down and 8 = left. Pieces that aren't on the
+ * grid are scattered far away, so they are free.
+ */
+public class DeadEndDetectorTest {
+
+    private static final AtomicLong BOARD_VERSION = new AtomicLong();
+
+    //         x = 0   1   2   3   4
+    //   y = 0     6  14   2  12   4
+    //       1     7   X  10   Y  13
+    //       2     3  11   1   9   8
+    //
+    // X and Y are demanded from all four sides, so both need piece type 15, which is free.
+    private static final int[] TWO_CELLS_NEED_ONE_PIECE = {
+            0, 0, 6,   1, 0, 14,   2, 0, 2,   3, 0, 12,   4, 0, 4,
+            0, 1, 7,               2, 1, 10,              4, 1, 13,
+            0, 2, 3,   1, 2, 11,   2, 2, 1,   3, 2, 9,    4, 2, 8,
+    };
+
+    @Test
+    public void solutionSubsetsHaveNoContradictions() {
+        ArrayList<int[]> rectSolutions = new ArrayList<>();
+        new BacktrackingSolver(RectPuzzle.TOPOLOGY).search(packedPositions -> {
+            rectSolutions.add(packedPositions.clone());
+            return true;
+        });
+        checkSolutionSubsets(RectPuzzle.TOPOLOGY, rectSolutions, 500);
+
+        ArrayList<int[]> hexSolutions = new ArrayList<>();
+        new BacktrackingSolver(HexPuzzle.TOPOLOGY).search(packedPositions -> {
+            hexSolutions.add(packedPositions.clone());
+            return hexSolutions.size() < 20;
+        });
+        checkSolutionSubsets(HexPuzzle.TOPOLOGY, hexSolutions, 20);
+    }
+
+    // Starts with all pieces scattered, and moves them to their places in a random solution one at
+    // a time, in random order. Every intermediate board is part of the solution, so the detector
+    // must not report anything. The detector is reused, so that later boards are checked
+    // incrementally and with cached hole searches.
+    private static void checkSolutionSubsets(
+            GridTopology<?> topology, List<int[]> solutions, int trials) {
+        int pieceCount = topology.getPieceCount();
+        DeadEndDetector detector = new DeadEndDetector(topology);
+        Random random = new Random(1);
+        ArrayList<Integer> order = new ArrayList<>();
+        for (int i = 0; i < pieceCount; ++i) {
+            order.add(i);
+        }
+        int[] index = new int[1];
+        int[] packed = new int[1];
+        for (int trial = 0; trial < trials; ++trial) {
+            int[] solution = solutions.get(random.nextInt(solutions.size()));
+            PosList positions = PosList.fromPacked(scatteredPacked(pieceCount), pieceCount);
+            Collections.shuffle(order, random);
+            for (int i : order) {
+                index[0] = i;
+                packed[0] = solution[i];
+                positions = positions.withChanges(index, packed, 1);
+                List<DeadEndDetector.Contradiction> result =
+                        detector.check(positions, BOARD_VERSION, BOARD_VERSION.get());
+                assertNotNull(result);
+                if (!result.isEmpty()) {
+                    DeadEndDetector.Contradiction contradiction = result.get(0);
+                    throw new AssertionError(contradiction.kind + " at "
+                            + Pos.unpack(contradiction.packedPos) + " in " + positions);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void blockedCell() {
+        // Replacing type 13 with 5 blocks Y: the piece to its right has no path towards it.
+        int[] board = TWO_CELLS_NEED_ONE_PIECE.clone();
+        board[3 * 7 + 2] = 5;
+        List<DeadEndDetector.Contradiction> result = check(board);
+        assertEquals(1, result.size());
+        assertContradiction(result.get(0), DeadEndDetector.Contradiction.Kind.BLOCKED_CELL,
+                3, 1, 12, 10, 9, 5);
+    }
+
+    @Test
+    public void unfillableCells() {
+        // Replacing type 10 with 15 leaves no free piece that fits X or Y.
+        int[] board = TWO_CELLS_NEED_ONE_PIECE.clone();
+        board[3 * 6 + 2] = 15;
+        List<DeadEndDetector.Contradiction> result = check(board);
+        assertEquals(2, result.size());
+        assertContradiction(result.get(0), DeadEndDetector.Contradiction.Kind.UNFILLABLE_CELL,
+                1, 1, 14, 7, 15, 11);
+        assertContradiction(result.get(1), DeadEndDetector.Contradiction.Kind.UNFILLABLE_CELL,
+                3, 1, 12, 15, 13, 9);
+    }
+
+    @Test
+    public void tooFewPieces() {
+        // Adding type 5 above the board demands a third cell, at (2, -2), but type 15 is the only
+        // free piece left.
+        int[] board = Arrays.copyOf(TWO_CELLS_NEED_ONE_PIECE, TWO_CELLS_NEED_ONE_PIECE.length + 3);
+        board[board.length - 3] = 2;
+        board[board.length - 2] = -1;
+        board[board.length - 1] = 5;
+        List<DeadEndDetector.Contradiction> result = check(board);
+        DeadEndDetector.Contradiction.Kind kind = DeadEndDetector.Contradiction.Kind.TOO_FEW_PIECES;
+        assertContradiction(findContradiction(result, kind), kind,
+                2, -2, 5, 14, 7, 10, 11, 12, 9, 13);
+    }
+
+    @Test
+    public void inconsistentCells() {
+        // X and Y each fit type 15 on their own, but not both at once. The contradiction is
+        // reported for Y, because of the pieces around both cells.
+        List<DeadEndDetector.Contradiction> result = check(TWO_CELLS_NEED_ONE_PIECE);
+        assertEquals(1, result.size());
+        assertContradiction(result.get(0), DeadEndDetector.Contradiction.Kind.INCONSISTENT_CELLS,
+                3, 1, 14, 7, 10, 11, 12, 9, 13);
+    }
+
+    //         x = 0   1   2   3
+    //   y =-1         4
+    //       0     2  15  14  12
+    //       1     6   X   Y   8
+    //       2     3  11   9   1
+    //
+    // X only fits type 13 and Y only fits type 7, which are both free and pass propagation, but
+    // neither has a path towards the other, so the hole can't be filled.
+    private static final int[] ILLEGAL_HOLE = {
+                       1, -1, 4,
+            0, 0, 2,   1, 0, 15,   2, 0, 14,   3, 0, 12,
+            0, 1, 6,                           3, 1, 8,
+            0, 2, 3,   1, 2, 11,   2, 2, 9,    3, 2, 1,
+    };
+
+    @Test
+    public void illegalHole() {
+        List<DeadEndDetector.Contradiction> result = check(ILLEGAL_HOLE);
+        assertEquals(1, result.size());
+        DeadEndDetector.Contradiction contradiction = result.get(0);
+        // The contradiction is reported at either cell of the hole.
+        int x = Pos.unpackX(contradiction.packedPos) == 1 ? 1 : 2;
+        assertContradiction(contradiction, DeadEndDetector.Contradiction.Kind.ILLEGAL_HOLE,
+                x, 1, 15, 6, 11, 14, 8, 9);
+    }
+
+    @Test
+    public void outdatedChecksReturnNull() {
+        PosList positions = rectBoard(ILLEGAL_HOLE);
+        DeadEndDetector detector = new DeadEndDetector(RectPuzzle.TOPOLOGY);
+        assertNull(detector.check(positions, new AtomicLong(1), 0));
+
+        // Once the board version moves on, checks for the old version are abandoned too.
+        AtomicLong boardVersion = new AtomicLong(0);
+        assertNotNull(detector.check(rectBoard(TWO_CELLS_NEED_ONE_PIECE), boardVersion, 0));
+        boardVersion.set(1);
+        assertNull(detector.check(positions, boardVersion, 0));
+
+        // Abandoned checks aren't cached, so a current check still finds the contradiction.
+        List<DeadEndDetector.Contradiction> result = detector.check(positions, boardVersion, 1);
+        assertNotNull(result);
+        assertEquals(1, result.size());
+        assertEquals(DeadEndDetector.Contradiction.Kind.ILLEGAL_HOLE, result.get(0).kind);
+    }
+
+    private static List<DeadEndDetector.Contradiction> check(int[] board) {
+        DeadEndDetector detector = new DeadEndDetector(RectPuzzle.TOPOLOGY);
+        List<DeadEndDetector.Contradiction> result =
+                detector.check(rectBoard(board), BOARD_VERSION, BOARD_VERSION.get());
+        assertNotNull(result);
+        return result;
+    }
+
+    private static DeadEndDetector.Contradiction findContradiction(
+            List<DeadEndDetector.Contradiction> contradictions,
+            DeadEndDetector.Contradiction.Kind kind) {
+        for (DeadEndDetector.Contradiction contradiction : contradictions) {
+            if (contradiction.kind == kind) {
+                return contradiction;
+            }
+        }
+        throw new AssertionError("no " + kind + " in " + contradictions.size() + " contradictions");
+    }
+
+    private static void assertContradiction(DeadEndDetector.Contradiction contradiction,
+            DeadEndDetector.Contradiction.Kind kind, int x, int y, int... pieceTypes) {
+        assertEquals(kind, contradiction.kind);
+        assertEquals(new Pos(x, y), Pos.unpack(contradiction.packedPos));
+        PieceSet expected = new PieceSet();
+        for (int type : pieceTypes) {
+            expected.add(type - 1);
+        }
+        assertEquals(expected, contradiction.pieces);
+    }
+
+    // Returns rect puzzle positions with a piece of type t at (x, y), for each triple (x, y, t) in
+    // `board`. The other pieces are scattered.
+    private static PosList rectBoard(int[] board) {
+        int pieceCount = RectPuzzle.TOPOLOGY.getPieceCount();
+        int[] packed = scatteredPacked(pieceCount);
+        for (int k = 0; k < board.length; k += 3) {
+            packed[board[k + 2] - 1] = Pos.pack(board[k], board[k + 1]);
+        }
+        return PosList.fromPacked(packed, pieceCount);
+    }
+
+    // Returns positions far from the origin where no two pieces touch, in either topology.
+    private static int[] scatteredPacked(int pieceCount) {
+        int[] packed = new int[pieceCount];
+        for (int i = 0; i < pieceCount; ++i) {
+            packed[i] = Pos.pack(100 + 3 * i, 100);
+        }
+        return packed;
+    }
+}
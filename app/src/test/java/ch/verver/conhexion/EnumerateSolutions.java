@@ -0,0 +1,93 @@
+package ch.verver.conhexion;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs a {@link SolutionEnumerator} on the host JVM:
+ *
+ * <pre>
+ *   java -cp ... ch.verver.conhexion.EnumerateSolutions rect|hex output [threads [split depth]]
+ * </pre>
+ *
+ * <p>Solutions are written to {@code output}, and the checkpoint to {@code output.checkpoint}.
+ * Running the same command again resumes from the checkpoint; the split depth must be the same.
+ * Progress is printed every {@link #PROGRESS_INTERVAL_MILLIS} milliseconds. Interrupting the
+ * program (e.g. with Ctrl-C) cancels the run and writes a final checkpoint before exiting.
+ */
+public class EnumerateSolutions {
+
+    private static final long PROGRESS_INTERVAL_MILLIS = 10_000;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2 || args.length > 4) {
+            System.err.println("usage: EnumerateSolutions rect|hex output [threads [split depth]]");
+            System.exit(1);
+        }
+        GridTopology<?> topology = getTopology(args[0]);
+        File outputFile = new File(args[1]);
+        File checkpointFile = new File(args[1] + ".checkpoint");
+        int threads = args.length > 2
+                ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int splitDepth = args.length > 3
+                ? Integer.parseInt(args[3]) : SolutionEnumerator.DEFAULT_SPLIT_DEPTH;
+
+        SolutionEnumerator enumerator =
+                new SolutionEnumerator(topology, outputFile, checkpointFile, splitDepth);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        CountDownLatch done = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (done.getCount() > 0) {
+                System.err.println("cancelling; waiting for the checkpoint to be written");
+                enumerator.cancel();
+                try {
+                    done.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }));
+
+        long start = System.currentTimeMillis();
+        Timer timer = new Timer(true);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                printProgress(enumerator, start);
+            }
+        }, PROGRESS_INTERVAL_MILLIS, PROGRESS_INTERVAL_MILLIS);
+        try {
+            long solutions = enumerator.run(pool);
+            timer.cancel();
+            printProgress(enumerator, start);
+            System.err.printf("%s %d solutions%n",
+                    enumerator.getFinishedJobCount() == enumerator.getJobCount() ? "done:" : "stopped:",
+                    solutions);
+        } finally {
+            pool.shutdown();
+            done.countDown();
+        }
+    }
+
+    static GridTopology<?> getTopology(String puzzle) {
+        switch (puzzle) {
+            case "rect":
+                return RectPuzzle.TOPOLOGY;
+            case "hex":
+                return HexPuzzle.TOPOLOGY;
+            default:
+                throw new IllegalArgumentException("unknown puzzle: " + puzzle);
+        }
+    }
+
+    private static void printProgress(SolutionEnumerator enumerator, long startMillis) {
+        System.err.printf("%.0f s: %d of %d jobs generated so far finished, %d solutions%n",
+                (System.currentTimeMillis() - startMillis) / 1e3,
+                enumerator.getFinishedJobCount(), enumerator.getJobCount(),
+                enumerator.getSolutionCount());
+    }
+}
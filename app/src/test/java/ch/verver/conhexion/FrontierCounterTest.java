@@ -0,0 +1,112 @@
+package ch.verver.conhexion;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrontierCounterTest {
+
+    // The number of rect puzzle solutions up to translation, as found by BacktrackingSolver.
+    private static final long RECT_SOLUTION_COUNT = 4804;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Single-group counts of a window are the translations of the solutions that fit, which
+    // SolverTest checks against DancingLinks and BacktrackingSolver.
+    @Test
+    public void rectSingleGroupCountsInWindows() throws IOException {
+        assertEquals(192, new FrontierCounter(RectPuzzle.TOPOLOGY, 5, 5).count(true, false));
+        assertEquals(1220, new FrontierCounter(RectPuzzle.TOPOLOGY, 6, 5).count(true, false));
+        assertEquals(5148, new FrontierCounter(RectPuzzle.TOPOLOGY, 6, 6).count(true, false));
+    }
+
+    // Without the single-group requirement, the count is the number of exact covers of the window.
+    @Test
+    public void rectCountsMatchExactCovers() throws IOException {
+        for (int[] window : new int[][] {{5, 5}, {6, 5}, {6, 6}}) {
+            ExactCoverEncoder encoder = ExactCoverEncoder.forRectPuzzle(window[0], window[1]);
+            long[] covers = {0};
+            encoder.getLinks().search((rows, count) -> {
+                ++covers[0];
+                return true;
+            });
+            assertEquals(covers[0],
+                    new FrontierCounter(RectPuzzle.TOPOLOGY, window[0], window[1]).count(false, false));
+        }
+    }
+
+    // Anchored counts are the solutions up to translation that fit in the window. All rect
+    // solutions fit in 7x7.
+    @Test
+    public void rectAnchoredCountsMatchBacktracking() throws IOException {
+        assertEquals(countSolutionsThatFit(6), new FrontierCounter(RectPuzzle.TOPOLOGY, 6, 6).count(true, true));
+        assertEquals(RECT_SOLUTION_COUNT, countSolutionsThatFit(7));
+        assertEquals(RECT_SOLUTION_COUNT, new FrontierCounter(RectPuzzle.TOPOLOGY, 7, 7).count(true, true));
+    }
+
+    // A window as large as the board, with tables that spill to files almost immediately.
+    @Test
+    public void spilledTablesGiveTheSameCount() throws IOException {
+        FrontierCounter counter = new FrontierCounter(RectPuzzle.TOPOLOGY, 15, 15);
+        counter.setSpill(1 << 16, folder.getRoot());
+        assertEquals(RECT_SOLUTION_COUNT, counter.count(true, true));
+    }
+
+    @Test
+    public void stateTableSpillsAndKeepsCounts() throws IOException {
+        try (FrontierStateTable table = new FrontierStateTable(1 << 12, folder.getRoot())) {
+            for (long k = 0; k < 10_000; ++k) {
+                table.add(k, k * 31, -k, 1);
+                table.add(k, k * 31, -k, k);
+            }
+            assertTrue(table.isSpilled());
+            assertEquals(10_000, table.size());
+            long total = 0;
+            for (long slot = 0; slot < table.getCapacity(); ++slot) {
+                long count = table.getCount(slot);
+                if (count != 0) {
+                    assertEquals(table.getState(slot, 0) + 1, count);
+                    assertEquals(table.getState(slot, 0) * 31, table.getState(slot, 1));
+                    total += count;
+                }
+            }
+            assertEquals(10_000L * 10_001 / 2, total);
+        }
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void countOverflowIsDetected() {
+        FrontierStateTable.addCounts(Long.MAX_VALUE - 1, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooTallHexWindowIsRejected() throws IOException {
+        new FrontierCounter(HexPuzzle.TOPOLOGY, 4, 17).count(true, false);
+    }
+
+    // Returns the number of rect puzzle solutions up to translation that fit in a size x size window.
+    private static long countSolutionsThatFit(int size) {
+        long[] count = {0};
+        new BacktrackingSolver(RectPuzzle.TOPOLOGY).search(packedPositions -> {
+            int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE;
+            int right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+            for (int pos : packedPositions) {
+                left = Math.min(left, Pos.unpackX(pos));
+                top = Math.min(top, Pos.unpackY(pos));
+                right = Math.max(right, Pos.unpackX(pos) + 1);
+                bottom = Math.max(bottom, Pos.unpackY(pos) + 1);
+            }
+            if (right - left <= size && bottom - top <= size) {
+                ++count[0];
+            }
+            return true;
+        });
+        return count[0];
+    }
+}
@@ -0,0 +1,97 @@
+package ch.verver.conhexion;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class GroupTintsTest {
+
+    @Test
+    public void tintsOnlyGroupsOfSeveralPiecesDistinctly() {
+        checkRandomBoards(RectPuzzle.TOPOLOGY, RectPuzzle.getRandomPiecePositions());
+        checkRandomBoards(HexPuzzle.TOPOLOGY, HexPuzzle.getRandomPiecePositions());
+    }
+
+    @Test
+    public void disabledOrSingleGroupIsNotTinted() {
+        PiecePositionIndex positions = new PiecePositionIndex(RectPuzzle.getRandomPiecePositions());
+        ConnectivityTracker connectivity = new ConnectivityTracker(RectPuzzle.TOPOLOGY, positions);
+        GroupTints tints = new GroupTints(RectPuzzle.TOPOLOGY, positions, connectivity);
+        tints.update();
+        for (int i = 0; i < positions.size(); ++i) {
+            assertEquals(GroupTints.NONE, tints.getTint(i));
+        }
+
+        // A solved puzzle has one group, which isn't tinted either.
+        positions.assign(new BacktrackingSolver(RectPuzzle.TOPOLOGY).solve());
+        connectivity.reset();
+        tints.setEnabled(true);
+        assertEquals(1, connectivity.getGroupCount());
+        for (int i = 0; i < positions.size(); ++i) {
+            assertEquals(GroupTints.NONE, tints.getTint(i));
+        }
+    }
+
+    @Test
+    public void unaffectedGroupsKeepTheirTint() {
+        PiecePositionIndex positions = new PiecePositionIndex(RectPuzzle.getRandomPiecePositions());
+        ConnectivityTracker connectivity = new ConnectivityTracker(RectPuzzle.TOPOLOGY, positions);
+        GroupTints tints = new GroupTints(RectPuzzle.TOPOLOGY, positions, connectivity);
+        tints.setEnabled(true);
+        int moved = 0;
+        int[] before = new int[positions.size()];
+        boolean[] affected = new boolean[positions.size()];
+        for (int i = 0; i < before.length; ++i) {
+            before[i] = tints.getTint(i);
+            affected[i] = connectivity.getGroup(i) == connectivity.getGroup(moved);
+        }
+        // Moving a piece far away from the board only affects its own group.
+        int src = positions.getPacked(moved);
+        int dst = Pos.pack(100, 100);
+        positions.moveOrSwapPacked(moved, dst);
+        connectivity.update(src, dst);
+        tints.update();
+        for (int i = 0; i < before.length; ++i) {
+            if (!affected[i] && connectivity.getGroupCount() > 1) {
+                assertEquals(before[i], tints.getTint(i));
+            }
+        }
+    }
+
+    private static void checkRandomBoards(GridTopology<?> topology, List<Pos> startPositions) {
+        Random random = new Random(1);
+        for (int round = 0; round < 50; ++round) {
+            Collections.shuffle(startPositions, random);
+            PiecePositionIndex positions = new PiecePositionIndex(startPositions);
+            ConnectivityTracker connectivity = new ConnectivityTracker(topology, positions);
+            GroupTints tints = new GroupTints(topology, positions, connectivity);
+            tints.setEnabled(true);
+            int n = positions.size();
+            int[] groupSizes = new int[n];
+            for (int i = 0; i < n; ++i) {
+                ++groupSizes[connectivity.getGroup(i)];
+            }
+            for (int i = 0; i < n; ++i) {
+                int g = connectivity.getGroup(i);
+                assertEquals(groupSizes[g] > 1, tints.getTint(i) != GroupTints.NONE);
+                for (int j = 0; j < n; ++j) {
+                    if (connectivity.getGroup(j) == g) {
+                        assertEquals(tints.getTint(i), tints.getTint(j));
+                    }
+                }
+                int pos = positions.getPacked(i);
+                for (int d = 0; d < topology.getDirectionCount(); ++d) {
+                    int j = positions.indexOfPacked(topology.step(pos, d));
+                    if (j >= 0 && connectivity.getGroup(j) != g && tints.getTint(i) != GroupTints.NONE) {
+                        assertNotEquals(tints.getTint(i), tints.getTint(j));
+                    }
+                }
+            }
+        }
+    }
+}
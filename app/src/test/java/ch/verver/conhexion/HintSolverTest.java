@@ -0,0 +1,122 @@
+package ch.verver.conhexion;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pins random subsets of known solutions, and checks that {@link HintSolver} completes them to a
+ * solution that keeps the pinned pieces in place. Also checks that a long search can be cancelled
+ * from another thread.
+ */
+public class HintSolverTest {
+
+    @Test
+    public void completesRectSolutionSubsets() {
+        ArrayList<int[]> solutions = new ArrayList<>();
+        new BacktrackingSolver(RectPuzzle.TOPOLOGY).search(packedPositions -> {
+            solutions.add(packedPositions.clone());
+            return true;
+        });
+        Random random = new Random(1);
+        for (int trial = 0; trial < 200; ++trial) {
+            int[] solution = solutions.get(random.nextInt(solutions.size()));
+            // Any translation is allowed, including to odd columns.
+            int dx = random.nextInt(21) - 10, dy = random.nextInt(21) - 10;
+            checkCompletion(RectPuzzle.TOPOLOGY, translate(solution, dx, dy),
+                    randomSubset(solution.length, random.nextDouble(), random));
+        }
+    }
+
+    @Test
+    public void completesHexSolutionSubsets() {
+        ArrayList<int[]> solutions = new ArrayList<>();
+        new BacktrackingSolver(HexPuzzle.TOPOLOGY).search(packedPositions -> {
+            solutions.add(packedPositions.clone());
+            return solutions.size() < 10;
+        });
+        Random random = new Random(1);
+        for (int trial = 0; trial < 20; ++trial) {
+            int[] solution = solutions.get(random.nextInt(solutions.size()));
+            // Translations of the hex grid must preserve the parity of the column.
+            int dx = 2 * (random.nextInt(11) - 5), dy = random.nextInt(11) - 5;
+            // Small, scattered pin sets can take minutes to complete (the app limits the search
+            // time instead), so pin at least half of the pieces.
+            checkCompletion(HexPuzzle.TOPOLOGY, translate(solution, dx, dy),
+                    randomSubset(solution.length, 0.5 + 0.5 * random.nextDouble(), random));
+        }
+    }
+
+    @Test
+    public void cancelStopsTheSearch() throws InterruptedException {
+        // Three scattered pieces of the hex solution leave a huge search space.
+        int[][] solution = new int[1][];
+        new BacktrackingSolver(HexPuzzle.TOPOLOGY).search(packedPositions -> {
+            solution[0] = packedPositions.clone();
+            return false;
+        });
+        PieceSet pinned = new PieceSet();
+        pinned.add(0);
+        pinned.add(solution[0].length / 2);
+        pinned.add(solution[0].length - 2);
+        HintSolver solver = new HintSolver(HexPuzzle.TOPOLOGY);
+        PiecePositionIndex positions =
+                new PiecePositionIndex(PosList.fromPacked(solution[0], solution[0].length));
+        AtomicReference<PosList> result = new AtomicReference<>();
+        Thread thread = new Thread(() -> result.set(solver.solve(positions, pinned)));
+        thread.start();
+        thread.join(200);
+        assertTrue("search finished before it was cancelled", thread.isAlive());
+
+        solver.cancel();
+        thread.join(1000);
+        assertFalse("search didn't stop within a second", thread.isAlive());
+        assertNull(result.get());
+        assertTrue(solver.isStopped());
+    }
+
+    // Pins the given pieces of `solution`, moves the others away, and checks the completion.
+    private static void checkCompletion(GridTopology<?> topology, int[] solution, PieceSet pinned) {
+        int pieceCount = solution.length;
+        int[] packed = solution.clone();
+        for (int i = 0; i < pieceCount; ++i) {
+            if (!pinned.contains(i)) {
+                packed[i] = Pos.pack(100 + 3 * i, 100);
+            }
+        }
+        PosList result = new HintSolver(topology)
+                .solve(new PiecePositionIndex(PosList.fromPacked(packed, pieceCount)), pinned);
+        assertNotNull("no completion for " + pinned, result);
+        assertTrue(Solution.calculateProgress(result, topology).isSolved());
+        for (int i = pinned.first(); i >= 0; i = pinned.next(i + 1)) {
+            assertEquals("piece " + i, solution[i], result.getPacked(i));
+        }
+    }
+
+    private static int[] translate(int[] packedPositions, int dx, int dy) {
+        int[] result = new int[packedPositions.length];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = Pos.pack(Pos.unpackX(packedPositions[i]) + dx,
+                    Pos.unpackY(packedPositions[i]) + dy);
+        }
+        return result;
+    }
+
+    private static PieceSet randomSubset(int pieceCount, double probability, Random random) {
+        PieceSet result = new PieceSet();
+        for (int i = 0; i < pieceCount; ++i) {
+            if (random.nextDouble() < probability) {
+                result.add(i);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,296 @@
+package ch.verver.conhexion;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the incrementally maintained state of {@link ProgressTracker},
+ * {@link ConnectivityTracker}, {@link HoleTracker} and {@link OverlapErrorSet} matches a
+ * recalculation from scratch, after every step of a random sequence of single moves and swaps,
+ * derived position lists and batch moves. Also checks that {@link ProgressTracker.Listener}s are
+ * notified once per step, with exactly the pieces whose counts changed, and that the incrementally
+ * updated Zobrist hashes of {@link PiecePositionIndex} and {@link CopyOnWritePiecePositionIndex}
+ * match {@link Zobrist#hash}.
+ */
+public class IncrementalTrackersTest {
+
+    private static final int STEP_COUNT = 3000;
+
+    @Test
+    public void rectPuzzle() {
+        checkRandomMoves(RectPuzzle.TOPOLOGY, RectPuzzle.getRandomPiecePositions(), 1);
+    }
+
+    @Test
+    public void hexPuzzle() {
+        checkRandomMoves(HexPuzzle.TOPOLOGY, HexPuzzle.getRandomPiecePositions(), 2);
+    }
+
+    // Applies random moves within (and just around) the area of the initial positions, which keeps
+    // the board dense enough to have groups, holes and overlaps. Batch moves are translations by a
+    // multiple of xStep, which must be 2 for the hex grid, where odd columns are shifted.
+    private static void checkRandomMoves(GridTopology<?> topology, List<Pos> startPositions, int xStep) {
+        Random random = new Random(1);
+        // The puzzles shuffle their start positions; reshuffle them with a fixed seed instead, so
+        // that the test is deterministic.
+        Collections.sort(startPositions, (a, b) -> Integer.compare(a.pack(), b.pack()));
+        Collections.shuffle(startPositions, random);
+        PosList initialPositions = PosList.copyOf(startPositions);
+        int n = initialPositions.size();
+        int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+        for (int i = 0; i < n; ++i) {
+            left = Math.min(left, initialPositions.getX(i) - 1);
+            top = Math.min(top, initialPositions.getY(i) - 1);
+            right = Math.max(right, initialPositions.getX(i) + 2);
+            bottom = Math.max(bottom, initialPositions.getY(i) + 2);
+        }
+        int width = right - left, height = bottom - top;
+
+        ProgressTracker tracker = new ProgressTracker(topology);
+        tracker.assign(initialPositions);
+        ReadonlyPiecePositionIndex positions = tracker.getPiecePositions();
+        HoleTracker holes = new HoleTracker(topology, positions);
+        OverlapErrorSet<?> errors = newOverlapErrorSet(topology, positions);
+        errors.setEnabled(true);
+        PieceSet draggedPieces = new PieceSet();
+        MoveBatch batch = new MoveBatch();
+        // A copy of the tracker's positions that is updated with PiecePositionIndex.moveAll, which
+        // the tracker doesn't use.
+        PiecePositionIndex directPositions = new PiecePositionIndex(initialPositions);
+
+        PieceSet reportedPieces = new PieceSet();
+        int[] notificationCount = {0};
+        tracker.addListener((notifyingTracker, changedPieces) -> {
+            assertSame(tracker, notifyingTracker);
+            ++notificationCount[0];
+            reportedPieces.addAll(changedPieces);
+        });
+        int[] oldDisconnections = new int[n];
+        int[] oldOverlaps = new int[n];
+        int notifiedStepCount = 0;
+
+        for (int step = 0; step < STEP_COUNT; ++step) {
+            PosList oldPositions = positions.toPosList();
+            for (int i = 0; i < n; ++i) {
+                oldDisconnections[i] = tracker.getDisconnectionCount(i);
+                oldOverlaps[i] = tracker.getOverlapCount(i);
+            }
+            reportedPieces.clear();
+            notificationCount[0] = 0;
+            switch (random.nextInt(4)) {
+                case 0: {
+                    // Single move or swap.
+                    int i = random.nextInt(n);
+                    int src = positions.getPacked(i);
+                    Pos dst = new Pos(left + random.nextInt(width), top + random.nextInt(height));
+                    tracker.moveOrSwap(i, dst);
+                    holes.update(src, dst.pack());
+                    directPositions.moveOrSwapPacked(i, dst.pack());
+                    break;
+                }
+                case 1: {
+                    // Derived list: some pieces move to empty cells or each other's cells.
+                    int count = 1 + random.nextInt(4);
+                    int[] indices = new int[count];
+                    int[] targets = new int[count];
+                    ArrayList<Integer> pool = new ArrayList<>();
+                    for (int k = 0; k < count; ++k) {
+                        int i;
+                        do {
+                            i = random.nextInt(n);
+                        } while (contains(indices, k, i));
+                        indices[k] = i;
+                        pool.add(oldPositions.getPacked(i));
+                    }
+                    for (int k = 0; k < count; ++k) {
+                        int pos = Pos.pack(left + random.nextInt(width), top + random.nextInt(height));
+                        if (positions.indexOfPacked(pos) < 0 && !pool.contains(pos)) {
+                            pool.add(pos);
+                        }
+                    }
+                    Collections.shuffle(pool, random);
+                    for (int k = 0; k < count; ++k) {
+                        targets[k] = pool.get(k);
+                    }
+                    tracker.assign(oldPositions.withChanges(indices, targets, count));
+                    holes.update(oldPositions, positions.toPosList());
+                    directPositions.assign(positions.toPosList());
+                    break;
+                }
+                case 2: {
+                    // Batch move: translate some pieces, displacing others.
+                    int dx = xStep * (random.nextInt(3) - 1), dy = random.nextInt(3) - 1;
+                    batch.clear();
+                    for (int i = 0; i < n; ++i) {
+                        if (random.nextInt(4) == 0) {
+                            int pos = oldPositions.getPacked(i);
+                            batch.add(i, Pos.pack(Pos.unpackX(pos) + dx, Pos.unpackY(pos) + dy));
+                        }
+                    }
+                    tracker.moveAll(batch);
+                    holes.update(oldPositions, positions.toPosList());
+
+                    // Apply the batch to a copy on write as well, followed by a few single moves,
+                    // which may move the same pieces again.
+                    CopyOnWritePiecePositionIndex copy =
+                            new CopyOnWritePiecePositionIndex(directPositions);
+                    copy.moveAll(batch);
+                    for (int k = random.nextInt(3); k > 0; --k) {
+                        int pos = Pos.pack(left + random.nextInt(width), top + random.nextInt(height));
+                        copy.moveOrSwapPacked(random.nextInt(n), pos);
+                    }
+                    assertEquals("step " + step,
+                            Zobrist.hash(copy.toPosList()), copy.getZobristHash());
+                    directPositions.moveAll(batch);
+                    break;
+                }
+                default: {
+                    // Start or stop dragging some pieces.
+                    draggedPieces.clear();
+                    for (int k = random.nextInt(3); k > 0; --k) {
+                        draggedPieces.add(random.nextInt(n));
+                    }
+                    errors.setDraggedPieces(draggedPieces);
+                    break;
+                }
+            }
+            errors.update(oldPositions, positions.toPosList());
+            assertMatchesRecalculation(topology, tracker, holes, errors, draggedPieces, "step " + step);
+            assertHashesMatch(topology, positions, directPositions, random, "step " + step);
+
+            PieceSet expectedPieces = new PieceSet();
+            for (int i = 0; i < n; ++i) {
+                if (tracker.getDisconnectionCount(i) != oldDisconnections[i]
+                        || tracker.getOverlapCount(i) != oldOverlaps[i]) {
+                    expectedPieces.add(i);
+                }
+            }
+            assertEquals("step " + step, expectedPieces.isEmpty() ? 0 : 1, notificationCount[0]);
+            assertEquals("step " + step, describePieces(expectedPieces), describePieces(reportedPieces));
+            notifiedStepCount += notificationCount[0];
+        }
+        assertTrue("no listener notifications", notifiedStepCount > 0);
+    }
+
+    private static void assertMatchesRecalculation(GridTopology<?> topology, ProgressTracker tracker,
+            HoleTracker holes, OverlapErrorSet<?> errors, PieceSet draggedPieces, String message) {
+        PosList positions = tracker.getPiecePositions().toPosList();
+        PiecePositionIndex index = new PiecePositionIndex(PosList.copyOf(positions.toArrayList()));
+        int n = index.size();
+
+        // Progress and per-piece counts.
+        Solution.Progress expectedProgress = Solution.calculateProgress(index, topology);
+        Solution.Progress progress = tracker.getProgress();
+        assertEquals(message, expectedProgress.getGroupCount(), progress.getGroupCount());
+        assertEquals(message, expectedProgress.getDisconnectionCount(), progress.getDisconnectionCount());
+        assertEquals(message, expectedProgress.getOverlapCount(), progress.getOverlapCount());
+        ProgressTracker fresh = new ProgressTracker(topology);
+        fresh.assign(index.toPosList());
+        for (int i = 0; i < n; ++i) {
+            assertEquals(message, fresh.getDisconnectionCount(i), tracker.getDisconnectionCount(i));
+            assertEquals(message, fresh.getOverlapCount(i), tracker.getOverlapCount(i));
+        }
+
+        // Groups: the labels must induce the same partition as a labelling from scratch.
+        GroupFinder groupFinder = new GroupFinder(topology);
+        ConnectivityTracker connectivity = tracker.getConnectivity();
+        assertEquals(message, groupFinder.label(index), connectivity.getGroupCount());
+        for (int i = 0; i < n; ++i) {
+            for (int j = i + 1; j < n; ++j) {
+                assertEquals(message,
+                        groupFinder.getLabel(i) == groupFinder.getLabel(j),
+                        connectivity.getGroup(i) == connectivity.getGroup(j));
+            }
+        }
+
+        // Holes, as sets of cells.
+        HoleTracker freshHoles = new HoleTracker(topology, index);
+        assertEquals(message, freshHoles.getTotalHoleSize(), holes.getTotalHoleSize());
+        assertEquals(message, describeHoles(freshHoles), describeHoles(holes));
+
+        // Overlap errors.
+        OverlapErrorSet<?> freshErrors = newOverlapErrorSet(topology, index);
+        freshErrors.setDraggedPieces(draggedPieces);
+        freshErrors.setEnabled(true);
+        assertEquals(message, errorIds(freshErrors), errorIds(errors));
+    }
+
+    private static void assertHashesMatch(GridTopology<?> topology,
+            ReadonlyPiecePositionIndex positions, PiecePositionIndex directPositions, Random random,
+            String message) {
+        PosList posList = positions.toPosList();
+        assertEquals(message, posList, directPositions.toPosList());
+        assertEquals(message, Zobrist.hash(posList), positions.getZobristHash());
+        assertEquals(message, Zobrist.hash(posList), directPositions.getZobristHash());
+
+        // Translate everything by a random offset, which may be an odd number of columns on the
+        // hex grid.
+        int origin = Pos.pack(0, 0);
+        int offset = Pos.pack(random.nextInt(21) - 10, random.nextInt(21) - 10);
+        int n = posList.size();
+        int[] translated = new int[n];
+        for (int i = 0; i < n; ++i) {
+            translated[i] = topology.translate(posList.getPacked(i), origin, offset);
+        }
+        assertEquals(message,
+                Zobrist.translationInvariantHash(positions, topology),
+                Zobrist.translationInvariantHash(
+                        new PiecePositionIndex(PosList.fromPacked(translated, n)), topology));
+    }
+
+    // Checks all directions, so every error is found twice, once from each side.
+    private static <D extends Direction> OverlapErrorSet<D> newOverlapErrorSet(
+            GridTopology<D> topology, ReadonlyPiecePositionIndex positions) {
+        return new OverlapErrorSet<>(topology, topology.getDirections(), positions);
+    }
+
+    private static boolean contains(int[] array, int length, int value) {
+        for (int k = 0; k < length; ++k) {
+            if (array[k] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns the holes as a sorted list of sorted cell arrays, so they can be compared.
+    private static List<String> describeHoles(HoleTracker holes) {
+        ArrayList<String> result = new ArrayList<>();
+        for (int h = 0; h < holes.getHoleCount(); ++h) {
+            int[] cells = new int[holes.getHoleSize(h)];
+            for (int k = 0; k < cells.length; ++k) {
+                cells[k] = holes.getHoleCell(h, k);
+            }
+            Arrays.sort(cells);
+            result.add(Arrays.toString(cells));
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static List<Integer> describePieces(PieceSet pieces) {
+        ArrayList<Integer> result = new ArrayList<>();
+        for (int i = pieces.first(); i >= 0; i = pieces.next(i + 1)) {
+            result.add(i);
+        }
+        return result;
+    }
+
+    private static List<Integer> errorIds(OverlapErrorSet<?> errors) {
+        ArrayList<Integer> result = new ArrayList<>();
+        for (int e = errors.first(); e >= 0; e = errors.next(e + 1)) {
+            result.add(e);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,97 @@
+package ch.verver.conhexion;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times {@link NearestSolutionIndex} queries over a large catalog. Runs on the host JVM:
+ *
+ * <pre>
+ *   java -Xmx4g -cp ... ch.verver.conhexion.NearestSolutionBenchmark [solutions [queries]]
+ * </pre>
+ *
+ * <p>Enumerating millions of real hex solutions takes days, so the catalog is filled with random
+ * configurations of the hex pieces instead: each is a randomly grown connected region of cells,
+ * with the pieces assigned to its cells in random order. These aren't solutions, but the index
+ * only depends on piece positions, so queries touch as many entries and candidates as they would
+ * with real solutions. Queries are catalog entries with some pieces moved.
+ */
+public class NearestSolutionBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int solutionCount = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int queryCount = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        GridTopology<?> topology = HexPuzzle.TOPOLOGY;
+        int pieceCount = topology.getPieceCount();
+        Random random = new Random(1);
+
+        File catalogFile = File.createTempFile("benchmark", ".catalog");
+        catalogFile.deleteOnExit();
+        long start = System.nanoTime();
+        try (SolutionCatalogWriter writer = new SolutionCatalogWriter(topology, catalogFile, null)) {
+            int[] packed = new int[pieceCount];
+            for (int k = 0; k < solutionCount; ++k) {
+                randomConfiguration(topology, random, packed);
+                writer.add(packed);
+            }
+            writer.finish();
+        }
+        System.err.printf("wrote %d configurations in %.1f s%n", solutionCount, (System.nanoTime() - start) / 1e9);
+
+        SolutionCatalog catalog = new SolutionCatalog(catalogFile, topology);
+        start = System.nanoTime();
+        NearestSolutionIndex index = new NearestSolutionIndex(catalog, topology);
+        System.err.printf("built index in %.1f s%n", (System.nanoTime() - start) / 1e9);
+
+        for (int moved : new int[] {0, 2, 4, 7, 12}) {
+            long totalNanos = 0, maxNanos = 0;
+            int exact = 0;
+            for (int q = 0; q < queryCount; ++q) {
+                int[] packed = new int[pieceCount];
+                catalog.getSolution((long) random.nextInt(solutionCount), packed);
+                PiecePositionIndex positions = new PiecePositionIndex(PosList.fromPacked(packed, pieceCount));
+                for (int m = 0; m < moved; ++m) {
+                    positions.moveOrSwap(random.nextInt(pieceCount), new Pos(-2 - 2 * m, -2));
+                }
+                long queryStart = System.nanoTime();
+                List<NearestSolutionIndex.Match> matches = index.findNearest(positions, 5);
+                long nanos = System.nanoTime() - queryStart;
+                totalNanos += nanos;
+                maxNanos = Math.max(maxNanos, nanos);
+                if (!matches.isEmpty() && matches.get(0).exact) {
+                    ++exact;
+                }
+            }
+            System.err.printf("%2d pieces moved: %.2f ms average, %.2f ms max, %d of %d nearest exact%n",
+                    moved, totalNanos / 1e6 / queryCount, maxNanos / 1e6, exact, queryCount);
+        }
+    }
+
+    // Grows a random connected region of pieceCount cells, and assigns the pieces to it.
+    private static void randomConfiguration(GridTopology<?> topology, Random random, int[] packed) {
+        int pieceCount = packed.length;
+        int[] cells = new int[pieceCount];
+        cells[0] = Pos.pack(0, 0);
+        int size = 1;
+        OccupancyGrid occupied = new OccupancyGrid();
+        occupied.reset(-2 * pieceCount, -2 * pieceCount, 2 * pieceCount, 2 * pieceCount);
+        occupied.set(0, 0, 0);
+        while (size < pieceCount) {
+            int from = cells[random.nextInt(size)];
+            int to = topology.step(from, random.nextInt(topology.getDirectionCount()));
+            if (occupied.get(Pos.unpackX(to), Pos.unpackY(to)) == OccupancyGrid.EMPTY) {
+                occupied.set(Pos.unpackX(to), Pos.unpackY(to), size);
+                cells[size++] = to;
+            }
+        }
+        for (int i = pieceCount - 1; i > 0; --i) {
+            int j = random.nextInt(i + 1);
+            int swap = cells[i];
+            cells[i] = cells[j];
+            cells[j] = swap;
+        }
+        System.arraycopy(cells, 0, packed, 0, pieceCount);
+    }
+}
@@ -0,0 +1,86 @@
+package ch.verver.conhexion;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NearestSolutionIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void exactMatchesAgreeWithExhaustiveSearch() throws IOException {
+        SolutionCatalog catalog = buildRectCatalog();
+        GridTopology<?> topology = RectPuzzle.TOPOLOGY;
+        int pieceCount = topology.getPieceCount();
+        NearestSolutionIndex index = new NearestSolutionIndex(catalog, topology);
+        // With one block per piece, every solution shares a block with every query, so all
+        // solutions are candidates, and all results are exact.
+        NearestSolutionIndex exhaustive = new NearestSolutionIndex(catalog, topology, pieceCount);
+
+        Random random = new Random(1);
+        for (int query = 0; query < 200; ++query) {
+            int[] packed = new int[pieceCount];
+            catalog.getSolution((long) random.nextInt((int) catalog.getSolutionCount()), packed);
+            // Move a few random pieces to random cells near the solution.
+            PiecePositionIndex positions = new PiecePositionIndex(PosList.fromPacked(packed, pieceCount));
+            for (int moves = random.nextInt(pieceCount); moves > 0; --moves) {
+                positions.moveOrSwap(random.nextInt(pieceCount),
+                        new Pos(random.nextInt(8) - 2, random.nextInt(8) - 2));
+            }
+
+            List<NearestSolutionIndex.Match> expected = exhaustive.findNearest(positions, 5);
+            List<NearestSolutionIndex.Match> actual = index.findNearest(positions, 5);
+            for (int j = 0; j < expected.size(); ++j) {
+                NearestSolutionIndex.Match match = expected.get(j);
+                assertTrue(match.exact);
+                if (match.distance < index.getBlockCount()) {
+                    assertEquals(match.solution, actual.get(j).solution);
+                    assertEquals(match.distance, actual.get(j).distance);
+                }
+            }
+            for (int j = 0; j < actual.size(); ++j) {
+                NearestSolutionIndex.Match match = actual.get(j);
+                assertEquals(match.distance < index.getBlockCount(), match.exact);
+                assertEquals(match.distance, countMovedPieces(positions, match.target));
+                if (match.exact) {
+                    assertEquals(expected.get(j).solution, match.solution);
+                }
+            }
+        }
+    }
+
+    private static int countMovedPieces(ReadonlyPiecePositionIndex positions, PosList target) {
+        int count = 0;
+        for (int i = 0; i < positions.size(); ++i) {
+            if (positions.getPacked(i) != target.getPacked(i)) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    private SolutionCatalog buildRectCatalog() throws IOException {
+        File solutionsFile = new File(folder.getRoot(), "solutions.txt");
+        File catalogFile = new File(folder.getRoot(), "catalog");
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            new SolutionEnumerator(RectPuzzle.TOPOLOGY, solutionsFile,
+                    new File(folder.getRoot(), "solutions.checkpoint"), 4).run(pool);
+        } finally {
+            pool.shutdown();
+        }
+        BuildSolutionCatalog.build(RectPuzzle.TOPOLOGY, solutionsFile, catalogFile);
+        return new SolutionCatalog(catalogFile, RectPuzzle.TOPOLOGY);
+    }
+}
@@ -0,0 +1,184 @@
+package ch.verver.conhexion;
+
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * Times the per-move work of {@link PiecePositionIndex}, which is backed by an
+ * {@link OccupancyGrid}, against the {@code HashMap<Pos, Integer>} index it replaced. Runs on the
+ * host JVM:
+ *
+ * <pre>
+ *   java -cp ... ch.verver.conhexion.PiecePositionIndexBenchmark [seconds per measurement]
+ * </pre>
+ *
+ * <p>Each move moves (or swaps) a random piece of a solution to a random cell nearby, and then
+ * recalculates the progress from scratch with {@link Solution#calculateProgressSlowly}, which does
+ * several lookups by position per piece, like the app's trackers and views do.
+ */
+public class PiecePositionIndexBenchmark {
+
+    public static void main(String[] args) {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2.0;
+        benchmark("rect", RectPuzzle.TOPOLOGY, seconds);
+        benchmark("hex", HexPuzzle.TOPOLOGY, seconds);
+    }
+
+    private static void benchmark(String name, GridTopology<?> topology, double seconds) {
+        PosList solution = new BacktrackingSolver(topology).solve();
+        // Run both twice, so that the second measurements are taken with a warm JIT.
+        for (int round = 0; round < 2; ++round) {
+            PiecePositionIndex grid = new PiecePositionIndex(solution);
+            double gridRate = measure(topology, grid, grid::moveOrSwapPacked, seconds);
+            HashMapPiecePositionIndex hashMap = new HashMapPiecePositionIndex(solution);
+            double hashMapRate = measure(topology, hashMap, hashMap::moveOrSwapPacked, seconds);
+            if (round > 0) {
+                System.out.printf("%s: occupancy grid %.0f moves/s, hash map %.0f moves/s (%.1fx)%n",
+                        name, gridRate, hashMapRate, gridRate / hashMapRate);
+            }
+        }
+    }
+
+    private interface Mover {
+        void moveOrSwapPacked(int i, int dst);
+    }
+
+    // Returns the number of moves per second.
+    private static double measure(GridTopology<?> topology, ReadonlyPiecePositionIndex positions,
+            Mover mover, double seconds) {
+        int pieceCount = positions.size();
+        int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+        for (int i = 0; i < pieceCount; ++i) {
+            int pos = positions.getPacked(i);
+            left = Math.min(left, Pos.unpackX(pos) - 2);
+            top = Math.min(top, Pos.unpackY(pos) - 2);
+            right = Math.max(right, Pos.unpackX(pos) + 3);
+            bottom = Math.max(bottom, Pos.unpackY(pos) + 3);
+        }
+        Random random = new Random(1);
+        // Sum the results, so the JIT can't drop the work.
+        long sum = 0;
+        long start = System.nanoTime(), deadline = start + (long) (seconds * 1e9), count = 0;
+        for (; System.nanoTime() < deadline; count += 1000) {
+            for (int k = 0; k < 1000; ++k) {
+                int dst = Pos.pack(left + random.nextInt(right - left),
+                        top + random.nextInt(bottom - top));
+                mover.moveOrSwapPacked(random.nextInt(pieceCount), dst);
+                Solution.Progress progress = Solution.calculateProgressSlowly(positions, topology);
+                sum += progress.getGroupCount() + progress.getDisconnectionCount()
+                        + progress.getOverlapCount();
+            }
+        }
+        if (sum == 42) {
+            System.out.println();
+        }
+        return count / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * The index that {@link PiecePositionIndex} used before {@link OccupancyGrid}: a list of
+     * positions and a hash map from position to piece, which allocates a {@link Pos} per lookup.
+     */
+    private static final class HashMapPiecePositionIndex implements ReadonlyPiecePositionIndex {
+        private final ArrayList<Pos> positions;
+        private final HashMap<Pos, Integer> index = new HashMap<>();
+
+        HashMapPiecePositionIndex(PosList positions) {
+            this.positions = positions.toArrayList();
+            for (int i = 0; i < this.positions.size(); ++i) {
+                index.put(this.positions.get(i), i);
+            }
+        }
+
+        void moveOrSwapPacked(int i, int packedDst) {
+            Pos src = positions.get(i);
+            Pos dst = Pos.unpack(packedDst);
+            if (src.equals(dst)) {
+                return;
+            }
+            int j = indexOf(dst);
+            if (j < 0) {
+                index.remove(src);
+            } else {
+                positions.set(j, src);
+                index.put(src, j);
+            }
+            positions.set(i, dst);
+            index.put(dst, i);
+        }
+
+        @Override
+        public ArrayList<Pos> toArrayList() {
+            return new ArrayList<>(positions);
+        }
+
+        @Override
+        public PosList toPosList() {
+            return PosList.copyOf(positions);
+        }
+
+        @Override
+        public Rect getBoundingRect() {
+            return new PiecePositionIndex(toPosList()).getBoundingRect();
+        }
+
+        @Override
+        public int size() {
+            return positions.size();
+        }
+
+        @Override
+        public Pos get(int i) {
+            return positions.get(i);
+        }
+
+        @Override
+        public int getPacked(int i) {
+            return positions.get(i).pack();
+        }
+
+        @Override
+        public boolean contains(Pos pos) {
+            return index.containsKey(pos);
+        }
+
+        @Override
+        public boolean contains(int x, int y) {
+            return contains(new Pos(x, y));
+        }
+
+        @Override
+        public int indexOf(Pos pos) {
+            Integer value = index.get(pos);
+            return value != null ? value : -1;
+        }
+
+        @Override
+        public int indexOf(int x, int y) {
+            return indexOf(new Pos(x, y));
+        }
+
+        @Override
+        public int indexOfPacked(int packedPos) {
+            return indexOf(Pos.unpack(packedPos));
+        }
+
+        @Override
+        public long getZobristHash() {
+            return Zobrist.hash(toPosList());
+        }
+
+        @NonNull
+        @Override
+        public Iterator<Pos> iterator() {
+            return positions.iterator();
+        }
+    }
+}
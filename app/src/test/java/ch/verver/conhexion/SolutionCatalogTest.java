@@ -0,0 +1,63 @@
+package ch.verver.conhexion;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class SolutionCatalogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void buildsCatalogOfEnumeratedRectSolutions() throws IOException {
+        File solutionsFile = enumerateRectSolutions();
+        File catalogFile = new File(folder.getRoot(), "catalog");
+        assertEquals(604, BuildSolutionCatalog.build(RectPuzzle.TOPOLOGY, solutionsFile, catalogFile));
+
+        SolutionCatalog catalog = new SolutionCatalog(catalogFile, RectPuzzle.TOPOLOGY);
+        assertEquals(604, catalog.getSolutionCount());
+        assertNull(BuildSolutionCatalog.check(RectPuzzle.TOPOLOGY, catalog, 2000, new Random(1),
+                new BuildSolutionCatalog.LookupTimings()));
+        for (long k = 0; k < catalog.getSolutionCount(); ++k) {
+            assertEquals(k, catalog.indexOf(new PiecePositionIndex(catalog.getSolution(k))));
+        }
+    }
+
+    @Test
+    public void rejectsDuplicateSolutions() throws IOException {
+        PosList solution = new BacktrackingSolver(RectPuzzle.TOPOLOGY).solve();
+        try (SolutionCatalogWriter writer = new SolutionCatalogWriter(
+                RectPuzzle.TOPOLOGY, new File(folder.getRoot(), "catalog"), folder.getRoot())) {
+            writer.add(solution);
+            writer.add(solution);
+            try {
+                writer.finish();
+                fail("duplicate solutions were accepted");
+            } catch (IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+    }
+
+    private File enumerateRectSolutions() throws IOException {
+        File solutionsFile = new File(folder.getRoot(), "solutions.txt");
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            new SolutionEnumerator(RectPuzzle.TOPOLOGY, solutionsFile,
+                    new File(folder.getRoot(), "solutions.checkpoint"), 4).run(pool);
+        } finally {
+            pool.shutdown();
+        }
+        return solutionsFile;
+    }
+}
@@ -0,0 +1,113 @@
+package ch.verver.conhexion;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SolutionEnumeratorTest {
+
+    // The number of rect puzzle solutions up to translation, rotation and reflection. Backtracking
+    // finds 4804 solutions up to translation; only a few of them are symmetric.
+    private static final int RECT_SOLUTION_COUNT = 604;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ForkJoinPool pool;
+    private File outputFile;
+    private File checkpointFile;
+
+    @Before
+    public void setUp() {
+        pool = new ForkJoinPool(2);
+        outputFile = new File(folder.getRoot(), "solutions.txt");
+        checkpointFile = new File(folder.getRoot(), "solutions.checkpoint");
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void enumeratesCanonicalRectSolutions() throws IOException {
+        SolutionEnumerator enumerator = newEnumerator();
+        assertEquals(RECT_SOLUTION_COUNT, enumerator.run(pool));
+        assertEquals(enumerator.getJobCount(), enumerator.getFinishedJobCount());
+        checkOutput();
+    }
+
+    @Test
+    public void resumesCancelledRunWithoutDuplicates() throws IOException, InterruptedException {
+        SolutionEnumerator first = newEnumerator();
+        Thread canceller = new Thread(() -> {
+            while (first.getFinishedJobCount() == 0) {
+                Thread.yield();
+            }
+            first.cancel();
+        });
+        canceller.start();
+        long partialCount = first.run(pool);
+        canceller.join();
+        assertTrue(partialCount <= RECT_SOLUTION_COUNT);
+
+        assertEquals(RECT_SOLUTION_COUNT, newEnumerator().run(pool));
+        checkOutput();
+    }
+
+    @Test
+    public void discardsOutputAfterCheckpoint() throws IOException {
+        assertEquals(RECT_SOLUTION_COUNT, newEnumerator().run(pool));
+        // Simulate output that a crashed run wrote after its last checkpoint.
+        try (FileWriter writer = new FileWriter(outputFile, true)) {
+            writer.write(readLines().get(0) + "\n");
+        }
+
+        assertEquals(RECT_SOLUTION_COUNT, newEnumerator().run(pool));
+        checkOutput();
+    }
+
+    private SolutionEnumerator newEnumerator() {
+        // A small split depth gives a few hundred jobs, so the run can be cancelled in between.
+        return new SolutionEnumerator(RectPuzzle.TOPOLOGY, outputFile, checkpointFile, 4);
+    }
+
+    // Checks that the output has one line per solution class: valid, canonical, and distinct.
+    private void checkOutput() throws IOException {
+        Canonicalizer canonicalizer = new Canonicalizer(RectPuzzle.TOPOLOGY);
+        int pieceCount = RectPuzzle.TOPOLOGY.getPieceCount();
+        int[] packed = new int[pieceCount];
+        int[] canonical = new int[pieceCount];
+        List<String> lines = readLines();
+        assertEquals(RECT_SOLUTION_COUNT, lines.size());
+        HashSet<String> distinct = new HashSet<>();
+        for (String line : lines) {
+            PosList positions = StateCodec.decodePositions(line);
+            assertTrue(line, RectPuzzle.validate(positions));
+            for (int i = 0; i < pieceCount; ++i) {
+                packed[i] = positions.getPacked(i);
+            }
+            canonicalizer.canonicalizePacked(packed, canonical);
+            assertEquals(line, StateCodec.encodePositions(PosList.fromPacked(canonical, pieceCount)));
+            assertTrue(line, distinct.add(line));
+        }
+    }
+
+    private List<String> readLines() throws IOException {
+        return Files.readAllLines(outputFile.toPath(), StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,125 @@
+package ch.verver.conhexion;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Times {@link DancingLinks} (with {@link ExactCoverEncoder}) against the direct backtracking
+ * search of {@link BacktrackingSolver}. This is an optional benchmark that runs on the host JVM:
+ *
+ * <pre>
+ *   java -cp ... ch.verver.conhexion.SolverBenchmark [hex time budget in seconds]
+ * </pre>
+ *
+ * <p>The exact cover search enumerates all placements within a window, including translations and
+ * solutions with several groups, while backtracking enumerates single-group solutions up to
+ * translation. To compare the two, the benchmark counts the translations of each backtracking
+ * solution that fit in the window, which must equal the number of single-group exact covers.
+ * {@link SolverTest} checks that they do.
+ */
+public class SolverBenchmark {
+
+    private static final int[][] RECT_WINDOWS = {{5, 5}, {6, 5}, {6, 6}};
+
+    public static void main(String[] args) {
+        int hexBudgetSeconds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        for (int[] window : RECT_WINDOWS) {
+            benchmarkRect(window[0], window[1]);
+        }
+        benchmarkHex(12, 12, hexBudgetSeconds);
+    }
+
+    private static void benchmarkRect(int width, int height) {
+        long start = System.nanoTime();
+        long singleGroupCovers = countSingleGroupCovers(width, height);
+        long dlxNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long translations = countTranslationsInWindow(width, height);
+        long backtrackingNanos = System.nanoTime() - start;
+
+        System.out.printf("rect %dx%d: dlx %d single-group covers in %.1f ms; " +
+                        "backtracking %d translations in window in %.1f ms%n",
+                width, height, singleGroupCovers, dlxNanos / 1e6,
+                translations, backtrackingNanos / 1e6);
+    }
+
+    /**
+     * Returns the number of exact covers of a width x height window with the rect puzzle pieces
+     * that form a single group, found with {@link DancingLinks}.
+     */
+    static long countSingleGroupCovers(int width, int height) {
+        GridTopology<?> topology = RectPuzzle.TOPOLOGY;
+        int pieceCount = topology.getPieceCount();
+        ExactCoverEncoder encoder = ExactCoverEncoder.forRectPuzzle(width, height);
+        int[] positions = new int[pieceCount];
+        BitboardEvaluator evaluator = new BitboardEvaluator(topology);
+        long[] singleGroup = {0};
+        encoder.getLinks().search((rows, count) -> {
+            encoder.decode(rows, count, positions);
+            if (evaluator.loadPacked(positions, pieceCount) && evaluator.isSolved()) {
+                ++singleGroup[0];
+            }
+            return true;
+        });
+        return singleGroup[0];
+    }
+
+    /**
+     * Returns the number of ways to place a rect puzzle solution, found with
+     * {@link BacktrackingSolver}, in a width x height window: the sum over all solutions of the
+     * number of translations that fit.
+     */
+    static long countTranslationsInWindow(int width, int height) {
+        long[] translations = {0};
+        new BacktrackingSolver(RectPuzzle.TOPOLOGY).search(packedPositions -> {
+            int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE;
+            int right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+            for (int pos : packedPositions) {
+                left = Math.min(left, Pos.unpackX(pos));
+                top = Math.min(top, Pos.unpackY(pos));
+                right = Math.max(right, Pos.unpackX(pos) + 1);
+                bottom = Math.max(bottom, Pos.unpackY(pos) + 1);
+            }
+            int slackX = width - (right - left), slackY = height - (bottom - top);
+            if (slackX >= 0 && slackY >= 0) {
+                translations[0] += (long) (slackX + 1) * (slackY + 1);
+            }
+            return true;
+        });
+        return translations[0];
+    }
+
+    private static void benchmarkHex(int width, int height, int budgetSeconds) {
+        GridTopology<?> topology = HexPuzzle.TOPOLOGY;
+        int pieceCount = topology.getPieceCount();
+
+        long start = System.nanoTime();
+        boolean found = new BacktrackingSolver(topology).solve() != null;
+        System.out.printf("hex: backtracking first solution %s in %.1f ms%n",
+                found ? "found" : "not found", (System.nanoTime() - start) / 1e6);
+
+        start = System.nanoTime();
+        ExactCoverEncoder encoder = ExactCoverEncoder.forHexPuzzle(width, height);
+        Timer timer = new Timer(true);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                encoder.getLinks().cancel();
+            }
+        }, budgetSeconds * 1000L);
+        int[] positions = new int[pieceCount];
+        BitboardEvaluator evaluator = new BitboardEvaluator(topology);
+        boolean[] solved = {false};
+        long covers = encoder.getLinks().search((rows, count) -> {
+            encoder.decode(rows, count, positions);
+            solved[0] = evaluator.loadPacked(positions, pieceCount) && evaluator.isSolved();
+            return !solved[0];
+        });
+        timer.cancel();
+        System.out.printf("hex %dx%d: dlx first single-group solution %s after %d covers in %.1f ms " +
+                        "(budget %d s)%n",
+                width, height, solved[0] ? "found" : "not found", covers,
+                (System.nanoTime() - start) / 1e6, budgetSeconds);
+    }
+}
@@ -0,0 +1,65 @@
+package ch.verver.conhexion;
+
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the solvers against each other. See {@link SolverBenchmark} for timings.
+ */
+public class SolverTest {
+
+    // Every single-group exact cover of a window is a translation of exactly one backtracking
+    // solution, so the counts must be equal.
+    @Test
+    public void rectExactCoversMatchBacktracking5x5() {
+        assertEquals(SolverBenchmark.countSingleGroupCovers(5, 5),
+                SolverBenchmark.countTranslationsInWindow(5, 5));
+    }
+
+    @Test
+    public void rectExactCoversMatchBacktracking6x5() {
+        assertEquals(SolverBenchmark.countSingleGroupCovers(6, 5),
+                SolverBenchmark.countTranslationsInWindow(6, 5));
+    }
+
+    @Test
+    public void rectExactCoversMatchBacktracking6x6() {
+        assertEquals(SolverBenchmark.countSingleGroupCovers(6, 6),
+                SolverBenchmark.countTranslationsInWindow(6, 6));
+    }
+
+    // The hex solution must be found well under a second. It takes about 200-250 ms on a desktop
+    // JVM, including JIT warm-up (see SolverBenchmark); a pruning regression would take minutes.
+    private static final long MAX_HEX_SOLVE_MILLIS = 1000;
+
+    @Test
+    public void solutionsAreValid() {
+        PosList rect = new BacktrackingSolver(RectPuzzle.TOPOLOGY).solve();
+        assertTrue(RectPuzzle.validate(rect));
+        assertTrue(Solution.calculateProgress(rect, RectPuzzle.TOPOLOGY).isSolved());
+
+        long start = System.nanoTime();
+        PosList hex = new BacktrackingSolver(HexPuzzle.TOPOLOGY).solve();
+        long millis = (System.nanoTime() - start) / 1000000;
+        assertTrue(HexPuzzle.validate(hex));
+        assertTrue(Solution.calculateProgress(hex, HexPuzzle.TOPOLOGY).isSolved());
+        assertTrue("hex solve took " + millis + " ms", millis < MAX_HEX_SOLVE_MILLIS);
+    }
+
+    @Test
+    public void parallelSearchFindsAllSolutions() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            long expected = new BacktrackingSolver(RectPuzzle.TOPOLOGY).search(positions -> true);
+            ParallelSolver solver = new ParallelSolver(RectPuzzle.TOPOLOGY, pool);
+            assertEquals(expected, solver.search(positions -> true));
+            assertTrue(RectPuzzle.validate(solver.solve()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+}